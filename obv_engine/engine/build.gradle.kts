@@ -14,6 +14,13 @@ android {
         sourceCompatibility = JavaVersion.VERSION_17
         targetCompatibility = JavaVersion.VERSION_17
     }
+
+    testOptions {
+        unitTests.all {
+            // benchmarks (*Benchmark test classes) are skipped unless run with -Polvid.benchmark=true
+            it.systemProperty("olvid.benchmark", project.findProperty("olvid.benchmark") ?: "false")
+        }
+    }
 }
 
 dependencies {
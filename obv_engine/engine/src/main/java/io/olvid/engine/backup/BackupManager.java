@@ -215,9 +215,10 @@ public class BackupManager implements BackupDelegate, BackupV2Delegate, BackupMa
     }
 
     public void setDelegate(NotificationListeningDelegate notificationListeningDelegate) {
-        notificationListeningDelegate.addListener(IdentityNotifications.NOTIFICATION_DATABASE_CONTENT_CHANGED, this);
-        notificationListeningDelegate.addListener(BackupNotifications.NOTIFICATION_DEVICE_BACKUP_NEEDED, this);
-        notificationListeningDelegate.addListener(BackupNotifications.NOTIFICATION_PROFILE_BACKUP_NEEDED, this);
+        // these notifications are posted from commit hooks, and the callback may access the database: do not run it on the posting thread
+        notificationListeningDelegate.addAsyncListener(IdentityNotifications.NOTIFICATION_DATABASE_CONTENT_CHANGED, this);
+        notificationListeningDelegate.addAsyncListener(BackupNotifications.NOTIFICATION_DEVICE_BACKUP_NEEDED, this);
+        notificationListeningDelegate.addAsyncListener(BackupNotifications.NOTIFICATION_PROFILE_BACKUP_NEEDED, this);
     }
 
     @Override
@@ -23,6 +23,7 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Types;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -48,6 +49,10 @@ public class ProfileBackupThreadId implements ObvDatabase {
     static final String THREAD_ID = "thread_id";
     private long nextBackupTimestamp;
     static final String NEXT_BACKUP_TIMESTAMP = "next_backup_timestamp";
+    private Long lastUploadedVersion; // null if nothing was uploaded from this device yet
+    static final String LAST_UPLOADED_VERSION = "last_uploaded_version";
+    private byte[] lastUploadedDigest; // digest of the content of the last uploaded snapshot (see ObvProfileBackupSnapshot.computeContentDigest())
+    static final String LAST_UPLOADED_DIGEST = "last_uploaded_digest";
 
     public Identity getOwnedIdentity() {
         return ownedIdentity;
@@ -61,6 +66,14 @@ public class ProfileBackupThreadId implements ObvDatabase {
         return nextBackupTimestamp;
     }
 
+    public Long getLastUploadedVersion() {
+        return lastUploadedVersion;
+    }
+
+    public byte[] getLastUploadedDigest() {
+        return lastUploadedDigest;
+    }
+
     // region constructors
 
     public static ProfileBackupThreadId create(BackupManagerSession backupManagerSession, Identity ownedIdentity, PRNG prng) {
@@ -82,6 +95,8 @@ public class ProfileBackupThreadId implements ObvDatabase {
         this.ownedIdentity = ownedIdentity;
         this.threadId = threadId;
         this.nextBackupTimestamp = 0;
+        this.lastUploadedVersion = null;
+        this.lastUploadedDigest = null;
     }
 
 
@@ -95,6 +110,11 @@ public class ProfileBackupThreadId implements ObvDatabase {
         }
         this.threadId = new UID(res.getBytes(THREAD_ID));
         this.nextBackupTimestamp = res.getLong(NEXT_BACKUP_TIMESTAMP);
+        this.lastUploadedVersion = res.getLong(LAST_UPLOADED_VERSION);
+        if (res.wasNull()) {
+            this.lastUploadedVersion = null;
+        }
+        this.lastUploadedDigest = res.getBytes(LAST_UPLOADED_DIGEST);
     }
 
     // endregion
@@ -106,7 +126,9 @@ public class ProfileBackupThreadId implements ObvDatabase {
             statement.execute("CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " (" +
                     OWNED_IDENTITY + " BLOB PRIMARY KEY, " +
                     THREAD_ID + " BLOB NOT NULL, " +
-                    NEXT_BACKUP_TIMESTAMP + " BIGINT NOT NULL " +
+                    NEXT_BACKUP_TIMESTAMP + " BIGINT NOT NULL, " +
+                    LAST_UPLOADED_VERSION + " BIGINT DEFAULT NULL, " +
+                    LAST_UPLOADED_DIGEST + " BLOB DEFAULT NULL " +
                     ");"
             );
         }
@@ -124,15 +146,29 @@ public class ProfileBackupThreadId implements ObvDatabase {
             }
             oldVersion = 44;
         }
+        if (oldVersion < 54 && newVersion >= 54) {
+            Logger.d("MIGRATING `profile_backup_thread_id` DATABASE FROM VERSION " + oldVersion + " TO 54");
+            try (Statement statement = session.createStatement()) {
+                statement.execute("ALTER TABLE profile_backup_thread_id ADD COLUMN last_uploaded_version BIGINT DEFAULT NULL;");
+                statement.execute("ALTER TABLE profile_backup_thread_id ADD COLUMN last_uploaded_digest BLOB DEFAULT NULL;");
+            }
+            oldVersion = 54;
+        }
     }
 
     @Override
     public void insert() throws SQLException {
         try (PreparedStatement statement = backupManagerSession.session.prepareStatement("ProfileBackupThreadId.insert",
-                "INSERT INTO " + TABLE_NAME + " VALUES (?,?,?);")) {
+                "INSERT INTO " + TABLE_NAME + " VALUES (?,?,?,?,?);")) {
             statement.setBytes(1, ownedIdentity.getBytes());
             statement.setBytes(2, threadId.getBytes());
             statement.setLong(3, nextBackupTimestamp);
+            if (lastUploadedVersion == null) {
+                statement.setNull(4, Types.BIGINT);
+            } else {
+                statement.setLong(4, lastUploadedVersion);
+            }
+            statement.setBytes(5, lastUploadedDigest);
             statement.executeUpdate();
         }
     }
@@ -162,6 +198,21 @@ public class ProfileBackupThreadId implements ObvDatabase {
         }
     }
 
+    public void setLastUpload(long lastUploadedVersion, byte[] lastUploadedDigest) throws SQLException {
+        try (PreparedStatement statement = backupManagerSession.session.prepareStatement("ProfileBackupThreadId.setLastUpload",
+                "UPDATE " + TABLE_NAME +
+                " SET " + LAST_UPLOADED_VERSION + " = ?, " +
+                LAST_UPLOADED_DIGEST + " = ? " +
+                " WHERE " + OWNED_IDENTITY + " = ?;")) {
+            statement.setLong(1, lastUploadedVersion);
+            statement.setBytes(2, lastUploadedDigest);
+            statement.setBytes(3, ownedIdentity.getBytes());
+            statement.executeUpdate();
+            this.lastUploadedVersion = lastUploadedVersion;
+            this.lastUploadedDigest = lastUploadedDigest;
+        }
+    }
+
     // endregion
 
     // region getters
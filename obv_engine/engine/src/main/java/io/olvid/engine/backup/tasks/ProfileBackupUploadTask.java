@@ -21,6 +21,8 @@ package io.olvid.engine.backup.tasks;
 
 
 import java.security.InvalidKeyException;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Objects;
 
@@ -37,6 +39,7 @@ import io.olvid.engine.crypto.Signature;
 import io.olvid.engine.crypto.Suite;
 import io.olvid.engine.datatypes.BackupSeed;
 import io.olvid.engine.datatypes.Constants;
+import io.olvid.engine.datatypes.DictionaryKey;
 import io.olvid.engine.datatypes.EncryptedBytes;
 import io.olvid.engine.datatypes.Identity;
 import io.olvid.engine.datatypes.OperationQueue;
@@ -154,8 +157,7 @@ public class ProfileBackupUploadTask {
 
 
             /////////
-            // 3. increment version number and upload a new profile backup
-            version++;
+            // 3. create a snapshot, and upload it with an incremented version number if it changed
 
             // 3.1 create the snapshot
             ObvProfileBackupSnapshot profileBackupSnapshot;
@@ -170,12 +172,25 @@ public class ProfileBackupUploadTask {
                 backupManagerSession.session.rollback();
             }
 
-            // 3.2 encode and encrypt and compute signature
+            // 3.2 encode and skip the upload if the server already has this exact content
+            HashMap<DictionaryKey, Encoded> encodedSnapshot = profileBackupSnapshot.toEncodedDictionary(backupManagerSession.identityDelegate.getSyncDelegate(), backupManagerSession.appBackupAndSyncDelegate);
+            if (encodedSnapshot == null) {
+                return BackupTaskStatus.RETRIABLE_FAILURE;
+            }
+            byte[] contentDigest = ObvProfileBackupSnapshot.computeContentDigest(encodedSnapshot);
+            if (Objects.equals(version, profileBackupThreadId.getLastUploadedVersion()) && Arrays.equals(contentDigest, profileBackupThreadId.getLastUploadedDigest())) {
+                Logger.d("ProfileBackupUploadTask: profile snapshot unchanged since last upload, skipping upload");
+                return BackupTaskStatus.SUCCESS;
+            }
+
+            version++;
+
+            // 3.3 encrypt and compute signature
             EncryptedBytes encryptedBackup;
             byte[] signature;
             {
                 // encode
-                Encoded plaintextContent = Encoded.of(profileBackupSnapshot.toEncodedDictionary(backupManagerSession.identityDelegate.getSyncDelegate(), backupManagerSession.appBackupAndSyncDelegate));
+                Encoded plaintextContent = Encoded.of(encodedSnapshot);
 
                 // add a padding to obfuscate content length
                 byte[] paddedPlaintext = new byte[((plaintextContent.getBytes().length - 1) | 511) + 1];
@@ -206,7 +221,7 @@ public class ProfileBackupUploadTask {
                 );
             }
 
-            // 3.3 upload the snapshot to the server
+            // 3.4 upload the snapshot to the server
             standaloneServerQueryOperation = new StandaloneServerQueryOperation(new ServerQuery(null, null, new ServerQuery.BackupsV2UploadBackupQuery(server, derivedKeysV2.backupKeyUid, profileBackupThreadId.getThreadId(), version, encryptedBackup, signature)), sslSocketFactory, userAgentOverride);
             queue = new OperationQueue();
             queue.queue(standaloneServerQueryOperation);
@@ -218,6 +233,17 @@ public class ProfileBackupUploadTask {
                 return BackupTaskStatus.RETRIABLE_FAILURE;
             }
 
+            // 3.5 remember what was uploaded, for the next upload
+            try {
+                backupManagerSession.session.startTransaction();
+                profileBackupThreadId.setLastUpload(version, contentDigest);
+                backupManagerSession.session.commit();
+            } catch (Exception e) {
+                // the upload succeeded, at worst the next upload will not be skipped
+                Logger.x(e);
+                backupManagerSession.session.rollback();
+            }
+
             return BackupTaskStatus.SUCCESS;
         } catch (Exception e) {
             Logger.x(e);
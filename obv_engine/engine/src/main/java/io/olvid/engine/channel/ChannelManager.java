@@ -35,6 +35,7 @@ import io.olvid.engine.channel.coordinators.ChannelCoordinator;
 import io.olvid.engine.channel.databases.ObliviousChannel;
 import io.olvid.engine.channel.databases.Provision;
 import io.olvid.engine.channel.databases.ProvisionedKeyMaterial;
+import io.olvid.engine.channel.databases.ProvisionedKeyMaterialIndex;
 import io.olvid.engine.channel.datatypes.Channel;
 import io.olvid.engine.channel.datatypes.ChannelManagerSession;
 import io.olvid.engine.channel.datatypes.ChannelManagerSessionFactory;
@@ -48,6 +49,7 @@ import io.olvid.engine.datatypes.containers.ChannelMessageToSend;
 import io.olvid.engine.datatypes.containers.NetworkReceivedMessage;
 import io.olvid.engine.datatypes.containers.OwnedDeviceAndPreKey;
 import io.olvid.engine.datatypes.containers.UidAndPreKey;
+import io.olvid.engine.engine.types.EngineCacheStatisticsEntry;
 import io.olvid.engine.metamanager.ChannelDelegate;
 import io.olvid.engine.metamanager.CreateSessionDelegate;
 import io.olvid.engine.metamanager.EncryptionForIdentityDelegate;
@@ -65,6 +67,7 @@ import io.olvid.engine.protocol.datatypes.ProtocolStarterDelegate;
 
 public class ChannelManager implements ChannelDelegate, ProcessDownloadedMessageDelegate, ChannelManagerSessionFactory, ObvManager {
     private final ChannelCoordinator channelCoordinator;
+    private final ProvisionedKeyMaterialIndex provisionedKeyMaterialIndex;
 
 
     private CreateSessionDelegate createSessionDelegate;
@@ -80,6 +83,7 @@ public class ChannelManager implements ChannelDelegate, ProcessDownloadedMessage
 
     public ChannelManager(MetaManager metaManager) {
         this.channelCoordinator = new ChannelCoordinator(this);
+        this.provisionedKeyMaterialIndex = new ProvisionedKeyMaterialIndex();
 
         metaManager.requestDelegate(this, CreateSessionDelegate.class);
         metaManager.requestDelegate(this, FullRatchetProtocolStarterDelegate.class);
@@ -279,6 +283,11 @@ public class ChannelManager implements ChannelDelegate, ProcessDownloadedMessage
         }
         channelCoordinator.decryptAndProcess(networkReceivedMessage);
     }
+
+    @Override
+    public void processDownloadedMessages(List<NetworkReceivedMessage> networkReceivedMessages) {
+        channelCoordinator.decryptAndProcess(networkReceivedMessages);
+    }
     // endregion
 
     // region Implementing ChannelDelegate
@@ -439,17 +448,21 @@ public class ChannelManager implements ChannelDelegate, ProcessDownloadedMessage
 
     // endregion
 
+    public EngineCacheStatisticsEntry getProvisionedKeyMaterialIndexStatistics() {
+        return provisionedKeyMaterialIndex.getStatistics();
+    }
+
     // region Implementing ChannelManagerSessionFactory methods
     @Override
     public ChannelManagerSession getSession() throws SQLException {
         if (createSessionDelegate == null) {
             throw new SQLException("No CreateSessionDelegate was set in ChannelManager.");
         }
-        return new ChannelManagerSession(createSessionDelegate.getSession(), fullRatchetProtocolStarterDelegate, networkFetchDelegate, networkSendDelegate, protocolDelegate, encryptionForIdentityDelegate, preKeyEncryptionDelegate, identityDelegate, notificationPostingDelegate, protocolStarterDelegate);
+        return new ChannelManagerSession(createSessionDelegate.getSession(), fullRatchetProtocolStarterDelegate, networkFetchDelegate, networkSendDelegate, protocolDelegate, encryptionForIdentityDelegate, preKeyEncryptionDelegate, identityDelegate, notificationPostingDelegate, protocolStarterDelegate, provisionedKeyMaterialIndex);
     }
 
     private ChannelManagerSession wrapSession(Session session) {
-        return new ChannelManagerSession(session, fullRatchetProtocolStarterDelegate, networkFetchDelegate, networkSendDelegate, protocolDelegate, encryptionForIdentityDelegate, preKeyEncryptionDelegate, identityDelegate, notificationPostingDelegate, protocolStarterDelegate);
+        return new ChannelManagerSession(session, fullRatchetProtocolStarterDelegate, networkFetchDelegate, networkSendDelegate, protocolDelegate, encryptionForIdentityDelegate, preKeyEncryptionDelegate, identityDelegate, notificationPostingDelegate, protocolStarterDelegate, provisionedKeyMaterialIndex);
     }
     // endregion
 
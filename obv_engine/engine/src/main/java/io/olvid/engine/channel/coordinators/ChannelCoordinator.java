@@ -21,7 +21,9 @@ package io.olvid.engine.channel.coordinators;
 
 
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.EnumSet;
+import java.util.List;
 import java.util.Objects;
 
 import io.olvid.engine.Logger;
@@ -41,6 +43,9 @@ import io.olvid.engine.datatypes.containers.ReceptionChannelInfo;
 import io.olvid.engine.engine.types.identities.ObvContactActiveOrInactiveReason;
 
 public class ChannelCoordinator {
+    // maximum number of messages decrypted in a single transaction, the globalWriteLock is held during the whole batch
+    static final int DECRYPTION_BATCH_SIZE = 32;
+
     private final ChannelManagerSessionFactory channelManagerSessionFactory;
 
 
@@ -96,6 +101,81 @@ public class ChannelCoordinator {
 
 
 
+    // Decrypts and processes the messages of a listing in batches of DECRYPTION_BATCH_SIZE, with a single transaction per batch.
+    // If anything fails within a batch, it is rolled back and its messages are processed one by one.
+    public void decryptAndProcess(List<NetworkReceivedMessage> networkReceivedMessages) {
+        for (int i=0; i<networkReceivedMessages.size(); i+=DECRYPTION_BATCH_SIZE) {
+            List<NetworkReceivedMessage> batch = networkReceivedMessages.subList(i, Math.min(i + DECRYPTION_BATCH_SIZE, networkReceivedMessages.size()));
+            if (batch.size() == 1 || !decryptAndProcessBatch(batch)) {
+                for (NetworkReceivedMessage networkReceivedMessage : batch) {
+                    decryptAndProcess(networkReceivedMessage);
+                }
+            }
+        }
+    }
+
+    private boolean decryptAndProcessBatch(List<NetworkReceivedMessage> batch) {
+        try (ChannelManagerSession channelManagerSession = channelManagerSessionFactory.getSession()) {
+            try {
+                channelManagerSession.session.startTransaction();
+
+                // first unwrap all ObliviousChannel message keys, then update the provisions once, and retry the messages
+                // which may require newly provisioned keys
+                ObliviousChannel.MessageKeyUnwrapper unwrapper = new ObliviousChannel.MessageKeyUnwrapper(channelManagerSession);
+                List<NetworkReceivedMessage> remainingMessages = batch;
+                do {
+                    List<NetworkReceivedMessage> notUnwrappedMessages = new ArrayList<>();
+                    for (NetworkReceivedMessage networkReceivedMessage : remainingMessages) {
+                        AuthEncKeyAndChannelInfo authEncKeyAndChannelInfo = unwrapper.unwrap(networkReceivedMessage.getHeader());
+                        if (authEncKeyAndChannelInfo != null) {
+                            Logger.d("The message can be decrypted through an ObliviousChannel.");
+                            decryptAndProcess(channelManagerSession, networkReceivedMessage, authEncKeyAndChannelInfo);
+                        } else {
+                            notUnwrappedMessages.add(networkReceivedMessage);
+                        }
+                    }
+                    remainingMessages = notUnwrappedMessages;
+                } while (unwrapper.updateProvisions() && !remainingMessages.isEmpty());
+
+                for (NetworkReceivedMessage networkReceivedMessage : remainingMessages) {
+                    // try to decrypt with a PreKey
+                    AuthEncKeyAndChannelInfo authEncKeyAndChannelInfo = PreKeyChannel.unwrapMessageKey(channelManagerSession, networkReceivedMessage.getHeader());
+                    if (authEncKeyAndChannelInfo != null) {
+                        Logger.d("The message can be decrypted with a PreKey. ");
+                        decryptAndProcess(channelManagerSession, networkReceivedMessage, authEncKeyAndChannelInfo);
+                        continue;
+                    }
+
+                    // try to decrypt with an AsymmetricChannel
+                    authEncKeyAndChannelInfo = AsymmetricChannel.unwrapMessageKey(channelManagerSession, networkReceivedMessage.getHeader());
+                    if (authEncKeyAndChannelInfo != null) {
+                        Logger.d("The message can be decrypted through an AsymmetricChannel.");
+                        decryptAndProcess(channelManagerSession, networkReceivedMessage, authEncKeyAndChannelInfo);
+                        continue;
+                    }
+
+                    // we were not able to decrypt the message -> we delete it
+                    if (channelManagerSession.networkFetchDelegate != null) {
+                        Logger.d("The message cannot be decrypted.");
+                        channelManagerSession.networkFetchDelegate.messageCannotBeDecrypted(channelManagerSession.session, networkReceivedMessage.getOwnedIdentity(), networkReceivedMessage.getMessageUid());
+                    } else {
+                        Logger.w("Unable to delete a networkReceivedMessage because the NetworkFetchDelegate is not set yet.");
+                    }
+                }
+                channelManagerSession.session.commit();
+                return true;
+            } catch (Exception e) {
+                Logger.i("Unable to decryptAndProcess a batch of " + batch.size() + " networkReceivedMessages, processing them individually");
+                Logger.x(e);
+                channelManagerSession.session.rollback();
+                return false;
+            }
+        } catch (SQLException e) {
+            Logger.x(e);
+            return false;
+        }
+    }
+
     private void decryptAndProcess(ChannelManagerSession channelManagerSession, NetworkReceivedMessage networkReceivedMessage, AuthEncKeyAndChannelInfo authEncKeyAndChannelInfo) {
         if (channelManagerSession.networkFetchDelegate == null) {
             return;
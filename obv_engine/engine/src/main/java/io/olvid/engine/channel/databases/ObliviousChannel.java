@@ -518,6 +518,10 @@ public class ObliviousChannel extends NetworkChannel implements ObvDatabase {
             }
             statement.executeUpdate();
             channelManagerSession.session.addSessionCommitListener(() -> {
+                for (UID remoteDeviceUid : remoteDeviceUids) {
+                    channelManagerSession.provisionedKeyMaterialIndex.channelDeleted(currentDeviceUid, remoteDeviceUid, remoteIdentity);
+                }
+
                 HashMap<String, Object> userInfo = new HashMap<>();
                 userInfo.put(ChannelNotifications.NOTIFICATION_OBLIVIOUS_CHANNEL_DELETED_CURRENT_DEVICE_UID_KEY, currentDeviceUid);
                 userInfo.put(ChannelNotifications.NOTIFICATION_OBLIVIOUS_CHANNEL_DELETED_REMOTE_IDENTITY_KEY, remoteIdentity);
@@ -584,6 +588,8 @@ public class ObliviousChannel extends NetworkChannel implements ObvDatabase {
             channelManagerSession.notificationPostingDelegate.postNotification(ChannelNotifications.NOTIFICATION_OBLIVIOUS_CHANNEL_CONFIRMED, userInfo);
         }
         if ((commitHookBits & HOOK_BIT_CHANNEL_DELETED) != 0) {
+            channelManagerSession.provisionedKeyMaterialIndex.channelDeleted(currentDeviceUid, remoteDeviceUid, remoteIdentity);
+
             HashMap<String, Object> userInfo = new HashMap<>();
             userInfo.put(ChannelNotifications.NOTIFICATION_OBLIVIOUS_CHANNEL_DELETED_CURRENT_DEVICE_UID_KEY, currentDeviceUid);
             userInfo.put(ChannelNotifications.NOTIFICATION_OBLIVIOUS_CHANNEL_DELETED_REMOTE_IDENTITY_KEY, remoteIdentity);
@@ -772,17 +778,17 @@ public class ObliviousChannel extends NetworkChannel implements ObvDatabase {
             return null;
         }
         AuthEnc authEnc = Suite.getAuthEnc(ratchetingOutput.getAuthEncKey());
-        EncryptedBytes encryptedMessageKey;
+        byte[] encodedMessageKey = Encoded.of(messageKey).getBytes();
 
+        // encrypt the message key directly after the key id in the header
+        byte[] headerBytes = new byte[KeyId.KEYID_LENGTH + authEnc.ciphertextLengthFromPlaintextLength(encodedMessageKey.length)];
+        System.arraycopy(ratchetingOutput.getKeyId().getBytes(), 0, headerBytes, 0, KeyId.KEYID_LENGTH);
         try {
-            encryptedMessageKey = authEnc.encrypt(ratchetingOutput.getAuthEncKey(), Encoded.of(messageKey).getBytes(), prng);
+            authEnc.encrypt(ratchetingOutput.getAuthEncKey(), encodedMessageKey, 0, encodedMessageKey.length, headerBytes, KeyId.KEYID_LENGTH, prng);
         } catch (InvalidKeyException e) {
             Logger.x(e);
             return null;
         }
-        byte[] headerBytes = new byte[KeyId.KEYID_LENGTH + encryptedMessageKey.length];
-        System.arraycopy(ratchetingOutput.getKeyId().getBytes(), 0, headerBytes, 0, KeyId.KEYID_LENGTH);
-        System.arraycopy(encryptedMessageKey.getBytes(), 0, headerBytes, KeyId.KEYID_LENGTH, encryptedMessageKey.length);
 
         MessageToSend.Header header = new MessageToSend.Header(remoteDeviceUid, remoteIdentity, new EncryptedBytes(headerBytes));
         try (PreparedStatement statement = channelManagerSession.session.prepareStatement("ObliviousChannel.wrapMessageKey",
@@ -812,56 +818,182 @@ public class ObliviousChannel extends NetworkChannel implements ObvDatabase {
     }
 
     public static AuthEncKeyAndChannelInfo unwrapMessageKey(ChannelManagerSession channelManagerSession, NetworkReceivedMessage.Header header) {
-        byte[] bytes = header.getWrappedKey().getBytes();
-        if (bytes.length < KeyId.KEYID_LENGTH) {
-            return null;
+        MessageKeyUnwrapper unwrapper = new MessageKeyUnwrapper(channelManagerSession);
+        AuthEncKeyAndChannelInfo authEncKeyAndChannelInfo = unwrapper.unwrap(header);
+        unwrapper.updateProvisions();
+        return authEncKeyAndChannelInfo;
+    }
+
+    // Unwraps the message keys of several messages within a single transaction:
+    //  - candidate keys come from the ProvisionedKeyMaterialIndex, database lookups are only a fallback and are cached by KeyId
+    //  - current device UIDs are cached
+    //  - the expiration of older provisioned keys and the self-ratchet of provisions are only done once per provision,
+    //    in updateProvisions(), which must be called before committing
+    // As a self-ratchet may provision the keys required by a message which could not be unwrapped, unwrap should be
+    // called again for these messages after updateProvisions() returned true.
+    public static class MessageKeyUnwrapper {
+        private final ChannelManagerSession channelManagerSession;
+        private final HashMap<Identity, UID> currentDeviceUids;
+        private final HashMap<UID, HashMap<KeyId, List<ProvisionedKeyMaterial>>> provisionedKeysCache; // current device UID -> KeyId -> keys
+        private final HashMap<ProvisionKey, ProvisionedKeyMaterial> latestUsedProvisionedKeys;
+        private byte[] decryptedMessageKey; // reused for each provisioned key
+
+        public MessageKeyUnwrapper(ChannelManagerSession channelManagerSession) {
+            this.channelManagerSession = channelManagerSession;
+            this.currentDeviceUids = new HashMap<>();
+            this.provisionedKeysCache = new HashMap<>();
+            this.latestUsedProvisionedKeys = new HashMap<>();
+            this.decryptedMessageKey = null;
+        }
+
+        public AuthEncKeyAndChannelInfo unwrap(NetworkReceivedMessage.Header header) {
+            byte[] bytes = header.getWrappedKey().getBytes();
+            if (bytes.length < KeyId.KEYID_LENGTH) {
+                return null;
+            }
+            KeyId keyId = new KeyId(Arrays.copyOfRange(bytes, 0, KeyId.KEYID_LENGTH));
+            // the message key is decrypted directly from the header bytes
+            int encryptedMessageKeyLength = bytes.length - KeyId.KEYID_LENGTH;
+            UID deviceUid = currentDeviceUids.get(header.getOwnedIdentity());
+            if (deviceUid == null) {
+                try {
+                    deviceUid = channelManagerSession.identityDelegate.getCurrentDeviceUidOfOwnedIdentity(channelManagerSession.session, header.getOwnedIdentity());
+                } catch (SQLException e) {
+                    Logger.e("Error retrieving a currentDeviceUid -> a received message might have been lost...");
+                    Logger.x(e);
+                    return null;
+                }
+                if (deviceUid == null) {
+                    return null;
+                }
+                currentDeviceUids.put(header.getOwnedIdentity(), deviceUid);
+            }
+            // first look for candidate keys in the in-memory index, then in the database
+            ProvisionedKeyMaterial[] indexedProvisionedKeys = channelManagerSession.provisionedKeyMaterialIndex.getCandidates(channelManagerSession, keyId, deviceUid);
+            if (indexedProvisionedKeys != null) {
+                AuthEncKeyAndChannelInfo authEncKeyAndChannelInfo = unwrapWithProvisionedKeys(Arrays.asList(indexedProvisionedKeys), bytes, encryptedMessageKeyLength);
+                channelManagerSession.provisionedKeyMaterialIndex.registerLookup(authEncKeyAndChannelInfo != null);
+                if (authEncKeyAndChannelInfo != null) {
+                    return authEncKeyAndChannelInfo;
+                }
+            }
+
+            HashMap<KeyId, List<ProvisionedKeyMaterial>> deviceProvisionedKeys = provisionedKeysCache.get(deviceUid);
+            if (deviceProvisionedKeys == null) {
+                deviceProvisionedKeys = new HashMap<>();
+                provisionedKeysCache.put(deviceUid, deviceProvisionedKeys);
+            }
+            List<ProvisionedKeyMaterial> provisionedKeys = deviceProvisionedKeys.get(keyId);
+            if (provisionedKeys == null) {
+                provisionedKeys = Arrays.asList(ProvisionedKeyMaterial.getAll(channelManagerSession, keyId, deviceUid));
+                deviceProvisionedKeys.put(keyId, provisionedKeys);
+            }
+            return unwrapWithProvisionedKeys(provisionedKeys, bytes, encryptedMessageKeyLength);
         }
-        KeyId keyId = new KeyId(Arrays.copyOfRange(bytes, 0, KeyId.KEYID_LENGTH));
-        EncryptedBytes encryptedMessageKey = new EncryptedBytes(Arrays.copyOfRange(bytes, KeyId.KEYID_LENGTH, bytes.length));
-        UID deviceUid;
-        try {
-            deviceUid = channelManagerSession.identityDelegate.getCurrentDeviceUidOfOwnedIdentity(channelManagerSession.session, header.getOwnedIdentity());
-        } catch (SQLException e) {
-            Logger.e("Error retrieving a currentDeviceUid -> a received message might have been lost...");
-            Logger.x(e);
+
+        private AuthEncKeyAndChannelInfo unwrapWithProvisionedKeys(List<ProvisionedKeyMaterial> provisionedKeys, byte[] bytes, int encryptedMessageKeyLength) {
+            for (ProvisionedKeyMaterial provisionedKey: provisionedKeys) {
+                try {
+                    AuthEnc authEnc = Suite.getAuthEnc(provisionedKey.getAuthEncKey());
+                    int plaintextLength = Math.max(0, authEnc.plaintextLengthFromCiphertextLength(encryptedMessageKeyLength));
+                    if (decryptedMessageKey == null || decryptedMessageKey.length < plaintextLength) {
+                        decryptedMessageKey = new byte[plaintextLength];
+                    }
+                    int decryptedLength = authEnc.decrypt(provisionedKey.getAuthEncKey(), bytes, KeyId.KEYID_LENGTH, encryptedMessageKeyLength, decryptedMessageKey, 0);
+                    Encoded encodedMessageKey = Encoded.fromLongerByteArray(decryptedMessageKey, 0);
+                    if (encodedMessageKey.getLength() != decryptedLength) {
+                        continue;
+                    }
+                    AuthEncKey messageKey = (AuthEncKey) encodedMessageKey.decodeSymmetricKey();
+                    ObliviousChannel obliviousChannel = provisionedKey.getObliviousChannel();
+                    if (obliviousChannel == null) {
+                        Logger.w("While unwrapping a message key, a provision was found without a corresponding channel.");
+                        continue;
+                    }
+
+                    // a key can only be used once: if it was already deleted (by a previous message of this batch, or
+                    // because the index entry is stale), it must be ignored
+                    try {
+                        if (!provisionedKey.deleteIfUnchanged()) {
+                            continue;
+                        }
+                    } catch (SQLException e) {
+                        Logger.x(e);
+                        continue;
+                    }
+
+                    ////////////////
+                    // From this point, we have modified the database and must not return null
+                    ////////////////
+
+                    ProvisionKey provisionKey = new ProvisionKey(provisionedKey);
+                    ProvisionedKeyMaterial latestUsedProvisionedKey = latestUsedProvisionedKeys.get(provisionKey);
+                    if (latestUsedProvisionedKey == null || latestUsedProvisionedKey.getSelfRatchetingCount() < provisionedKey.getSelfRatchetingCount()) {
+                        latestUsedProvisionedKeys.put(provisionKey, provisionedKey);
+                    }
+
+                    try {
+                        if (!obliviousChannel.confirmed) {
+                            obliviousChannel.confirm();
+                        }
+                    } catch (SQLException e) {
+                        Logger.x(e);
+                    }
+                    return new AuthEncKeyAndChannelInfo(messageKey, obliviousChannel.getReceptionChannelInfo());
+                } catch (InvalidKeyException | DecryptionException | DecodingException | ClassCastException ignored) { }
+            }
             return null;
         }
-        ProvisionedKeyMaterial[] provisionedKeys = ProvisionedKeyMaterial.getAll(channelManagerSession, keyId, deviceUid);
-        for (ProvisionedKeyMaterial provisionedKey: provisionedKeys) {
-            try {
-                AuthEnc authEnc = Suite.getAuthEnc(provisionedKey.getAuthEncKey());
-                Encoded encodedMessageKey = new Encoded(authEnc.decrypt(provisionedKey.getAuthEncKey(), encryptedMessageKey));
-                AuthEncKey messageKey = (AuthEncKey) encodedMessageKey.decodeSymmetricKey();
-                ObliviousChannel obliviousChannel = provisionedKey.getObliviousChannel();
-                if (obliviousChannel == null) {
-                    Logger.w("While unwrapping a message key, a provision was found without a corresponding channel.");
-                    continue;
-                }
-
-                ////////////////
-                // From this point, we start modifying the database and must not return null
-                ////////////////
 
+        // returns true if some provisions were updated since the last call
+        public boolean updateProvisions() {
+            if (latestUsedProvisionedKeys.isEmpty()) {
+                return false;
+            }
+            for (ProvisionedKeyMaterial provisionedKey : latestUsedProvisionedKeys.values()) {
+                // only the most recent used key of each provision matters, older keys are expired by this call
                 provisionedKey.setExpirationTimestampsOfOlderProvisionedKeyMaterials();
 
-                {
-                    Provision provision = Provision.get(channelManagerSession, provisionedKey.getProvisionFullRatchetingCount(), provisionedKey.getProvisionObliviousChannelCurrentDeviceUid(), provisionedKey.getProvisionObliviousChannelRemoteDeviceUid(), provisionedKey.getProvisionObliviousChannelRemoteIdentity());
-                    if (provision != null) {
-                        provision.selfRatchetIfRequired();
-                    }
+                Provision provision = Provision.get(channelManagerSession, provisionedKey.getProvisionFullRatchetingCount(), provisionedKey.getProvisionObliviousChannelCurrentDeviceUid(), provisionedKey.getProvisionObliviousChannelRemoteDeviceUid(), provisionedKey.getProvisionObliviousChannelRemoteIdentity());
+                if (provision != null) {
+                    provision.selfRatchetIfRequired();
                 }
+            }
+            latestUsedProvisionedKeys.clear();
+            // new keys may have been provisioned
+            provisionedKeysCache.clear();
+            return true;
+        }
+
+        private static class ProvisionKey {
+            private final int fullRatchetingCount;
+            private final UID currentDeviceUid;
+            private final UID remoteDeviceUid;
+            private final Identity remoteIdentity;
+
+            ProvisionKey(ProvisionedKeyMaterial provisionedKey) {
+                this.fullRatchetingCount = provisionedKey.getProvisionFullRatchetingCount();
+                this.currentDeviceUid = provisionedKey.getProvisionObliviousChannelCurrentDeviceUid();
+                this.remoteDeviceUid = provisionedKey.getProvisionObliviousChannelRemoteDeviceUid();
+                this.remoteIdentity = provisionedKey.getProvisionObliviousChannelRemoteIdentity();
+            }
 
-                try {
-                    provisionedKey.delete();
-                    if (!obliviousChannel.confirmed) {
-                        obliviousChannel.confirm();
-                    }
-                } catch (SQLException e) {
-                    Logger.x(e);
+            @Override
+            public boolean equals(Object o) {
+                if (!(o instanceof ProvisionKey)) {
+                    return false;
                 }
-                return new AuthEncKeyAndChannelInfo(messageKey, obliviousChannel.getReceptionChannelInfo());
-            } catch (InvalidKeyException | DecryptionException | DecodingException | ClassCastException ignored) { }
+                ProvisionKey other = (ProvisionKey) o;
+                return fullRatchetingCount == other.fullRatchetingCount
+                        && currentDeviceUid.equals(other.currentDeviceUid)
+                        && remoteDeviceUid.equals(other.remoteDeviceUid)
+                        && remoteIdentity.equals(other.remoteIdentity);
+            }
+
+            @Override
+            public int hashCode() {
+                return Objects.hash(fullRatchetingCount, currentDeviceUid, remoteDeviceUid, remoteIdentity);
+            }
         }
-        return null;
     }
 }
@@ -68,6 +68,10 @@ public class ProvisionedKeyMaterial implements ObvDatabase {
     static final String PROVISION_OBLIVIOUS_CHANNEL_REMOTE_IDENTITY = "provision_oblivious_channel_remote_identity";
 
 
+    public KeyId getKeyId() {
+        return keyId;
+    }
+
     public AuthEncKey getAuthEncKey() {
         return authEncKey;
     }
@@ -100,6 +104,19 @@ public class ProvisionedKeyMaterial implements ObvDatabase {
         return ObliviousChannel.get(channelManagerSession, provisionObliviousChannelCurrentDeviceUid, provisionObliviousChannelRemoteDeviceUid, provisionObliviousChannelRemoteIdentity, false);
     }
 
+    boolean hasSamePrimaryKey(ProvisionedKeyMaterial other) {
+        return selfRatchetingCount == other.selfRatchetingCount
+                && provisionFullRatchetingCount == other.provisionFullRatchetingCount
+                && provisionObliviousChannelCurrentDeviceUid.equals(other.provisionObliviousChannelCurrentDeviceUid)
+                && provisionObliviousChannelRemoteDeviceUid.equals(other.provisionObliviousChannelRemoteDeviceUid)
+                && provisionObliviousChannelRemoteIdentity.equals(other.provisionObliviousChannelRemoteIdentity);
+    }
+
+    // copy used by the ProvisionedKeyMaterialIndex, which must not retain any session
+    ProvisionedKeyMaterial bindToSession(ChannelManagerSession channelManagerSession) {
+        return new ProvisionedKeyMaterial(channelManagerSession, this);
+    }
+
 
 
     public void setExpirationTimestampsOfOlderProvisionedKeyMaterials() {
@@ -129,7 +146,10 @@ public class ProvisionedKeyMaterial implements ObvDatabase {
         try (PreparedStatement statement = channelManagerSession.session.prepareStatement("ProvisionedKeyMaterial.deleteAllExpired",
                 "DELETE FROM " + TABLE_NAME + " WHERE " + EXPIRATION_TIMESTAMP + " IS NOT NULL AND " + EXPIRATION_TIMESTAMP + " < ?;")) {
             statement.setLong(1, System.currentTimeMillis());
-            statement.executeUpdate();
+            if (statement.executeUpdate() > 0) {
+                // simpler to reload the index than finding which keys expired
+                channelManagerSession.session.addSessionCommitListener(channelManagerSession.provisionedKeyMaterialIndex::clear);
+            }
         } catch (SQLException ignored) {}
     }
 
@@ -170,6 +190,18 @@ public class ProvisionedKeyMaterial implements ObvDatabase {
         this.provisionObliviousChannelRemoteIdentity = provision.getObliviousChannelRemoteIdentity();
     }
 
+    private ProvisionedKeyMaterial(ChannelManagerSession channelManagerSession, ProvisionedKeyMaterial other) {
+        this.channelManagerSession = channelManagerSession;
+        this.keyId = other.keyId;
+        this.authEncKey = other.authEncKey;
+        this.expirationTimestamp = other.expirationTimestamp;
+        this.selfRatchetingCount = other.selfRatchetingCount;
+        this.provisionFullRatchetingCount = other.provisionFullRatchetingCount;
+        this.provisionObliviousChannelCurrentDeviceUid = other.provisionObliviousChannelCurrentDeviceUid;
+        this.provisionObliviousChannelRemoteDeviceUid = other.provisionObliviousChannelRemoteDeviceUid;
+        this.provisionObliviousChannelRemoteIdentity = other.provisionObliviousChannelRemoteIdentity;
+    }
+
     private ProvisionedKeyMaterial(ChannelManagerSession channelManagerSession, ResultSet res) throws SQLException {
         this.channelManagerSession = channelManagerSession;
         this.keyId = new KeyId(res.getBytes(KEY_ID));
@@ -247,6 +279,8 @@ public class ProvisionedKeyMaterial implements ObvDatabase {
             statement.setBytes(7, provisionObliviousChannelRemoteDeviceUid.getBytes());
             statement.setBytes(8, provisionObliviousChannelRemoteIdentity.getBytes());
             statement.executeUpdate();
+            commitHookBits |= HOOK_BIT_INSERTED;
+            channelManagerSession.session.addSessionCommitListener(this);
         }
     }
 
@@ -260,6 +294,29 @@ public class ProvisionedKeyMaterial implements ObvDatabase {
             statement.setBytes(4, provisionObliviousChannelRemoteDeviceUid.getBytes());
             statement.setBytes(5, provisionObliviousChannelRemoteIdentity.getBytes());
             statement.executeUpdate();
+            commitHookBits |= HOOK_BIT_DELETED;
+            channelManagerSession.session.addSessionCommitListener(this);
+        }
+    }
+
+    // deletes this key only if it is still in the database with the same content, returns false if nothing was deleted
+    // (the key was already used, or this is a stale copy from the ProvisionedKeyMaterialIndex)
+    boolean deleteIfUnchanged() throws SQLException {
+        try (PreparedStatement statement = channelManagerSession.session.prepareStatement("ProvisionedKeyMaterial.deleteIfUnchanged",
+                "DELETE FROM " + TABLE_NAME + " WHERE " + SELF_RATCHETING_COUNT + " = ? AND " + PROVISION_FULL_RATCHETING_COUNT + " = ? AND " + PROVISION_OBLIVIOUS_CHANNEL_CURRENT_DEVICE_UID + " = ? AND " + PROVISION_OBLIVIOUS_CHANNEL_REMOTE_DEVICE_UID + " = ? AND " + PROVISION_OBLIVIOUS_CHANNEL_REMOTE_IDENTITY + " = ? AND " + KEY_ID + " = ? AND " + AUTH_ENC_KEY + " = ?;")) {
+            statement.setInt(1, selfRatchetingCount);
+            statement.setInt(2, provisionFullRatchetingCount);
+            statement.setBytes(3, provisionObliviousChannelCurrentDeviceUid.getBytes());
+            statement.setBytes(4, provisionObliviousChannelRemoteDeviceUid.getBytes());
+            statement.setBytes(5, provisionObliviousChannelRemoteIdentity.getBytes());
+            statement.setBytes(6, keyId.getBytes());
+            statement.setBytes(7, Encoded.of(authEncKey).getBytes());
+            if (statement.executeUpdate() == 0) {
+                return false;
+            }
+            commitHookBits |= HOOK_BIT_DELETED;
+            channelManagerSession.session.addSessionCommitListener(this);
+            return true;
         }
     }
 
@@ -288,6 +345,24 @@ public class ProvisionedKeyMaterial implements ObvDatabase {
     }
 
 
+    // returns null in case of error
+    static List<ProvisionedKeyMaterial> getAllOfCurrentDevice(ChannelManagerSession channelManagerSession, UID currentDeviceUid) {
+        try (PreparedStatement statement = channelManagerSession.session.prepareStatement("ProvisionedKeyMaterial.getAllOfCurrentDevice",
+                "SELECT * FROM " + TABLE_NAME + " WHERE " + PROVISION_OBLIVIOUS_CHANNEL_CURRENT_DEVICE_UID + " = ?;")) {
+            statement.setBytes(1, currentDeviceUid.getBytes());
+            try (ResultSet res = statement.executeQuery()) {
+                List<ProvisionedKeyMaterial> list = new ArrayList<>();
+                while (res.next()) {
+                    list.add(new ProvisionedKeyMaterial(channelManagerSession, res));
+                }
+                return list;
+            }
+        } catch (SQLException e) {
+            Logger.x(e);
+            return null;
+        }
+    }
+
     static int countNotExpiringProvisionedReceiveKey(ChannelManagerSession channelManagerSession, Provision provision) {
         final String COUNT = "count";
         try (PreparedStatement statement = channelManagerSession.session.prepareStatement("ProvisionedKeyMaterial.countNotExpiringProvisionedReceiveKey",
@@ -314,8 +389,18 @@ public class ProvisionedKeyMaterial implements ObvDatabase {
     }
 
 
+    private long commitHookBits = 0;
+    private static final long HOOK_BIT_INSERTED = 0x1;
+    private static final long HOOK_BIT_DELETED = 0x2;
+
     @Override
     public void wasCommitted() {
-        // no hooks here
+        if ((commitHookBits & HOOK_BIT_INSERTED) != 0) {
+            channelManagerSession.provisionedKeyMaterialIndex.keyInserted(this);
+        }
+        if ((commitHookBits & HOOK_BIT_DELETED) != 0) {
+            channelManagerSession.provisionedKeyMaterialIndex.keyDeleted(this);
+        }
+        commitHookBits = 0;
     }
 }
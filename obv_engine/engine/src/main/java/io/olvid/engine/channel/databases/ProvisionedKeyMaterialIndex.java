@@ -0,0 +1,218 @@
+/*
+ *  Olvid for Android
+ *  Copyright © 2019-2026 Olvid SAS
+ *
+ *  This file is part of Olvid for Android.
+ *
+ *  Olvid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License, version 3,
+ *  as published by the Free Software Foundation.
+ *
+ *  Olvid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with Olvid.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.olvid.engine.channel.databases;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import io.olvid.engine.Logger;
+import io.olvid.engine.channel.datatypes.ChannelManagerSession;
+import io.olvid.engine.datatypes.Identity;
+import io.olvid.engine.datatypes.KeyId;
+import io.olvid.engine.datatypes.UID;
+import io.olvid.engine.engine.types.EngineCacheStatisticsEntry;
+
+
+// In-memory index of the provisioned receive keys, from KeyId to candidate ProvisionedKeyMaterial, so that unwrapping a
+// message key does not require a database query.
+//  - the keys of a current device are loaded on the first lookup for this device
+//  - inserted and deleted keys are added/removed on commit, and keys of deleted channels are removed
+//  - entries may still be stale (cascade deletions, uncommitted rows read while loading): a candidate key is only used if
+//    deleting it from the database succeeds, see ProvisionedKeyMaterial.deleteIfUnchanged()
+//  - a lookup which finds no usable candidate falls back to the database, so a missing entry is never fatal
+// At most MAX_INDEXED_KEYS keys are indexed, devices which do not fit are not indexed.
+public class ProvisionedKeyMaterialIndex {
+    static final int MAX_INDEXED_KEYS = 100_000;
+
+    private final HashMap<UID, HashMap<KeyId, List<ProvisionedKeyMaterial>>> index; // current device UID -> KeyId -> keys
+    private final HashSet<UID> notIndexedDevices;
+    private int indexedKeyCount;
+    private long hitCount;
+    private long missCount;
+
+    public ProvisionedKeyMaterialIndex() {
+        this.index = new HashMap<>();
+        this.notIndexedDevices = new HashSet<>();
+        this.indexedKeyCount = 0;
+        this.hitCount = 0;
+        this.missCount = 0;
+    }
+
+    // returns null if this device is not indexed, the returned keys are bound to the channelManagerSession
+    ProvisionedKeyMaterial[] getCandidates(ChannelManagerSession channelManagerSession, KeyId keyId, UID currentDeviceUid) {
+        HashMap<KeyId, List<ProvisionedKeyMaterial>> deviceIndex;
+        synchronized (this) {
+            if (notIndexedDevices.contains(currentDeviceUid)) {
+                return null;
+            }
+            deviceIndex = index.get(currentDeviceUid);
+        }
+        if (deviceIndex == null) {
+            deviceIndex = load(channelManagerSession, currentDeviceUid);
+            if (deviceIndex == null) {
+                return null;
+            }
+        }
+        synchronized (this) {
+            List<ProvisionedKeyMaterial> keys = deviceIndex.get(keyId);
+            if (keys == null) {
+                return new ProvisionedKeyMaterial[0];
+            }
+            ProvisionedKeyMaterial[] candidates = new ProvisionedKeyMaterial[keys.size()];
+            for (int i=0; i<candidates.length; i++) {
+                candidates[i] = keys.get(i).bindToSession(channelManagerSession);
+            }
+            return candidates;
+        }
+    }
+
+    private HashMap<KeyId, List<ProvisionedKeyMaterial>> load(ChannelManagerSession channelManagerSession, UID currentDeviceUid) {
+        // loaded outside the lock, if another thread loaded the same device in the meantime, its index is kept
+        List<ProvisionedKeyMaterial> keys = ProvisionedKeyMaterial.getAllOfCurrentDevice(channelManagerSession, currentDeviceUid);
+        if (keys == null) {
+            return null;
+        }
+        synchronized (this) {
+            HashMap<KeyId, List<ProvisionedKeyMaterial>> deviceIndex = index.get(currentDeviceUid);
+            if (deviceIndex != null) {
+                return deviceIndex;
+            }
+            if (indexedKeyCount + keys.size() > MAX_INDEXED_KEYS) {
+                Logger.i("Too many provisioned keys (" + keys.size() + ") to index them in memory");
+                notIndexedDevices.add(currentDeviceUid);
+                return null;
+            }
+            deviceIndex = new HashMap<>();
+            for (ProvisionedKeyMaterial key : keys) {
+                addToDeviceIndex(deviceIndex, key.bindToSession(null));
+            }
+            indexedKeyCount += keys.size();
+            index.put(currentDeviceUid, deviceIndex);
+            Logger.d("Indexed " + keys.size() + " provisioned keys in memory");
+            return deviceIndex;
+        }
+    }
+
+    private static void addToDeviceIndex(HashMap<KeyId, List<ProvisionedKeyMaterial>> deviceIndex, ProvisionedKeyMaterial key) {
+        List<ProvisionedKeyMaterial> keys = deviceIndex.get(key.getKeyId());
+        if (keys == null) {
+            // almost always a single key per KeyId
+            keys = new ArrayList<>(1);
+            deviceIndex.put(key.getKeyId(), keys);
+        }
+        keys.add(key);
+    }
+
+    // region updates, called from commit hooks
+
+    synchronized void keyInserted(ProvisionedKeyMaterial key) {
+        HashMap<KeyId, List<ProvisionedKeyMaterial>> deviceIndex = index.get(key.getProvisionObliviousChannelCurrentDeviceUid());
+        if (deviceIndex == null) {
+            // device not indexed yet, it will be loaded from the database
+            return;
+        }
+        if (indexedKeyCount >= MAX_INDEXED_KEYS) {
+            // stop indexing this device
+            index.remove(key.getProvisionObliviousChannelCurrentDeviceUid());
+            indexedKeyCount -= countKeys(deviceIndex);
+            notIndexedDevices.add(key.getProvisionObliviousChannelCurrentDeviceUid());
+            return;
+        }
+        addToDeviceIndex(deviceIndex, key.bindToSession(null));
+        indexedKeyCount++;
+    }
+
+    synchronized void keyDeleted(ProvisionedKeyMaterial key) {
+        HashMap<KeyId, List<ProvisionedKeyMaterial>> deviceIndex = index.get(key.getProvisionObliviousChannelCurrentDeviceUid());
+        if (deviceIndex == null) {
+            return;
+        }
+        List<ProvisionedKeyMaterial> keys = deviceIndex.get(key.getKeyId());
+        if (keys == null) {
+            return;
+        }
+        Iterator<ProvisionedKeyMaterial> iterator = keys.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().hasSamePrimaryKey(key)) {
+                iterator.remove();
+                indexedKeyCount--;
+            }
+        }
+        if (keys.isEmpty()) {
+            deviceIndex.remove(key.getKeyId());
+        }
+    }
+
+    synchronized void channelDeleted(UID currentDeviceUid, UID remoteDeviceUid, Identity remoteIdentity) {
+        HashMap<KeyId, List<ProvisionedKeyMaterial>> deviceIndex = index.get(currentDeviceUid);
+        if (deviceIndex == null) {
+            return;
+        }
+        Iterator<Map.Entry<KeyId, List<ProvisionedKeyMaterial>>> entryIterator = deviceIndex.entrySet().iterator();
+        while (entryIterator.hasNext()) {
+            List<ProvisionedKeyMaterial> keys = entryIterator.next().getValue();
+            Iterator<ProvisionedKeyMaterial> iterator = keys.iterator();
+            while (iterator.hasNext()) {
+                ProvisionedKeyMaterial key = iterator.next();
+                if (Objects.equals(remoteDeviceUid, key.getProvisionObliviousChannelRemoteDeviceUid()) && Objects.equals(remoteIdentity, key.getProvisionObliviousChannelRemoteIdentity())) {
+                    iterator.remove();
+                    indexedKeyCount--;
+                }
+            }
+            if (keys.isEmpty()) {
+                entryIterator.remove();
+            }
+        }
+    }
+
+    // after bulk deletions, everything is reloaded on next lookup
+    public synchronized void clear() {
+        index.clear();
+        notIndexedDevices.clear();
+        indexedKeyCount = 0;
+    }
+
+    // endregion
+
+    private static int countKeys(HashMap<KeyId, List<ProvisionedKeyMaterial>> deviceIndex) {
+        int count = 0;
+        for (List<ProvisionedKeyMaterial> keys : deviceIndex.values()) {
+            count += keys.size();
+        }
+        return count;
+    }
+
+    synchronized void registerLookup(boolean hit) {
+        if (hit) {
+            hitCount++;
+        } else {
+            missCount++;
+        }
+    }
+
+    public synchronized EngineCacheStatisticsEntry getStatistics() {
+        return EngineCacheStatisticsEntry.of(hitCount, missCount, indexedKeyCount);
+    }
+}
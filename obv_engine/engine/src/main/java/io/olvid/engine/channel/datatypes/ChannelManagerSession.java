@@ -22,6 +22,7 @@ package io.olvid.engine.channel.datatypes;
 
 import java.sql.SQLException;
 
+import io.olvid.engine.channel.databases.ProvisionedKeyMaterialIndex;
 import io.olvid.engine.datatypes.Session;
 import io.olvid.engine.metamanager.EncryptionForIdentityDelegate;
 import io.olvid.engine.metamanager.FullRatchetProtocolStarterDelegate;
@@ -45,8 +46,9 @@ public class ChannelManagerSession implements AutoCloseable {
     public final IdentityDelegate identityDelegate;
     public final NotificationPostingDelegate notificationPostingDelegate;
     public final ProtocolStarterDelegate protocolStarterDelegate;
+    public final ProvisionedKeyMaterialIndex provisionedKeyMaterialIndex;
 
-    public ChannelManagerSession(Session session, FullRatchetProtocolStarterDelegate fullRatchetProtocolStarterDelegate, NetworkFetchDelegate networkFetchDelegate, NetworkSendDelegate networkSendDelegate, ProtocolDelegate protocolDelegate, EncryptionForIdentityDelegate encryptionForIdentityDelegate, PreKeyEncryptionDelegate preKeyEncryptionDelegate, IdentityDelegate identityDelegate, NotificationPostingDelegate notificationPostingDelegate, ProtocolStarterDelegate protocolStarterDelegate) {
+    public ChannelManagerSession(Session session, FullRatchetProtocolStarterDelegate fullRatchetProtocolStarterDelegate, NetworkFetchDelegate networkFetchDelegate, NetworkSendDelegate networkSendDelegate, ProtocolDelegate protocolDelegate, EncryptionForIdentityDelegate encryptionForIdentityDelegate, PreKeyEncryptionDelegate preKeyEncryptionDelegate, IdentityDelegate identityDelegate, NotificationPostingDelegate notificationPostingDelegate, ProtocolStarterDelegate protocolStarterDelegate, ProvisionedKeyMaterialIndex provisionedKeyMaterialIndex) {
         this.session = session;
         this.fullRatchetProtocolStarterDelegate = fullRatchetProtocolStarterDelegate;
         this.networkFetchDelegate = networkFetchDelegate;
@@ -57,6 +59,7 @@ public class ChannelManagerSession implements AutoCloseable {
         this.identityDelegate = identityDelegate;
         this.notificationPostingDelegate = notificationPostingDelegate;
         this.protocolStarterDelegate = protocolStarterDelegate;
+        this.provisionedKeyMaterialIndex = provisionedKeyMaterialIndex;
     }
 
     @Override
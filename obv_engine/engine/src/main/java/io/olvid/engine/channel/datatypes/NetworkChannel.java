@@ -38,6 +38,7 @@ import io.olvid.engine.datatypes.containers.MessageType;
 import io.olvid.engine.datatypes.containers.SendChannelInfo;
 import io.olvid.engine.datatypes.key.symmetric.AuthEncKey;
 import io.olvid.engine.encoder.Encoded;
+import io.olvid.engine.encoder.EncodedWriter;
 
 public abstract class NetworkChannel extends Channel {
     public abstract MessageToSend.Header wrapMessageKey(AuthEncKey messageKey, PRNGService prng, boolean partOfFullRatchetProtocol);
@@ -91,29 +92,27 @@ public abstract class NetworkChannel extends Channel {
                 }
                 ChannelApplicationMessageToSend channelApplicationMessageToSend = (ChannelApplicationMessageToSend) message;
                 ChannelApplicationMessageToSend.Attachment[] attachments = channelApplicationMessageToSend.getAttachments();
-                Encoded[] listOfEncodedAttachments = new Encoded[attachments.length + 1];
+                EncodedWriter listOfEncodedAttachments = EncodedWriter.list();
                 MessageToSend.Attachment[] messageToSendAttachments = new MessageToSend.Attachment[attachments.length];
 
                 for (int i = 0; i < attachments.length; i++) {
                     AuthEncKey attachmentKey = authEnc.generateKey(prng);
-                    listOfEncodedAttachments[i] = Encoded.of(new Encoded[]{
+                    listOfEncodedAttachments.add(EncodedWriter.list(
                             Encoded.of(attachmentKey),
                             Encoded.of(attachments[i].getMetadata())
-                    });
+                    ));
                     messageToSendAttachments[i] = new MessageToSend.Attachment(attachments[i].getUrl(), attachments[i].isDeleteAfterSend(), attachments[i].getAttachmentLength(), attachmentKey);
                 }
                 // add the message payload after the attachment keys and metadata
-                listOfEncodedAttachments[attachments.length] = Encoded.of(channelApplicationMessageToSend.getMessagePayload());
+                listOfEncodedAttachments.add(Encoded.of(channelApplicationMessageToSend.getMessagePayload()));
 
-                Encoded plaintextContent = Encoded.of(new Encoded[]{
-                        Encoded.of(MessageType.APPLICATION_MESSAGE_TYPE),
-                        Encoded.of(listOfEncodedAttachments)
-                });
+                EncodedWriter plaintextContent = EncodedWriter.list(
+                        Encoded.of(MessageType.APPLICATION_MESSAGE_TYPE)
+                ).add(listOfEncodedAttachments);
 
                 ////////
                 // Add a padding to message to obfuscate content length
-                byte[] paddedPlaintext = new byte[((plaintextContent.getBytes().length - 1) | 511) + 1];
-                System.arraycopy(plaintextContent.getBytes(), 0, paddedPlaintext, 0, plaintextContent.getBytes().length);
+                byte[] paddedPlaintext = plaintextContent.toPaddedByteArray(((plaintextContent.getEncodedLength() - 1) | 511) + 1);
 
                 AuthEncKey messageKey = authEnc.generateMessageKey(prng, paddedPlaintext);
 
@@ -142,15 +141,14 @@ public abstract class NetworkChannel extends Channel {
                     throw new Exception();
                 }
                 ChannelProtocolMessageToSend channelProtocolMessageToSend = (ChannelProtocolMessageToSend) message;
-                Encoded plaintextContent = Encoded.of(new Encoded[]{
+                EncodedWriter plaintextContent = EncodedWriter.list(
                         Encoded.of(MessageType.PROTOCOL_MESSAGE_TYPE),
                         channelProtocolMessageToSend.getEncodedElements()
-                });
+                );
 
                 ////////
                 // Add a padding to message to obfuscate content length
-                byte[] paddedPlaintext = new byte[((plaintextContent.getBytes().length - 1) | 511) + 1];
-                System.arraycopy(plaintextContent.getBytes(), 0, paddedPlaintext, 0, plaintextContent.getBytes().length);
+                byte[] paddedPlaintext = plaintextContent.toPaddedByteArray(((plaintextContent.getEncodedLength() - 1) | 511) + 1);
 
                 AuthEncKey messageKey = authEnc.generateMessageKey(prng, paddedPlaintext);
 
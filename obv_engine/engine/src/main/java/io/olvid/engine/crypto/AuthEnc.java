@@ -19,9 +19,20 @@
 
 package io.olvid.engine.crypto;
 
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
 import java.security.InvalidKeyException;
+import java.security.MessageDigest;
 import java.util.Arrays;
 
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import io.olvid.engine.Logger;
 import io.olvid.engine.crypto.exceptions.DecryptionException;
 import io.olvid.engine.datatypes.EncryptedBytes;
 import io.olvid.engine.datatypes.Seed;
@@ -39,10 +50,36 @@ public interface AuthEnc {
     int plaintextLengthFromCiphertextLength(int ciphertextLength);
     EncryptedBytes encrypt(AuthEncKey key, byte[] plaintext, PRNG prng) throws InvalidKeyException;
     byte[] decrypt(AuthEncKey key, EncryptedBytes ciphertext) throws DecryptionException, InvalidKeyException;
+
+    // Offset-based variants: no intermediate array is allocated. The output may be the same array as the input.
+    // For in place encryption, put the plaintext at outputOffset + plaintextOffsetInCiphertext(), and make sure the
+    // array has room for ciphertextLengthFromPlaintextLength(plaintextLength) bytes from outputOffset.
+    // For in place decryption, the plaintext is written at ciphertextOffset + plaintextOffsetInCiphertext().
+    int plaintextOffsetInCiphertext();
+    // returns the length of the ciphertext written in output
+    int encrypt(AuthEncKey key, byte[] plaintext, int plaintextOffset, int plaintextLength, byte[] output, int outputOffset, PRNG prng) throws InvalidKeyException;
+    // the MAC is verified before anything is written to output, returns the length of the plaintext written in output
+    int decrypt(AuthEncKey key, byte[] ciphertext, int ciphertextOffset, int ciphertextLength, byte[] output, int outputOffset) throws DecryptionException, InvalidKeyException;
+
+    // Streaming variants, for data that should never be held in memory as a whole. The ciphertext format is the same.
+    // Decryption takes two passes so that no plaintext is produced before the MAC is verified: the whole ciphertext is
+    // first fed to a StreamingVerifier (typically while writing it to a temporary file), and only if verify() returns
+    // true is it read again through getDecryptingInputStream().
+    // the returned stream reads exactly plaintextLength bytes from plaintext and returns the ciphertextLengthFromPlaintextLength(plaintextLength) bytes of ciphertext
+    InputStream getEncryptingInputStream(AuthEncKey key, InputStream plaintext, long plaintextLength, PRNG prng) throws InvalidKeyException;
+    StreamingVerifier getStreamingVerifier(AuthEncKey key) throws InvalidKeyException;
+    // the MAC at the end of the ciphertext is NOT checked by this stream
+    InputStream getDecryptingInputStream(AuthEncKey key, InputStream ciphertext, long ciphertextLength) throws InvalidKeyException;
     KDF.Delegate getKDFDelegate();
     AuthEncKey generateKey(PRNG prng);
     AuthEncKey generateMessageKey(PRNG prng, byte[] message);
     boolean verifyMessageKey(AuthEncKey authEncKey, byte[] message);
+
+    interface StreamingVerifier {
+        void update(byte[] input, int offset, int length);
+        // returns true if the last bytes passed to update() are a valid MAC of all the bytes preceding them
+        boolean verify();
+    }
 }
 
 
@@ -80,8 +117,31 @@ class AuthEncAES256ThenSHA256 implements AuthEnc {
         return ciphertextLength - SymEncCtrAES256.IV_BYTE_LENGTH - MACHmacSha256.OUTPUT_LENGTH;
     }
 
+    @Override
+    public int plaintextOffsetInCiphertext() {
+        return SymEncCtrAES256.IV_BYTE_LENGTH;
+    }
+
     @Override
     public EncryptedBytes encrypt(AuthEncKey key, byte[] plaintext, PRNG prng) throws InvalidKeyException {
+        byte[] ciphertext = new byte[ciphertextLengthFromPlaintextLength(plaintext.length)];
+        encrypt(key, plaintext, 0, plaintext.length, ciphertext, 0, prng);
+        return new EncryptedBytes(ciphertext);
+    }
+
+    @Override
+    public byte[] decrypt(AuthEncKey key, EncryptedBytes ciphertext) throws DecryptionException, InvalidKeyException {
+        byte[] ciphertextBytes = ciphertext.getBytes();
+        if (ciphertextBytes.length < SymEncCtrAES256.IV_BYTE_LENGTH + MACHmacSha256.OUTPUT_LENGTH) {
+            throw new DecryptionException();
+        }
+        byte[] plaintext = new byte[plaintextLengthFromCiphertextLength(ciphertextBytes.length)];
+        decrypt(key, ciphertextBytes, 0, ciphertextBytes.length, plaintext, 0);
+        return plaintext;
+    }
+
+    @Override
+    public int encrypt(AuthEncKey key, byte[] plaintext, int plaintextOffset, int plaintextLength, byte[] output, int outputOffset, PRNG prng) throws InvalidKeyException {
         if (! (key instanceof AuthEncAES256ThenSHA256Key)) {
             throw new InvalidKeyException();
         }
@@ -90,33 +150,276 @@ class AuthEncAES256ThenSHA256 implements AuthEnc {
         MACHmacSha256 mac = new MACHmacSha256();
         SymEncCtrAES256 enc = new SymEncCtrAES256(encKey);
 
-        byte[] ciphertext = new byte[ciphertextLengthFromPlaintextLength(plaintext.length)];
+        int encryptedLength = enc.ciphertextLengthFromPlaintextLength(plaintextLength);
         byte[] iv = prng.bytes(SymEncCtrAES256.IV_BYTE_LENGTH);
-        enc.encrypt(iv, plaintext, ciphertext);
-        byte[] hash = mac.digest(macKey, ciphertext, enc.ciphertextLengthFromPlaintextLength(plaintext.length));
-        System.arraycopy(hash, 0, ciphertext, enc.ciphertextLengthFromPlaintextLength(plaintext.length), hash.length);
-        return new EncryptedBytes(ciphertext);
+        enc.encrypt(iv, plaintext, plaintextOffset, plaintextLength, output, outputOffset);
+        byte[] hash = mac.digest(macKey, output, outputOffset, encryptedLength);
+        System.arraycopy(hash, 0, output, outputOffset + encryptedLength, hash.length);
+        return encryptedLength + hash.length;
     }
 
     @Override
-    public byte[] decrypt(AuthEncKey key, EncryptedBytes ciphertext) throws DecryptionException, InvalidKeyException {
+    public int decrypt(AuthEncKey key, byte[] ciphertext, int ciphertextOffset, int ciphertextLength, byte[] output, int outputOffset) throws DecryptionException, InvalidKeyException {
         if (! (key instanceof AuthEncAES256ThenSHA256Key)) {
             throw new InvalidKeyException();
         }
+        if (ciphertextLength < SymEncCtrAES256.IV_BYTE_LENGTH + MACHmacSha256.OUTPUT_LENGTH) {
+            throw new DecryptionException();
+        }
         MACHmacSha256Key macKey = ((AuthEncAES256ThenSHA256Key) key).getMacKey();
         SymEncCTRAES256Key encKey = ((AuthEncAES256ThenSHA256Key) key).getEncKey();
         MACHmacSha256 mac = new MACHmacSha256();
         SymEncCtrAES256 enc = new SymEncCtrAES256(encKey);
 
-        byte[] ciphertextBytes = ciphertext.getBytes();
-        byte[] hash = Arrays.copyOfRange(ciphertextBytes, ciphertextBytes.length - mac.outputLength(), ciphertextBytes.length);
-        byte[] encryptedBytes = Arrays.copyOfRange(ciphertextBytes, 0, ciphertextBytes.length - mac.outputLength());
-        if (!mac.verify(macKey, encryptedBytes, hash)) {
+        int encryptedLength = ciphertextLength - mac.outputLength();
+        if (!mac.verify(macKey, ciphertext, ciphertextOffset, encryptedLength, ciphertextOffset + encryptedLength)) {
+            throw new DecryptionException();
+        }
+        if (!enc.decrypt(ciphertext, ciphertextOffset, encryptedLength, output, outputOffset)) {
             throw new DecryptionException();
         }
-        return enc.decrypt(new EncryptedBytes(encryptedBytes));
+        return enc.plaintextLengthFromCiphertextLength(encryptedLength);
+    }
+
+    @Override
+    public InputStream getEncryptingInputStream(AuthEncKey key, InputStream plaintext, long plaintextLength, PRNG prng) throws InvalidKeyException {
+        if (! (key instanceof AuthEncAES256ThenSHA256Key)) {
+            throw new InvalidKeyException();
+        }
+        return new EncryptingInputStream((AuthEncAES256ThenSHA256Key) key, plaintext, plaintextLength, prng.bytes(SymEncCtrAES256.IV_BYTE_LENGTH));
     }
 
+    @Override
+    public StreamingVerifier getStreamingVerifier(AuthEncKey key) throws InvalidKeyException {
+        if (! (key instanceof AuthEncAES256ThenSHA256Key)) {
+            throw new InvalidKeyException();
+        }
+        return new Verifier(((AuthEncAES256ThenSHA256Key) key).getMacKey());
+    }
+
+    @Override
+    public InputStream getDecryptingInputStream(AuthEncKey key, InputStream ciphertext, long ciphertextLength) throws InvalidKeyException {
+        if (! (key instanceof AuthEncAES256ThenSHA256Key)) {
+            throw new InvalidKeyException();
+        }
+        if (ciphertextLength < SymEncCtrAES256.IV_BYTE_LENGTH + MACHmacSha256.OUTPUT_LENGTH) {
+            throw new InvalidKeyException();
+        }
+        return new DecryptingInputStream(((AuthEncAES256ThenSHA256Key) key).getEncKey(), ciphertext, ciphertextLength - SymEncCtrAES256.IV_BYTE_LENGTH - MACHmacSha256.OUTPUT_LENGTH);
+    }
+
+    // region streaming
+
+    // A stream lives across many calls, possibly on different threads: it cannot use the per-thread instances from Suite
+    // and has its own Cipher and Mac instead.
+
+    private static Cipher newAesCtr(SymEncCTRAES256Key encKey, int mode, byte[] iv, int ivOffset) throws GeneralSecurityException {
+        byte[] fullIV = new byte[SymEncCtrAES256.AES_BLOCK_BYTE_LENGTH];
+        System.arraycopy(iv, ivOffset, fullIV, 0, SymEncCtrAES256.IV_BYTE_LENGTH);
+        Cipher aes = Cipher.getInstance("AES/CTR/NoPadding");
+        aes.init(mode, new SecretKeySpec(encKey.getKeyBytes(), "AES"), new IvParameterSpec(fullIV));
+        return aes;
+    }
+
+    private static Mac newHmacSha256(MACHmacSha256Key macKey) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(macKey.getKeyBytes(), "HmacSHA256"));
+        return mac;
+    }
+
+    // CTR mode: the ciphertext of each update has exactly the length of its input, and is computed in place
+    private static void cryptInPlace(Cipher aes, byte[] buffer, int offset, int length) throws IOException {
+        try {
+            if (aes.update(buffer, offset, length, buffer, offset) != length) {
+                throw new IOException("Unexpected AES-CTR output length");
+            }
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+    }
+
+    // returns the IV, then the encrypted plaintext, then the MAC
+    private static class EncryptingInputStream extends InputStream {
+        private final InputStream plaintext;
+        private final AuthEncAES256ThenSHA256Key key;
+        private final byte[] iv;
+        private long remainingPlaintextLength;
+        private Cipher aes;
+        private Mac mac;
+        private byte[] pending; // IV or MAC bytes not read yet
+        private int pendingOffset;
+        private boolean macComputed;
+
+        EncryptingInputStream(AuthEncAES256ThenSHA256Key key, InputStream plaintext, long plaintextLength, byte[] iv) {
+            this.key = key;
+            this.plaintext = plaintext;
+            this.remainingPlaintextLength = plaintextLength;
+            this.iv = iv;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int count = read(b, 0, 1);
+            return (count <= 0) ? -1 : (b[0] & 0xff);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (aes == null) {
+                try {
+                    aes = newAesCtr(key.getEncKey(), Cipher.ENCRYPT_MODE, iv, 0);
+                    mac = newHmacSha256(key.getMacKey());
+                } catch (GeneralSecurityException e) {
+                    throw new IOException(e);
+                }
+                mac.update(iv);
+                pending = iv;
+                pendingOffset = 0;
+            }
+            if (pending != null) {
+                int count = Math.min(len, pending.length - pendingOffset);
+                System.arraycopy(pending, pendingOffset, b, off, count);
+                pendingOffset += count;
+                if (pendingOffset == pending.length) {
+                    pending = null;
+                }
+                return count;
+            }
+            if (remainingPlaintextLength > 0) {
+                int count = plaintext.read(b, off, (int) Math.min(len, remainingPlaintextLength));
+                if (count < 0) {
+                    throw new EOFException();
+                }
+                cryptInPlace(aes, b, off, count);
+                mac.update(b, off, count);
+                remainingPlaintextLength -= count;
+                return count;
+            }
+            if (!macComputed) {
+                macComputed = true;
+                pending = mac.doFinal();
+                pendingOffset = 0;
+                return read(b, off, len);
+            }
+            return -1;
+        }
+
+        @Override
+        public void close() throws IOException {
+            plaintext.close();
+        }
+    }
+
+    // the last MACHmacSha256.OUTPUT_LENGTH bytes seen are kept aside: they are the MAC if no more bytes come
+    private static class Verifier implements StreamingVerifier {
+        private final MACHmacSha256Key macKey;
+        private final byte[] tail = new byte[MACHmacSha256.OUTPUT_LENGTH];
+        private int tailLength = 0;
+        private Mac mac;
+
+        Verifier(MACHmacSha256Key macKey) {
+            this.macKey = macKey;
+        }
+
+        @Override
+        public void update(byte[] input, int offset, int length) {
+            if (mac == null) {
+                try {
+                    mac = newHmacSha256(macKey);
+                } catch (GeneralSecurityException e) {
+                    Logger.x(e);
+                    return;
+                }
+            }
+            int overflow = tailLength + length - tail.length;
+            if (overflow > 0) {
+                // the first overflow bytes of tail + input cannot be part of the MAC
+                int fromTail = Math.min(overflow, tailLength);
+                mac.update(tail, 0, fromTail);
+                mac.update(input, offset, overflow - fromTail);
+                System.arraycopy(tail, fromTail, tail, 0, tailLength - fromTail);
+                tailLength -= fromTail;
+                offset += overflow - fromTail;
+                length -= overflow - fromTail;
+            }
+            System.arraycopy(input, offset, tail, tailLength, length);
+            tailLength += length;
+        }
+
+        @Override
+        public boolean verify() {
+            if (mac == null || tailLength != tail.length) {
+                return false;
+            }
+            return MessageDigest.isEqual(mac.doFinal(), tail);
+        }
+    }
+
+    // reads the IV, then returns the decrypted bytes, and ignores the MAC
+    private static class DecryptingInputStream extends InputStream {
+        private final SymEncCTRAES256Key encKey;
+        private final InputStream ciphertext;
+        private long remainingEncryptedLength;
+        private Cipher aes;
+
+        DecryptingInputStream(SymEncCTRAES256Key encKey, InputStream ciphertext, long encryptedLength) {
+            this.encKey = encKey;
+            this.ciphertext = ciphertext;
+            this.remainingEncryptedLength = encryptedLength;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int count = read(b, 0, 1);
+            return (count <= 0) ? -1 : (b[0] & 0xff);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (aes == null) {
+                byte[] iv = new byte[SymEncCtrAES256.IV_BYTE_LENGTH];
+                int ivLength = 0;
+                while (ivLength < iv.length) {
+                    int count = ciphertext.read(iv, ivLength, iv.length - ivLength);
+                    if (count < 0) {
+                        throw new EOFException();
+                    }
+                    ivLength += count;
+                }
+                try {
+                    aes = newAesCtr(encKey, Cipher.DECRYPT_MODE, iv, 0);
+                } catch (GeneralSecurityException e) {
+                    throw new IOException(e);
+                }
+            }
+            if (remainingEncryptedLength == 0) {
+                return -1;
+            }
+            int count = ciphertext.read(b, off, (int) Math.min(len, remainingEncryptedLength));
+            if (count < 0) {
+                throw new EOFException();
+            }
+            cryptInPlace(aes, b, off, count);
+            remainingEncryptedLength -= count;
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            ciphertext.close();
+        }
+    }
+
+    // endregion
+
     @Override
     public KDF.Delegate getKDFDelegate() {
         return new KDFDelegateForAuthEncAES256ThenSHA256();
@@ -41,6 +41,9 @@ public abstract class EdwardCurve {
     public int tonelliS = 0;
     public int byteLength = 0;
 
+    private BigInteger ladderConstant = null;
+    private volatile PrecomputedPoint[][] fixedBaseTable = null;
+
     // NOTE: this method only returns one of two possible x coordinates, the other one is (p-x)
     public BigInteger xCoordinateFromY(BigInteger Y) {
         BigInteger Y2 = Y.multiply(Y).mod(p);
@@ -79,9 +82,7 @@ public abstract class EdwardCurve {
                 return BigInteger.ONE;
             }
         }
-        BigInteger TWO = BigInteger.valueOf(2);
-
-        BigInteger c = BigInteger.ONE.subtract(d).modInverse(p);
+        BigInteger c = getLadderConstant();
         BigInteger uP = Y.add(BigInteger.ONE).mod(p);
         BigInteger wP = BigInteger.ONE.subtract(Y).mod(p);
         BigInteger uQ = BigInteger.ONE;
@@ -94,11 +95,11 @@ public abstract class EdwardCurve {
         for (int i=cardinality.bitLength()-1; i>=0; i--) {
             BigInteger t1 = uQ.subtract(wQ).multiply(uR.add(wR)).mod(p);
             BigInteger t2 = uQ.add(wQ).multiply(uR.subtract(wR)).mod(p);
-            BigInteger uQplusR = wP.multiply(t1.add(t2).modPow(TWO, p)).mod(p);
-            BigInteger wQplusR = uP.multiply(t1.subtract(t2).modPow(TWO, p)).mod(p);
+            BigInteger uQplusR = wP.multiply(square(t1.add(t2))).mod(p);
+            BigInteger wQplusR = uP.multiply(square(t1.subtract(t2))).mod(p);
             if (n.testBit(i)) {
-                BigInteger t3 = uR.add(wR).modPow(TWO, p);
-                BigInteger t4 = uR.subtract(wR).modPow(TWO, p);
+                BigInteger t3 = square(uR.add(wR));
+                BigInteger t4 = square(uR.subtract(wR));
                 BigInteger t5 = t3.subtract(t4).mod(p);
                 BigInteger u2R = t3.multiply(t4).mod(p);
                 BigInteger w2R = t5.multiply(t4.add(c.multiply(t5))).mod(p);
@@ -107,8 +108,8 @@ public abstract class EdwardCurve {
                 uR = u2R;
                 wR = w2R;
             } else {
-                BigInteger t3 = uQ.add(wQ).modPow(TWO, p);
-                BigInteger t4 = uQ.subtract(wQ).modPow(TWO, p);
+                BigInteger t3 = square(uQ.add(wQ));
+                BigInteger t4 = square(uQ.subtract(wQ));
                 BigInteger t5 = t3.subtract(t4).mod(p);
                 BigInteger u2Q = t3.multiply(t4).mod(p);
                 BigInteger w2Q = t5.multiply(t4.add(c.multiply(t5))).mod(p);
@@ -122,6 +123,18 @@ public abstract class EdwardCurve {
         return uQ.subtract(wQ).multiply(uQ.add(wQ).modInverse(p)).mod(p);
     }
 
+    private BigInteger square(BigInteger x) {
+        return x.multiply(x).mod(p);
+    }
+
+    // 1/(1-d) only depends on the curve, there is no need to recompute it for each multiplication
+    private BigInteger getLadderConstant() {
+        if (ladderConstant == null) {
+            ladderConstant = BigInteger.ONE.subtract(d).modInverse(p);
+        }
+        return ladderConstant;
+    }
+
     public EdwardCurvePoint pointAddition(EdwardCurvePoint P, EdwardCurvePoint Q) {
         BigInteger t = d.multiply(P.getX()).mod(p).multiply(Q.getX()).mod(p).multiply(P.getY()).mod(p).multiply(Q.getY()).mod(p);
         BigInteger z = t.add(BigInteger.ONE).modInverse(p);
@@ -133,51 +146,252 @@ public abstract class EdwardCurve {
 
 
     public EdwardCurvePoint scalarMultiplicationWithX(BigInteger n, EdwardCurvePoint P) {
+        return toAffine(extendedScalarMultiplication(n, P));
+    }
+
+
+    public EdwardCurvePoint[] mulAdd(BigInteger a, EdwardCurvePoint P1, BigInteger b, EdwardCurvePoint P2) {
+        // both products are summed in extended coordinates, only the final results are converted back to affine
+        ExtendedPoint P3 = extendedScalarMultiplication(a, P1);
+        ArrayList<EdwardCurvePoint> list = new ArrayList<>();
+        if (P2.getX() != null) {
+            ExtendedPoint P4 = extendedScalarMultiplication(b, P2);
+            list.add(toAffine(add(P3, P4)));
+        } else {
+            BigInteger Y4 = scalarMultiplication(b, P2.getY());
+            BigInteger X4 = xCoordinateFromY(Y4);
+            list.add(toAffine(add(P3, toExtended(X4, Y4))));
+            list.add(toAffine(add(P3, toExtended(p.subtract(X4), Y4))));
+        }
+        return list.toArray(new EdwardCurvePoint[0]);
+    }
+
+    // same as mulAdd, but reusing multiples of P2 precomputed with precomputeMultiples()
+    public EdwardCurvePoint mulAdd(BigInteger a, EdwardCurvePoint P1, BigInteger b, PointMultiples P2) {
+        ExtendedPoint P3 = extendedScalarMultiplication(a, P1);
+        ExtendedPoint P4;
+        if (P2.multiples == null || b.equals(BigInteger.ZERO)) {
+            P4 = extendedScalarMultiplication(b, P2.point);
+        } else {
+            P4 = windowMultiplication(b.mod(cardinality), P2.multiples);
+        }
+        return toAffine(add(P3, P4));
+    }
+
+    // P must have an x coordinate
+    public PointMultiples precomputeMultiples(EdwardCurvePoint P) {
+        if (P.getY().equals(BigInteger.ONE) || P.getY().equals(p.subtract(BigInteger.ONE)) || G.equals(P)) {
+            // these points do not use the window multiplication
+            return new PointMultiples(P, null);
+        }
+        return new PointMultiples(P, computeMultiples(P));
+    }
+
+    // the window of multiples of a point, for points that are multiplied many times (like a public key verifying many signatures)
+    public static class PointMultiples {
+        private final EdwardCurvePoint point;
+        private final ExtendedPoint[] multiples;
+
+        private PointMultiples(EdwardCurvePoint point, ExtendedPoint[] multiples) {
+            this.point = point;
+            this.multiples = multiples;
+        }
+    }
+
+    // region extended coordinates
+
+    // Scalar multiplications are computed in extended coordinates: (x, y) is represented by (X : Y : Z : T) with
+    // x = X/Z, y = Y/Z and T = XY/Z. Additions then require no modular inversion, a single one is needed at the end.
+    // The addition formula is the unified one (Hisil et al. 2008, with a = 1): it is also used for doubling and is
+    // algebraically identical to pointAddition(), so results are exactly the same as with affine coordinates.
+    //
+    // Multiplications use a fixed window of WINDOW_BITS bits. For the base point G, all the j * 16^i * G are
+    // precomputed once per curve, so that n * G only costs one addition per window and no doubling.
+
+    private static final int WINDOW_BITS = 4;
+    private static final int WINDOW_SIZE = 1 << WINDOW_BITS;
+
+    private static class ExtendedPoint {
+        final BigInteger X;
+        final BigInteger Y;
+        final BigInteger Z;
+        final BigInteger T;
+
+        ExtendedPoint(BigInteger X, BigInteger Y, BigInteger Z, BigInteger T) {
+            this.X = X;
+            this.Y = Y;
+            this.Z = Z;
+            this.T = T;
+        }
+    }
+
+    // an affine point with d*x*y precomputed, used for the fixed-base table
+    private static class PrecomputedPoint {
+        final BigInteger x;
+        final BigInteger y;
+        final BigInteger dt;
+
+        PrecomputedPoint(BigInteger x, BigInteger y, BigInteger dt) {
+            this.x = x;
+            this.y = y;
+            this.dt = dt;
+        }
+    }
+
+    private ExtendedPoint extendedIdentity() {
+        return new ExtendedPoint(BigInteger.ZERO, BigInteger.ONE, BigInteger.ONE, BigInteger.ZERO);
+    }
+
+    private ExtendedPoint toExtended(BigInteger x, BigInteger y) {
+        return new ExtendedPoint(x, y, BigInteger.ONE, x.multiply(y).mod(p));
+    }
+
+    private EdwardCurvePoint toAffine(ExtendedPoint P) {
+        BigInteger zInv = P.Z.modInverse(p);
+        return EdwardCurvePoint.noCheckFactory(P.X.multiply(zInv).mod(p), P.Y.multiply(zInv).mod(p), this);
+    }
+
+    private ExtendedPoint add(ExtendedPoint P, ExtendedPoint Q) {
+        BigInteger xx = P.X.multiply(Q.X).mod(p);
+        BigInteger yy = P.Y.multiply(Q.Y).mod(p);
+        BigInteger dtt = d.multiply(P.T).mod(p).multiply(Q.T).mod(p);
+        BigInteger zz = P.Z.multiply(Q.Z).mod(p);
+        return addFinish(P, Q.X.add(Q.Y), xx, yy, dtt, zz);
+    }
+
+    // addition with a precomputed point (Z = 1 and d*T already computed)
+    private ExtendedPoint add(ExtendedPoint P, PrecomputedPoint Q) {
+        BigInteger xx = P.X.multiply(Q.x).mod(p);
+        BigInteger yy = P.Y.multiply(Q.y).mod(p);
+        BigInteger dtt = P.T.multiply(Q.dt).mod(p);
+        return addFinish(P, Q.x.add(Q.y), xx, yy, dtt, P.Z);
+    }
+
+    private ExtendedPoint addFinish(ExtendedPoint P, BigInteger qxPlusQy, BigInteger xx, BigInteger yy, BigInteger dtt, BigInteger zz) {
+        BigInteger e = P.X.add(P.Y).multiply(qxPlusQy).subtract(xx).subtract(yy).mod(p);
+        BigInteger f = zz.subtract(dtt).mod(p);
+        BigInteger g = zz.add(dtt).mod(p);
+        BigInteger h = yy.subtract(xx).mod(p);
+        if (f.signum() == 0 || g.signum() == 0) {
+            // same exceptional case as the modInverse in pointAddition
+            throw new ArithmeticException("BigInteger not invertible.");
+        }
+        return new ExtendedPoint(e.multiply(f).mod(p), g.multiply(h).mod(p), f.multiply(g).mod(p), e.multiply(h).mod(p));
+    }
+
+    private ExtendedPoint extendedScalarMultiplication(BigInteger n, EdwardCurvePoint P) {
         if (n.equals(BigInteger.ZERO) || P.getY().equals(BigInteger.ONE)) {
-            return EdwardCurvePoint.noCheckFactory(BigInteger.ZERO, BigInteger.ONE, this);
+            return extendedIdentity();
         }
         if (P.getY().equals(p.subtract(BigInteger.ONE))) {
             if (n.testBit(0)) {
-                return EdwardCurvePoint.noCheckFactory(BigInteger.ZERO, p.subtract(BigInteger.ONE), this);
+                return toExtended(BigInteger.ZERO, p.subtract(BigInteger.ONE));
             } else {
-                return EdwardCurvePoint.noCheckFactory(BigInteger.ZERO, BigInteger.ONE, this);
+                return extendedIdentity();
             }
         }
-        EdwardCurvePoint Q = EdwardCurvePoint.noCheckFactory(P.getX(), P.getY(), this);
-        EdwardCurvePoint R = EdwardCurvePoint.noCheckFactory(BigInteger.ZERO, BigInteger.ONE, this);
 
         // reduce n mod cardinality so we can loop on cardinality.bitLength()
         n = n.mod(cardinality);
-        for (int i=cardinality.bitLength()-1; i>=0; i--) {
-            if (n.testBit(i)) {
-                R = pointAddition(R, Q);
-                Q = pointAddition(Q, Q);
-            } else {
-                Q = pointAddition(R, Q);
-                R = pointAddition(R, R);
+
+        if (G.equals(P)) {
+            PrecomputedPoint[][] table = getFixedBaseTable();
+            ExtendedPoint R = extendedIdentity();
+            for (int i=0; i<table.length; i++) {
+                R = add(R, table[i][window(n, i)]);
+            }
+            return R;
+        }
+
+        return windowMultiplication(n, computeMultiples(P));
+    }
+
+    private ExtendedPoint[] computeMultiples(EdwardCurvePoint P) {
+        ExtendedPoint[] multiples = new ExtendedPoint[WINDOW_SIZE];
+        multiples[0] = extendedIdentity();
+        multiples[1] = toExtended(P.getX(), P.getY());
+        for (int j=2; j<WINDOW_SIZE; j++) {
+            multiples[j] = add(multiples[j-1], multiples[1]);
+        }
+        return multiples;
+    }
+
+    // n must already be reduced mod cardinality
+    private ExtendedPoint windowMultiplication(BigInteger n, ExtendedPoint[] multiples) {
+        int windowCount = (cardinality.bitLength() + WINDOW_BITS - 1) / WINDOW_BITS;
+        ExtendedPoint R = extendedIdentity();
+        for (int i=windowCount-1; i>=0; i--) {
+            for (int j=0; j<WINDOW_BITS; j++) {
+                R = add(R, R);
             }
+            // always add, even for a zero window, so the sequence of operations does not depend on n
+            R = add(R, multiples[window(n, i)]);
         }
         return R;
     }
 
+    private static int window(BigInteger n, int i) {
+        int w = 0;
+        for (int b=WINDOW_BITS-1; b>=0; b--) {
+            w = (w << 1) | (n.testBit(i * WINDOW_BITS + b) ? 1 : 0);
+        }
+        return w;
+    }
 
-    public EdwardCurvePoint[] mulAdd(BigInteger a, EdwardCurvePoint P1, BigInteger b, EdwardCurvePoint P2) {
-        EdwardCurvePoint P3 = scalarMultiplicationWithX(a, P1);
-        ArrayList<EdwardCurvePoint> list = new ArrayList<>();
-        if (P2.getX() != null) {
-            EdwardCurvePoint P4 = scalarMultiplicationWithX(b, P2);
-            list.add(pointAddition(P3, P4));
-        } else {
-            BigInteger Y4 = scalarMultiplication(b, P2.getY());
-            BigInteger X4 = xCoordinateFromY(Y4);
-            EdwardCurvePoint P4 = EdwardCurvePoint.noCheckFactory(X4, Y4, this);
-            list.add(pointAddition(P3, P4));
-            P4 = EdwardCurvePoint.noCheckFactory(p.subtract(X4), Y4, this);
-            list.add(pointAddition(P3, P4));
+    private PrecomputedPoint[][] getFixedBaseTable() {
+        PrecomputedPoint[][] table = fixedBaseTable;
+        if (table == null) {
+            synchronized (this) {
+                table = fixedBaseTable;
+                if (table == null) {
+                    table = computeFixedBaseTable();
+                    fixedBaseTable = table;
+                }
+            }
         }
-        return list.toArray(new EdwardCurvePoint[0]);
+        return table;
+    }
+
+    // table[i][j] = j * 16^i * G
+    private PrecomputedPoint[][] computeFixedBaseTable() {
+        int windowCount = (cardinality.bitLength() + WINDOW_BITS - 1) / WINDOW_BITS;
+        ExtendedPoint[] points = new ExtendedPoint[windowCount * (WINDOW_SIZE - 1)];
+        ExtendedPoint base = toExtended(G.getX(), G.getY());
+        for (int i=0; i<windowCount; i++) {
+            ExtendedPoint multiple = base;
+            for (int j=1; j<WINDOW_SIZE; j++) {
+                points[i * (WINDOW_SIZE - 1) + j - 1] = multiple;
+                multiple = add(multiple, base);
+            }
+            base = multiple;
+        }
+
+        // convert all points to affine coordinates with a single modular inversion (Montgomery's trick)
+        BigInteger[] partialProducts = new BigInteger[points.length];
+        BigInteger product = BigInteger.ONE;
+        for (int k=0; k<points.length; k++) {
+            partialProducts[k] = product;
+            product = product.multiply(points[k].Z).mod(p);
+        }
+        BigInteger inverse = product.modInverse(p);
+
+        PrecomputedPoint[][] table = new PrecomputedPoint[windowCount][WINDOW_SIZE];
+        PrecomputedPoint identity = new PrecomputedPoint(BigInteger.ZERO, BigInteger.ONE, BigInteger.ZERO);
+        for (int k=points.length-1; k>=0; k--) {
+            BigInteger zInv = inverse.multiply(partialProducts[k]).mod(p);
+            inverse = inverse.multiply(points[k].Z).mod(p);
+            BigInteger x = points[k].X.multiply(zInv).mod(p);
+            BigInteger y = points[k].Y.multiply(zInv).mod(p);
+            table[k / (WINDOW_SIZE - 1)][k % (WINDOW_SIZE - 1) + 1] = new PrecomputedPoint(x, y, d.multiply(x).mod(p).multiply(y).mod(p));
+        }
+        for (int i=0; i<windowCount; i++) {
+            table[i][0] = identity;
+        }
+        return table;
     }
 
+    // endregion
+
     public EdwardCurve.ScalarAndPoint generateRandomScalarAndPoint(PRNGService prng) {
         BigInteger a;
         do {
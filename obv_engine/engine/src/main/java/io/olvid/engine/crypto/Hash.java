@@ -19,9 +19,6 @@
 
 package io.olvid.engine.crypto;
 
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-
 public interface Hash {
     String SHA256 = "sha-256";
     String SHA512 = "sha-512";
@@ -32,15 +29,8 @@ public interface Hash {
 
 
 class HashSHA256 implements Hash {
-    private MessageDigest h;
     static final  int OUTPUT_LENGTH = 32;
 
-    HashSHA256() {
-        try {
-            h = MessageDigest.getInstance("SHA-256");
-        } catch (NoSuchAlgorithmException ignored) { }
-    }
-
     @Override
     public int outputLength() {
         return OUTPUT_LENGTH;
@@ -48,20 +38,13 @@ class HashSHA256 implements Hash {
 
     @Override
     public byte[] digest(byte[] data) {
-        return h.digest(data);
+        return Suite.getThreadSha256().digest(data);
     }
 }
 
 class HashSHA512 implements Hash {
-    private MessageDigest h;
     static final  int OUTPUT_LENGTH = 64;
 
-    HashSHA512() {
-        try {
-            h = MessageDigest.getInstance("SHA-512");
-        } catch (NoSuchAlgorithmException ignored) { }
-    }
-
     @Override
     public int outputLength() {
         return OUTPUT_LENGTH;
@@ -69,6 +52,6 @@ class HashSHA512 implements Hash {
 
     @Override
     public byte[] digest(byte[] data) {
-        return h.digest(data);
+        return Suite.getThreadSha512().digest(data);
     }
 }
\ No newline at end of file
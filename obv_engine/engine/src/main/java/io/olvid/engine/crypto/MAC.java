@@ -37,7 +37,10 @@ public interface MAC {
     int outputLength();
     byte[] digest(MACKey key, byte[] bytes) throws InvalidKeyException;
     byte[] digest(MACKey key, byte[] bytes, int inputLen) throws InvalidKeyException;
+    byte[] digest(MACKey key, byte[] bytes, int inputOffset, int inputLen) throws InvalidKeyException;
     boolean verify(MACKey key, byte[] bytes, byte[] mac) throws InvalidKeyException;
+    // verifies the mac of bytes[inputOffset, inputOffset + inputLen[ against the mac stored in bytes at macOffset, in constant time
+    boolean verify(MACKey key, byte[] bytes, int inputOffset, int inputLen, int macOffset) throws InvalidKeyException;
 
     MACKey generateKey(PRNG prng);
 }
@@ -53,7 +56,7 @@ class MACHmacSha256 implements MAC {
     @Override
     public byte[] digest(MACKey key, byte[] bytes) throws InvalidKeyException {
         try {
-            Mac h = Mac.getInstance("HmacSHA256");
+            Mac h = Suite.getThreadHmacSha256();
             h.init(new SecretKeySpec(key.getKeyBytes(), "HmacSHA256"));
             return h.doFinal(bytes);
         } catch (NoSuchAlgorithmException ignored) {}
@@ -62,10 +65,15 @@ class MACHmacSha256 implements MAC {
 
     @Override
     public byte[] digest(MACKey key, byte[] bytes, int inputLen) throws InvalidKeyException {
+        return digest(key, bytes, 0, inputLen);
+    }
+
+    @Override
+    public byte[] digest(MACKey key, byte[] bytes, int inputOffset, int inputLen) throws InvalidKeyException {
         try {
-            Mac h = Mac.getInstance("HmacSHA256");
+            Mac h = Suite.getThreadHmacSha256();
             h.init(new SecretKeySpec(key.getKeyBytes(), "HmacSHA256"));
-            h.update(bytes, 0, inputLen);
+            h.update(bytes, inputOffset, inputLen);
             return h.doFinal();
         } catch (NoSuchAlgorithmException ignored) {}
         return null;
@@ -78,6 +86,19 @@ class MACHmacSha256 implements MAC {
         return MessageDigest.isEqual(mac, newMac);
     }
 
+    @Override
+    public boolean verify(MACKey key, byte[] bytes, int inputOffset, int inputLen, int macOffset) throws InvalidKeyException {
+        byte[] newMac = digest(key, bytes, inputOffset, inputLen);
+        if (newMac == null || macOffset < 0 || macOffset + OUTPUT_LENGTH > bytes.length) {
+            return false;
+        }
+        int diff = 0;
+        for (int i = 0; i < OUTPUT_LENGTH; i++) {
+            diff |= newMac[i] ^ bytes[macOffset + i];
+        }
+        return diff == 0;
+    }
+
     @Override
     public MACKey generateKey(PRNG prng) {
         KDF kdf = Suite.getKDF(KDF.KDF_SHA256);
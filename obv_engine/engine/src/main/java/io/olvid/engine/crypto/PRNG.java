@@ -34,6 +34,7 @@ public interface PRNG {
 }
 
 class PRNGHmacSHA256 implements PRNG {
+    private static final MACHmacSha256 MAC_HMAC_SHA256 = new MACHmacSha256();
     byte[] state_k = new byte[MACHmacSha256Key.KEY_BYTE_LENGTH];
     byte[] state_v = new byte[MACHmacSha256.OUTPUT_LENGTH];
 
@@ -49,14 +50,14 @@ class PRNGHmacSHA256 implements PRNG {
             System.arraycopy(state_v, 0, in, 0, state_v.length);
             in[state_v.length] = 0;
             System.arraycopy(data, 0, in, state_v.length + 1, data.length);
-            state_k = new MACHmacSha256().digest(MACHmacSha256Key.of(state_k), in);
-            state_v = new MACHmacSha256().digest(MACHmacSha256Key.of(state_k), state_v);
+            state_k = MAC_HMAC_SHA256.digest(MACHmacSha256Key.of(state_k), in);
+            state_v = MAC_HMAC_SHA256.digest(MACHmacSha256Key.of(state_k), state_v);
             if (data.length > 0) {
                 System.arraycopy(state_v, 0, in, 0, state_v.length);
                 in[state_v.length] = 1;
                 System.arraycopy(data, 0, in, state_v.length + 1, data.length);
-                state_k = new MACHmacSha256().digest(MACHmacSha256Key.of(state_k), in);
-                state_v = new MACHmacSha256().digest(MACHmacSha256Key.of(state_k), state_v);
+                state_k = MAC_HMAC_SHA256.digest(MACHmacSha256Key.of(state_k), in);
+                state_v = MAC_HMAC_SHA256.digest(MACHmacSha256Key.of(state_k), state_v);
             }
         } catch (Exception ignored) {}
     }
@@ -70,7 +71,7 @@ class PRNGHmacSHA256 implements PRNG {
         byte[] output = new byte[l];
         for (int i=0; i<1+(l-1)/MACHmacSha256.OUTPUT_LENGTH; i++) {
             try {
-                state_v = new MACHmacSha256().digest(MACHmacSha256Key.of(state_k), state_v);
+                state_v = MAC_HMAC_SHA256.digest(MACHmacSha256Key.of(state_k), state_v);
                 System.arraycopy(state_v, 0, output, i*MACHmacSha256.OUTPUT_LENGTH, Math.min(MACHmacSha256.OUTPUT_LENGTH, l-i*MACHmacSha256.OUTPUT_LENGTH));
             } catch (Exception ignored) {}
         }
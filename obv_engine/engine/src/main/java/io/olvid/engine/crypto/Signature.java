@@ -21,11 +21,14 @@ package io.olvid.engine.crypto;
 
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.math.BigInteger;
 import java.security.InvalidKeyException;
 import java.security.MessageDigest;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 
 import io.olvid.engine.Logger;
 import io.olvid.engine.datatypes.Constants;
@@ -49,6 +52,12 @@ public abstract class Signature {
     public abstract byte[] sign(SignaturePrivateKey privateKey, byte[] message, PRNGService prng) throws InvalidKeyException;
     public abstract byte[] sign(SignaturePrivateKey privateKey, SignaturePublicKey publicKey, byte[] message, PRNGService prng) throws InvalidKeyException;
     public abstract boolean verify(SignaturePublicKey publicKey, byte[] message, byte[] signature) throws InvalidKeyException;
+    public abstract PreparedPublicKey prepare(SignaturePublicKey publicKey) throws InvalidKeyException;
+
+    // a public key for which all the verification work not depending on the message was done once
+    public interface PreparedPublicKey {
+        boolean verify(byte[] message, byte[] signature);
+    }
 
     public static boolean verify(Constants.SignatureContext signatureContext, Identity[] identities, Identity signerIdentity, byte[] signature) throws Exception {
         try {
@@ -98,14 +107,7 @@ public abstract class Signature {
     public static boolean verify(Constants.SignatureContext signatureContext, byte[] block, Identity signerIdentity, byte[] signature) throws Exception {
         try {
             SignaturePublicKey signaturePublicKey = signerIdentity.getServerAuthenticationPublicKey().getSignaturePublicKey();
-
-            byte[] prefix = Constants.getSignatureChallengePrefix(signatureContext);
-            byte[] padding = Arrays.copyOfRange(signature, 0, Constants.SIGNATURE_PADDING_LENGTH);
-            //noinspection ConstantConditions
-            byte[] challenge = new byte[prefix.length + block.length + Constants.SIGNATURE_PADDING_LENGTH];
-            System.arraycopy(prefix, 0, challenge, 0, prefix.length);
-            System.arraycopy(block, 0, challenge, prefix.length, block.length);
-            System.arraycopy(padding, 0, challenge, prefix.length + block.length, Constants.SIGNATURE_PADDING_LENGTH);
+            byte[] challenge = computeBlockChallenge(signatureContext, block, signature);
 
             Signature signatureAlgo = Suite.getSignature(signaturePublicKey);
             return signatureAlgo.verify(signaturePublicKey, challenge, Arrays.copyOfRange(signature, Constants.SIGNATURE_PADDING_LENGTH, signature.length));
@@ -118,18 +120,7 @@ public abstract class Signature {
     public static boolean verify(Constants.SignatureContext signatureContext, GroupV2.Identifier groupIdentifier, byte[] nonce, Identity contactIdentity, Identity signerIdentity, byte[] signature) throws Exception {
         try {
             SignaturePublicKey signaturePublicKey = signerIdentity.getServerAuthenticationPublicKey().getSignaturePublicKey();
-
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            //noinspection ConstantConditions
-            baos.write(Constants.getSignatureChallengePrefix(signatureContext));
-            baos.write(groupIdentifier.getBytes());
-            baos.write(nonce);
-            if (contactIdentity != null) {
-                baos.write(contactIdentity.getBytes());
-            }
-            baos.write(Arrays.copyOfRange(signature, 0, Constants.SIGNATURE_PADDING_LENGTH));
-            byte[] challenge = baos.toByteArray();
-            baos.close();
+            byte[] challenge = computeGroupNonceChallenge(signatureContext, groupIdentifier, nonce, contactIdentity, signature);
 
             Signature signatureAlgo = Suite.getSignature(signaturePublicKey);
             return signatureAlgo.verify(signaturePublicKey, challenge, Arrays.copyOfRange(signature, Constants.SIGNATURE_PADDING_LENGTH, signature.length));
@@ -139,6 +130,125 @@ public abstract class Signature {
         }
     }
 
+    private static byte[] computeBlockChallenge(Constants.SignatureContext signatureContext, byte[] block, byte[] signature) {
+        byte[] prefix = Constants.getSignatureChallengePrefix(signatureContext);
+        byte[] padding = Arrays.copyOfRange(signature, 0, Constants.SIGNATURE_PADDING_LENGTH);
+        //noinspection ConstantConditions
+        byte[] challenge = new byte[prefix.length + block.length + Constants.SIGNATURE_PADDING_LENGTH];
+        System.arraycopy(prefix, 0, challenge, 0, prefix.length);
+        System.arraycopy(block, 0, challenge, prefix.length, block.length);
+        System.arraycopy(padding, 0, challenge, prefix.length + block.length, Constants.SIGNATURE_PADDING_LENGTH);
+        return challenge;
+    }
+
+    private static byte[] computeGroupNonceChallenge(Constants.SignatureContext signatureContext, GroupV2.Identifier groupIdentifier, byte[] nonce, Identity contactIdentity, byte[] signature) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        //noinspection ConstantConditions
+        baos.write(Constants.getSignatureChallengePrefix(signatureContext));
+        baos.write(groupIdentifier.getBytes());
+        baos.write(nonce);
+        if (contactIdentity != null) {
+            baos.write(contactIdentity.getBytes());
+        }
+        baos.write(Arrays.copyOfRange(signature, 0, Constants.SIGNATURE_PADDING_LENGTH));
+        byte[] challenge = baos.toByteArray();
+        baos.close();
+        return challenge;
+    }
+
+    // region batch verification
+
+    // Verifies many signatures from a limited set of signers, like the blocks of a group administrators chain or the
+    // group leave log entries checked against all members. ECSdsa signatures contain the challenge hash, not the
+    // commitment point, so they cannot be merged in a single multi-scalar multiplication: instead, each signer's
+    // public key is prepared once (low order check and precomputed multiples) and reused for all its signatures.
+    public static class BatchVerifier {
+        private final HashMap<Identity, PreparedPublicKey> preparedPublicKeys;
+        private final List<PreparedPublicKey> pendingPublicKeys;
+        private final List<byte[]> pendingChallenges;
+        private final List<byte[]> pendingSignatures;
+
+        public BatchVerifier() {
+            this.preparedPublicKeys = new HashMap<>();
+            this.pendingPublicKeys = new ArrayList<>();
+            this.pendingChallenges = new ArrayList<>();
+            this.pendingSignatures = new ArrayList<>();
+        }
+
+        public void add(Constants.SignatureContext signatureContext, byte[] block, Identity signerIdentity, byte[] signature) {
+            PreparedPublicKey preparedPublicKey = null;
+            byte[] challenge = null;
+            byte[] signatureBytes = null;
+            try {
+                preparedPublicKey = getPreparedPublicKey(signerIdentity);
+                challenge = computeBlockChallenge(signatureContext, block, signature);
+                signatureBytes = Arrays.copyOfRange(signature, Constants.SIGNATURE_PADDING_LENGTH, signature.length);
+            } catch (Exception e) {
+                // the signature is recorded as invalid
+                preparedPublicKey = null;
+            }
+            pendingPublicKeys.add(preparedPublicKey);
+            pendingChallenges.add(challenge);
+            pendingSignatures.add(signatureBytes);
+        }
+
+        // Returns the index (in the order of the add() calls) of the first invalid signature, or -1 if all are valid.
+        // Pending signatures are cleared, but prepared public keys are kept for later calls.
+        public int verifyAll() {
+            try {
+                for (int i = 0; i < pendingPublicKeys.size(); i++) {
+                    PreparedPublicKey preparedPublicKey = pendingPublicKeys.get(i);
+                    try {
+                        if (preparedPublicKey == null || !preparedPublicKey.verify(pendingChallenges.get(i), pendingSignatures.get(i))) {
+                            return i;
+                        }
+                    } catch (Exception e) {
+                        return i;
+                    }
+                }
+                return -1;
+            } finally {
+                pendingPublicKeys.clear();
+                pendingChallenges.clear();
+                pendingSignatures.clear();
+            }
+        }
+
+        public boolean verify(Constants.SignatureContext signatureContext, byte[] block, Identity signerIdentity, byte[] signature) throws Exception {
+            try {
+                PreparedPublicKey preparedPublicKey = getPreparedPublicKey(signerIdentity);
+                byte[] challenge = computeBlockChallenge(signatureContext, block, signature);
+                return preparedPublicKey.verify(challenge, Arrays.copyOfRange(signature, Constants.SIGNATURE_PADDING_LENGTH, signature.length));
+            } catch (InvalidKeyException e) {
+                Logger.x(e);
+                return false;
+            }
+        }
+
+        public boolean verify(Constants.SignatureContext signatureContext, GroupV2.Identifier groupIdentifier, byte[] nonce, Identity contactIdentity, Identity signerIdentity, byte[] signature) throws Exception {
+            try {
+                PreparedPublicKey preparedPublicKey = getPreparedPublicKey(signerIdentity);
+                byte[] challenge = computeGroupNonceChallenge(signatureContext, groupIdentifier, nonce, contactIdentity, signature);
+                return preparedPublicKey.verify(challenge, Arrays.copyOfRange(signature, Constants.SIGNATURE_PADDING_LENGTH, signature.length));
+            } catch (InvalidKeyException e) {
+                Logger.x(e);
+                return false;
+            }
+        }
+
+        private PreparedPublicKey getPreparedPublicKey(Identity signerIdentity) throws Exception {
+            PreparedPublicKey preparedPublicKey = preparedPublicKeys.get(signerIdentity);
+            if (preparedPublicKey == null) {
+                SignaturePublicKey signaturePublicKey = signerIdentity.getServerAuthenticationPublicKey().getSignaturePublicKey();
+                preparedPublicKey = Suite.getSignature(signaturePublicKey).prepare(signaturePublicKey);
+                preparedPublicKeys.put(signerIdentity, preparedPublicKey);
+            }
+            return preparedPublicKey;
+        }
+    }
+
+    // endregion
+
     public static byte[] sign(Constants.SignatureContext signatureContext, SignaturePrivateKey signaturePrivateKey, PRNGService prng) {
         try {
             byte[] prefix = Constants.getSignatureChallengePrefix(signatureContext);
@@ -226,6 +336,23 @@ abstract class SignatureECSdsa extends Signature {
     }
 
     public boolean internalVerify(SignatureECSdsaPublicKey publicKey, byte[] message, byte[] signature) {
+        return internalPrepare(publicKey).verify(message, signature);
+    }
+
+    PreparedPublicKey internalPrepare(SignatureECSdsaPublicKey publicKey) {
+        EdwardCurvePoint A = EdwardCurvePoint.noCheckFactory(publicKey.getAx(), publicKey.getAy(), curve);
+
+        // check that the public key A is not a low order point
+        if (A.isLowOrderPoint()) {
+            return (message, signature) -> false;
+        }
+
+        // keys without an x coordinate cannot be precomputed, mulAdd then returns both candidate points
+        EdwardCurve.PointMultiples multiples = (A.getX() == null) ? null : curve.precomputeMultiples(A);
+        return (message, signature) -> internalVerify(publicKey, A, multiples, message, signature);
+    }
+
+    private boolean internalVerify(SignatureECSdsaPublicKey publicKey, EdwardCurvePoint A, EdwardCurve.PointMultiples multiples, byte[] message, byte[] signature) {
         try {
             int l = curve.byteLength;
             // Our verification supports both hash with SHA256 (legacy) and SHA512
@@ -237,13 +364,6 @@ abstract class SignatureECSdsa extends Signature {
             } else {
                 return false;
             }
-            EdwardCurvePoint A = EdwardCurvePoint.noCheckFactory(publicKey.getAx(), publicKey.getAy(), curve);
-
-            // check that the public key A is not a low order point
-            if (A.isLowOrderPoint()) {
-                return false;
-            }
-
             byte[] hash = Arrays.copyOfRange(signature, 0, signature.length  - l);
             BigInteger e = Encoded.bigUIntFromBytes(hash);
             BigInteger y = Encoded.bigUIntFromBytes(Arrays.copyOfRange(signature, signature.length - l, signature.length));
@@ -251,7 +371,12 @@ abstract class SignatureECSdsa extends Signature {
             if (y.compareTo(curve.q) >= 0) {
                 return false;
             }
-            EdwardCurvePoint[] points = curve.mulAdd(y, curve.G, e, A);
+            EdwardCurvePoint[] points;
+            if (multiples != null) {
+                points = new EdwardCurvePoint[]{curve.mulAdd(y, curve.G, e, multiples)};
+            } else {
+                points = curve.mulAdd(y, curve.G, e, A);
+            }
 
             byte[] hashInput = new byte[message.length + 2*l];
             System.arraycopy(Encoded.bytesFromBigUInt(publicKey.getAy(), l), 0, hashInput, l, l);
@@ -300,6 +425,14 @@ class SignatureECSdsaMDC extends SignatureECSdsa {
         }
         return internalVerify((SignatureECSdsaPublicKey) publicKey, message, signature);
     }
+
+    @Override
+    public PreparedPublicKey prepare(SignaturePublicKey publicKey) throws InvalidKeyException {
+        if (! (publicKey instanceof SignatureECSdsaMDCPublicKey)) {
+            throw new InvalidKeyException();
+        }
+        return internalPrepare((SignatureECSdsaPublicKey) publicKey);
+    }
 }
 
 class SignatureECSdsaCurve25519 extends SignatureECSdsa {
@@ -330,4 +463,12 @@ class SignatureECSdsaCurve25519 extends SignatureECSdsa {
         }
         return internalVerify((SignatureECSdsaPublicKey) publicKey, message, signature);
     }
+
+    @Override
+    public PreparedPublicKey prepare(SignaturePublicKey publicKey) throws InvalidKeyException {
+        if (! (publicKey instanceof SignatureECSdsaCurve25519PublicKey)) {
+            throw new InvalidKeyException();
+        }
+        return internalPrepare((SignatureECSdsaPublicKey) publicKey);
+    }
 }
\ No newline at end of file
@@ -20,6 +20,12 @@
 package io.olvid.engine.crypto;
 
 import java.security.InvalidParameterException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.NoSuchPaddingException;
 
 import io.olvid.engine.datatypes.Seed;
 import io.olvid.engine.datatypes.key.CryptographicKey;
@@ -41,6 +47,86 @@ public class Suite {
     public static final int LATEST_VERSION = 0;
     public static final int MINIMUM_ACCEPTABLE_VERSION = 0;
 
+    // region per-thread JCA instances
+
+    // Looking up a provider in Mac.getInstance(), Cipher.getInstance() or MessageDigest.getInstance() costs more than
+    // processing a short message. These objects are not thread-safe, so each thread keeps its own instances.
+    // They must only be used within a single call (init, update, doFinal) and never be kept in a field.
+    private static final ThreadLocal<Mac> hmacSha256ThreadLocal = new ThreadLocal<Mac>() {
+        @Override
+        protected Mac initialValue() {
+            try {
+                return Mac.getInstance("HmacSHA256");
+            } catch (NoSuchAlgorithmException e) {
+                return null;
+            }
+        }
+    };
+
+    private static final ThreadLocal<Cipher> aesCtrThreadLocal = new ThreadLocal<Cipher>() {
+        @Override
+        protected Cipher initialValue() {
+            try {
+                return Cipher.getInstance("AES/CTR/NoPadding");
+            } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+                return null;
+            }
+        }
+    };
+
+    private static final ThreadLocal<MessageDigest> sha256ThreadLocal = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                return null;
+            }
+        }
+    };
+
+    private static final ThreadLocal<MessageDigest> sha512ThreadLocal = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("SHA-512");
+            } catch (NoSuchAlgorithmException e) {
+                return null;
+            }
+        }
+    };
+
+    static Mac getThreadHmacSha256() throws NoSuchAlgorithmException {
+        Mac mac = hmacSha256ThreadLocal.get();
+        if (mac == null) {
+            throw new NoSuchAlgorithmException();
+        }
+        return mac;
+    }
+
+    static Cipher getThreadAesCtr() throws NoSuchAlgorithmException {
+        Cipher cipher = aesCtrThreadLocal.get();
+        if (cipher == null) {
+            throw new NoSuchAlgorithmException();
+        }
+        return cipher;
+    }
+
+    static MessageDigest getThreadSha256() {
+        MessageDigest messageDigest = sha256ThreadLocal.get();
+        // a MessageDigest is reset after each digest(), but a previous caller may have thrown in the middle of an update
+        messageDigest.reset();
+        return messageDigest;
+    }
+
+    static MessageDigest getThreadSha512() {
+        MessageDigest messageDigest = sha512ThreadLocal.get();
+        messageDigest.reset();
+        return messageDigest;
+    }
+
+    // endregion
+
     public static AuthEnc getAuthEnc(String authEncName) {
         switch (authEncName) {
             case AuthEnc.CTR_AES256_THEN_HMAC_SHA256:
@@ -20,7 +20,6 @@
 package io.olvid.engine.crypto;
 
 import java.security.InvalidKeyException;
-import java.util.Arrays;
 
 import javax.crypto.Cipher;
 import javax.crypto.spec.IvParameterSpec;
@@ -39,7 +38,11 @@ interface SymEnc {
     int ciphertextLengthFromPlaintextLength(int plaintextLength);
     int plaintextLengthFromCiphertextLength(int ciphertextLength);
     void encrypt(byte[] iv, byte[] plaintext, byte[] ciphertext) throws InvalidKeyException;
+    // ciphertext may be the same array as plaintext (in place encryption if ciphertextOffset + ivByteLength() == plaintextOffset)
+    void encrypt(byte[] iv, byte[] plaintext, int plaintextOffset, int plaintextLength, byte[] ciphertext, int ciphertextOffset) throws InvalidKeyException;
     byte[] decrypt(EncryptedBytes ciphertext);
+    // output may be the same array as ciphertext (in place decryption if outputOffset == ciphertextOffset + ivByteLength()), returns false on error
+    boolean decrypt(byte[] ciphertext, int ciphertextOffset, int ciphertextLength, byte[] output, int outputOffset);
 }
 
 class KDFDelegateForSymEncCtrAES256 implements KDF.Delegate {
@@ -57,8 +60,7 @@ class KDFDelegateForSymEncCtrAES256 implements KDF.Delegate {
 }
 
 class SymEncCtrAES256 implements SymEnc {
-    private Cipher aes;
-    private SymEncCTRAES256Key key;
+    private final SymEncCTRAES256Key key;
     static final int KEY_BYTE_LENGTH = 32;
     static final int IV_BYTE_LENGTH = 8;
     static final int AES_BLOCK_BYTE_LENGTH = 16;
@@ -66,10 +68,7 @@ class SymEncCtrAES256 implements SymEnc {
     private static final int ENCRYPT_BUFFER_SIZE = 262_144;
 
     SymEncCtrAES256(SymEncCTRAES256Key key) throws InvalidKeyException {
-        try {
-            aes = Cipher.getInstance("AES/CTR/NoPadding");
-            this.key = key;
-        } catch (Exception ignored) {}
+        this.key = key;
     }
 
     @Override
@@ -94,20 +93,26 @@ class SymEncCtrAES256 implements SymEnc {
 
     @Override
     public void encrypt(byte[] iv, byte[] plaintext, byte[] ciphertext) throws InvalidKeyException {
+        encrypt(iv, plaintext, 0, plaintext.length, ciphertext, 0);
+    }
+
+    @Override
+    public void encrypt(byte[] iv, byte[] plaintext, int plaintextOffset, int plaintextLength, byte[] ciphertext, int ciphertextOffset) throws InvalidKeyException {
         if (iv.length != IV_BYTE_LENGTH) {
             throw new InvalidKeyException();
         }
-        System.arraycopy(iv, 0, ciphertext, 0, IV_BYTE_LENGTH);
+        System.arraycopy(iv, 0, ciphertext, ciphertextOffset, IV_BYTE_LENGTH);
 
         byte[] fullIV = new byte[AES_BLOCK_BYTE_LENGTH];
         System.arraycopy(iv, 0, fullIV, 0, IV_BYTE_LENGTH);
 
         try {
+            Cipher aes = Suite.getThreadAesCtr();
             aes.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key.getKeyBytes(), "AES"), new IvParameterSpec(fullIV));
-            int outOffset = IV_BYTE_LENGTH;
-            for (int offsetIn = 0; offsetIn < plaintext.length; offsetIn += ENCRYPT_BUFFER_SIZE) {
-                int len = Math.min(plaintext.length - offsetIn, ENCRYPT_BUFFER_SIZE);
-                outOffset += aes.update(plaintext, offsetIn, len, ciphertext, outOffset);
+            int outOffset = ciphertextOffset + IV_BYTE_LENGTH;
+            for (int offsetIn = 0; offsetIn < plaintextLength; offsetIn += ENCRYPT_BUFFER_SIZE) {
+                int len = Math.min(plaintextLength - offsetIn, ENCRYPT_BUFFER_SIZE);
+                outOffset += aes.update(plaintext, plaintextOffset + offsetIn, len, ciphertext, outOffset);
             }
         } catch (Exception e) {
             Logger.x(e);
@@ -117,19 +122,26 @@ class SymEncCtrAES256 implements SymEnc {
     @Override
     public byte[] decrypt(EncryptedBytes ciphertext) {
         byte[] ciphertextBytes = ciphertext.getBytes();
-        byte[] iv = Arrays.copyOfRange(ciphertextBytes, 0, IV_BYTE_LENGTH);
-        byte[] ciphertextEnd = Arrays.copyOfRange(ciphertextBytes, IV_BYTE_LENGTH, ciphertextBytes.length);
-        byte[] plaintext = null;
+        byte[] plaintext = new byte[plaintextLengthFromCiphertextLength(ciphertextBytes.length)];
+        if (!decrypt(ciphertextBytes, 0, ciphertextBytes.length, plaintext, 0)) {
+            return null;
+        }
+        return plaintext;
+    }
 
+    @Override
+    public boolean decrypt(byte[] ciphertext, int ciphertextOffset, int ciphertextLength, byte[] output, int outputOffset) {
         byte[] fullIV = new byte[AES_BLOCK_BYTE_LENGTH];
-        System.arraycopy(iv, 0, fullIV, 0, IV_BYTE_LENGTH);
+        System.arraycopy(ciphertext, ciphertextOffset, fullIV, 0, IV_BYTE_LENGTH);
 
         try {
+            Cipher aes = Suite.getThreadAesCtr();
             aes.init(Cipher.DECRYPT_MODE, new SecretKeySpec(key.getKeyBytes(), "AES"), new IvParameterSpec(fullIV));
-            plaintext = aes.doFinal(ciphertextEnd);
+            aes.doFinal(ciphertext, ciphertextOffset + IV_BYTE_LENGTH, ciphertextLength - IV_BYTE_LENGTH, output, outputOffset);
+            return true;
         } catch (Exception e) {
             Logger.x(e);
+            return false;
         }
-        return plaintext;
     }
 }
\ No newline at end of file
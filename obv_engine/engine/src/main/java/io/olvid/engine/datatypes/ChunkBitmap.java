@@ -0,0 +1,96 @@
+/*
+ *  Olvid for Android
+ *  Copyright © 2019-2026 Olvid SAS
+ *
+ *  This file is part of Olvid for Android.
+ *
+ *  Olvid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License, version 3,
+ *  as published by the Free Software Foundation.
+ *
+ *  Olvid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with Olvid.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.olvid.engine.datatypes;
+
+
+// Tracks which chunks of an attachment are done when chunks complete out of order. It is stored as a BLOB (one bit per
+// chunk, little-endian within each byte). A null BLOB is used for rows created before the bitmap existed, where only a
+// count of chunks done from the start of the attachment was stored.
+public class ChunkBitmap {
+    private final int numberOfChunks;
+    private final byte[] bits;
+    private int count;
+
+    public ChunkBitmap(int numberOfChunks, byte[] bytes, int prefixChunkCount) {
+        this.numberOfChunks = numberOfChunks;
+        this.bits = new byte[(numberOfChunks + 7) / 8];
+        if (bytes != null) {
+            System.arraycopy(bytes, 0, bits, 0, Math.min(bytes.length, bits.length));
+            // ignore any bit beyond the last chunk
+            if (numberOfChunks % 8 != 0) {
+                bits[bits.length - 1] &= (byte) ((1 << (numberOfChunks % 8)) - 1);
+            }
+        } else {
+            for (int i=0; i<Math.min(prefixChunkCount, numberOfChunks); i++) {
+                bits[i >> 3] |= (byte) (1 << (i & 7));
+            }
+        }
+        this.count = 0;
+        for (byte b : bits) {
+            count += Integer.bitCount(b & 0xff);
+        }
+    }
+
+    public int getNumberOfChunks() {
+        return numberOfChunks;
+    }
+
+    public boolean isSet(int chunkNumber) {
+        return (bits[chunkNumber >> 3] & (1 << (chunkNumber & 7))) != 0;
+    }
+
+    // returns true if the bit was not already set
+    public boolean set(int chunkNumber) {
+        if (isSet(chunkNumber)) {
+            return false;
+        }
+        bits[chunkNumber >> 3] |= (byte) (1 << (chunkNumber & 7));
+        count++;
+        return true;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public boolean isComplete() {
+        return count == numberOfChunks;
+    }
+
+    // returns the first chunk number >= from which is not set, or -1
+    public int nextUnset(int from) {
+        for (int i=Math.max(0, from); i<numberOfChunks; i++) {
+            if (!isSet(i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // length of the run of set chunks starting from chunk 0
+    public int getPrefixCount() {
+        int next = nextUnset(0);
+        return next == -1 ? numberOfChunks : next;
+    }
+
+    public byte[] getBytes() {
+        return bits.clone();
+    }
+}
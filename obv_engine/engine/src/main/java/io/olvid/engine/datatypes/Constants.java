@@ -23,7 +23,7 @@ package io.olvid.engine.datatypes;
 import java.nio.charset.StandardCharsets;
 
 public abstract class Constants {
-    public static final int CURRENT_ENGINE_DB_SCHEMA_VERSION = 51;
+    public static final int CURRENT_ENGINE_DB_SCHEMA_VERSION = 54;
     public static final int SERVER_API_VERSION = 21;
     public static final int CURRENT_BACKUP_JSON_VERSION = 0;
 
@@ -63,6 +63,7 @@ public abstract class Constants {
 
     public static final long OUTBOX_MESSAGE_MAX_SEND_DELAY = 86_400_000L * 30; // after 30 days without being able to upload a message, delete it
     public static final long PROTOCOL_RECEIVED_MESSAGE_EXPIRATION_DELAY = 86_400_000L * 15; // expire ReceivedMessage after 15 days
+    public static final int PROTOCOL_STEP_COORDINATOR_SHARD_COUNT = 4; // steps of a given protocol instance always run on the same shard, one at a time
     public static final long SERVER_QUERY_EXPIRATION_DELAY = 86_400_000L * 30; // expire PendingServerQuery after 30 days
     public static final long RETURN_RECEIPT_EXPIRATION_DELAY = 86_400_000L * 60; // delete ReturnReceipt after 60 days if it could not be uploaded
     public static final long GROUP_V2_PRE_SHOT_VERSION_SEED_TTL = 86_400_000L * 60; // expire PreShotVersionSeed after 60 days
@@ -109,6 +110,8 @@ public abstract class Constants {
     public static final int GROUP_V2_LOCK_NONCE_LENGTH = 32;
 
     public static final int DEFAULT_ATTACHMENT_CHUNK_LENGTH = 4*2048*1024;
+    public static final int MAX_IN_FLIGHT_ATTACHMENT_UPLOAD_CHUNKS = 3; // per attachment, chunks are streamed from the file so each one in flight only holds a connection and a small buffer
+    public static final int MAX_IN_FLIGHT_ATTACHMENT_DOWNLOAD_CHUNKS = 3; // per attachment
     public static final int MAX_MESSAGE_EXTENDED_CONTENT_LENGTH = 50 * 1024;
     public static final int MAX_UPLOAD_MESSAGE_BATCH_SIZE = 50;
     public static final int MAX_UPLOAD_MESSAGE_BATCH_HEADER_COUNT = 1_000;
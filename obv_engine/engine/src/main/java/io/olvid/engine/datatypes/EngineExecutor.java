@@ -0,0 +1,222 @@
+/*
+ *  Olvid for Android
+ *  Copyright © 2019-2026 Olvid SAS
+ *
+ *  This file is part of Olvid for Android.
+ *
+ *  Olvid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License, version 3,
+ *  as published by the Free Software Foundation.
+ *
+ *  Olvid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with Olvid.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.olvid.engine.datatypes;
+
+
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.olvid.engine.Logger;
+
+// Engine-wide executor shared by all operation queues and schedulers, so that an idle engine does not keep dozens of
+// threads parked on empty queues:
+//  - queue workers and scheduled tasks are run on a single pool, whose threads are created on demand and stop after
+//    THREAD_KEEP_ALIVE_SECONDS of inactivity
+//  - the pool is not bounded and never queues a task: composite operations block a worker while waiting for their
+//    sub-operations, and attachment chunk tasks block on network I/O, so a task waiting behind them for a free worker
+//    could deadlock the engine
+//  - on JVMs supporting them, virtual threads can be used instead (see setUseVirtualThreads)
+//  - delayed tasks are handled by a single HashedTimerWheel
+public class EngineExecutor {
+    static final long THREAD_KEEP_ALIVE_SECONDS = 30;
+
+    private static boolean useVirtualThreads = false;
+    private static volatile ExecutorService executorService;
+    private static volatile HashedTimerWheel timerWheel;
+
+    private static final AtomicInteger runningTaskCount = new AtomicInteger(0);
+    private static final AtomicLong executedTaskCount = new AtomicLong(0);
+    private static final AtomicLong totalSchedulingLatencyMicro = new AtomicLong(0);
+    private static final AtomicLong maxSchedulingLatencyMicro = new AtomicLong(0);
+
+    // must be called before the engine is started, has no effect if virtual threads are not available
+    public static void setUseVirtualThreads(boolean useVirtualThreads) {
+        EngineExecutor.useVirtualThreads = useVirtualThreads;
+    }
+
+    private static ExecutorService getExecutorService() {
+        if (executorService == null) {
+            synchronized (EngineExecutor.class) {
+                if (executorService == null) {
+                    executorService = createExecutorService();
+                }
+            }
+        }
+        return executorService;
+    }
+
+    private static ExecutorService createExecutorService() {
+        if (useVirtualThreads) {
+            try {
+                Method method = java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                Logger.i("EngineExecutor using virtual threads");
+                return (ExecutorService) method.invoke(null);
+            } catch (Exception e) {
+                Logger.i("Virtual threads not available, EngineExecutor using a thread pool");
+            }
+        }
+        AtomicInteger threadCount = new AtomicInteger(0);
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "Engine-worker-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        // a SynchronousQueue hands each task to an idle thread, or a new one if none is available
+        return new ThreadPoolExecutor(0, Integer.MAX_VALUE, THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new SynchronousQueue<>(), threadFactory);
+    }
+
+    static HashedTimerWheel getTimerWheel() {
+        if (timerWheel == null) {
+            synchronized (EngineExecutor.class) {
+                if (timerWheel == null) {
+                    timerWheel = new HashedTimerWheel();
+                }
+            }
+        }
+        return timerWheel;
+    }
+
+    public static void execute(Runnable runnable) {
+        final long submitTime = System.nanoTime();
+        getExecutorService().execute(() -> {
+            long latencyMicro = (System.nanoTime() - submitTime) / 1000;
+            totalSchedulingLatencyMicro.addAndGet(latencyMicro);
+            long max = maxSchedulingLatencyMicro.get();
+            while (latencyMicro > max && !maxSchedulingLatencyMicro.compareAndSet(max, latencyMicro)) {
+                max = maxSchedulingLatencyMicro.get();
+            }
+            runningTaskCount.incrementAndGet();
+            try {
+                runnable.run();
+            } catch (Throwable e) {
+                Logger.e("Uncaught exception in an EngineExecutor task");
+                Logger.x(e);
+            } finally {
+                runningTaskCount.decrementAndGet();
+                executedTaskCount.incrementAndGet();
+            }
+        });
+    }
+
+    // same as execute, but the returned Future lets the caller wait for the runnable to complete, or cancel it
+    public static Future<?> submit(Runnable runnable) {
+        FutureTask<Void> futureTask = new FutureTask<>(runnable, null);
+        execute(futureTask);
+        return futureTask;
+    }
+
+    // waits until none of the tasks is running anymore, whatever their outcome. If interrupted, the remaining tasks are
+    // cancelled (and interrupted) instead, and the interrupt flag is restored.
+    public static void awaitAll(Collection<? extends Future<?>> futures) {
+        boolean interrupted = false;
+        for (Future<?> future : futures) {
+            if (interrupted) {
+                future.cancel(true);
+                continue;
+            }
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                interrupted = true;
+                future.cancel(true);
+            } catch (ExecutionException | CancellationException e) {
+                // the task is not running anymore
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // the runnable is run on the executor, not on the timer thread
+    public static HashedTimerWheel.Timeout schedule(Runnable runnable, long delayMillis) {
+        return getTimerWheel().schedule(runnable, delayMillis, 0);
+    }
+
+    public static HashedTimerWheel.Timeout scheduleWithFixedDelay(Runnable runnable, long initialDelayMillis, long delayMillis) {
+        return getTimerWheel().schedule(runnable, initialDelayMillis, delayMillis);
+    }
+
+    // region metrics
+
+    public static Statistics getStatistics() {
+        int threadCount;
+        int largestThreadCount;
+        ExecutorService executor = executorService;
+        if (executor instanceof ThreadPoolExecutor) {
+            threadCount = ((ThreadPoolExecutor) executor).getPoolSize();
+            largestThreadCount = ((ThreadPoolExecutor) executor).getLargestPoolSize();
+        } else {
+            // virtual threads (or not started yet): only count the threads running a task
+            threadCount = runningTaskCount.get();
+            largestThreadCount = -1;
+        }
+        HashedTimerWheel wheel = timerWheel;
+        long executed = executedTaskCount.get();
+        return new Statistics(
+                threadCount,
+                largestThreadCount,
+                runningTaskCount.get(),
+                executed,
+                executed == 0 ? 0 : totalSchedulingLatencyMicro.get() / executed,
+                maxSchedulingLatencyMicro.get(),
+                wheel == null ? 0 : wheel.getPendingTimeoutCount(),
+                wheel == null ? 0 : wheel.getAverageLatenessMicro(),
+                wheel == null ? 0 : wheel.getMaxLatenessMicro()
+        );
+    }
+
+    public static class Statistics {
+        public final int threadCount;
+        public final int largestThreadCount; // -1 when using virtual threads
+        public final int runningTaskCount;
+        public final long executedTaskCount;
+        public final long averageSchedulingLatencyMicro; // time between submission and start of a task
+        public final long maxSchedulingLatencyMicro;
+        public final int pendingTimerCount;
+        public final long averageTimerLatenessMicro; // time between the deadline of a timer and its submission to the executor
+        public final long maxTimerLatenessMicro;
+
+        Statistics(int threadCount, int largestThreadCount, int runningTaskCount, long executedTaskCount, long averageSchedulingLatencyMicro, long maxSchedulingLatencyMicro, int pendingTimerCount, long averageTimerLatenessMicro, long maxTimerLatenessMicro) {
+            this.threadCount = threadCount;
+            this.largestThreadCount = largestThreadCount;
+            this.runningTaskCount = runningTaskCount;
+            this.executedTaskCount = executedTaskCount;
+            this.averageSchedulingLatencyMicro = averageSchedulingLatencyMicro;
+            this.maxSchedulingLatencyMicro = maxSchedulingLatencyMicro;
+            this.pendingTimerCount = pendingTimerCount;
+            this.averageTimerLatenessMicro = averageTimerLatenessMicro;
+            this.maxTimerLatenessMicro = maxTimerLatenessMicro;
+        }
+    }
+
+    // endregion
+}
@@ -23,14 +23,10 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Random;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
 
 import io.olvid.engine.Logger;
 
 public class ExponentialBackoffRepeatingScheduler<T> {
-    private final ScheduledExecutorService scheduler;
     private final HashMap<T, Integer> failedAttemptCounts;
     private final HashMap<T, Runnable> pendingRunnables;
     private final Object lock = new Object();
@@ -38,7 +34,6 @@ public class ExponentialBackoffRepeatingScheduler<T> {
 
 
     public ExponentialBackoffRepeatingScheduler() {
-        this.scheduler = Executors.newScheduledThreadPool(1);
         this.failedAttemptCounts = new HashMap<>();
         this.pendingRunnables = new HashMap<>();
     }
@@ -66,7 +61,8 @@ public class ExponentialBackoffRepeatingScheduler<T> {
             if (tag != null) {
                 Logger.i("Scheduling a " + tag + " for " + key.toString() + " in " + delay + "ms.");
             }
-            scheduler.schedule(() -> {
+            // tasks are run on the shared EngineExecutor, they may run concurrently
+            EngineExecutor.schedule(() -> {
                 Runnable runnab;
                 synchronized (lock) {
                     runnab = pendingRunnables.get(key);
@@ -77,7 +73,7 @@ public class ExponentialBackoffRepeatingScheduler<T> {
                 if (runnab != null) {
                     runnab.run();
                 }
-            }, delay, TimeUnit.MILLISECONDS);
+            }, delay);
         }
     }
 
@@ -87,7 +83,7 @@ public class ExponentialBackoffRepeatingScheduler<T> {
             if (tag != null) {
                 Logger.d("Scheduling a " + tag + " for " + key.toString() + " in " + delay + "ms.");
             }
-            scheduler.schedule(runnable, delay, TimeUnit.MILLISECONDS);
+            EngineExecutor.schedule(runnable, delay);
         }
     }
 
@@ -97,7 +93,7 @@ public class ExponentialBackoffRepeatingScheduler<T> {
             if (tag != null) {
                 Logger.d("Scheduling periodically a " + tag + " for " + key.toString() + " at intervals of " + delay + "ms.");
             }
-            scheduler.scheduleWithFixedDelay(runnable, delay, delay, TimeUnit.MILLISECONDS);
+            EngineExecutor.scheduleWithFixedDelay(runnable, delay, delay);
         }
     }
 
@@ -113,7 +109,7 @@ public class ExponentialBackoffRepeatingScheduler<T> {
             pendingRunnables.clear();
             failedAttemptCounts.clear();
         }
-        scheduler.execute(() -> {
+        EngineExecutor.execute(() -> {
             for(Runnable runnable: runnables) {
                 runnable.run();
             }
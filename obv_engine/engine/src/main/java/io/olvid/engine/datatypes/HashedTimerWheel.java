@@ -0,0 +1,236 @@
+/*
+ *  Olvid for Android
+ *  Copyright © 2019-2026 Olvid SAS
+ *
+ *  This file is part of Olvid for Android.
+ *
+ *  Olvid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License, version 3,
+ *  as published by the Free Software Foundation.
+ *
+ *  Olvid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with Olvid.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.olvid.engine.datatypes;
+
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import io.olvid.engine.Logger;
+
+// A single timer thread for all delayed tasks of the engine. Timeouts are hashed into WHEEL_SIZE buckets of TICK_MILLIS
+// each, so scheduling and cancelling are O(1). Expired tasks are run on the EngineExecutor.
+// The timer thread does not wake up on every tick: it sleeps until the earliest deadline, only processes the buckets
+// from that deadline on, and is parked while there is no pending timeout.
+public class HashedTimerWheel {
+    static final long TICK_MILLIS = 50;
+    static final int WHEEL_SIZE = 512; // must be a power of 2
+
+    private final long tickNanos;
+    private final long startNanos;
+    private final List<Timeout>[] buckets;
+    private final ReentrantLock lock;
+    private final Condition timeoutAdded;
+    private long processedTick;
+    private long nextTick; // earliest targetTick of the pending timeouts, may be earlier if that timeout was cancelled
+    private int pendingTimeoutCount;
+    private Thread timerThread;
+
+    private long expiredTimeoutCount;
+    private long totalLatenessMicro;
+    private long maxLatenessMicro;
+
+    HashedTimerWheel() {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(TICK_MILLIS);
+        this.startNanos = System.nanoTime();
+        @SuppressWarnings("unchecked")
+        List<Timeout>[] buckets = (List<Timeout>[]) new List<?>[WHEEL_SIZE];
+        for (int i=0; i<WHEEL_SIZE; i++) {
+            buckets[i] = new ArrayList<>();
+        }
+        this.buckets = buckets;
+        this.lock = new ReentrantLock();
+        this.timeoutAdded = lock.newCondition();
+        this.processedTick = 0;
+        this.nextTick = Long.MAX_VALUE;
+        this.pendingTimeoutCount = 0;
+        this.timerThread = null;
+    }
+
+    // a periodMillis of 0 means the task only runs once, otherwise it is rescheduled periodMillis after each run completes
+    Timeout schedule(Runnable runnable, long delayMillis, long periodMillis) {
+        Timeout timeout = new Timeout(runnable, periodMillis);
+        add(timeout, Math.max(0, delayMillis));
+        return timeout;
+    }
+
+    private void add(Timeout timeout, long delayMillis) {
+        lock.lock();
+        try {
+            timeout.deadlineNanos = System.nanoTime() - startNanos + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+            // round up to the next tick, and never schedule in an already processed tick
+            timeout.targetTick = Math.max(processedTick + 1, (timeout.deadlineNanos + tickNanos - 1) / tickNanos);
+            buckets[(int) (timeout.targetTick & (WHEEL_SIZE - 1))].add(timeout);
+            pendingTimeoutCount++;
+            if (timerThread == null) {
+                timerThread = new Thread(this::run, "Engine-TimerWheel");
+                timerThread.setDaemon(true);
+                timerThread.start();
+            }
+            if (timeout.targetTick < nextTick) {
+                // only wake the timer thread if it has to wake up earlier
+                nextTick = timeout.targetTick;
+                timeoutAdded.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void run() {
+        List<Timeout> expiredTimeouts = new ArrayList<>();
+        //noinspection InfiniteLoopStatement
+        while (true) {
+            lock.lock();
+            try {
+                while (pendingTimeoutCount == 0) {
+                    timeoutAdded.awaitUninterruptibly();
+                }
+                long elapsedNanos = System.nanoTime() - startNanos;
+                long currentTick = elapsedNanos / tickNanos;
+                if (currentTick < nextTick) {
+                    try {
+                        //noinspection ResultOfMethodCallIgnored
+                        timeoutAdded.awaitNanos(nextTick * tickNanos - elapsedNanos);
+                    } catch (InterruptedException ignored) { }
+                    continue;
+                }
+                // buckets before nextTick have nothing due, process the others at most once
+                long firstTick = Math.max(Math.max(processedTick + 1, nextTick), currentTick - WHEEL_SIZE + 1);
+                for (long tick = firstTick; tick <= currentTick; tick++) {
+                    Iterator<Timeout> iterator = buckets[(int) (tick & (WHEEL_SIZE - 1))].iterator();
+                    while (iterator.hasNext()) {
+                        Timeout timeout = iterator.next();
+                        if (timeout.cancelled) {
+                            iterator.remove();
+                            pendingTimeoutCount--;
+                        } else if (timeout.targetTick <= currentTick) {
+                            iterator.remove();
+                            pendingTimeoutCount--;
+                            expiredTimeouts.add(timeout);
+                            long latenessMicro = Math.max(0, (elapsedNanos - timeout.deadlineNanos) / 1000);
+                            expiredTimeoutCount++;
+                            totalLatenessMicro += latenessMicro;
+                            maxLatenessMicro = Math.max(maxLatenessMicro, latenessMicro);
+                        }
+                    }
+                }
+                processedTick = currentTick;
+                computeNextTick();
+            } finally {
+                lock.unlock();
+            }
+
+            for (Timeout timeout : expiredTimeouts) {
+                EngineExecutor.execute(timeout::expire);
+            }
+            expiredTimeouts.clear();
+        }
+    }
+
+    // called after expired buckets were processed, this is when cancelled timeouts of other buckets are removed
+    private void computeNextTick() {
+        nextTick = Long.MAX_VALUE;
+        if (pendingTimeoutCount == 0) {
+            return;
+        }
+        for (List<Timeout> bucket : buckets) {
+            Iterator<Timeout> iterator = bucket.iterator();
+            while (iterator.hasNext()) {
+                Timeout timeout = iterator.next();
+                if (timeout.cancelled) {
+                    iterator.remove();
+                    pendingTimeoutCount--;
+                } else if (timeout.targetTick < nextTick) {
+                    nextTick = timeout.targetTick;
+                }
+            }
+        }
+    }
+
+    int getPendingTimeoutCount() {
+        lock.lock();
+        try {
+            return pendingTimeoutCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getAverageLatenessMicro() {
+        lock.lock();
+        try {
+            return expiredTimeoutCount == 0 ? 0 : totalLatenessMicro / expiredTimeoutCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getMaxLatenessMicro() {
+        lock.lock();
+        try {
+            return maxLatenessMicro;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public class Timeout {
+        private final Runnable runnable;
+        private final long periodMillis;
+        private volatile boolean cancelled;
+        // only accessed while holding the wheel lock
+        private long deadlineNanos;
+        private long targetTick;
+
+        private Timeout(Runnable runnable, long periodMillis) {
+            this.runnable = runnable;
+            this.periodMillis = periodMillis;
+            this.cancelled = false;
+        }
+
+        // the timeout is removed from the wheel the next time the timer thread wakes up
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        private void expire() {
+            if (cancelled) {
+                return;
+            }
+            try {
+                runnable.run();
+            } catch (Exception e) {
+                Logger.x(e);
+            }
+            if (periodMillis > 0 && !cancelled) {
+                add(this, periodMillis);
+            }
+        }
+    }
+}
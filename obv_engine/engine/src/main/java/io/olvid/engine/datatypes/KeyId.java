@@ -53,4 +53,9 @@ public class KeyId {
         return Arrays.equals(keyId, ((KeyId)other).keyId);
     }
 
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(keyId);
+    }
+
 }
@@ -22,25 +22,27 @@ package io.olvid.engine.datatypes;
 
 import java.util.HashSet;
 import java.util.Set;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 import io.olvid.engine.Logger;
 
-public class NoDuplicateOperationQueue {
+public class NoDuplicateOperationQueue implements OperationQueueWorkers.Queue {
 
-    private final BlockingQueue<Operation> operations;
+    private final ConcurrentLinkedQueue<Operation> operations;
     private final Lock lockOnQueuedOperationUids;
     private final Set<UID> queuedOperationUids;
 
+    private final OperationQueueWorkers workers;
+
     private boolean executing = false;
 
     public NoDuplicateOperationQueue() {
         queuedOperationUids = new HashSet<>();
         lockOnQueuedOperationUids = new ReentrantLock();
-        operations = new LinkedBlockingQueue<>();
+        operations = new ConcurrentLinkedQueue<>();
+        workers = new OperationQueueWorkers(this);
     }
 
     public void queue(Operation op) {
@@ -60,6 +62,7 @@ public class NoDuplicateOperationQueue {
         }
         op.setPending();
         operations.add(op);
+        workers.operationQueued();
     }
 
     public void execute(int numberOfThreads) {
@@ -72,66 +75,52 @@ public class NoDuplicateOperationQueue {
             return;
         }
         executing = true;
-        for (int i=0; i<numberOfThreads; i++) {
-            new NoDuplicateOperationQueueThread(i, tag).start();
-        }
+        workers.addWorkers(numberOfThreads, tag);
     }
 
-    class NoDuplicateOperationQueueThread extends Thread {
-        final int threadNumber;
-        NoDuplicateOperationQueueThread(int i, String tag) {
-            super();
-            threadNumber = i;
-            if (tag != null) {
-                setName(tag + "-" + threadNumber);
-            }
-        }
+    @Override
+    public boolean isEmpty() {
+        return operations.isEmpty();
+    }
 
-        @Override
-        public void run() {
-            //noinspection InfiniteLoopStatement
-            while (true) {
-                Operation op;
-                try {
-                    op = operations.take();
-                } catch (InterruptedException e) {
-                    continue;
-                }
+    @Override
+    public boolean processNextOperation() {
+        Operation op = operations.poll();
+        if (op == null) {
+            return false;
+        }
 
-                op.updateReadiness();
-                op.processCancel();
+        op.updateReadiness();
+        op.processCancel();
 
-                if (op.getTimestampOfLastExecution() != 0) {
-                    long timeToWait = op.getTimestampOfLastExecution() - System.currentTimeMillis() + OperationQueue.MILLISECONDS_TO_WAIT_BETWEEN_TWO_OPERATION_EXECUTIONS;
-                    if (timeToWait > 0) {
-                        try {
-                            sleep(timeToWait);
-                        } catch (InterruptedException ignored) {}
-                    }
+        if (op.getTimestampOfLastExecution() != 0) {
+            long timeToWait = op.getTimestampOfLastExecution() - System.currentTimeMillis() + OperationQueue.MILLISECONDS_TO_WAIT_BETWEEN_TWO_OPERATION_EXECUTIONS;
+            if (timeToWait > 0) {
+                try {
+                    Thread.sleep(timeToWait);
+                } catch (InterruptedException ignored) {}
+            }
+        }
+        op.setTimestampOfLastExecution(System.currentTimeMillis());
+
+        if (op.isReady()) {
+            if (op.areConditionsFulfilled()) {
+                if (op.getUid() != null) {
+                    lockOnQueuedOperationUids.lock();
+                    queuedOperationUids.remove(op.getUid());
+                    lockOnQueuedOperationUids.unlock();
                 }
-                op.setTimestampOfLastExecution(System.currentTimeMillis());
-
-                if (op.isReady()) {
-                    if (op.areConditionsFulfilled()) {
-                        if (op.getUid() != null) {
-                            lockOnQueuedOperationUids.lock();
-                            queuedOperationUids.remove(op.getUid());
-                            lockOnQueuedOperationUids.unlock();
-                        }
-                        try {
-                            op.execute();
-                        } catch (Exception e) {
-                            Logger.e("Exception in operation that could have killed a queue!");
-                            Logger.x(e);
-                        }
-                    } else {
-                        operations.add(op);
-                    }
+                try {
+                    op.execute();
+                } catch (Exception e) {
+                    Logger.e("Exception in operation that could have killed a queue!");
+                    Logger.x(e);
                 }
+            } else {
+                operations.add(op);
+                workers.operationQueued();
             }
         }
+        return true;
     }
-
-
-
 }
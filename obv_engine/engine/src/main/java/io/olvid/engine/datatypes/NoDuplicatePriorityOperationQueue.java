@@ -28,17 +28,20 @@ import java.util.concurrent.locks.ReentrantLock;
 
 import io.olvid.engine.Logger;
 
-public class NoDuplicatePriorityOperationQueue {
+public class NoDuplicatePriorityOperationQueue implements OperationQueueWorkers.Queue {
     private final PriorityBlockingQueue<PriorityOperation> operations;
     private final Lock lockOnQueuedOperationUids;
     private final Set<UID> queuedOperationUids;
 
+    private final OperationQueueWorkers workers;
+
     private boolean executing = false;
 
     public NoDuplicatePriorityOperationQueue() {
         queuedOperationUids = new HashSet<>();
         lockOnQueuedOperationUids = new ReentrantLock();
         operations = new PriorityBlockingQueue<>();
+        workers = new OperationQueueWorkers(this);
     }
 
     public void queue(PriorityOperation op) {
@@ -58,6 +61,7 @@ public class NoDuplicatePriorityOperationQueue {
         }
         op.setPending();
         operations.add(op);
+        workers.operationQueued();
     }
 
     public void execute(int numberOfThreads) {
@@ -70,66 +74,57 @@ public class NoDuplicatePriorityOperationQueue {
             return;
         }
         executing = true;
-        for (int i=0; i<numberOfThreads; i++) {
-            new NoDuplicatePriorityOperationQueueThread(i, tag).start();
-        }
+        workers.addWorkers(numberOfThreads, tag);
     }
 
-    class NoDuplicatePriorityOperationQueueThread extends Thread {
-        final int threadNumber;
-        NoDuplicatePriorityOperationQueueThread(int i, String tag) {
-            super();
-            threadNumber = i;
-            if (tag != null) {
-                setName(tag + "-" + threadNumber);
-            }
-        }
+    @Override
+    public boolean isEmpty() {
+        return operations.isEmpty();
+    }
 
-        @Override
-        public void run() {
-            //noinspection InfiniteLoopStatement
-            while (true) {
-                PriorityOperation op;
-                try {
-                    op = operations.take();
-                } catch (InterruptedException e) {
-                    continue;
-                }
+    // number of operations waiting to be executed
+    public int size() {
+        return operations.size();
+    }
 
-                op.updateReadiness();
-                op.processCancel();
+    @Override
+    public boolean processNextOperation() {
+        PriorityOperation op = operations.poll();
+        if (op == null) {
+            return false;
+        }
 
-                if (op.getTimestampOfLastExecution() != 0) {
-                    long timeToWait = op.getTimestampOfLastExecution() - System.currentTimeMillis() + OperationQueue.MILLISECONDS_TO_WAIT_BETWEEN_TWO_OPERATION_EXECUTIONS;
-                    if (timeToWait > 0) {
-                        try {
-                            sleep(timeToWait);
-                        } catch (InterruptedException ignored) {}
-                    }
+        op.updateReadiness();
+        op.processCancel();
+
+        if (op.getTimestampOfLastExecution() != 0) {
+            long timeToWait = op.getTimestampOfLastExecution() - System.currentTimeMillis() + OperationQueue.MILLISECONDS_TO_WAIT_BETWEEN_TWO_OPERATION_EXECUTIONS;
+            if (timeToWait > 0) {
+                try {
+                    Thread.sleep(timeToWait);
+                } catch (InterruptedException ignored) {}
+            }
+        }
+        op.setTimestampOfLastExecution(System.currentTimeMillis());
+
+        if (op.isReady()) {
+            if (op.areConditionsFulfilled()) {
+                if (op.getUid() != null) {
+                    lockOnQueuedOperationUids.lock();
+                    queuedOperationUids.remove(op.getUid());
+                    lockOnQueuedOperationUids.unlock();
                 }
-                op.setTimestampOfLastExecution(System.currentTimeMillis());
-
-                if (op.isReady()) {
-                    if (op.areConditionsFulfilled()) {
-                        if (op.getUid() != null) {
-                            lockOnQueuedOperationUids.lock();
-                            queuedOperationUids.remove(op.getUid());
-                            lockOnQueuedOperationUids.unlock();
-                        }
-                        try {
-                            op.execute();
-                        } catch (Exception e) {
-                            Logger.e("Exception in operation that could have killed a queue!");
-                            Logger.x(e);
-                        }
-                    } else {
-                        operations.add(op);
-                    }
+                try {
+                    op.execute();
+                } catch (Exception e) {
+                    Logger.e("Exception in operation that could have killed a queue!");
+                    Logger.x(e);
                 }
+            } else {
+                operations.add(op);
+                workers.operationQueued();
             }
         }
+        return true;
     }
-
-
-
 }
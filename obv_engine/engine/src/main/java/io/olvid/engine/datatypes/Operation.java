@@ -35,6 +35,10 @@ public abstract class Operation {
     public interface OnCancelCallback {
         void onCancelCallback(Operation operation);
     }
+    // one-shot listener, notified when the operation finishes, is cancelled, or a cancel is requested
+    interface StateChangeListener {
+        void operationStateChanged(Operation operation);
+    }
 
     public static final int RFC_NULL = -1;
     private static final ReentrantLock globalLock = new ReentrantLock();
@@ -55,6 +59,7 @@ public abstract class Operation {
     private long timestampOfLastExecution;
     private boolean cancelWasRequested;
     private Integer reasonForCancel;
+    private List<StateChangeListener> stateChangeListeners;
 
     private final UID uid;
     private final OnFinishCallback onFinishCallback;
@@ -71,6 +76,7 @@ public abstract class Operation {
         timestampOfLastExecution = 0;
         cancelWasRequested = false;
         reasonForCancel = null;
+        stateChangeListeners = null;
 
         this.uid = uid;
         this.onFinishCallback = onFinishCallback;
@@ -132,6 +138,7 @@ public abstract class Operation {
                 }
                 globalLock.unlock();
             }
+            notifyStateChangeListeners();
         } else {
             lockOnState.unlock();
         }
@@ -146,10 +153,41 @@ public abstract class Operation {
         }
         lockOnState.unlock();
         doCancel();
+        notifyStateChangeListeners();
     }
 
     public abstract void doCancel();
 
+    // returns false (and does not register the listener) if the operation is already finished or cancelled
+    boolean addStateChangeListener(StateChangeListener listener) {
+        lockOnState.lock();
+        try {
+            if (state == State.FINISHED || state == State.CANCELLED) {
+                return false;
+            }
+            if (stateChangeListeners == null) {
+                stateChangeListeners = new LinkedList<>();
+            }
+            stateChangeListeners.add(listener);
+            return true;
+        } finally {
+            lockOnState.unlock();
+        }
+    }
+
+    private void notifyStateChangeListeners() {
+        List<StateChangeListener> listeners;
+        lockOnState.lock();
+        listeners = stateChangeListeners;
+        stateChangeListeners = null;
+        lockOnState.unlock();
+        if (listeners != null) {
+            for (StateChangeListener listener : listeners) {
+                listener.operationStateChanged(this);
+            }
+        }
+    }
+
     public void processCancel() {
         lockOnState.lock();
         if ((state != State.CANCELLED) && (state != State.FINISHED) && cancelWasRequested) {
@@ -167,6 +205,7 @@ public abstract class Operation {
                 globalLock.unlock();
             }
             Logger.d("Processed cancel of Operation of " + this.getClass().toString());
+            notifyStateChangeListeners();
         } else {
             lockOnState.unlock();
         }
@@ -20,21 +20,29 @@
 package io.olvid.engine.datatypes;
 
 
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 import io.olvid.engine.Logger;
 
-public class OperationQueue {
+// Operations whose dependencies are not finished are not polled: they wait in waitingOperations and are moved to the
+// runnable queue when one of their dependencies (or the operation itself) changes state.
+public class OperationQueue implements OperationQueueWorkers.Queue {
     protected static final int MILLISECONDS_TO_WAIT_BETWEEN_TWO_OPERATION_EXECUTIONS = 20;
 
     private final Queue<Operation> operations;
+    private final Set<Operation> waitingOperations;
     private final Lock lockOnCount;
+    private final Condition queueIsEmpty;
     private final boolean persistent;
     private int count;
-    private final Object notifier;
+    private final OperationQueueWorkers workers;
 
     private boolean executing = false;
 
@@ -45,44 +53,97 @@ public class OperationQueue {
     public OperationQueue(boolean persistent) {
         this.persistent = persistent;
         this.operations = new ConcurrentLinkedQueue<>();
+        this.waitingOperations = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<>()));
         this.lockOnCount = new ReentrantLock();
+        this.queueIsEmpty = lockOnCount.newCondition();
         this.count = 0;
-        this.notifier = new Object();
+        this.workers = new OperationQueueWorkers(this);
     }
 
-    private void addOperation(Operation op) {
+    public void queue(Operation op) {
+        op.setPending();
         lockOnCount.lock();
         count++;
+        lockOnCount.unlock();
+        if (op.getDependencies().isEmpty()) {
+            addRunnableOperation(op);
+        } else {
+            waitForDependencies(op);
+        }
+    }
+
+    private void addRunnableOperation(Operation op) {
         operations.add(op);
+        workers.operationQueued();
+    }
+
+    private void operationDone() {
+        lockOnCount.lock();
+        count--;
+        if (count == 0) {
+            queueIsEmpty.signalAll();
+        }
         lockOnCount.unlock();
-        synchronized (notifier) {
-            notifier.notifyAll();
+    }
+
+
+    // region dependencies
+
+    private void waitForDependencies(Operation op) {
+        waitingOperations.add(op);
+        // listeners are registered before checking the readiness, so that no state change can be missed
+        op.addStateChangeListener(changedOperation -> stateChanged(op, changedOperation));
+        for (Operation dependency : op.getDependencies()) {
+            dependency.addStateChangeListener(changedOperation -> stateChanged(op, changedOperation));
         }
+        releaseIfRunnable(op);
     }
 
-    public void queue(Operation op) {
-        op.setPending();
-        addOperation(op);
+    private void stateChanged(Operation op, Operation changedOperation) {
+        if (releaseIfRunnable(op)) {
+            return;
+        }
+        // listeners are one-shot: listen again to the operation which changed. If it is already finished or cancelled,
+        // no listener is added: op still waits for another dependency, whose listener will release it
+        changedOperation.addStateChangeListener(newlyChangedOperation -> stateChanged(op, newlyChangedOperation));
+        // check again, in case the change happened right before the listener was added
+        releaseIfRunnable(op);
     }
 
+    // returns true if the operation is no longer waiting for a dependency
+    private boolean releaseIfRunnable(Operation op) {
+        if (!waitingOperations.contains(op)) {
+            return true;
+        }
+        if (!op.cancelWasRequested()) {
+            // updateReadiness may request a cancel, which notifies the listeners of op and re-enters this method
+            op.updateReadiness();
+        }
+        if (op.isPending() && !op.cancelWasRequested()) {
+            return false;
+        }
+        if (waitingOperations.remove(op)) {
+            addRunnableOperation(op);
+        }
+        return true;
+    }
+
+    // endregion
 
     // this method waits for the queue to be empty.
-    // If the queue is non-persistent, a join only returns once all threads are dead.
+    // If the queue is non-persistent, a join only returns once all operations were processed.
     // If the queue is persistent, additional operations can still be added later on.
     public void join() {
         lockOnCount.lock();
-        boolean queueIsEmpty = count == 0;
-        lockOnCount.unlock();
-        while (!queueIsEmpty) {
-            synchronized (notifier) {
+        try {
+            while (count != 0) {
                 try {
-                    notifier.wait(500);
+                    queueIsEmpty.await();
                 } catch (InterruptedException e) {
                     Logger.x(e);
                 }
             }
-            lockOnCount.lock();
-            queueIsEmpty = count == 0;
+        } finally {
             lockOnCount.unlock();
         }
     }
@@ -91,6 +152,7 @@ public class OperationQueue {
         execute(numberOfThreads, null);
     }
 
+    // operations are run by at most numberOfThreads workers of the shared EngineExecutor
     public void execute(int numberOfThreads, String tag) {
         if (persistent) {
             if (executing) {
@@ -99,79 +161,54 @@ public class OperationQueue {
             }
             executing = true;
         }
-        for (int i=0; i<numberOfThreads; i++) {
-            new OperationQueueThread(i, tag).start();
-        }
+        workers.addWorkers(numberOfThreads, tag);
     }
 
+    @Override
+    public boolean isEmpty() {
+        return operations.isEmpty();
+    }
 
-    class OperationQueueThread extends Thread {
-        public final int threadNumber;
+    @Override
+    public boolean processNextOperation() {
+        Operation op = operations.poll();
+        if (op == null) {
+            return false;
+        }
 
-        public OperationQueueThread(int i, String tag) {
-            super();
-            threadNumber = i;
-            if (tag != null) {
-                setName(tag + "-" + threadNumber);
+        if (op.getTimestampOfLastExecution() != 0) {
+            long timeToWait = op.getTimestampOfLastExecution() - System.currentTimeMillis() + MILLISECONDS_TO_WAIT_BETWEEN_TWO_OPERATION_EXECUTIONS;
+            if (timeToWait > 0) {
+                // polled again too soon: retry once the delay is elapsed, without blocking a worker
+                EngineExecutor.schedule(() -> addRunnableOperation(op), timeToWait);
+                return true;
             }
         }
+        op.setTimestampOfLastExecution(System.currentTimeMillis());
 
-        @Override
-        public void run() {
-            while (true) {
-                Operation op = operations.poll();
-                if (op == null) {
-                    if (persistent) {
-                        synchronized (notifier) {
-                            try {
-                                notifier.wait(30000);
-                            } catch (InterruptedException e) {
-                                Logger.x(e);
-                            }
-                        }
-                        continue;
-                    } else {
-                        break;
-                    }
-                }
+        op.updateReadiness();
+        op.processCancel();
 
-                op.updateReadiness();
-                op.processCancel();
-
-                if (op.getTimestampOfLastExecution() != 0) {
-                    long timeToWait = op.getTimestampOfLastExecution() - System.currentTimeMillis() + MILLISECONDS_TO_WAIT_BETWEEN_TWO_OPERATION_EXECUTIONS;
-                    if (timeToWait > 0) {
-                        try {
-                            sleep(timeToWait);
-                        } catch (InterruptedException ignored) {}
-                    }
-                }
-                op.setTimestampOfLastExecution(System.currentTimeMillis());
-
-                if (op.isPending()) {
-                    addOperation(op);
-                }
-                if (op.isReady()) {
-                    if (op.areConditionsFulfilled()) {
-                        try {
-                            op.execute();
-                        } catch (Exception e) {
-                            Logger.e("Exception in operation that could have killed a queue!");
-                            Logger.x(e);
-                        }
-                } else {
-                        addOperation(op);
-                    }
-                }
-
-
-                lockOnCount.lock();
-                count--;
-                synchronized (notifier) {
-                    notifier.notifyAll();
-                }
-                lockOnCount.unlock();
+        if (op.isPending()) {
+            // should not happen as waiting operations are only released once ready or cancelled
+            waitForDependencies(op);
+            return true;
+        }
+        if (op.isReady()) {
+            if (!op.areConditionsFulfilled()) {
+                // an operation with the same uid is running, retry later without blocking a worker
+                EngineExecutor.schedule(() -> addRunnableOperation(op), MILLISECONDS_TO_WAIT_BETWEEN_TWO_OPERATION_EXECUTIONS);
+                return true;
+            }
+            try {
+                op.execute();
+            } catch (Exception e) {
+                Logger.e("Exception in operation that could have killed a queue!");
+                Logger.x(e);
             }
         }
+
+        operationDone();
+        return true;
     }
 }
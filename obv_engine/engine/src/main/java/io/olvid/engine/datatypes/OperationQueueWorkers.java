@@ -0,0 +1,107 @@
+/*
+ *  Olvid for Android
+ *  Copyright © 2019-2026 Olvid SAS
+ *
+ *  This file is part of Olvid for Android.
+ *
+ *  Olvid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License, version 3,
+ *  as published by the Free Software Foundation.
+ *
+ *  Olvid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with Olvid.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.olvid.engine.datatypes;
+
+
+// Runs the workers of an operation queue on the shared EngineExecutor. Instead of owning threads blocked on an empty
+// queue, a queue starts up to maxWorkers workers when operations are queued, and each worker stops once the queue is
+// empty. Queue semantics (priority, no duplicate, persistence) are left to the queue itself.
+class OperationQueueWorkers {
+    interface Queue {
+        // processes the next operation, returns false if the queue was empty
+        boolean processNextOperation();
+        boolean isEmpty();
+    }
+
+    private final Queue queue;
+    private final Object lock;
+    private String tag;
+    private int maxWorkers;
+    private int runningWorkers;
+
+    OperationQueueWorkers(Queue queue) {
+        this.queue = queue;
+        this.lock = new Object();
+        this.tag = null;
+        this.maxWorkers = 0;
+        this.runningWorkers = 0;
+    }
+
+    void addWorkers(int numberOfWorkers, String tag) {
+        synchronized (lock) {
+            this.maxWorkers += numberOfWorkers;
+            if (tag != null) {
+                this.tag = tag;
+            }
+        }
+        operationQueued();
+    }
+
+    int getMaxWorkers() {
+        synchronized (lock) {
+            return maxWorkers;
+        }
+    }
+
+    // must be called after the operation was added to the queue
+    void operationQueued() {
+        int workerNumber;
+        synchronized (lock) {
+            if (runningWorkers >= maxWorkers || queue.isEmpty()) {
+                return;
+            }
+            workerNumber = runningWorkers;
+            runningWorkers++;
+        }
+        EngineExecutor.execute(() -> runWorker(workerNumber));
+    }
+
+    private void runWorker(int workerNumber) {
+        Thread thread = Thread.currentThread();
+        String threadName = thread.getName();
+        if (tag != null) {
+            thread.setName(tag + "-" + workerNumber);
+        }
+        boolean released = false;
+        try {
+            while (true) {
+                if (queue.processNextOperation()) {
+                    continue;
+                }
+                synchronized (lock) {
+                    // an operation may have been queued after the last poll, while all workers were running
+                    if (queue.isEmpty()) {
+                        runningWorkers--;
+                        released = true;
+                        return;
+                    }
+                }
+            }
+        } finally {
+            // also release the worker slot if an operation threw (including an Error)
+            if (!released) {
+                synchronized (lock) {
+                    runningWorkers--;
+                }
+            }
+            thread.setName(threadName);
+        }
+    }
+}
@@ -30,20 +30,21 @@ import java.util.concurrent.locks.ReentrantLock;
 
 import io.olvid.engine.Logger;
 
-public class PriorityOperationQueue {
+public class PriorityOperationQueue implements OperationQueueWorkers.Queue {
     private final PriorityBlockingQueue<PriorityOperation> operations;
 
     private final List<PriorityOperation> executingOperations;
     private final Lock lockOnExecutingOperations;
 
+    private final OperationQueueWorkers workers;
+
     private boolean executing = false;
-    private int numberOfThreads;
 
     public PriorityOperationQueue() {
         this.operations = new PriorityBlockingQueue<>();
         this.executingOperations = new LinkedList<>();
         this.lockOnExecutingOperations = new ReentrantLock();
-        this.numberOfThreads = 0;
+        this.workers = new OperationQueueWorkers(this);
     }
 
     public void queue(PriorityOperation op) {
@@ -53,6 +54,7 @@ public class PriorityOperationQueue {
         }
         op.setPending();
         operations.add(op);
+        workers.operationQueued();
     }
 
     public void execute(int numberOfThreads) {
@@ -65,10 +67,7 @@ public class PriorityOperationQueue {
             return;
         }
         executing = true;
-        this.numberOfThreads = numberOfThreads;
-        for (int i=0; i<numberOfThreads; i++) {
-            new PriorityOperationQueueThread(i, tag).start();
-        }
+        workers.addWorkers(numberOfThreads, tag);
     }
 
     // NOTE: This method also return null if there is a thread available for the new queued operation
@@ -76,7 +75,7 @@ public class PriorityOperationQueue {
         PriorityOperation op = null;
         long maxPriority = 0;
         lockOnExecutingOperations.lock();
-        if (executingOperations.size() < numberOfThreads) {
+        if (executingOperations.size() < workers.getMaxWorkers()) {
             lockOnExecutingOperations.unlock();
             return null;
         }
@@ -91,63 +90,54 @@ public class PriorityOperationQueue {
         return op;
     }
 
-    class PriorityOperationQueueThread extends Thread {
-        public final int threadNumber;
-        public PriorityOperationQueueThread(int i, String tag) {
-            super();
-            threadNumber = i;
-            if (tag != null) {
-                setName(tag + "-" + threadNumber);
-            }
+    @Override
+    public boolean isEmpty() {
+        return operations.isEmpty();
+    }
+
+    @Override
+    public boolean processNextOperation() {
+        PriorityOperation op = operations.poll();
+        if (op == null) {
+            return false;
         }
 
-        @Override
-        public void run() {
-            //noinspection InfiniteLoopStatement
-            while (true) {
-                PriorityOperation op;
+        op.updateReadiness();
+        op.processCancel();
+
+        if (op.getTimestampOfLastExecution() != 0) {
+            long timeToWait = op.getTimestampOfLastExecution() - System.currentTimeMillis() + OperationQueue.MILLISECONDS_TO_WAIT_BETWEEN_TWO_OPERATION_EXECUTIONS;
+            if (timeToWait > 0) {
                 try {
-                    op = operations.take();
+                    Thread.sleep(timeToWait);
                 } catch (InterruptedException e) {
-                    continue;
+                    // do nothing
                 }
+            }
+        }
+        op.setTimestampOfLastExecution(System.currentTimeMillis());
 
-                op.updateReadiness();
-                op.processCancel();
-
-                if (op.getTimestampOfLastExecution() != 0) {
-                    long timeToWait = op.getTimestampOfLastExecution() - System.currentTimeMillis() + OperationQueue.MILLISECONDS_TO_WAIT_BETWEEN_TWO_OPERATION_EXECUTIONS;
-                    if (timeToWait > 0) {
-                        try {
-                            sleep(timeToWait);
-                        } catch (InterruptedException e) {
-                            // do nothing
-                        }
-                    }
-                }
-                op.setTimestampOfLastExecution(System.currentTimeMillis());
-
-                if (op.isReady()) {
-                    if (op.areConditionsFulfilled()) {
-                        lockOnExecutingOperations.lock();
-                        executingOperations.add(op);
-                        lockOnExecutingOperations.unlock();
-
-                        try {
-                            op.execute();
-                        } catch (Exception e) {
-                            Logger.e("Exception in operation that could have killed a queue!");
-                            Logger.x(e);
-                        }
-
-                        lockOnExecutingOperations.lock();
-                        executingOperations.remove(op);
-                        lockOnExecutingOperations.unlock();
-                    } else {
-                        operations.add(op);
-                    }
+        if (op.isReady()) {
+            if (op.areConditionsFulfilled()) {
+                lockOnExecutingOperations.lock();
+                executingOperations.add(op);
+                lockOnExecutingOperations.unlock();
+
+                try {
+                    op.execute();
+                } catch (Exception e) {
+                    Logger.e("Exception in operation that could have killed a queue!");
+                    Logger.x(e);
                 }
+
+                lockOnExecutingOperations.lock();
+                executingOperations.remove(op);
+                lockOnExecutingOperations.unlock();
+            } else {
+                operations.add(op);
+                workers.operationQueued();
             }
         }
+        return true;
     }
 }
@@ -159,18 +159,10 @@ public abstract class ServerMethod {
                     switch (serverResponse) {
                         case 200: {
                             try (InputStream is = connection.getInputStream();
-                                 BufferedInputStream bis = new BufferedInputStream(is);
-                                 ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream()) {
-                                int numberOfBytesRead;
-                                byte[] buffer = new byte[8192];
-
-                                while ((numberOfBytesRead = bis.read(buffer)) != -1) {
-                                    byteArrayOutputStream.write(buffer, 0, numberOfBytesRead);
-                                }
-                                byteArrayOutputStream.flush();
-
-                                byte[] responseData = byteArrayOutputStream.toByteArray();
+                                 BufferedInputStream bis = new BufferedInputStream(is)) {
+                                byte[] responseData = readResponseData(bis, connection.getContentLength());
 
+                                // the response is decoded in place: all the Encoded passed to parseReceivedData are views over responseData
                                 Encoded encodedResponse = new Encoded(responseData);
 
                                 Encoded[] responseList = encodedResponse.decodeList();
@@ -214,5 +206,32 @@ public abstract class ServerMethod {
         }
         return returnStatus;
     }
+
+    // reads the whole response in a single array of the right size when the server provides a Content-Length
+    static byte[] readResponseData(InputStream is, int contentLength) throws IOException {
+        if (contentLength < 0) {
+            try (ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream()) {
+                int numberOfBytesRead;
+                byte[] buffer = new byte[8192];
+
+                while ((numberOfBytesRead = is.read(buffer)) != -1) {
+                    byteArrayOutputStream.write(buffer, 0, numberOfBytesRead);
+                }
+                byteArrayOutputStream.flush();
+                return byteArrayOutputStream.toByteArray();
+            }
+        }
+
+        byte[] responseData = new byte[contentLength];
+        int offset = 0;
+        while (offset < contentLength) {
+            int numberOfBytesRead = is.read(responseData, offset, contentLength - offset);
+            if (numberOfBytesRead == -1) {
+                throw new IOException("Server response shorter than its Content-Length");
+            }
+            offset += numberOfBytesRead;
+        }
+        return responseData;
+    }
 }
 
@@ -22,6 +22,7 @@ package io.olvid.engine.datatypes;
 
 import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -62,6 +63,19 @@ public abstract class ServerMethodForS3 {
     protected abstract String getMethod();
     protected abstract boolean isActiveIdentityRequired();
 
+    // Streaming alternatives for large bodies, so that they never have to be held in memory.
+    // only called for PUT methods: if this returns a stream, getDataToSendLength() bytes are read from it instead of calling getDataToSend()
+    protected InputStream openDataToSend() throws IOException {
+        return null;
+    }
+    protected long getDataToSendLength() {
+        return 0;
+    }
+    // only called for GET methods: if this returns a stream, the received data is written to it instead of calling handleReceivedData()
+    protected OutputStream openReceivedDataOutput() throws IOException {
+        return null;
+    }
+
     protected byte returnStatus;
 
     public final void setProgressListener(long intervalMs, ServerMethodForS3ProgressListener progressListener) {
@@ -80,7 +94,6 @@ public abstract class ServerMethodForS3 {
             return returnStatus;
         }
         String url = getUrl();
-        byte[] dataToSend = getDataToSend();
         String method = getMethod();
 
         try {
@@ -103,21 +116,32 @@ public abstract class ServerMethodForS3 {
                     connection.setDoOutput(false);
                 } else {
                     connection.setDoOutput(true);
-                    connection.setFixedLengthStreamingMode(dataToSend.length);
-                    try (OutputStream os = connection.getOutputStream()) {
-                        if (progressListener != null) {
-                            long nextReport = System.currentTimeMillis() + progressListenerIntervalMs;
-
-                            for (int offset = 0; offset < dataToSend.length; offset += BLOCK_SIZE) {
-                                if (System.currentTimeMillis() > nextReport) {
-                                    progressListener.onProgress(offset);
-                                    nextReport = System.currentTimeMillis() + progressListenerIntervalMs;
+                    InputStream dataToSendStream = openDataToSend();
+                    if (dataToSendStream != null) {
+                        long dataToSendLength = getDataToSendLength();
+                        connection.setFixedLengthStreamingMode(dataToSendLength);
+                        try (InputStream is = dataToSendStream;
+                             OutputStream os = connection.getOutputStream()) {
+                            copy(is, os, dataToSendLength);
+                        }
+                    } else {
+                        byte[] dataToSend = getDataToSend();
+                        connection.setFixedLengthStreamingMode(dataToSend.length);
+                        try (OutputStream os = connection.getOutputStream()) {
+                            if (progressListener != null) {
+                                long nextReport = System.currentTimeMillis() + progressListenerIntervalMs;
+
+                                for (int offset = 0; offset < dataToSend.length; offset += BLOCK_SIZE) {
+                                    if (System.currentTimeMillis() > nextReport) {
+                                        progressListener.onProgress(offset);
+                                        nextReport = System.currentTimeMillis() + progressListenerIntervalMs;
+                                    }
+                                    os.write(dataToSend, offset, Math.min(BLOCK_SIZE, dataToSend.length - offset));
                                 }
-                                os.write(dataToSend, offset, Math.min(BLOCK_SIZE, dataToSend.length - offset));
+                                progressListener.onProgress(dataToSend.length);
+                            } else {
+                                os.write(dataToSend);
                             }
-                            progressListener.onProgress(dataToSend.length);
-                        } else {
-                            os.write(dataToSend);
                         }
                     }
                 }
@@ -128,6 +152,14 @@ public abstract class ServerMethodForS3 {
                     case 200: {
                         returnStatus = OK;
                         if (METHOD_GET.equals(getMethod())) {
+                            OutputStream receivedDataOutput = openReceivedDataOutput();
+                            if (receivedDataOutput != null) {
+                                try (InputStream is = connection.getInputStream();
+                                     OutputStream os = receivedDataOutput) {
+                                    copy(is, os, -1);
+                                }
+                                break;
+                            }
                             try (InputStream is = connection.getInputStream();
                                  BufferedInputStream bis = new BufferedInputStream(is);
                                  ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream()) {
@@ -185,6 +217,31 @@ public abstract class ServerMethodForS3 {
         return returnStatus;
     }
 
+    // copies length bytes (or everything until the end of input if length is negative) through a single BLOCK_SIZE buffer
+    private void copy(InputStream input, OutputStream output, long length) throws IOException {
+        byte[] buffer = new byte[BLOCK_SIZE];
+        long nextReport = System.currentTimeMillis() + progressListenerIntervalMs;
+        long progress = 0;
+        while (length < 0 || progress < length) {
+            int count = input.read(buffer, 0, (length < 0) ? BLOCK_SIZE : (int) Math.min(BLOCK_SIZE, length - progress));
+            if (count < 0) {
+                if (length < 0) {
+                    break;
+                }
+                throw new EOFException();
+            }
+            output.write(buffer, 0, count);
+            progress += count;
+            if (progressListener != null && System.currentTimeMillis() > nextReport) {
+                progressListener.onProgress(progress);
+                nextReport = System.currentTimeMillis() + progressListenerIntervalMs;
+            }
+        }
+        if (progressListener != null) {
+            progressListener.onProgress(progress);
+        }
+    }
+
     public interface ServerMethodForS3ProgressListener {
         void onProgress(long byteCount);
     }
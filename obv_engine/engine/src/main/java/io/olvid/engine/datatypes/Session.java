@@ -46,12 +46,14 @@ import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
 import io.olvid.engine.Logger;
@@ -59,15 +61,47 @@ import io.olvid.engine.engine.types.EngineDbQueryStatisticsEntry;
 
 public class Session implements AutoCloseable {
     public static final Map<String, EngineDbQueryStatisticsEntry> queryStatistics = new ConcurrentHashMap<>();
+    // time spent waiting for the globalWriteLock or for a pooled connection, kept apart from the query timings
+    public static final Map<String, EngineDbQueryStatisticsEntry> lockWaitStatistics = new ConcurrentHashMap<>();
 
     static final ReentrantLock globalWriteLock = new ReentrantLock();
-    private static final HashMap<String, List<Session>> sessionPool = new HashMap<>();
+    private static final HashMap<String, SessionPool> sessionPools = new HashMap<>();
     private static final ReentrantLock sessionPoolLock = new ReentrantLock();
+    private static final Condition readOnlySessionReleased = sessionPoolLock.newCondition();
+    private static final Condition readWriteSessionReleased = sessionPoolLock.newCondition();
+
+    // Connections are pooled per database:
+    //  - read-write connections are reused most recently released first, so that a busy connection keeps its page cache warm
+    //  - read-only connections are opened with query_only: in WAL mode, readers never conflict with the writer, so these
+    //    never take the globalWriteLock. There are at most MAX_READ_ONLY_CONNECTIONS of them, when all are in use, we wait
+    //    a little for one to be released, then fall back to a read-write connection (which cannot deadlock)
+    //  - there are at most MAX_READ_WRITE_CONNECTIONS read-write connections, when all are in use, we wait for one to be
+    //    released. A thread already holding a read-write Session never waits (it would deadlock on itself) and may exceed the
+    //    limit. The limit is soft: if no connection is released within READ_WRITE_CONNECTION_WAIT_MILLIS, a connection is
+    //    opened above the limit rather than failing (a caller holding its Session for long would otherwise fail others)
+    //  - at most MAX_IDLE_READ_WRITE_CONNECTIONS are kept idle, and idle connections are closed after IDLE_TIMEOUT_MILLIS
+    static final int MAX_READ_WRITE_CONNECTIONS = 16;
+    static final long READ_WRITE_CONNECTION_WAIT_MILLIS = 1_000;
+    static final int MAX_IDLE_READ_WRITE_CONNECTIONS = 8;
+    static final int MAX_READ_ONLY_CONNECTIONS = 4;
+    static final long READ_ONLY_CONNECTION_WAIT_MILLIS = 50;
+    static final long IDLE_TIMEOUT_MILLIS = 60_000;
+
+    // prepared statements are kept open and reused for each pooled connection, keyed on their tag and SQL
+    static final int PREPARED_STATEMENT_CACHE_SIZE = 64;
+
+    public static final String WRITE_LOCK_WAIT_STATISTICS_TAG = "Session.globalWriteLock (wait)";
+    public static final String READ_ONLY_SESSION_WAIT_STATISTICS_TAG = "Session.getReadOnlySession (wait)";
+    public static final String READ_WRITE_SESSION_WAIT_STATISTICS_TAG = "Session.getSession (wait)";
 
     private final Connection connection;
     private final Set<SessionCommitListener> sessionCommitListeners;
     private final String dbPath;
     private final boolean sessionIsForUpgradeTable;
+    private final boolean readOnly;
+    private final LinkedHashMap<String, DeferrablePreparedStatement> preparedStatementCache;
+    private long releaseTimestamp;
+    private Thread holderThread; // the thread which got this read-write Session from the pool, null while idle
 
     static {
         try {
@@ -78,12 +112,33 @@ public class Session implements AutoCloseable {
     }
 
     private Session(String dbPath, String dbKey, boolean sessionIsForUpgradeTables) throws SQLException {
+        this(dbPath, dbKey, sessionIsForUpgradeTables, false);
+    }
+
+    private Session(String dbPath, String dbKey, boolean sessionIsForUpgradeTables, boolean readOnly) throws SQLException {
         if (dbPath == null) {
             throw new SQLException("dbPath is null, unable to create a Session.");
         }
         this.dbPath = dbPath;
         this.sessionCommitListeners = new LinkedHashSet<>();
         this.sessionIsForUpgradeTable = sessionIsForUpgradeTables;
+        this.readOnly = readOnly;
+        if (sessionIsForUpgradeTables) {
+            // the connection is closed right after the upgrade, nothing to reuse
+            this.preparedStatementCache = null;
+        } else {
+            this.preparedStatementCache = new LinkedHashMap<String, DeferrablePreparedStatement>(16, .75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, DeferrablePreparedStatement> eldest) {
+                    if (size() > PREPARED_STATEMENT_CACHE_SIZE) {
+                        // a statement still in use is closed when the caller closes it
+                        eldest.getValue().evictFromCache();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
         Properties properties = new Properties();
         properties.setProperty("secure_delete", "on");
         properties.setProperty("temp_store", "2");
@@ -100,21 +155,119 @@ public class Session implements AutoCloseable {
             properties.setProperty("foreign_keys", "true");
             this.connection = DriverManager.getConnection("jdbc:sqlite:" + dbPath, properties);
             this.connection.setAutoCommit(true);
+            if (readOnly) {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("PRAGMA query_only = ON;");
+                } catch (SQLException e) {
+                    connection.close();
+                    throw e;
+                }
+            }
         }
     }
 
     public static Session getSession(String dbPath, String dbKey) throws SQLException {
+        SessionPool pool;
         Session session;
+        List<Session> evictedSessions;
 
+        Thread currentThread = Thread.currentThread();
+        long startTime = System.nanoTime();
         sessionPoolLock.lock();
-        List<Session> sessionList = sessionPool.get(dbPath);
-        if ((sessionList == null) || (sessionList.isEmpty())) {
+        try {
+            pool = getSessionPool(dbPath);
+            evictedSessions = pool.evictIdleSessions(System.currentTimeMillis());
+            long remainingNanos = READ_WRITE_CONNECTION_WAIT_MILLIS * 1_000_000L;
+            while (true) {
+                if (!pool.idleReadWriteSessions.isEmpty()) {
+                    session = pool.idleReadWriteSessions.remove(pool.idleReadWriteSessions.size() - 1);
+                    break;
+                }
+                if (pool.openReadWriteCount < MAX_READ_WRITE_CONNECTIONS || pool.readWriteSessionHolders.containsKey(currentThread)) {
+                    session = null;
+                    pool.openReadWriteCount++;
+                    break;
+                }
+                if (remainingNanos <= 0) {
+                    Logger.w("No read-write Session released after " + READ_WRITE_CONNECTION_WAIT_MILLIS + "ms, opening connection " + (pool.openReadWriteCount + 1));
+                    session = null;
+                    pool.openReadWriteCount++;
+                    break;
+                }
+                remainingNanos = readWriteSessionReleased.awaitNanos(remainingNanos);
+            }
+            pool.addHolder(currentThread);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a read-write Session");
+        } finally {
             sessionPoolLock.unlock();
-            session = new Session(dbPath, dbKey, false);
-        } else {
-            session = sessionList.remove(0);
+            registerLockWaitTime(READ_WRITE_SESSION_WAIT_STATISTICS_TAG, (System.nanoTime() - startTime)/1000);
+        }
+        closeConnections(evictedSessions);
+
+        if (session == null) {
+            try {
+                session = new Session(dbPath, dbKey, false, false);
+            } catch (SQLException e) {
+                pool.connectionCreationFailed(false, currentThread);
+                throw e;
+            }
+        }
+        session.holderThread = currentThread;
+        return session;
+    }
+
+    // A Session on which only queries can be executed (no transaction, no update), for read paths that should never wait for
+    // unrelated writes. If all read-only connections are busy, a regular Session may be returned.
+    public static Session getReadOnlySession(String dbPath, String dbKey) throws SQLException {
+        SessionPool pool;
+        Session session = null;
+        boolean createConnection = false;
+        List<Session> evictedSessions;
+
+        long startTime = System.nanoTime();
+        sessionPoolLock.lock();
+        try {
+            pool = getSessionPool(dbPath);
+            evictedSessions = pool.evictIdleSessions(System.currentTimeMillis());
+            long remainingNanos = READ_ONLY_CONNECTION_WAIT_MILLIS * 1_000_000L;
+            while (true) {
+                if (!pool.idleReadOnlySessions.isEmpty()) {
+                    session = pool.idleReadOnlySessions.remove(pool.idleReadOnlySessions.size() - 1);
+                    break;
+                }
+                if (pool.openReadOnlyCount < MAX_READ_ONLY_CONNECTIONS) {
+                    pool.openReadOnlyCount++;
+                    createConnection = true;
+                    break;
+                }
+                if (remainingNanos <= 0) {
+                    break;
+                }
+                remainingNanos = readOnlySessionReleased.awaitNanos(remainingNanos);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a read-only Session");
+        } finally {
             sessionPoolLock.unlock();
         }
+        closeConnections(evictedSessions);
+        registerLockWaitTime(READ_ONLY_SESSION_WAIT_STATISTICS_TAG, (System.nanoTime() - startTime)/1000);
+
+        if (createConnection) {
+            try {
+                session = new Session(dbPath, dbKey, false, true);
+            } catch (SQLException e) {
+                pool.connectionCreationFailed(true, null);
+                throw e;
+            }
+        }
+        if (session == null) {
+            // all read-only connections are in use
+            return getSession(dbPath, dbKey);
+        }
         return session;
     }
 
@@ -131,16 +284,29 @@ public class Session implements AutoCloseable {
         return !connection.getAutoCommit();
     }
 
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
     public void startTransaction() throws SQLException {
+        if (readOnly) {
+            throw new SQLException("Cannot start a transaction on a read-only Session");
+        }
         if (isInTransaction()) {
             Logger.e("Starting transaction from within a transaction!");
             Logger.x(new Exception("Trace"));
             return;
         }
-        globalWriteLock.lock();
+        lockGlobalWriteLock();
         connection.setAutoCommit(false);
     }
 
+    static void lockGlobalWriteLock() {
+        long startTime = System.nanoTime();
+        globalWriteLock.lock();
+        registerLockWaitTime(WRITE_LOCK_WAIT_STATISTICS_TAG, (System.nanoTime() - startTime)/1000);
+    }
+
     public static boolean databaseIsReadable(String dbPath, String dbKey) {
         try (Session session = new Session(dbPath, dbKey, true)) {
             try (Statement statement = session.createStatement()) {
@@ -191,7 +357,7 @@ public class Session implements AutoCloseable {
     }
 
     public PreparedStatement prepareStatement(String tag, String s) throws SQLException {
-        return new DeferrablePreparedStatement(tag, connection.prepareStatement(s), this);
+        return prepareCachedStatement(tag, s, false);
     }
 
     public PreparedStatement prepareStatement(String s, boolean returnGeneratedKeys) throws SQLException {
@@ -199,7 +365,42 @@ public class Session implements AutoCloseable {
     }
 
     public PreparedStatement prepareStatement(String tag, String s, boolean returnGeneratedKeys) throws SQLException {
-        return new DeferrablePreparedStatement(tag, connection.prepareStatement(s, returnGeneratedKeys ? Statement.RETURN_GENERATED_KEYS : Statement.NO_GENERATED_KEYS), this);
+        return prepareCachedStatement(tag, s, returnGeneratedKeys);
+    }
+
+    private PreparedStatement prepareCachedStatement(String tag, String s, boolean returnGeneratedKeys) throws SQLException {
+        if (preparedStatementCache == null) {
+            return new DeferrablePreparedStatement(tag, connection.prepareStatement(s, returnGeneratedKeys ? Statement.RETURN_GENERATED_KEYS : Statement.NO_GENERATED_KEYS), this, false);
+        }
+        String key = (returnGeneratedKeys ? "1" : "0") + tag + "\n" + s;
+        DeferrablePreparedStatement cachedStatement = preparedStatementCache.get(key);
+        if (cachedStatement != null && cachedStatement.isCached()) {
+            if (!cachedStatement.isInUse()) {
+                registerPreparedStatementCacheLookup(tag, true);
+                cachedStatement.markInUse();
+                return cachedStatement;
+            }
+            // the same query is being prepared while iterating on the results of a previous execution: use a statement
+            // that is not cached
+            registerPreparedStatementCacheLookup(tag, false);
+            return new DeferrablePreparedStatement(tag, connection.prepareStatement(s, returnGeneratedKeys ? Statement.RETURN_GENERATED_KEYS : Statement.NO_GENERATED_KEYS), this, false);
+        }
+        registerPreparedStatementCacheLookup(tag, false);
+        DeferrablePreparedStatement statement = new DeferrablePreparedStatement(tag, connection.prepareStatement(s, returnGeneratedKeys ? Statement.RETURN_GENERATED_KEYS : Statement.NO_GENERATED_KEYS), this, true);
+        statement.markInUse();
+        preparedStatementCache.put(key, statement);
+        return statement;
+    }
+
+    // closes the connection and all cached statements, only for connections which are no longer in the pool
+    private void closeConnection() throws SQLException {
+        if (preparedStatementCache != null) {
+            for (DeferrablePreparedStatement statement : preparedStatementCache.values()) {
+                statement.evictFromCache();
+            }
+            preparedStatementCache.clear();
+        }
+        connection.close();
     }
 
     @Override
@@ -218,28 +419,169 @@ public class Session implements AutoCloseable {
         if (sessionIsForUpgradeTable) {
             connection.close();
         } else {
+            boolean closeConnection = false;
             sessionPoolLock.lock();
-            List<Session> sessionList = sessionPool.get(dbPath);
-            if ((sessionList == null) || (sessionList.isEmpty())) {
-                sessionList = new ArrayList<>();
-                sessionPool.put(dbPath, sessionList);
+            try {
+                SessionPool pool = getSessionPool(dbPath);
+                releaseTimestamp = System.currentTimeMillis();
+                if (readOnly) {
+                    pool.idleReadOnlySessions.add(this);
+                    readOnlySessionReleased.signal();
+                } else {
+                    pool.removeHolder(holderThread);
+                    holderThread = null;
+                    if (pool.idleReadWriteSessions.size() < MAX_IDLE_READ_WRITE_CONNECTIONS) {
+                        pool.idleReadWriteSessions.add(this);
+                    } else {
+                        pool.openReadWriteCount--;
+                        closeConnection = true;
+                    }
+                    readWriteSessionReleased.signal();
+                }
+            } finally {
+                sessionPoolLock.unlock();
             }
-            sessionList.add(this);
+            if (closeConnection) {
+                closeConnection();
+            }
+        }
+    }
+
+    // region session pool
+
+    private static SessionPool getSessionPool(String dbPath) {
+        SessionPool pool = sessionPools.get(dbPath);
+        if (pool == null) {
+            pool = new SessionPool();
+            sessionPools.put(dbPath, pool);
+        }
+        return pool;
+    }
+
+    private static void closeConnections(List<Session> sessions) {
+        for (Session session : sessions) {
+            try {
+                session.closeConnection();
+            } catch (SQLException e) {
+                Logger.x(e);
+            }
+        }
+    }
+
+    public static PoolStatistics getPoolStatistics(String dbPath) {
+        sessionPoolLock.lock();
+        try {
+            SessionPool pool = getSessionPool(dbPath);
+            return new PoolStatistics(pool.openReadWriteCount, pool.idleReadWriteSessions.size(), pool.openReadOnlyCount, pool.idleReadOnlySessions.size());
+        } finally {
             sessionPoolLock.unlock();
         }
     }
 
+    public static class PoolStatistics {
+        public final int openReadWriteConnections;
+        public final int idleReadWriteConnections;
+        public final int openReadOnlyConnections;
+        public final int idleReadOnlyConnections;
+
+        PoolStatistics(int openReadWriteConnections, int idleReadWriteConnections, int openReadOnlyConnections, int idleReadOnlyConnections) {
+            this.openReadWriteConnections = openReadWriteConnections;
+            this.idleReadWriteConnections = idleReadWriteConnections;
+            this.openReadOnlyConnections = openReadOnlyConnections;
+            this.idleReadOnlyConnections = idleReadOnlyConnections;
+        }
+    }
+
+    // all accesses must be done while holding the sessionPoolLock
+    private static class SessionPool {
+        // most recently released Session last
+        final List<Session> idleReadWriteSessions = new ArrayList<>();
+        final List<Session> idleReadOnlySessions = new ArrayList<>();
+        int openReadWriteCount = 0;
+        int openReadOnlyCount = 0;
+        // number of read-write Sessions currently held by each thread
+        final HashMap<Thread, Integer> readWriteSessionHolders = new HashMap<>();
+
+        void addHolder(Thread thread) {
+            Integer count = readWriteSessionHolders.get(thread);
+            readWriteSessionHolders.put(thread, count == null ? 1 : count + 1);
+        }
+
+        void removeHolder(Thread thread) {
+            Integer count = readWriteSessionHolders.get(thread);
+            if (count == null || count <= 1) {
+                readWriteSessionHolders.remove(thread);
+            } else {
+                readWriteSessionHolders.put(thread, count - 1);
+            }
+        }
+
+        // removes the Sessions idle for too long from the pool, their connections must then be closed by the caller
+        List<Session> evictIdleSessions(long now) {
+            List<Session> evictedSessions = new ArrayList<>();
+            // always keep the most recently used read-write Session
+            while (idleReadWriteSessions.size() > 1 && now - idleReadWriteSessions.get(0).releaseTimestamp > IDLE_TIMEOUT_MILLIS) {
+                evictedSessions.add(idleReadWriteSessions.remove(0));
+                openReadWriteCount--;
+            }
+            while (!idleReadOnlySessions.isEmpty() && now - idleReadOnlySessions.get(0).releaseTimestamp > IDLE_TIMEOUT_MILLIS) {
+                evictedSessions.add(idleReadOnlySessions.remove(0));
+                openReadOnlyCount--;
+            }
+            return evictedSessions;
+        }
+
+        void connectionCreationFailed(boolean readOnly, Thread holderThread) {
+            sessionPoolLock.lock();
+            try {
+                if (readOnly) {
+                    openReadOnlyCount--;
+                    readOnlySessionReleased.signal();
+                } else {
+                    openReadWriteCount--;
+                    removeHolder(holderThread);
+                    readWriteSessionReleased.signal();
+                }
+            } finally {
+                sessionPoolLock.unlock();
+            }
+        }
+    }
+
+    // endregion
+
     public boolean getAutoCommit() throws SQLException {
         return connection.getAutoCommit();
     }
 
+    static void registerPreparedStatementCacheLookup(String tag, boolean hit) {
+        if (tag == null) {
+            return;
+        }
+        queryStatistics.compute(tag, (key, val) -> {
+            if (val == null) {
+                val = EngineDbQueryStatisticsEntry.create();
+            }
+            return val.incrementPreparedStatementCache(hit);
+        });
+    }
+
+    static void registerLockWaitTime(String tag, long timeMicro) {
+        lockWaitStatistics.compute(tag, (key, val) -> {
+            if (val == null) {
+                return EngineDbQueryStatisticsEntry.create().increment(timeMicro);
+            }
+            return val.increment(timeMicro);
+        });
+    }
+
     static void registerQueryTime(String tag, long timeMicro) {
         if (tag == null) {
             return;
         }
         queryStatistics.compute(tag, (key, val) -> {
             if (val == null) {
-                return EngineDbQueryStatisticsEntry.create(timeMicro);
+                return EngineDbQueryStatisticsEntry.create().increment(timeMicro);
             }
             return val.increment(timeMicro);
         });
@@ -269,9 +611,9 @@ class DeferrableStatement implements Statement {
     public boolean execute(final String s) throws SQLException {
         boolean res;
         long startTime;
-        if (session.getAutoCommit()) {
+        if (session.getAutoCommit() && !session.isReadOnly()) {
             try {
-                Session.globalWriteLock.lock();
+                Session.lockGlobalWriteLock();
                 startTime = System.nanoTime();
                 res = statement.execute(s);
             } finally {
@@ -297,9 +639,9 @@ class DeferrableStatement implements Statement {
     public int executeUpdate(final String s) throws SQLException {
         int res;
         long startTime;
-        if (session.getAutoCommit()) {
+        if (session.getAutoCommit() && !session.isReadOnly()) {
             try {
-                Session.globalWriteLock.lock();
+                Session.lockGlobalWriteLock();
                 startTime = System.nanoTime();
                 res = statement.executeUpdate(s);
             } finally {
@@ -520,11 +862,44 @@ class DeferrablePreparedStatement implements PreparedStatement {
     private final String tag;
     private final PreparedStatement statement;
     private final Session session;
+    // a cached statement is not closed by close(), but reset and returned to the Session cache
+    private boolean cached;
+    private boolean inUse;
+    // every ResultSet handed out since the statement was taken from the cache, closed when it is returned to the cache
+    private final List<ResultSet> openResultSets;
 
-    DeferrablePreparedStatement(String tag, PreparedStatement statement, Session session) {
+    DeferrablePreparedStatement(String tag, PreparedStatement statement, Session session, boolean cached) {
         this.tag = tag;
         this.statement = statement;
         this.session = session;
+        this.cached = cached;
+        this.inUse = false;
+        this.openResultSets = new ArrayList<>();
+    }
+
+    // false once the statement could not be reset, it is then replaced in the cache
+    boolean isCached() {
+        return cached;
+    }
+
+    boolean isInUse() {
+        return inUse;
+    }
+
+    void markInUse() {
+        inUse = true;
+    }
+
+    // called when removed from the Session cache: close now if idle, otherwise on the next close()
+    void evictFromCache() {
+        cached = false;
+        if (!inUse) {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                Logger.x(e);
+            }
+        }
     }
 
     @Override
@@ -532,16 +907,31 @@ class DeferrablePreparedStatement implements PreparedStatement {
         long startTime = System.nanoTime();
         ResultSet res = statement.executeQuery();
         Session.registerQueryTime(tag, (System.nanoTime() - startTime)/1000);
-        return res;
+        return trackResultSet(res);
+    }
+
+    private ResultSet trackResultSet(ResultSet resultSet) throws SQLException {
+        if (resultSet != null && !openResultSets.contains(resultSet)) {
+            // forget the result sets already closed by the caller, so that a statement executed in a loop does not accumulate them
+            openResultSets.removeIf(openResultSet -> {
+                try {
+                    return openResultSet.isClosed();
+                } catch (SQLException e) {
+                    return false;
+                }
+            });
+            openResultSets.add(resultSet);
+        }
+        return resultSet;
     }
 
     @Override
     public int executeUpdate() throws SQLException {
         int res;
         long startTime;
-        if (session.getAutoCommit()) {
+        if (session.getAutoCommit() && !session.isReadOnly()) {
             try {
-                Session.globalWriteLock.lock();
+                Session.lockGlobalWriteLock();
                 startTime = System.nanoTime();
                 res = statement.executeUpdate();
             } finally {
@@ -562,7 +952,42 @@ class DeferrablePreparedStatement implements PreparedStatement {
 
     @Override
     public void close() throws SQLException {
-        statement.close();
+        inUse = false;
+        if (cached) {
+            try {
+                // the result sets must be closed to reset the statement and end its read transaction
+                closeOpenResultSets();
+                statement.clearParameters();
+                statement.clearBatch();
+                return;
+            } catch (SQLException e) {
+                // the cache entry will be replaced when the next statement with this key is prepared
+                Logger.x(e);
+                cached = false;
+            }
+        }
+        try {
+            closeOpenResultSets();
+        } finally {
+            statement.close();
+        }
+    }
+
+    private void closeOpenResultSets() throws SQLException {
+        SQLException exception = null;
+        for (ResultSet openResultSet : openResultSets) {
+            try {
+                if (!openResultSet.isClosed()) {
+                    openResultSet.close();
+                }
+            } catch (SQLException e) {
+                exception = e;
+            }
+        }
+        openResultSets.clear();
+        if (exception != null) {
+            throw exception;
+        }
     }
 
     @Override
@@ -899,7 +1324,7 @@ class DeferrablePreparedStatement implements PreparedStatement {
 
     @Override
     public ResultSet getResultSet() throws SQLException {
-        return statement.getResultSet();
+        return trackResultSet(statement.getResultSet());
     }
 
     @Override
@@ -969,7 +1394,7 @@ class DeferrablePreparedStatement implements PreparedStatement {
 
     @Override
     public ResultSet getGeneratedKeys() throws SQLException {
-        return statement.getGeneratedKeys();
+        return trackResultSet(statement.getGeneratedKeys());
     }
 
     @Override
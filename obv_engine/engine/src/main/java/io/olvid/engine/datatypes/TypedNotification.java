@@ -0,0 +1,31 @@
+/*
+ *  Olvid for Android
+ *  Copyright © 2019-2026 Olvid SAS
+ *
+ *  This file is part of Olvid for Android.
+ *
+ *  Olvid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License, version 3,
+ *  as published by the Free Software Foundation.
+ *
+ *  Olvid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with Olvid.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.olvid.engine.datatypes;
+
+import java.util.Map;
+
+// A notification carrying its data as fields rather than in a string-keyed userInfo map. The map is only built (by
+// toUserInfo()) for listeners which are not TypedNotificationListeners.
+public interface TypedNotification {
+    String getNotificationName();
+    // notifications with the same non-null coalescing key replace each other while waiting in a delivery lane (only the latest is delivered)
+    Object getCoalescingKey();
+    Map<String, Object> toUserInfo();
+}
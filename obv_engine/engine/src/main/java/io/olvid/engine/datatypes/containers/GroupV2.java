@@ -283,36 +283,61 @@ public class GroupV2 {
                     if (!Arrays.equals(blocks[i].innerData.previousBlockHash, blocks[i - 1].computeSha256())) {
                         throw new Exception("Invalid block hash chaining at block " + i);
                     }
-                    if (!blocks[i].isSignatureValid(blocks[i - 1].innerData.administratorIdentities, blocks[i].innerData.administratorIdentities[0])) {
-                        throw new Exception("Invalid block signature at block " + i);
-                    }
                 }
+                checkBlockSignatures(alreadyTrustedPrefixAdministratorChain.blocks.length);
             } else {
                 // verify the groupUID
                 if (!groupUid.equals(new UID(blocks[0].computeSha256()))) {
                     throw new Exception("Invalid groupUid");
                 }
 
-                // check the first block's signature
-                if (!blocks[0].isSignatureValid(blocks[0].innerData.administratorIdentities, blocks[0].innerData.administratorIdentities[0])) {
-                    throw new Exception("Invalid block signature at block 0");
-                }
-
                 // check following blocks
                 for (int i = 1; i < blocks.length; i++) {
                     if (!Arrays.equals(blocks[i].innerData.previousBlockHash, blocks[i - 1].computeSha256())) {
                         throw new Exception("Invalid block hash chaining at block " + i);
                     }
-                    if (!blocks[i].isSignatureValid(blocks[i - 1].innerData.administratorIdentities, blocks[i].innerData.administratorIdentities[0])) {
-                        throw new Exception("Invalid block signature at block " + i);
-                    }
                 }
+                checkBlockSignatures(0);
             }
 
             integrityWasChecked = true;
             return this;
         }
 
+        // The first block is signed by one of its own administrators, other blocks by one of the previous block's
+        // administrators, normally the first administrator of the block. All blocks are first verified in a single
+        // batch with this probable signer. Only if this fails, blocks are checked one by one, starting from the first
+        // failing one, against all possible signers.
+        private void checkBlockSignatures(int firstBlockIndex) throws Exception {
+            Signature.BatchVerifier verifier = new Signature.BatchVerifier();
+            int fallbackBlockIndex = blocks.length;
+            for (int i = firstBlockIndex; i < blocks.length; i++) {
+                Identity probableSignerIdentity = blocks[i].innerData.administratorIdentities[0];
+                if (!Arrays.asList(getPossibleSignerIdentities(i)).contains(probableSignerIdentity)) {
+                    fallbackBlockIndex = i;
+                    break;
+                }
+                verifier.add(Constants.SignatureContext.GROUP_ADMINISTRATORS_CHAIN, blocks[i].encodedInnerData.getBytes(), probableSignerIdentity, blocks[i].signature);
+            }
+            int invalidIndex = verifier.verifyAll();
+            if (invalidIndex != -1) {
+                fallbackBlockIndex = firstBlockIndex + invalidIndex;
+            }
+
+            for (int i = fallbackBlockIndex; i < blocks.length; i++) {
+                if (!blocks[i].isSignatureValid(verifier, getPossibleSignerIdentities(i), blocks[i].innerData.administratorIdentities[0])) {
+                    throw new Exception("Invalid block signature at block " + i);
+                }
+            }
+        }
+
+        private Identity[] getPossibleSignerIdentities(int blockIndex) {
+            if (blockIndex == 0) {
+                return blocks[0].innerData.administratorIdentities;
+            }
+            return blocks[blockIndex - 1].innerData.administratorIdentities;
+        }
+
         public boolean isPrefixedBy(AdministratorsChain prefix) {
             if (!Objects.equals(prefix.groupUid, groupUid)) {
                 return false;
@@ -432,12 +457,12 @@ public class GroupV2 {
             }
 
             @SuppressWarnings("BooleanMethodIsAlwaysInverted")
-            boolean isSignatureValid(Identity[] previousBlockAdministratorIdentities, Identity probableSignerIdentity) {
+            boolean isSignatureValid(Signature.BatchVerifier verifier, Identity[] previousBlockAdministratorIdentities, Identity probableSignerIdentity) {
                 // first check the signature from the probableSignerIdentity
                 for (Identity administratorIdentity : previousBlockAdministratorIdentities) {
                     if (administratorIdentity.equals(probableSignerIdentity)) {
                         try {
-                            if (Signature.verify(Constants.SignatureContext.GROUP_ADMINISTRATORS_CHAIN, encodedInnerData.getBytes(), administratorIdentity, signature)) {
+                            if (verifier.verify(Constants.SignatureContext.GROUP_ADMINISTRATORS_CHAIN, encodedInnerData.getBytes(), administratorIdentity, signature)) {
                                 return true;
                             }
                         } catch (Exception ignored) { }
@@ -448,7 +473,7 @@ public class GroupV2 {
                 for (Identity administratorIdentity : previousBlockAdministratorIdentities) {
                     try {
                         if (!administratorIdentity.equals(probableSignerIdentity)) {
-                            if (Signature.verify(Constants.SignatureContext.GROUP_ADMINISTRATORS_CHAIN, encodedInnerData.getBytes(), administratorIdentity, signature)) {
+                            if (verifier.verify(Constants.SignatureContext.GROUP_ADMINISTRATORS_CHAIN, encodedInnerData.getBytes(), administratorIdentity, signature)) {
                                 return true;
                             }
                         }
@@ -580,10 +605,12 @@ public class GroupV2 {
         public List<Identity> consolidateWithLogEntries(GroupV2.Identifier groupIdentifier, List<byte[]> logEntries) {
             HashSet<IdentityAndPermissionsAndDetails> leavers = new HashSet<>();
             List<Identity> out = new ArrayList<>();
+            // each log entry may be checked against all members: reuse the prepared member keys between entries
+            Signature.BatchVerifier verifier = new Signature.BatchVerifier();
             for (byte[] logEntry : logEntries) {
                 for (IdentityAndPermissionsAndDetails groupMember : groupMemberIdentityAndPermissionsAndDetailsList) {
                     try {
-                        if (Signature.verify(Constants.SignatureContext.GROUP_LEAVE_NONCE, groupIdentifier, groupMember.groupInvitationNonce, null, groupMember.identity, logEntry)) {
+                        if (verifier.verify(Constants.SignatureContext.GROUP_LEAVE_NONCE, groupIdentifier, groupMember.groupInvitationNonce, null, groupMember.identity, logEntry)) {
                             leavers.add(groupMember);
                             out.add(groupMember.identity);
                             break;
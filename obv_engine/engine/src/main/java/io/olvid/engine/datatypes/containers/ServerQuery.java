@@ -29,6 +29,7 @@ import io.olvid.engine.datatypes.key.asymmetric.ServerAuthenticationPublicKey;
 import io.olvid.engine.datatypes.key.symmetric.AuthEncKey;
 import io.olvid.engine.encoder.DecodingException;
 import io.olvid.engine.encoder.Encoded;
+import io.olvid.engine.encoder.EncodedWriter;
 
 public class ServerQuery {
     private final Identity ownedIdentity;
@@ -60,11 +61,10 @@ public class ServerQuery {
     }
 
     public Encoded encode() {
-        return Encoded.of(new Encoded[]{
+        return EncodedWriter.list(
                 encodedElements,
-                Encoded.of(ownedIdentity),
-                type.encode()
-        });
+                Encoded.of(ownedIdentity)
+        ).add(type.getEncodedWriter()).toEncoded();
     }
 
     public void setResponse(Encoded encodedResponse) {
@@ -223,11 +223,14 @@ public class ServerQuery {
         }
 
         public Encoded encode() {
-            return Encoded.of(new Encoded[]{
+            return getEncodedWriter().toEncoded();
+        }
+
+        EncodedWriter getEncodedWriter() {
+            return EncodedWriter.list(
                     Encoded.of(getId().value),
-                    Encoded.of(getServer()),
-                    Encoded.of(getEncodedParts()),
-            });
+                    Encoded.of(getServer())
+            ).add(EncodedWriter.list(getEncodedParts()));
         }
     }
 
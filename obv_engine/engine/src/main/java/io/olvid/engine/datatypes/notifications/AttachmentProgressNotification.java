@@ -0,0 +1,128 @@
+/*
+ *  Olvid for Android
+ *  Copyright © 2019-2026 Olvid SAS
+ *
+ *  This file is part of Olvid for Android.
+ *
+ *  Olvid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License, version 3,
+ *  as published by the Free Software Foundation.
+ *
+ *  Olvid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with Olvid.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.olvid.engine.datatypes.notifications;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import io.olvid.engine.datatypes.Identity;
+import io.olvid.engine.datatypes.TypedNotification;
+import io.olvid.engine.datatypes.UID;
+
+// Typed version of NOTIFICATION_ATTACHMENT_UPLOAD_PROGRESS and NOTIFICATION_ATTACHMENT_DOWNLOAD_PROGRESS.
+// Successive progress notifications of an attachment coalesce.
+public class AttachmentProgressNotification implements TypedNotification {
+    private final String notificationName;
+    public final Identity ownedIdentity;
+    public final UID messageUid;
+    public final int attachmentNumber;
+    public final float progress;
+    public final Float speedBps; // may be null
+    public final Integer etaSeconds; // may be null
+
+    private AttachmentProgressNotification(String notificationName, Identity ownedIdentity, UID messageUid, int attachmentNumber, float progress, Float speedBps, Integer etaSeconds) {
+        this.notificationName = notificationName;
+        this.ownedIdentity = ownedIdentity;
+        this.messageUid = messageUid;
+        this.attachmentNumber = attachmentNumber;
+        this.progress = progress;
+        this.speedBps = speedBps;
+        this.etaSeconds = etaSeconds;
+    }
+
+    public static AttachmentProgressNotification upload(Identity ownedIdentity, UID messageUid, int attachmentNumber, float progress, Float speedBps, Integer etaSeconds) {
+        return new AttachmentProgressNotification(UploadNotifications.NOTIFICATION_ATTACHMENT_UPLOAD_PROGRESS, ownedIdentity, messageUid, attachmentNumber, progress, speedBps, etaSeconds);
+    }
+
+    public static AttachmentProgressNotification download(Identity ownedIdentity, UID messageUid, int attachmentNumber, float progress, Float speedBps, Integer etaSeconds) {
+        return new AttachmentProgressNotification(DownloadNotifications.NOTIFICATION_ATTACHMENT_DOWNLOAD_PROGRESS, ownedIdentity, messageUid, attachmentNumber, progress, speedBps, etaSeconds);
+    }
+
+    public boolean isUpload() {
+        return UploadNotifications.NOTIFICATION_ATTACHMENT_UPLOAD_PROGRESS.equals(notificationName);
+    }
+
+    @Override
+    public String getNotificationName() {
+        return notificationName;
+    }
+
+    @Override
+    public Object getCoalescingKey() {
+        return new CoalescingKey(notificationName, ownedIdentity, messageUid, attachmentNumber);
+    }
+
+    @Override
+    public Map<String, Object> toUserInfo() {
+        HashMap<String, Object> userInfo = new HashMap<>();
+        if (isUpload()) {
+            userInfo.put(UploadNotifications.NOTIFICATION_ATTACHMENT_UPLOAD_PROGRESS_OWNED_IDENTITY_KEY, ownedIdentity);
+            userInfo.put(UploadNotifications.NOTIFICATION_ATTACHMENT_UPLOAD_PROGRESS_MESSAGE_UID_KEY, messageUid);
+            userInfo.put(UploadNotifications.NOTIFICATION_ATTACHMENT_UPLOAD_PROGRESS_ATTACHMENT_NUMBER_KEY, attachmentNumber);
+            userInfo.put(UploadNotifications.NOTIFICATION_ATTACHMENT_UPLOAD_PROGRESS_PROGRESS_KEY, progress);
+            if (speedBps != null && etaSeconds != null) {
+                userInfo.put(UploadNotifications.NOTIFICATION_ATTACHMENT_UPLOAD_PROGRESS_SPEED_BPS_KEY, speedBps);
+                userInfo.put(UploadNotifications.NOTIFICATION_ATTACHMENT_UPLOAD_PROGRESS_ETA_SECONDS_KEY, etaSeconds);
+            }
+        } else {
+            userInfo.put(DownloadNotifications.NOTIFICATION_ATTACHMENT_DOWNLOAD_PROGRESS_OWNED_IDENTITY_KEY, ownedIdentity);
+            userInfo.put(DownloadNotifications.NOTIFICATION_ATTACHMENT_DOWNLOAD_PROGRESS_MESSAGE_UID_KEY, messageUid);
+            userInfo.put(DownloadNotifications.NOTIFICATION_ATTACHMENT_DOWNLOAD_PROGRESS_ATTACHMENT_NUMBER_KEY, attachmentNumber);
+            userInfo.put(DownloadNotifications.NOTIFICATION_ATTACHMENT_DOWNLOAD_PROGRESS_PROGRESS_KEY, progress);
+            if (speedBps != null && etaSeconds != null) {
+                userInfo.put(DownloadNotifications.NOTIFICATION_ATTACHMENT_DOWNLOAD_PROGRESS_SPEED_BPS_KEY, speedBps);
+                userInfo.put(DownloadNotifications.NOTIFICATION_ATTACHMENT_DOWNLOAD_PROGRESS_ETA_SECONDS_KEY, etaSeconds);
+            }
+        }
+        return userInfo;
+    }
+
+    private static class CoalescingKey {
+        private final String notificationName;
+        private final Identity ownedIdentity;
+        private final UID messageUid;
+        private final int attachmentNumber;
+
+        CoalescingKey(String notificationName, Identity ownedIdentity, UID messageUid, int attachmentNumber) {
+            this.notificationName = notificationName;
+            this.ownedIdentity = ownedIdentity;
+            this.messageUid = messageUid;
+            this.attachmentNumber = attachmentNumber;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof CoalescingKey)) {
+                return false;
+            }
+            CoalescingKey other = (CoalescingKey) o;
+            return attachmentNumber == other.attachmentNumber
+                    && notificationName.equals(other.notificationName)
+                    && Objects.equals(ownedIdentity, other.ownedIdentity)
+                    && Objects.equals(messageUid, other.messageUid);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(notificationName, ownedIdentity, messageUid, attachmentNumber);
+        }
+    }
+}
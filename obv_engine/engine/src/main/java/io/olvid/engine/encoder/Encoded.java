@@ -19,6 +19,9 @@
 
 package io.olvid.engine.encoder;
 
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.math.BigInteger;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
@@ -43,13 +46,17 @@ public class Encoded {
     public static final int INT_ENCODING_LENGTH = 8;
     public static final int ENCODED_HEADER_LENGTH = 5;
 
+    // an Encoded is a view over data[offset, offset + length[
+    // decoding a list or a dictionary returns views sharing this backing array instead of copying every element
     protected final byte[] data;
+    private final int offset;
+    private final int length;
 
-    private static final byte BYTE_IDS_BYTE_ARRAY = (byte) 0x00;
+    static final byte BYTE_IDS_BYTE_ARRAY = (byte) 0x00;
     private static final byte BYTE_IDS_INT = (byte) 0x01;
     private static final byte BYTE_IDS_BOOLEAN = (byte) 0x02;
-    private static final byte BYTE_IDS_LIST = (byte) 0x03;
-    private static final byte BYTE_IDS_DICTIONARY = (byte) 0x04;
+    static final byte BYTE_IDS_LIST = (byte) 0x03;
+    static final byte BYTE_IDS_DICTIONARY = (byte) 0x04;
     private static final byte BYTE_IDS_BIG_UINT = (byte) 0x80;
     private static final byte BYTE_IDS_SYM_KEY = (byte) 0x90;
     private static final byte BYTE_IDS_PUB_KEY = (byte) 0x91;
@@ -57,34 +64,97 @@ public class Encoded {
 
 
     public Encoded(byte[] bytes) {
-        data = bytes;
+        this(bytes, 0, bytes.length);
     }
 
+    private Encoded(byte[] bytes, int offset, int length) {
+        this.data = bytes;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public static final int CHUNK_HEADER_LENGTH = 15 + INT_ENCODING_LENGTH;
+
     public static byte[] encodeChunk(int chunkNumber, byte[] buffer, int bufferFullness) {
-        byte[] output = new byte[15 + INT_ENCODING_LENGTH + bufferFullness];
-        output[0] = BYTE_IDS_LIST;
-        System.arraycopy(bytesFromUInt32(10 + INT_ENCODING_LENGTH + bufferFullness), 0, output, 1, 4);
-        output[5] = BYTE_IDS_INT;
-        output[6] = 0;
-        output[7] = 0;
-        output[8] = 0;
-        output[9] = INT_ENCODING_LENGTH;
+        byte[] output = new byte[CHUNK_HEADER_LENGTH + bufferFullness];
+        encodeChunkHeader(chunkNumber, bufferFullness, output, 0);
+        System.arraycopy(buffer, 0, output, CHUNK_HEADER_LENGTH, bufferFullness);
+        return output;
+    }
+
+    // writes the CHUNK_HEADER_LENGTH bytes preceding the chunk data of an encoded chunk: this allows reading
+    // the chunk data directly at position offset + CHUNK_HEADER_LENGTH of the output instead of copying it
+    public static void encodeChunkHeader(int chunkNumber, int dataLength, byte[] output, int offset) {
+        output[offset] = BYTE_IDS_LIST;
+        writeUInt32(output, offset + 1, 10 + INT_ENCODING_LENGTH + dataLength);
+        output[offset + 5] = BYTE_IDS_INT;
+        output[offset + 6] = 0;
+        output[offset + 7] = 0;
+        output[offset + 8] = 0;
+        output[offset + 9] = INT_ENCODING_LENGTH;
         for (int j = 0; j < INT_ENCODING_LENGTH; j++) {
-            output[9 + INT_ENCODING_LENGTH - j] = (byte) (chunkNumber & 0xff);
+            output[offset + 9 + INT_ENCODING_LENGTH - j] = (byte) (chunkNumber & 0xff);
             chunkNumber = chunkNumber >>> 8;
         }
-        output[10 + INT_ENCODING_LENGTH] = BYTE_IDS_BYTE_ARRAY;
-        System.arraycopy(bytesFromUInt32(bufferFullness), 0, output, 11 + INT_ENCODING_LENGTH, 4);
-        System.arraycopy(buffer, 0, output, 15 + INT_ENCODING_LENGTH, bufferFullness);
-        return output;
+        output[offset + 10 + INT_ENCODING_LENGTH] = BYTE_IDS_BYTE_ARRAY;
+        writeUInt32(output, offset + 11 + INT_ENCODING_LENGTH, dataLength);
+    }
+
+    // reverse of encodeChunkHeader: checks the header found at offset for an encoded chunk of encodedChunkLength bytes,
+    // and returns the chunk number. The chunk data length is encodedChunkLength - CHUNK_HEADER_LENGTH.
+    public static long decodeChunkHeader(byte[] header, int offset, long encodedChunkLength) throws DecodingException {
+        if (encodedChunkLength < CHUNK_HEADER_LENGTH
+                || header[offset] != BYTE_IDS_LIST
+                || uint32FromBytes(header, offset + 1) != encodedChunkLength - ENCODED_HEADER_LENGTH
+                || header[offset + 5] != BYTE_IDS_INT
+                || uint32FromBytes(header, offset + 6) != INT_ENCODING_LENGTH
+                || header[offset + 10 + INT_ENCODING_LENGTH] != BYTE_IDS_BYTE_ARRAY
+                || uint32FromBytes(header, offset + 11 + INT_ENCODING_LENGTH) != encodedChunkLength - CHUNK_HEADER_LENGTH) {
+            throw new DecodingException();
+        }
+        long chunkNumber = 0;
+        for (int i = 0; i < INT_ENCODING_LENGTH; i++) {
+            chunkNumber = chunkNumber << 8;
+            chunkNumber += header[offset + 10 + i] & 0xff;
+        }
+        return chunkNumber;
     }
 
     public byte[] getBytes() {
-        return data;
+        if (offset == 0 && length == data.length) {
+            return data;
+        }
+        // this is a view inside a larger array --> only copy the part we need
+        return Arrays.copyOfRange(data, offset, offset + length);
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    // copies the encoded bytes in dest, at position pos
+    void writeTo(byte[] dest, int pos) {
+        System.arraycopy(data, offset, dest, pos, length);
+    }
+
+    void writeTo(OutputStream os) throws IOException {
+        os.write(data, offset, length);
     }
 
     public boolean equals(Object o) {
-        return (o instanceof Encoded) && Arrays.equals(data, ((Encoded) o).getBytes());
+        if (!(o instanceof Encoded)) {
+            return false;
+        }
+        Encoded other = (Encoded) o;
+        if (length != other.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (data[offset + i] != other.data[other.offset + i]) {
+                return false;
+            }
+        }
+        return true;
     }
 
     // region Encoder.of
@@ -98,7 +168,20 @@ public class Encoded {
         if (bytes.length < len + 5) {
             throw new DecodingException();
         }
-        return new Encoded(Arrays.copyOfRange(bytes, 0, 5 + len));
+        return new Encoded(bytes, 0, 5 + len);
+    }
+
+    // same as above, for an Encoded starting at position offset of bytes (the returned Encoded is a view, bytes is not copied)
+    public static Encoded fromLongerByteArray(byte[] bytes, int offset) throws DecodingException {
+        if (offset < 0 || bytes.length < offset + 5) {
+            throw new DecodingException();
+        }
+
+        int len = uint32FromBytes(bytes, offset + 1);
+        if (len < 0 || bytes.length - offset - 5 < len) {
+            throw new DecodingException();
+        }
+        return new Encoded(bytes, offset, 5 + len);
     }
 
     public static Encoded of(byte[] bytes) {
@@ -249,7 +332,7 @@ public class Encoded {
     private static Encoded pack(byte byteId, Encoded[] list) {
         int len = 0;
         for (Encoded encoded : list) {
-            len += encoded.data.length;
+            len += encoded.length;
         }
         byte[] data = new byte[len + 5];
         data[0] = byteId;
@@ -257,8 +340,8 @@ public class Encoded {
         System.arraycopy(encodedLength, 0, data, 1, 4);
         int offset = 5;
         for (Encoded encoded : list) {
-            System.arraycopy(encoded.data, 0, data, offset, encoded.data.length);
-            offset += encoded.data.length;
+            System.arraycopy(encoded.data, encoded.offset, data, offset, encoded.length);
+            offset += encoded.length;
         }
         return new Encoded(data);
     }
@@ -267,7 +350,7 @@ public class Encoded {
         int len = 0;
         for (Map.Entry<DictionaryKey, Encoded> entry : dict.entrySet()) {
             len += 5 + entry.getKey().data.length;
-            len += entry.getValue().data.length;
+            len += entry.getValue().length;
         }
         byte[] data = new byte[len + 5];
         data[0] = BYTE_IDS_DICTIONARY;
@@ -275,12 +358,14 @@ public class Encoded {
         System.arraycopy(encodedLength, 0, data, 1, 4);
         int offset = 5;
         for (Map.Entry<DictionaryKey, Encoded> entry : dict.entrySet()) {
-            Encoded encodedKey = Encoded.of(entry.getKey().data);
-            System.arraycopy(encodedKey.data, 0, data, offset, encodedKey.data.length);
-            offset += encodedKey.data.length;
+            byte[] key = entry.getKey().data;
+            data[offset] = BYTE_IDS_BYTE_ARRAY;
+            System.arraycopy(bytesFromUInt32(key.length), 0, data, offset + 1, 4);
+            System.arraycopy(key, 0, data, offset + 5, key.length);
+            offset += 5 + key.length;
             Encoded encodedValue = entry.getValue();
-            System.arraycopy(encodedValue.data, 0, data, offset, encodedValue.data.length);
-            offset += encodedValue.data.length;
+            System.arraycopy(encodedValue.data, encodedValue.offset, data, offset, encodedValue.length);
+            offset += encodedValue.length;
         }
         return new Encoded(data);
     }
@@ -302,11 +387,11 @@ public class Encoded {
     }
 
     public boolean isEncodedValue() {
-        int len = uint32FromBytes(data, 1);
-        if (len + 5 != data.length) {
+        int len = uint32FromBytes(data, offset + 1);
+        if (len + 5 != length) {
             return false;
         }
-        switch (data[0]) {
+        switch (data[offset]) {
             case BYTE_IDS_BYTE_ARRAY:
             case BYTE_IDS_INT:
             case BYTE_IDS_BOOLEAN:
@@ -326,17 +411,36 @@ public class Encoded {
     // region Decoders
 
     public byte[] decodeBytes() throws DecodingException {
-        if (data[0] != BYTE_IDS_BYTE_ARRAY) {
+        if (data[offset] != BYTE_IDS_BYTE_ARRAY) {
+            throw new DecodingException();
+        }
+        if (!isEncodedValue()) {
+            throw new DecodingException();
+        }
+        return Arrays.copyOfRange(data, offset + 5, offset + length);
+    }
+
+    // writes the decoded bytes directly to output, without any intermediate copy, and returns the number of bytes written
+    public int decodeBytesTo(DataOutput output) throws DecodingException, IOException {
+        if (data[offset] != BYTE_IDS_BYTE_ARRAY) {
             throw new DecodingException();
         }
         if (!isEncodedValue()) {
             throw new DecodingException();
         }
-        return Arrays.copyOfRange(data, 5, data.length);
+        output.write(data, offset + 5, length - 5);
+        return length - 5;
     }
 
     public String decodeString() throws DecodingException {
-        return new String(decodeBytes(), StandardCharsets.UTF_8);
+        if (data[offset] != BYTE_IDS_BYTE_ARRAY) {
+            throw new DecodingException();
+        }
+        if (!isEncodedValue()) {
+            throw new DecodingException();
+        }
+        // decode directly from the backing array, no need for an intermediate byte[]
+        return new String(data, offset + 5, length - 5, StandardCharsets.UTF_8);
     }
 
     public UID decodeUid() throws DecodingException {
@@ -360,28 +464,28 @@ public class Encoded {
     }
 
     public long decodeLong() throws DecodingException {
-        if (data[0] != BYTE_IDS_INT) {
+        if (data[offset] != BYTE_IDS_INT) {
             throw new DecodingException();
         }
-        if ((data.length != 5 + INT_ENCODING_LENGTH) || !isEncodedValue()) {
+        if ((length != 5 + INT_ENCODING_LENGTH) || !isEncodedValue()) {
             throw new DecodingException();
         }
         long res = 0;
         for (int i = 0; i < INT_ENCODING_LENGTH; i++) {
             res = res << 8;
-            res += data[i + 5] & 0xff;
+            res += data[offset + i + 5] & 0xff;
         }
         return res;
     }
 
     public boolean decodeBoolean() throws DecodingException {
-        if (data[0] != BYTE_IDS_BOOLEAN) {
+        if (data[offset] != BYTE_IDS_BOOLEAN) {
             throw new DecodingException();
         }
-        if ((data.length != 5 + 1) || !isEncodedValue()) {
+        if ((length != 5 + 1) || !isEncodedValue()) {
             throw new DecodingException();
         }
-        switch (data[5]) {
+        switch (data[offset + 5]) {
             case (byte) 0x00:
                 return false;
             case (byte) 0x01:
@@ -392,10 +496,10 @@ public class Encoded {
     }
 
     public PublicKey decodePublicKey() throws DecodingException {
-        if (data[0] != BYTE_IDS_PUB_KEY || !isEncodedValue()) {
+        if (data[offset] != BYTE_IDS_PUB_KEY || !isEncodedValue()) {
             throw new DecodingException();
         }
-        Encoded[] list = unpack();
+        Encoded[] list = unpack(offset + length);
         if (list.length != 2) {
             throw new DecodingException();
         }
@@ -408,10 +512,10 @@ public class Encoded {
     }
 
     public PrivateKey decodePrivateKey() throws DecodingException {
-        if (data[0] != BYTE_IDS_PRV_KEY || !isEncodedValue()) {
+        if (data[offset] != BYTE_IDS_PRV_KEY || !isEncodedValue()) {
             throw new DecodingException();
         }
-        Encoded[] list = unpack();
+        Encoded[] list = unpack(offset + length);
         if (list.length != 2) {
             throw new DecodingException();
         }
@@ -424,10 +528,10 @@ public class Encoded {
     }
 
     public SymmetricKey decodeSymmetricKey() throws DecodingException {
-        if (data[0] != BYTE_IDS_SYM_KEY || !isEncodedValue()) {
+        if (data[offset] != BYTE_IDS_SYM_KEY || !isEncodedValue()) {
             throw new DecodingException();
         }
-        Encoded[] list = unpack();
+        Encoded[] list = unpack(offset + length);
         if (list.length != 2) {
             throw new DecodingException();
         }
@@ -441,10 +545,10 @@ public class Encoded {
 
 
     public BigInteger decodeBigUInt() throws DecodingException {
-        if (data[0] != BYTE_IDS_BIG_UINT || !isEncodedValue()) {
+        if (data[offset] != BYTE_IDS_BIG_UINT || !isEncodedValue()) {
             throw new DecodingException();
         }
-        return new BigInteger(1, Arrays.copyOfRange(data, 5, data.length));
+        return new BigInteger(1, Arrays.copyOfRange(data, offset + 5, offset + length));
     }
 
     public static BigInteger bigUIntFromBytes(byte[] data) {
@@ -454,110 +558,81 @@ public class Encoded {
 
     // used to decode a list with some additional bytes at the end
     public Encoded[] decodeListWithPadding() throws DecodingException {
-        if (data[0] != BYTE_IDS_LIST) {
+        if (data[offset] != BYTE_IDS_LIST) {
             throw new DecodingException();
         }
-        int totalLen = uint32FromBytes(data, 1);
-        if (totalLen + 5 > data.length) {
+        int totalLen = uint32FromBytes(data, offset + 1);
+        if (totalLen + 5 > length) {
             throw new DecodingException();
         }
-
-        List<Encoded> list = new ArrayList<>();
-        int offset = 5;
-        while (offset + 4 < totalLen + 5) {
-            int len = uint32FromBytes(data, offset + 1);
-            if (offset + 5 + len > totalLen + 5) {
-                throw new DecodingException();
-            }
-            Encoded elem = new Encoded(Arrays.copyOfRange(data, offset, offset + 5 + len));
-            list.add(elem);
-            offset += 5 + len;
-        }
-        return list.toArray(new Encoded[0]);
+        return unpack(offset + 5 + totalLen);
     }
 
     public Encoded[] decodeList() throws DecodingException {
-        if (data[0] != BYTE_IDS_LIST || !isEncodedValue()) {
+        if (data[offset] != BYTE_IDS_LIST || !isEncodedValue()) {
             throw new DecodingException();
         }
-        return unpack();
+        return unpack(offset + length);
     }
 
-    private Encoded[] unpack() throws DecodingException {
+    // returns views over each element found between offset + 5 and end
+    private Encoded[] unpack(int end) throws DecodingException {
         List<Encoded> list = new ArrayList<>();
-        int offset = 5;
-        while (offset + 4 < data.length) {
-            int len = uint32FromBytes(data, offset + 1);
-            if (offset + 5 + len > data.length) {
+        int pos = offset + 5;
+        while (pos + 4 < end) {
+            int len = uint32FromBytes(data, pos + 1);
+            if (len < 0 || pos + 5 + len > end) {
                 throw new DecodingException();
             }
-            Encoded elem = new Encoded(Arrays.copyOfRange(data, offset, offset + 5 + len));
-            list.add(elem);
-            offset += 5 + len;
+            list.add(new Encoded(data, pos, 5 + len));
+            pos += 5 + len;
         }
         return list.toArray(new Encoded[0]);
     }
 
     public HashMap<DictionaryKey, Encoded> decodeDictionary() throws DecodingException {
-        if (data[0] != BYTE_IDS_DICTIONARY || !isEncodedValue()) {
+        if (data[offset] != BYTE_IDS_DICTIONARY || !isEncodedValue()) {
             throw new DecodingException();
         }
-        HashMap<DictionaryKey, Encoded> dict = new HashMap<>();
-        int offset = 5;
-        while (offset + 4 < data.length) {
-            int len = uint32FromBytes(data, offset + 1);
-            if (offset + 5 + len > data.length) {
-                throw new DecodingException();
-            }
-            // Here we do two copyOfRange -> this could be optimized to a single one, assuming we reimplement the decodeBytes checks
-            DictionaryKey key = new DictionaryKey(new Encoded(Arrays.copyOfRange(data, offset, offset + 5 + len)).decodeBytes());
-            offset += 5 + len;
-
-            if (offset + 5 > data.length) {
-                throw new DecodingException();
-            }
-            len = uint32FromBytes(data, offset + 1);
-            if (offset + 5 + len > data.length) {
-                throw new DecodingException();
-            }
-            Encoded value = new Encoded(Arrays.copyOfRange(data, offset, offset + 5 + len));
-            offset += 5 + len;
-            dict.put(key, value);
-        }
-        return dict;
+        return unpackDictionary(offset + length);
     }
 
     // used to decode a dictionary with some additional bytes at the end
     public HashMap<DictionaryKey, Encoded> decodeDictionaryWithPadding() throws DecodingException {
-        if (data[0] != BYTE_IDS_DICTIONARY) {
+        if (data[offset] != BYTE_IDS_DICTIONARY) {
             throw new DecodingException();
         }
-        int totalLen = uint32FromBytes(data, 1);
-        if (totalLen + 5 > data.length) {
+        int totalLen = uint32FromBytes(data, offset + 1);
+        if (totalLen + 5 > length) {
             throw new DecodingException();
         }
+        return unpackDictionary(offset + 5 + totalLen);
+    }
 
+    private HashMap<DictionaryKey, Encoded> unpackDictionary(int end) throws DecodingException {
         HashMap<DictionaryKey, Encoded> dict = new HashMap<>();
-        int offset = 5;
-        while (offset + 4 < totalLen + 5) {
-            int len = uint32FromBytes(data, offset + 1);
-            if (offset + 5 + len > totalLen + 5) {
+        int pos = offset + 5;
+        while (pos + 4 < end) {
+            int len = uint32FromBytes(data, pos + 1);
+            if (len < 0 || pos + 5 + len > end) {
+                throw new DecodingException();
+            }
+            // keys are always byte arrays: check the type byte and copy the key bytes only once
+            if (data[pos] != BYTE_IDS_BYTE_ARRAY) {
                 throw new DecodingException();
             }
-            // Here we do two copyOfRange -> this could be optimized to a single one, assuming we reimplement the decodeBytes checks
-            DictionaryKey key = new DictionaryKey(new Encoded(Arrays.copyOfRange(data, offset, offset + 5 + len)).decodeBytes());
-            offset += 5 + len;
+            DictionaryKey key = new DictionaryKey(Arrays.copyOfRange(data, pos + 5, pos + 5 + len));
+            pos += 5 + len;
 
-            if (offset + 5 > totalLen + 5) {
+            if (pos + 5 > end) {
                 throw new DecodingException();
             }
-            len = uint32FromBytes(data, offset + 1);
-            if (offset + 5 + len > totalLen + 5) {
+            len = uint32FromBytes(data, pos + 1);
+            if (len < 0 || pos + 5 + len > end) {
                 throw new DecodingException();
             }
-            Encoded value = new Encoded(Arrays.copyOfRange(data, offset, offset + 5 + len));
-            offset += 5 + len;
-            dict.put(key, value);
+            dict.put(key, new Encoded(data, pos, 5 + len));
+            pos += 5 + len;
         }
         return dict;
     }
@@ -601,6 +676,13 @@ public class Encoded {
 
     // region Utility
 
+    static void writeUInt32(byte[] dest, int pos, int value) {
+        for (int i = 0; i < 4; i++) {
+            dest[pos + 3 - i] = (byte) (value & 0xff);
+            value = value >>> 8;
+        }
+    }
+
     static byte[] bytesFromUInt32(int length) {
         byte[] res = new byte[4];
         for (int i = 0; i < 4; i++) {
@@ -0,0 +1,190 @@
+/*
+ *  Olvid for Android
+ *  Copyright © 2019-2026 Olvid SAS
+ *
+ *  This file is part of Olvid for Android.
+ *
+ *  Olvid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License, version 3,
+ *  as published by the Free Software Foundation.
+ *
+ *  Olvid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with Olvid.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.olvid.engine.encoder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.olvid.engine.datatypes.DictionaryKey;
+
+// Builds a tree of lists and dictionaries and encodes it in a single pass, without any intermediate copy.
+// Calling Encoded.of() at each level of a nested structure copies all children once per level, this writer
+// first computes the total length, then writes all headers and payloads directly in a single buffer (or stream).
+// The output is byte-identical to the equivalent nested Encoded.of() calls.
+public class EncodedWriter {
+    private final byte byteId;
+    private final List<Object> children; // Encoded, EncodedWriter, or byte[] (for dictionary keys)
+    private int payloadLength;
+
+    private EncodedWriter(byte byteId) {
+        this.byteId = byteId;
+        this.children = new ArrayList<>();
+        this.payloadLength = 0;
+    }
+
+    public static EncodedWriter list() {
+        return new EncodedWriter(Encoded.BYTE_IDS_LIST);
+    }
+
+    public static EncodedWriter list(Encoded... elements) {
+        EncodedWriter writer = new EncodedWriter(Encoded.BYTE_IDS_LIST);
+        for (Encoded element : elements) {
+            writer.add(element);
+        }
+        return writer;
+    }
+
+    public static EncodedWriter dictionary() {
+        return new EncodedWriter(Encoded.BYTE_IDS_DICTIONARY);
+    }
+
+    public static EncodedWriter dictionary(HashMap<DictionaryKey, Encoded> dict) {
+        EncodedWriter writer = new EncodedWriter(Encoded.BYTE_IDS_DICTIONARY);
+        for (Map.Entry<DictionaryKey, Encoded> entry : dict.entrySet()) {
+            writer.put(entry.getKey(), entry.getValue());
+        }
+        return writer;
+    }
+
+    // region list elements
+
+    public EncodedWriter add(Encoded element) {
+        if (byteId != Encoded.BYTE_IDS_LIST) {
+            throw new IllegalStateException("Cannot add a list element to a dictionary");
+        }
+        children.add(element);
+        payloadLength += element.getLength();
+        return this;
+    }
+
+    // the child writer must not be modified once added
+    public EncodedWriter add(EncodedWriter element) {
+        if (byteId != Encoded.BYTE_IDS_LIST) {
+            throw new IllegalStateException("Cannot add a list element to a dictionary");
+        }
+        children.add(element);
+        payloadLength += element.getEncodedLength();
+        return this;
+    }
+
+    public EncodedWriter addAll(Encoded[] elements) {
+        for (Encoded element : elements) {
+            add(element);
+        }
+        return this;
+    }
+
+    // endregion
+
+    // region dictionary entries
+
+    public EncodedWriter put(DictionaryKey key, Encoded value) {
+        putKey(key);
+        children.add(value);
+        payloadLength += value.getLength();
+        return this;
+    }
+
+    // the child writer must not be modified once added
+    public EncodedWriter put(DictionaryKey key, EncodedWriter value) {
+        putKey(key);
+        children.add(value);
+        payloadLength += value.getEncodedLength();
+        return this;
+    }
+
+    public EncodedWriter put(String key, Encoded value) {
+        return put(new DictionaryKey(key), value);
+    }
+
+    private void putKey(DictionaryKey key) {
+        if (byteId != Encoded.BYTE_IDS_DICTIONARY) {
+            throw new IllegalStateException("Cannot add a dictionary entry to a list");
+        }
+        children.add(key.data);
+        payloadLength += Encoded.ENCODED_HEADER_LENGTH + key.data.length;
+    }
+
+    // endregion
+
+    public int getEncodedLength() {
+        return Encoded.ENCODED_HEADER_LENGTH + payloadLength;
+    }
+
+    public Encoded toEncoded() {
+        byte[] output = new byte[getEncodedLength()];
+        writeTo(output, 0);
+        return new Encoded(output);
+    }
+
+    // returns a zero-padded byte array of at least paddedLength bytes containing the encoded tree
+    public byte[] toPaddedByteArray(int paddedLength) {
+        byte[] output = new byte[Math.max(paddedLength, getEncodedLength())];
+        writeTo(output, 0);
+        return output;
+    }
+
+    // writes the encoded tree in dest at position pos and returns the position right after the written bytes
+    public int writeTo(byte[] dest, int pos) {
+        dest[pos] = byteId;
+        Encoded.writeUInt32(dest, pos + 1, payloadLength);
+        pos += Encoded.ENCODED_HEADER_LENGTH;
+        for (Object child : children) {
+            if (child instanceof Encoded) {
+                Encoded encoded = (Encoded) child;
+                encoded.writeTo(dest, pos);
+                pos += encoded.getLength();
+            } else if (child instanceof EncodedWriter) {
+                pos = ((EncodedWriter) child).writeTo(dest, pos);
+            } else {
+                byte[] key = (byte[]) child;
+                dest[pos] = Encoded.BYTE_IDS_BYTE_ARRAY;
+                Encoded.writeUInt32(dest, pos + 1, key.length);
+                System.arraycopy(key, 0, dest, pos + Encoded.ENCODED_HEADER_LENGTH, key.length);
+                pos += Encoded.ENCODED_HEADER_LENGTH + key.length;
+            }
+        }
+        return pos;
+    }
+
+    public void writeTo(OutputStream os) throws IOException {
+        byte[] header = new byte[Encoded.ENCODED_HEADER_LENGTH];
+        header[0] = byteId;
+        Encoded.writeUInt32(header, 1, payloadLength);
+        os.write(header);
+        for (Object child : children) {
+            if (child instanceof Encoded) {
+                ((Encoded) child).writeTo(os);
+            } else if (child instanceof EncodedWriter) {
+                ((EncodedWriter) child).writeTo(os);
+            } else {
+                byte[] key = (byte[]) child;
+                header[0] = Encoded.BYTE_IDS_BYTE_ARRAY;
+                Encoded.writeUInt32(header, 1, key.length);
+                os.write(header);
+                os.write(key);
+            }
+        }
+    }
+}
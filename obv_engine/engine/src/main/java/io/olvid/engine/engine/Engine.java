@@ -89,9 +89,11 @@ import io.olvid.engine.engine.datatypes.EngineSession;
 import io.olvid.engine.engine.datatypes.EngineSessionFactory;
 import io.olvid.engine.engine.datatypes.UserInterfaceDialogListener;
 import io.olvid.engine.engine.types.EngineAPI;
+import io.olvid.engine.engine.types.EngineCacheStatisticsEntry;
 import io.olvid.engine.engine.types.EngineDbQueryStatisticsEntry;
 import io.olvid.engine.engine.types.EngineNotificationListener;
 import io.olvid.engine.engine.types.EngineNotifications;
+import io.olvid.engine.engine.types.EngineProtocolStepStatisticsEntry;
 import io.olvid.engine.engine.types.JsonGroupDetails;
 import io.olvid.engine.engine.types.JsonGroupDetailsWithVersionAndPhoto;
 import io.olvid.engine.engine.types.JsonIdentityDetails;
@@ -148,6 +150,7 @@ public class Engine implements UserInterfaceDialogListener, EngineSessionFactory
     private final HashMap<String, HashMap<Long, ListenerAndPriority>> listeners;
     private final ReentrantLock listenersLock;
     private final BlockingQueue<EngineNotification> notificationQueue;
+    private final HashMap<ProgressCoalescingKey, EngineNotification> pendingProgressNotifications;
 
     private final PRNGService prng;
     final ObjectMapper jsonObjectMapper;
@@ -177,6 +180,7 @@ public class Engine implements UserInterfaceDialogListener, EngineSessionFactory
         listeners = new HashMap<>();
         listenersLock = new ReentrantLock();
         notificationQueue = new LinkedBlockingDeque<>(100_000);
+        pendingProgressNotifications = new HashMap<>();
         notificationWorker = new NotificationWorker();
 
         Logger.setOutputter(logOutputter);
@@ -291,7 +295,17 @@ public class Engine implements UserInterfaceDialogListener, EngineSessionFactory
 
         MetaManager metaManager = new MetaManager();
         String finalDbKey = dbKey;
-        this.createSessionDelegate = () -> Session.getSession(dbPath, finalDbKey);
+        this.createSessionDelegate = new CreateSessionDelegate() {
+            @Override
+            public Session getSession() throws SQLException {
+                return Session.getSession(dbPath, finalDbKey);
+            }
+
+            @Override
+            public Session getReadOnlySession() throws SQLException {
+                return Session.getReadOnlySession(dbPath, finalDbKey);
+            }
+        };
         metaManager.registerImplementedDelegates(this.createSessionDelegate);
         metaManager.registerImplementedDelegates(this);
 
@@ -383,13 +397,12 @@ public class Engine implements UserInterfaceDialogListener, EngineSessionFactory
             instanceCounter++;
             engineNotificationListener.setEngineNotificationListenerRegistrationNumber(listenerNumber);
         }
+        // copy-on-write: the NotificationWorker iterates on these HashMaps outside the lock
         HashMap<Long, ListenerAndPriority> notificationObservers = listeners.get(notificationName);
-        if (notificationObservers == null) {
-            notificationObservers = new HashMap<>();
-            listeners.put(notificationName, notificationObservers);
-        }
+        notificationObservers = (notificationObservers == null) ? new HashMap<>() : new HashMap<>(notificationObservers);
         WeakReference<EngineNotificationListener> weakReference = new WeakReference<>(engineNotificationListener);
         notificationObservers.put(listenerNumber, new ListenerAndPriority(weakReference, priority));
+        listeners.put(notificationName, notificationObservers);
         listenersLock.unlock();
     }
 
@@ -417,8 +430,10 @@ public class Engine implements UserInterfaceDialogListener, EngineSessionFactory
     private void removeNotificationListener(String notificationName, long notificationListenerRegistrationNumber) {
         listenersLock.lock();
         HashMap<Long, ListenerAndPriority> notificationObservers = listeners.get(notificationName);
-        if (notificationObservers != null) {
+        if (notificationObservers != null && notificationObservers.containsKey(notificationListenerRegistrationNumber)) {
+            notificationObservers = new HashMap<>(notificationObservers);
             notificationObservers.remove(notificationListenerRegistrationNumber);
+            listeners.put(notificationName, notificationObservers);
         }
         listenersLock.unlock();
     }
@@ -426,8 +441,21 @@ public class Engine implements UserInterfaceDialogListener, EngineSessionFactory
 
     void postEngineNotification(String notificationName, HashMap<String, Object> userInfo) {
         Logger.d("Posting engine notification with name " + notificationName);
+        ProgressCoalescingKey coalescingKey = ProgressCoalescingKey.of(notificationName, userInfo);
+        EngineNotification engineNotification = new EngineNotification(notificationName, userInfo, coalescingKey);
+        if (coalescingKey != null) {
+            synchronized (pendingProgressNotifications) {
+                EngineNotification pendingNotification = pendingProgressNotifications.get(coalescingKey);
+                if (pendingNotification != null) {
+                    // a progress notification for this attachment is still in the queue: only update its progress
+                    pendingNotification.userInfo = userInfo;
+                    return;
+                }
+                pendingProgressNotifications.put(coalescingKey, engineNotification);
+            }
+        }
         try {
-            notificationQueue.put(new EngineNotification(notificationName, userInfo));
+            notificationQueue.put(engineNotification);
         } catch (InterruptedException e) {
             Logger.x(e);
         }
@@ -455,6 +483,11 @@ public class Engine implements UserInterfaceDialogListener, EngineSessionFactory
                     if (engineNotification == null) {
                         continue;
                     }
+                    if (engineNotification.coalescingKey != null) {
+                        synchronized (pendingProgressNotifications) {
+                            pendingProgressNotifications.remove(engineNotification.coalescingKey);
+                        }
+                    }
 
                     if (engineNotification.notificationName.equals(SYNCHRONIZED_TASK)) {
                         try {
@@ -471,7 +504,6 @@ public class Engine implements UserInterfaceDialogListener, EngineSessionFactory
                     listenersLock.lock();
                     HashMap<Long, ListenerAndPriority> notificationObservers = listeners.get(engineNotification.notificationName);
                     if (notificationObservers != null) {
-                        notificationObservers = new HashMap<>(notificationObservers); // we clone the HashMap to make sure that, even outside the lock, we can iterate on the HashMap
                         listenersLock.unlock();
 
                         if (notificationObservers.size() < 2) {
@@ -530,11 +562,67 @@ public class Engine implements UserInterfaceDialogListener, EngineSessionFactory
 
     private static class EngineNotification {
         public final String notificationName;
-        public final HashMap<String, Object> userInfo;
+        public volatile HashMap<String, Object> userInfo; // replaced when a progress notification is coalesced
+        public final ProgressCoalescingKey coalescingKey;
 
-        EngineNotification(String notificationName, HashMap<String, Object> userInfo) {
+        EngineNotification(String notificationName, HashMap<String, Object> userInfo, ProgressCoalescingKey coalescingKey) {
             this.notificationName = notificationName;
             this.userInfo = userInfo;
+            this.coalescingKey = coalescingKey;
+        }
+    }
+
+    // attachment progress notifications waiting in the notificationQueue are coalesced: only the latest progress is delivered
+    private static class ProgressCoalescingKey {
+        private final String notificationName;
+        private final byte[] bytesOwnedIdentity;
+        private final byte[] messageIdentifier;
+        private final int attachmentNumber;
+
+        private ProgressCoalescingKey(String notificationName, byte[] bytesOwnedIdentity, byte[] messageIdentifier, int attachmentNumber) {
+            this.notificationName = notificationName;
+            this.bytesOwnedIdentity = bytesOwnedIdentity;
+            this.messageIdentifier = messageIdentifier;
+            this.attachmentNumber = attachmentNumber;
+        }
+
+        static ProgressCoalescingKey of(String notificationName, HashMap<String, Object> userInfo) {
+            try {
+                switch (notificationName) {
+                    case EngineNotifications.ATTACHMENT_UPLOAD_PROGRESS:
+                        return new ProgressCoalescingKey(notificationName,
+                                (byte[]) userInfo.get(EngineNotifications.ATTACHMENT_UPLOAD_PROGRESS_BYTES_OWNED_IDENTITY_KEY),
+                                (byte[]) userInfo.get(EngineNotifications.ATTACHMENT_UPLOAD_PROGRESS_MESSAGE_IDENTIFIER_KEY),
+                                (int) userInfo.get(EngineNotifications.ATTACHMENT_UPLOAD_PROGRESS_ATTACHMENT_NUMBER_KEY));
+                    case EngineNotifications.ATTACHMENT_DOWNLOAD_PROGRESS:
+                        return new ProgressCoalescingKey(notificationName,
+                                (byte[]) userInfo.get(EngineNotifications.ATTACHMENT_DOWNLOAD_PROGRESS_BYTES_OWNED_IDENTITY_KEY),
+                                (byte[]) userInfo.get(EngineNotifications.ATTACHMENT_DOWNLOAD_PROGRESS_MESSAGE_IDENTIFIER_KEY),
+                                (int) userInfo.get(EngineNotifications.ATTACHMENT_DOWNLOAD_PROGRESS_ATTACHMENT_NUMBER_KEY));
+                    default:
+                        return null;
+                }
+            } catch (Exception e) {
+                // malformed progress notification, do not coalesce it
+                return null;
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ProgressCoalescingKey)) {
+                return false;
+            }
+            ProgressCoalescingKey other = (ProgressCoalescingKey) o;
+            return attachmentNumber == other.attachmentNumber
+                    && notificationName.equals(other.notificationName)
+                    && Arrays.equals(bytesOwnedIdentity, other.bytesOwnedIdentity)
+                    && Arrays.equals(messageIdentifier, other.messageIdentifier);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * (31 * notificationName.hashCode() + Arrays.hashCode(bytesOwnedIdentity)) + Arrays.hashCode(messageIdentifier)) + attachmentNumber;
         }
     }
 
@@ -602,6 +690,11 @@ public class Engine implements UserInterfaceDialogListener, EngineSessionFactory
         return new EngineSession(createSessionDelegate.getSession(), this, jsonObjectMapper);
     }
 
+    // only for methods which do not write anything to the database
+    EngineSession getReadOnlySession() throws SQLException {
+        return new EngineSession(createSessionDelegate.getReadOnlySession(), this, jsonObjectMapper);
+    }
+
     EngineSession wrapSession(Session session) {
         return new EngineSession(session, this, jsonObjectMapper);
     }
@@ -755,6 +848,23 @@ public class Engine implements UserInterfaceDialogListener, EngineSessionFactory
         return Session.queryStatistics;
     }
 
+    @Override
+    public Map<String, EngineDbQueryStatisticsEntry> getEngineDbLockWaitStatistics() {
+        return Session.lockWaitStatistics;
+    }
+
+    @Override
+    public Map<Integer, EngineProtocolStepStatisticsEntry> getProtocolStepStatistics() {
+        return protocolManager.getProtocolStepStatistics();
+    }
+
+    @Override
+    public Map<String, EngineCacheStatisticsEntry> getEngineCacheStatistics() {
+        HashMap<String, EngineCacheStatisticsEntry> cacheStatistics = new HashMap<>();
+        cacheStatistics.put("ProvisionedKeyMaterialIndex", channelManager.getProvisionedKeyMaterialIndexStatistics());
+        return cacheStatistics;
+    }
+
     @Override
     public String getServerOfIdentity(byte[] bytesIdentity) {
         try {
@@ -768,7 +878,7 @@ public class Engine implements UserInterfaceDialogListener, EngineSessionFactory
 
     @Override
     public ObvIdentity[] getOwnedIdentities() throws Exception {
-        try (EngineSession engineSession = getSession()) {
+        try (EngineSession engineSession = getReadOnlySession()) {
             Identity[] identities = identityManager.getOwnedIdentities(engineSession.session);
             ObvIdentity[] ownedIdentities = new ObvIdentity[identities.length];
 
@@ -781,7 +891,7 @@ public class Engine implements UserInterfaceDialogListener, EngineSessionFactory
 
     @Override
     public ObvIdentity getOwnedIdentity(byte[] bytesOwnedIdentity) throws Exception {
-        try (EngineSession engineSession = getSession()) {
+        try (EngineSession engineSession = getReadOnlySession()) {
             Identity ownedIdentity = Identity.of(bytesOwnedIdentity);
             ObvIdentity obvOwnedIdentity =  new ObvIdentity(engineSession.session, identityManager, ownedIdentity);
             if (obvOwnedIdentity.getIdentityDetails() != null) {
@@ -1047,7 +1157,7 @@ public class Engine implements UserInterfaceDialogListener, EngineSessionFactory
 
     @Override
     public JsonIdentityDetailsWithVersionAndPhoto[] getOwnedIdentityPublishedAndLatestDetails(byte[] bytesOwnedIdentity) throws Exception {
-        try (EngineSession engineSession = getSession()) {
+        try (EngineSession engineSession = getReadOnlySession()) {
             Identity ownedIdentity = Identity.of(bytesOwnedIdentity);
             return identityManager.getOwnedIdentityPublishedAndLatestDetails(engineSession.session, ownedIdentity);
         }
@@ -1305,7 +1415,7 @@ public class Engine implements UserInterfaceDialogListener, EngineSessionFactory
 
     @Override
     public List<ObvOwnedDevice> getOwnedDevices(byte[] bytesOwnedIdentity) {
-        try (EngineSession engineSession = getSession()) {
+        try (EngineSession engineSession = getReadOnlySession()) {
             Identity ownedIdentity = Identity.of(bytesOwnedIdentity);
             return identityManager.getDevicesOfOwnedIdentity(engineSession.session, ownedIdentity);
         } catch (Exception e) {
@@ -1377,7 +1487,7 @@ public class Engine implements UserInterfaceDialogListener, EngineSessionFactory
 
     @Override
     public ObvIdentity[] getContactsOfOwnedIdentity(byte[] bytesOwnedIdentity) throws Exception {
-        try (EngineSession engineSession = getSession()) {
+        try (EngineSession engineSession = getReadOnlySession()) {
             Identity ownedIdentity = Identity.of(bytesOwnedIdentity);
             Identity[] identities = identityManager.getContactsOfOwnedIdentity(engineSession.session, ownedIdentity);
             ObvIdentity[] contactIdentities = new ObvIdentity[identities.length];
@@ -1391,7 +1501,7 @@ public class Engine implements UserInterfaceDialogListener, EngineSessionFactory
 
     @Override
     public List<ObvContactInfo> getContactsInfoOfOwnedIdentity(byte[] bytesOwnedIdentity) throws Exception {
-        try (EngineSession engineSession = getSession()) {
+        try (EngineSession engineSession = getReadOnlySession()) {
             Identity ownedIdentity = Identity.of(bytesOwnedIdentity);
             return identityManager.getContactsInfoOfOwnedIdentity(engineSession.session, ownedIdentity);
         }
@@ -1400,7 +1510,7 @@ public class Engine implements UserInterfaceDialogListener, EngineSessionFactory
 
     @Override
     public EnumSet<ObvContactActiveOrInactiveReason> getContactActiveOrInactiveReasons(byte[] bytesOwnedIdentity, byte[] bytesContactIdentity) {
-        try (EngineSession engineSession = getSession()) {
+        try (EngineSession engineSession = getReadOnlySession()) {
             Identity ownedIdentity = Identity.of(bytesOwnedIdentity);
             Identity contactIdentity = Identity.of(bytesContactIdentity);
             return identityManager.getContactActiveOrInactiveReasons(engineSession.session, ownedIdentity, contactIdentity);
@@ -1440,7 +1550,7 @@ public class Engine implements UserInterfaceDialogListener, EngineSessionFactory
 
     @Override
     public boolean isContactOneToOne(byte[] bytesOwnedIdentity, byte[] bytesContactIdentity) throws Exception {
-        try (EngineSession engineSession = getSession()) {
+        try (EngineSession engineSession = getReadOnlySession()) {
             Identity contactIdentity = Identity.of(bytesContactIdentity);
             Identity ownedIdentity = Identity.of(bytesOwnedIdentity);
             return identityManager.isIdentityAOneToOneContactOfOwnedIdentity(engineSession.session, ownedIdentity, contactIdentity);
@@ -1449,7 +1559,7 @@ public class Engine implements UserInterfaceDialogListener, EngineSessionFactory
 
     @Override
     public ObvContactDeviceCount getContactDeviceCounts(byte[] bytesOwnedIdentity, byte[] bytesContactIdentity) throws Exception {
-        try (EngineSession engineSession = getSession()) {
+        try (EngineSession engineSession = getReadOnlySession()) {
             return identityManager.getContactDeviceCounts(engineSession.session, Identity.of(bytesOwnedIdentity), Identity.of(bytesContactIdentity));
         }
     }
@@ -1467,7 +1577,7 @@ public class Engine implements UserInterfaceDialogListener, EngineSessionFactory
 
     @Override
     public String getContactTrustedDetailsPhotoUrl(byte[] bytesOwnedIdentity, byte[] bytesContactIdentity) throws Exception {
-        try (EngineSession engineSession = getSession()) {
+        try (EngineSession engineSession = getReadOnlySession()) {
             Identity contactIdentity = Identity.of(bytesContactIdentity);
             Identity ownedIdentity = Identity.of(bytesOwnedIdentity);
             return identityManager.getContactTrustedDetailsPhotoUrl(engineSession.session, ownedIdentity, contactIdentity);
@@ -1476,7 +1586,7 @@ public class Engine implements UserInterfaceDialogListener, EngineSessionFactory
 
     @Override
     public JsonIdentityDetailsWithVersionAndPhoto[] getContactPublishedAndTrustedDetails(byte[] bytesOwnedIdentity, byte[] bytesContactIdentity) throws Exception {
-        try (EngineSession engineSession = getSession()) {
+        try (EngineSession engineSession = getReadOnlySession()) {
             Identity contactIdentity = Identity.of(bytesContactIdentity);
             Identity ownedIdentity = Identity.of(bytesOwnedIdentity);
             return identityManager.getContactPublishedAndTrustedDetails(engineSession.session, ownedIdentity, contactIdentity);
@@ -1503,7 +1613,7 @@ public class Engine implements UserInterfaceDialogListener, EngineSessionFactory
         Identity ownedIdentity = Identity.of(bytesOwnedIdentity);
         Identity contactIdentity = Identity.of(bytesContactIdentity);
         ObvTrustOrigin[] obvTrustOrigins;
-        try (EngineSession engineSession = getSession()) {
+        try (EngineSession engineSession = getReadOnlySession()) {
             TrustOrigin[] trustOrigins = identityManager.getTrustOriginsOfContactIdentity(engineSession.session, ownedIdentity, contactIdentity);
             obvTrustOrigins = new ObvTrustOrigin[trustOrigins.length];
             for (int i=0; i<trustOrigins.length; i++) {
@@ -1518,7 +1628,7 @@ public class Engine implements UserInterfaceDialogListener, EngineSessionFactory
         Identity ownedIdentity = Identity.of(bytesOwnedIdentity);
         Identity contactIdentity = Identity.of(bytesContactIdentity);
 
-        try (EngineSession engineSession = getSession()) {
+        try (EngineSession engineSession = getReadOnlySession()) {
             TrustLevel contactTrustLevel = identityManager.getContactTrustLevel(engineSession.session, ownedIdentity, contactIdentity);
             if (contactTrustLevel != null) {
                 return contactTrustLevel.major;
@@ -1547,7 +1657,7 @@ public class Engine implements UserInterfaceDialogListener, EngineSessionFactory
 
     @Override
     public ObvGroup[] getGroupsOfOwnedIdentity(byte[] bytesOwnedIdentity) throws Exception {
-        try (EngineSession engineSession = getSession()) {
+        try (EngineSession engineSession = getReadOnlySession()) {
             Identity ownedIdentity = Identity.of(bytesOwnedIdentity);
             GroupWithDetails[] groups = identityManager.getGroupsForOwnedIdentity(engineSession.session, ownedIdentity);
             ObvGroup[] obvGroups = new ObvGroup[groups.length];
@@ -2380,7 +2490,7 @@ public class Engine implements UserInterfaceDialogListener, EngineSessionFactory
 
     @Override
     public boolean isOutboxAttachmentSent(byte[] bytesOwnedIdentity, byte[] engineMessageIdentifier, int engineNumber) {
-        try (EngineSession engineSession = getSession()) {
+        try (EngineSession engineSession = getReadOnlySession()) {
             return sendManager.isOutboxAttachmentSent(engineSession.session, Identity.of(bytesOwnedIdentity), new UID(engineMessageIdentifier), engineNumber);
         } catch (Exception e) {
             Logger.x(e);
@@ -2390,7 +2500,7 @@ public class Engine implements UserInterfaceDialogListener, EngineSessionFactory
 
     @Override
     public boolean isOutboxMessageSent(byte[] bytesOwnedIdentity, byte[] engineMessageIdentifier) {
-        try (EngineSession engineSession = getSession()) {
+        try (EngineSession engineSession = getReadOnlySession()) {
             return sendManager.isOutboxMessageSent(engineSession.session, Identity.of(bytesOwnedIdentity), new UID(engineMessageIdentifier));
         } catch (Exception e) {
             Logger.x(e);
@@ -2411,7 +2521,7 @@ public class Engine implements UserInterfaceDialogListener, EngineSessionFactory
 
     @Override
     public boolean isInboxAttachmentReceived(byte[] bytesOwnedIdentity, byte[] engineMessageIdentifier, int attachmentNumber) {
-        try (EngineSession engineSession = getSession()) {
+        try (EngineSession engineSession = getReadOnlySession()) {
             return fetchManager.isInboxAttachmentReceived(engineSession.session, Identity.of(bytesOwnedIdentity), new UID(engineMessageIdentifier), attachmentNumber);
         } catch (Exception e) {
             Logger.x(e);
@@ -27,11 +27,13 @@ import java.util.UUID;
 
 import io.olvid.engine.Logger;
 import io.olvid.engine.datatypes.Identity;
-import io.olvid.engine.datatypes.NotificationListener;
+import io.olvid.engine.datatypes.TypedNotification;
+import io.olvid.engine.datatypes.TypedNotificationListener;
 import io.olvid.engine.datatypes.UID;
 import io.olvid.engine.datatypes.containers.DecryptedApplicationMessage;
 import io.olvid.engine.datatypes.containers.OwnedIdentitySynchronizationStatus;
 import io.olvid.engine.datatypes.containers.ReceivedAttachment;
+import io.olvid.engine.datatypes.notifications.AttachmentProgressNotification;
 import io.olvid.engine.datatypes.notifications.DownloadNotifications;
 import io.olvid.engine.engine.types.EngineAPI;
 import io.olvid.engine.engine.types.EngineNotifications;
@@ -41,7 +43,7 @@ import io.olvid.engine.engine.types.ObvTurnCredentialsFailedReason;
 import io.olvid.engine.networkfetch.databases.ServerSession;
 import io.olvid.engine.notification.NotificationManager;
 
-public class NotificationListenerDownloads implements NotificationListener {
+public class NotificationListenerDownloads implements TypedNotificationListener {
     private final Engine engine;
     private long latestNetworkRestart = System.currentTimeMillis();
 
@@ -88,6 +90,33 @@ public class NotificationListenerDownloads implements NotificationListener {
         }
     }
 
+    @Override
+    public void typedCallback(TypedNotification notification) {
+        if (notification instanceof AttachmentProgressNotification) {
+            AttachmentProgressNotification progressNotification = (AttachmentProgressNotification) notification;
+            if (progressNotification.ownedIdentity == null || progressNotification.messageUid == null) {
+                return;
+            }
+            postProgressEngineNotification(progressNotification.ownedIdentity, progressNotification.messageUid, progressNotification.attachmentNumber, progressNotification.progress, progressNotification.speedBps, progressNotification.etaSeconds);
+        } else {
+            callback(notification.getNotificationName(), notification.toUserInfo());
+        }
+    }
+
+    private void postProgressEngineNotification(Identity ownedIdentity, UID messageUid, int attachmentNumber, float progress, Float speed, Integer eta) {
+        HashMap<String, Object> engineInfo = new HashMap<>();
+        engineInfo.put(EngineNotifications.ATTACHMENT_DOWNLOAD_PROGRESS_BYTES_OWNED_IDENTITY_KEY, ownedIdentity.getBytes());
+        engineInfo.put(EngineNotifications.ATTACHMENT_DOWNLOAD_PROGRESS_MESSAGE_IDENTIFIER_KEY, messageUid.getBytes());
+        engineInfo.put(EngineNotifications.ATTACHMENT_DOWNLOAD_PROGRESS_ATTACHMENT_NUMBER_KEY, attachmentNumber);
+        engineInfo.put(EngineNotifications.ATTACHMENT_DOWNLOAD_PROGRESS_PROGRESS_KEY, progress);
+        if (speed != null && eta != null) {
+            engineInfo.put(EngineNotifications.ATTACHMENT_DOWNLOAD_PROGRESS_SPEED_BPS_KEY, speed);
+            engineInfo.put(EngineNotifications.ATTACHMENT_DOWNLOAD_PROGRESS_ETA_SECONDS_KEY, eta);
+        }
+
+        engine.postEngineNotification(EngineNotifications.ATTACHMENT_DOWNLOAD_PROGRESS, engineInfo);
+    }
+
     @Override
     public void callback(String notificationName, Map<String, Object> userInfo) {
         switch (notificationName) {
@@ -158,17 +187,7 @@ public class NotificationListenerDownloads implements NotificationListener {
                     break;
                 }
 
-                HashMap<String, Object> engineInfo = new HashMap<>();
-                engineInfo.put(EngineNotifications.ATTACHMENT_DOWNLOAD_PROGRESS_BYTES_OWNED_IDENTITY_KEY, ownedIdentity.getBytes());
-                engineInfo.put(EngineNotifications.ATTACHMENT_DOWNLOAD_PROGRESS_MESSAGE_IDENTIFIER_KEY, messageUid.getBytes());
-                engineInfo.put(EngineNotifications.ATTACHMENT_DOWNLOAD_PROGRESS_ATTACHMENT_NUMBER_KEY, attachmentNumber);
-                engineInfo.put(EngineNotifications.ATTACHMENT_DOWNLOAD_PROGRESS_PROGRESS_KEY, progress);
-                if (speed != null && eta != null) {
-                    engineInfo.put(EngineNotifications.ATTACHMENT_DOWNLOAD_PROGRESS_SPEED_BPS_KEY, speed);
-                    engineInfo.put(EngineNotifications.ATTACHMENT_DOWNLOAD_PROGRESS_ETA_SECONDS_KEY, eta);
-                }
-
-                engine.postEngineNotification(EngineNotifications.ATTACHMENT_DOWNLOAD_PROGRESS, engineInfo);
+                postProgressEngineNotification(ownedIdentity, messageUid, attachmentNumber, progress, speed, eta);
                 break;
             }
             case DownloadNotifications.NOTIFICATION_SERVER_SESSION_EXISTS:
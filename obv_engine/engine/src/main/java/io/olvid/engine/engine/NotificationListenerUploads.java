@@ -24,13 +24,15 @@ import java.util.Map;
 
 import io.olvid.engine.Logger;
 import io.olvid.engine.datatypes.Identity;
-import io.olvid.engine.datatypes.NotificationListener;
+import io.olvid.engine.datatypes.TypedNotification;
+import io.olvid.engine.datatypes.TypedNotificationListener;
 import io.olvid.engine.datatypes.UID;
+import io.olvid.engine.datatypes.notifications.AttachmentProgressNotification;
 import io.olvid.engine.datatypes.notifications.UploadNotifications;
 import io.olvid.engine.engine.types.EngineNotifications;
 import io.olvid.engine.notification.NotificationManager;
 
-public class NotificationListenerUploads implements NotificationListener {
+public class NotificationListenerUploads implements TypedNotificationListener {
     private final Engine engine;
 
     public NotificationListenerUploads(Engine engine) {
@@ -49,6 +51,33 @@ public class NotificationListenerUploads implements NotificationListener {
         }
     }
 
+    @Override
+    public void typedCallback(TypedNotification notification) {
+        if (notification instanceof AttachmentProgressNotification) {
+            AttachmentProgressNotification progressNotification = (AttachmentProgressNotification) notification;
+            if (progressNotification.ownedIdentity == null || progressNotification.messageUid == null) {
+                return;
+            }
+            postProgressEngineNotification(progressNotification.ownedIdentity, progressNotification.messageUid, progressNotification.attachmentNumber, progressNotification.progress, progressNotification.speedBps, progressNotification.etaSeconds);
+        } else {
+            callback(notification.getNotificationName(), notification.toUserInfo());
+        }
+    }
+
+    private void postProgressEngineNotification(Identity ownedIdentity, UID messageUid, int attachmentNumber, float progress, Float speed, Integer eta) {
+        HashMap<String, Object> engineInfo = new HashMap<>();
+        engineInfo.put(EngineNotifications.ATTACHMENT_UPLOAD_PROGRESS_BYTES_OWNED_IDENTITY_KEY, ownedIdentity.getBytes());
+        engineInfo.put(EngineNotifications.ATTACHMENT_UPLOAD_PROGRESS_MESSAGE_IDENTIFIER_KEY, messageUid.getBytes());
+        engineInfo.put(EngineNotifications.ATTACHMENT_UPLOAD_PROGRESS_ATTACHMENT_NUMBER_KEY, attachmentNumber);
+        engineInfo.put(EngineNotifications.ATTACHMENT_UPLOAD_PROGRESS_PROGRESS_KEY, progress);
+        if (speed != null && eta != null) {
+            engineInfo.put(EngineNotifications.ATTACHMENT_UPLOAD_PROGRESS_SPEED_BPS_KEY, speed);
+            engineInfo.put(EngineNotifications.ATTACHMENT_UPLOAD_PROGRESS_ETA_SECONDS_KEY, eta);
+        }
+
+        engine.postEngineNotification(EngineNotifications.ATTACHMENT_UPLOAD_PROGRESS, engineInfo);
+    }
+
     @Override
     public void callback(String notificationName, Map<String, Object> userInfo) {
         switch (notificationName) {
@@ -63,17 +92,7 @@ public class NotificationListenerUploads implements NotificationListener {
                     break;
                 }
 
-                HashMap<String, Object> engineInfo = new HashMap<>();
-                engineInfo.put(EngineNotifications.ATTACHMENT_UPLOAD_PROGRESS_BYTES_OWNED_IDENTITY_KEY, ownedIdentity.getBytes());
-                engineInfo.put(EngineNotifications.ATTACHMENT_UPLOAD_PROGRESS_MESSAGE_IDENTIFIER_KEY, messageUid.getBytes());
-                engineInfo.put(EngineNotifications.ATTACHMENT_UPLOAD_PROGRESS_ATTACHMENT_NUMBER_KEY, attachmentNumber);
-                engineInfo.put(EngineNotifications.ATTACHMENT_UPLOAD_PROGRESS_PROGRESS_KEY, progress);
-                if (speed != null && eta != null) {
-                    engineInfo.put(EngineNotifications.ATTACHMENT_UPLOAD_PROGRESS_SPEED_BPS_KEY, speed);
-                    engineInfo.put(EngineNotifications.ATTACHMENT_UPLOAD_PROGRESS_ETA_SECONDS_KEY, eta);
-                }
-
-                engine.postEngineNotification(EngineNotifications.ATTACHMENT_UPLOAD_PROGRESS, engineInfo);
+                postProgressEngineNotification(ownedIdentity, messageUid, attachmentNumber, progress, speed, eta);
                 break;
             }
             case UploadNotifications.NOTIFICATION_ATTACHMENT_UPLOAD_FINISHED: {
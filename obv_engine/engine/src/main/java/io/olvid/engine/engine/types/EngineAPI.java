@@ -79,6 +79,9 @@ public interface EngineAPI {
     }
 
     Map<String, EngineDbQueryStatisticsEntry> getEngineDbQueryStatistics();
+    Map<String, EngineDbQueryStatisticsEntry> getEngineDbLockWaitStatistics(); // time waiting for the write lock or a pooled connection
+    Map<Integer, EngineProtocolStepStatisticsEntry> getProtocolStepStatistics(); // protocolId -> statistics
+    Map<String, EngineCacheStatisticsEntry> getEngineCacheStatistics(); // cache name -> statistics
 
     // ObvOwnedIdentity
     String getServerOfIdentity(byte[] bytesIdentity);
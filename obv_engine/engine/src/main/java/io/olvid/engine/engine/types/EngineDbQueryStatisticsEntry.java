@@ -23,14 +23,18 @@ package io.olvid.engine.engine.types;
 public class EngineDbQueryStatisticsEntry {
     public int count;
     public long totalTimeMicro;
+    public int preparedStatementCacheHits;
+    public int preparedStatementCacheMisses;
 
-    private EngineDbQueryStatisticsEntry(int count, long totalTimeMicro) {
-        this.count = count;
-        this.totalTimeMicro = totalTimeMicro;
+    private EngineDbQueryStatisticsEntry() {
+        this.count = 0;
+        this.totalTimeMicro = 0;
+        this.preparedStatementCacheHits = 0;
+        this.preparedStatementCacheMisses = 0;
     }
 
-    public static EngineDbQueryStatisticsEntry create(long firstTimeMicro) {
-        return new EngineDbQueryStatisticsEntry(1, firstTimeMicro);
+    public static EngineDbQueryStatisticsEntry create() {
+        return new EngineDbQueryStatisticsEntry();
     }
 
     public EngineDbQueryStatisticsEntry increment(long timeSpentMicro) {
@@ -39,4 +43,14 @@ public class EngineDbQueryStatisticsEntry {
 
         return this;
     }
+
+    public EngineDbQueryStatisticsEntry incrementPreparedStatementCache(boolean hit) {
+        if (hit) {
+            preparedStatementCacheHits++;
+        } else {
+            preparedStatementCacheMisses++;
+        }
+
+        return this;
+    }
 }
@@ -0,0 +1,75 @@
+/*
+ *  Olvid for Android
+ *  Copyright © 2019-2026 Olvid SAS
+ *
+ *  This file is part of Olvid for Android.
+ *
+ *  Olvid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License, version 3,
+ *  as published by the Free Software Foundation.
+ *
+ *  Olvid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with Olvid.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.olvid.engine.engine.types;
+
+
+public class EngineProtocolStepStatisticsEntry {
+    // upper bounds of the histogram buckets, the last bucket of each histogram has no upper bound
+    public static final long[] LATENCY_BUCKETS_MS = {10, 100, 1_000, 10_000};
+    public static final int[] QUEUE_DEPTH_BUCKETS = {0, 10, 100, 1_000};
+
+    public int count; // number of executed steps
+    public int failedCount;
+    public long totalWaitTimeMicro; // time between the step being queued and the start of its execution
+    public long totalExecutionTimeMicro;
+    public final int[] latencyHistogram; // time between the step being queued and the end of its execution
+    public final int[] queueDepthHistogram; // number of steps already waiting in the same shard when the step was queued
+
+    private EngineProtocolStepStatisticsEntry() {
+        this.count = 0;
+        this.failedCount = 0;
+        this.totalWaitTimeMicro = 0;
+        this.totalExecutionTimeMicro = 0;
+        this.latencyHistogram = new int[LATENCY_BUCKETS_MS.length + 1];
+        this.queueDepthHistogram = new int[QUEUE_DEPTH_BUCKETS.length + 1];
+    }
+
+    public static EngineProtocolStepStatisticsEntry create() {
+        return new EngineProtocolStepStatisticsEntry();
+    }
+
+    public EngineProtocolStepStatisticsEntry incrementQueued(int queueDepth) {
+        int queueDepthBucket = 0;
+        while (queueDepthBucket < QUEUE_DEPTH_BUCKETS.length && queueDepth > QUEUE_DEPTH_BUCKETS[queueDepthBucket]) {
+            queueDepthBucket++;
+        }
+        queueDepthHistogram[queueDepthBucket]++;
+
+        return this;
+    }
+
+    public EngineProtocolStepStatisticsEntry incrementExecuted(long waitTimeMicro, long executionTimeMicro, boolean failed) {
+        count++;
+        if (failed) {
+            failedCount++;
+        }
+        totalWaitTimeMicro += waitTimeMicro;
+        totalExecutionTimeMicro += executionTimeMicro;
+
+        long latencyMs = (waitTimeMicro + executionTimeMicro) / 1000;
+        int latencyBucket = 0;
+        while (latencyBucket < LATENCY_BUCKETS_MS.length && latencyMs > LATENCY_BUCKETS_MS[latencyBucket]) {
+            latencyBucket++;
+        }
+        latencyHistogram[latencyBucket]++;
+
+        return this;
+    }
+}
@@ -20,6 +20,7 @@
 package io.olvid.engine.engine.types.sync;
 
 import java.util.Map;
+import java.util.Set;
 
 import io.olvid.engine.datatypes.Identity;
 import io.olvid.engine.engine.types.identities.ObvIdentity;
@@ -48,6 +49,9 @@ public interface ObvBackupAndSyncDelegate {
     //////
     // Method used to deserialize a node that was serialized with ObvSyncSnapshotNode.serialize(ObjectMapper jsonObjectMapper)
     ObvSyncSnapshotNode deserialize(SerializationContext serializationContext, byte[] serializedSnapshotNode) throws Exception;
+    //////
+    // Names of the serialized fields whose arrays are sets: their order is ignored when computing an ObvSyncMerkleTree
+    Set<String> getUnorderedArrayFields();
 
 
     //////
@@ -19,15 +19,27 @@
 
 package io.olvid.engine.engine.types.sync;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import io.olvid.engine.Logger;
+import io.olvid.engine.crypto.Hash;
+import io.olvid.engine.crypto.Suite;
 import io.olvid.engine.datatypes.DictionaryKey;
 import io.olvid.engine.datatypes.Identity;
+import io.olvid.engine.encoder.DecodingException;
 import io.olvid.engine.encoder.Encoded;
 
 public class ObvProfileBackupSnapshot {
+    // type bytes of the Encoded format
+    private static final byte LIST_TYPE = 0x03;
+    private static final byte DICTIONARY_TYPE = 0x04;
+
     public static final String SNAPSHOT = "snapshot";
     public static final String ADDITIONAL_INFO = "additional_info";
     public static final String TIMESTAMP = "timestamp";
@@ -106,4 +118,69 @@ public class ObvProfileBackupSnapshot {
             return null;
         }
     }
+
+    // region digest
+
+    // digest of everything in the encoded dictionary except the timestamp, used to detect snapshots that did not change.
+    // Encoded.of(HashMap) writes the entries in the iteration order of the map, so the digest is not computed on the
+    // encoded bytes but on a canonical form, with the entries of each dictionary (at any depth) sorted by key.
+    public static byte[] computeContentDigest(HashMap<DictionaryKey, Encoded> map) {
+        HashMap<DictionaryKey, Encoded> content = new HashMap<>(map);
+        content.remove(new DictionaryKey(TIMESTAMP));
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            DataOutputStream dataOutputStream = new DataOutputStream(baos);
+            writeCanonicalDictionary(dataOutputStream, content);
+            dataOutputStream.flush();
+            return Suite.getHash(Hash.SHA256).digest(baos.toByteArray());
+        } catch (IOException | DecodingException e) {
+            // only happens with a malformed dictionary: fall back to the (order dependent) encoded bytes
+            Logger.x(e);
+            return Suite.getHash(Hash.SHA256).digest(Encoded.of(content).getBytes());
+        }
+    }
+
+    private static void writeCanonicalDictionary(DataOutputStream dataOutputStream, HashMap<DictionaryKey, Encoded> dictionary) throws IOException, DecodingException {
+        List<DictionaryKey> keys = new ArrayList<>(dictionary.keySet());
+        keys.sort(ObvProfileBackupSnapshot::compareKeys);
+        dataOutputStream.writeByte(DICTIONARY_TYPE);
+        dataOutputStream.writeInt(keys.size());
+        for (DictionaryKey key : keys) {
+            dataOutputStream.writeInt(key.data.length);
+            dataOutputStream.write(key.data);
+            writeCanonicalValue(dataOutputStream, dictionary.get(key));
+        }
+    }
+
+    // unsigned lexicographic order of the key bytes
+    private static int compareKeys(DictionaryKey key1, DictionaryKey key2) {
+        int length = Math.min(key1.data.length, key2.data.length);
+        for (int i = 0; i < length; i++) {
+            int diff = (key1.data[i] & 0xff) - (key2.data[i] & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return key1.data.length - key2.data.length;
+    }
+
+    private static void writeCanonicalValue(DataOutputStream dataOutputStream, Encoded value) throws IOException, DecodingException {
+        byte[] bytes = value.getBytes();
+        if (bytes.length > 0 && bytes[0] == DICTIONARY_TYPE) {
+            writeCanonicalDictionary(dataOutputStream, value.decodeDictionary());
+        } else if (bytes.length > 0 && bytes[0] == LIST_TYPE) {
+            // lists are ordered, only the dictionaries they contain need a canonical form
+            Encoded[] list = value.decodeList();
+            dataOutputStream.writeByte(LIST_TYPE);
+            dataOutputStream.writeInt(list.length);
+            for (Encoded element : list) {
+                writeCanonicalValue(dataOutputStream, element);
+            }
+        } else {
+            dataOutputStream.writeInt(bytes.length);
+            dataOutputStream.write(bytes);
+        }
+    }
+
+    // endregion
 }
@@ -0,0 +1,218 @@
+/*
+ *  Olvid for Android
+ *  Copyright © 2019-2026 Olvid SAS
+ *
+ *  This file is part of Olvid for Android.
+ *
+ *  Olvid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License, version 3,
+ *  as published by the Free Software Foundation.
+ *
+ *  Olvid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with Olvid.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.olvid.engine.engine.types.sync;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import io.olvid.engine.crypto.Hash;
+import io.olvid.engine.crypto.Suite;
+import io.olvid.engine.datatypes.DictionaryKey;
+import io.olvid.engine.encoder.DecodingException;
+import io.olvid.engine.encoder.Encoded;
+
+
+// A tree of content hashes mirroring the serialized form of an ObvSyncSnapshot.
+// - each JSON object becomes an inner node, with one child per non-null field (or map entry)
+// - everything else (scalars and arrays) is a leaf. Arrays are hashed in order, except those of fields marked as sets
+//   (domains, members, etc., see ObvBackupAndSyncDelegate.getUnorderedArrayFields()) which are hashed as unordered collections
+// Two devices can exchange the top levels of their trees (see encode(int)) and only descend into subtrees whose hash differs.
+public class ObvSyncMerkleTree {
+    private static final byte TYPE_LEAF = 0x00;
+    private static final byte TYPE_OBJECT = 0x01;
+    private static final byte TYPE_ARRAY = 0x02;
+
+    private final byte[] hash;
+    private final TreeMap<String, ObvSyncMerkleTree> children; // null for leaves and for nodes whose children were not transmitted
+
+    private ObvSyncMerkleTree(byte[] hash, TreeMap<String, ObvSyncMerkleTree> children) {
+        this.hash = hash;
+        this.children = children;
+    }
+
+    public byte[] getHash() {
+        return hash;
+    }
+
+    public ObvSyncMerkleTree getChild(String key) {
+        return children == null ? null : children.get(key);
+    }
+
+    // builds a root node from already computed subtrees
+    public static ObvSyncMerkleTree of(Map<String, ObvSyncMerkleTree> subtrees) {
+        TreeMap<String, ObvSyncMerkleTree> children = new TreeMap<>(subtrees);
+        return new ObvSyncMerkleTree(computeObjectHash(children), children);
+    }
+
+    public static ObvSyncMerkleTree of(JsonNode node) {
+        return of(node, Collections.emptySet());
+    }
+
+    // arrays of fields whose name is in unorderedArrayFields (at any depth) are hashed as sets
+    public static ObvSyncMerkleTree of(JsonNode node, Set<String> unorderedArrayFields) {
+        return of(node, unorderedArrayFields, false);
+    }
+
+    private static ObvSyncMerkleTree of(JsonNode node, Set<String> unorderedArrayFields, boolean unordered) {
+        Hash sha256 = Suite.getHash(Hash.SHA256);
+        if (node.isObject()) {
+            TreeMap<String, ObvSyncMerkleTree> children = new TreeMap<>();
+            Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                // a null field and a missing field have the same meaning
+                if (!field.getValue().isNull()) {
+                    children.put(field.getKey(), of(field.getValue(), unorderedArrayFields, unorderedArrayFields.contains(field.getKey())));
+                }
+            }
+            return new ObvSyncMerkleTree(computeObjectHash(children), children);
+        } else if (node.isArray()) {
+            List<byte[]> elementHashes = new ArrayList<>();
+            for (JsonNode element : node) {
+                elementHashes.add(of(element, unorderedArrayFields, false).hash);
+            }
+            if (unordered) {
+                elementHashes.sort(ObvSyncMerkleTree::compareHashes);
+            }
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            baos.write(TYPE_ARRAY);
+            for (byte[] elementHash : elementHashes) {
+                baos.write(elementHash, 0, elementHash.length);
+            }
+            return new ObvSyncMerkleTree(sha256.digest(baos.toByteArray()), null);
+        } else {
+            // scalars are hashed through their JSON representation, which also distinguishes types (1 vs "1")
+            byte[] value = node.toString().getBytes(StandardCharsets.UTF_8);
+            byte[] input = new byte[value.length + 1];
+            input[0] = TYPE_LEAF;
+            System.arraycopy(value, 0, input, 1, value.length);
+            return new ObvSyncMerkleTree(sha256.digest(input), null);
+        }
+    }
+
+    private static byte[] computeObjectHash(TreeMap<String, ObvSyncMerkleTree> children) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        baos.write(TYPE_OBJECT);
+        for (Map.Entry<String, ObvSyncMerkleTree> child : children.entrySet()) {
+            byte[] key = child.getKey().getBytes(StandardCharsets.UTF_8);
+            baos.write(key.length >> 24);
+            baos.write(key.length >> 16);
+            baos.write(key.length >> 8);
+            baos.write(key.length);
+            baos.write(key, 0, key.length);
+            baos.write(child.getValue().hash, 0, child.getValue().hash.length);
+        }
+        return Suite.getHash(Hash.SHA256).digest(baos.toByteArray());
+    }
+
+    private static int compareHashes(byte[] a, byte[] b) {
+        for (int i=0; i<Math.min(a.length, b.length); i++) {
+            int cmp = Integer.compare(a[i] & 0xff, b[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(a.length, b.length);
+    }
+
+
+    // region diff
+
+    // Returns the paths (list of keys from the root) of the smallest subtrees that differ between the two trees. A subtree
+    // present on only one side is returned as a whole. Identical subtrees are never descended into.
+    public List<List<String>> computeDifferingPaths(ObvSyncMerkleTree other) {
+        List<List<String>> differingPaths = new ArrayList<>();
+        computeDifferingPaths(other, new ArrayList<>(), differingPaths);
+        return differingPaths;
+    }
+
+    private void computeDifferingPaths(ObvSyncMerkleTree other, List<String> path, List<List<String>> differingPaths) {
+        if (other != null && Arrays.equals(hash, other.hash)) {
+            return;
+        }
+        if (other == null || children == null || other.children == null) {
+            differingPaths.add(new ArrayList<>(path));
+            return;
+        }
+        TreeSet<String> keys = new TreeSet<>(children.keySet());
+        keys.addAll(other.children.keySet());
+        for (String key : keys) {
+            ObvSyncMerkleTree child = children.get(key);
+            path.add(key);
+            if (child == null) {
+                differingPaths.add(new ArrayList<>(path));
+            } else {
+                child.computeDifferingPaths(other.children.get(key), path, differingPaths);
+            }
+            path.remove(path.size() - 1);
+        }
+    }
+
+    // endregion
+
+    // region encoding
+
+    // Only encodes the first levels of the tree: nodes at the given depth are encoded without their children.
+    public Encoded encode(int depth) {
+        if (depth <= 0 || children == null) {
+            return Encoded.of(new Encoded[]{
+                    Encoded.of(hash),
+            });
+        }
+        HashMap<DictionaryKey, Encoded> encodedChildren = new HashMap<>();
+        for (Map.Entry<String, ObvSyncMerkleTree> child : children.entrySet()) {
+            encodedChildren.put(new DictionaryKey(child.getKey()), child.getValue().encode(depth - 1));
+        }
+        return Encoded.of(new Encoded[]{
+                Encoded.of(hash),
+                Encoded.of(encodedChildren),
+        });
+    }
+
+    public static ObvSyncMerkleTree of(Encoded encoded) throws DecodingException {
+        Encoded[] list = encoded.decodeList();
+        if (list.length != 1 && list.length != 2) {
+            throw new DecodingException();
+        }
+        byte[] hash = list[0].decodeBytes();
+        if (list.length == 1) {
+            return new ObvSyncMerkleTree(hash, null);
+        }
+        TreeMap<String, ObvSyncMerkleTree> children = new TreeMap<>();
+        for (Map.Entry<DictionaryKey, Encoded> child : list[1].decodeDictionary().entrySet()) {
+            children.put(child.getKey().getString(), of(child.getValue()));
+        }
+        return new ObvSyncMerkleTree(hash, children);
+    }
+
+    // endregion
+}
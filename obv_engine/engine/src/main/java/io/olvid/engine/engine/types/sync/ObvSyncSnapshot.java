@@ -19,7 +19,10 @@
 
 package io.olvid.engine.engine.types.sync;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -32,6 +35,8 @@ import io.olvid.engine.encoder.Encoded;
 import io.olvid.engine.engine.types.identities.ObvIdentity;
 
 public class ObvSyncSnapshot {
+    private static final ObjectMapper MERKLE_TREE_OBJECT_MAPPER = new ObjectMapper();
+
     private final HashMap<String, ObvSyncSnapshotNode> snapshotMap;
 
     private ObvSyncSnapshot(HashMap<String, ObvSyncSnapshotNode> snapshotMap) {
@@ -147,6 +152,32 @@ public class ObvSyncSnapshot {
         return true;
     }
 
+    // the root of the tree has one child per delegate tag, built from the PROFILE serialization of the corresponding node
+    public ObvSyncMerkleTree computeMerkleTree(ObvBackupAndSyncDelegate... delegates) throws Exception {
+        HashMap<String, ObvSyncMerkleTree> subtrees = new HashMap<>();
+        for (ObvBackupAndSyncDelegate delegate : delegates) {
+            ObvSyncSnapshotNode node = snapshotMap.get(delegate.getTag());
+            if (node == null) {
+                throw new Exception();
+            }
+            subtrees.put(delegate.getTag(), ObvSyncMerkleTree.of(MERKLE_TREE_OBJECT_MAPPER.readTree(delegate.serialize(ObvBackupAndSyncDelegate.SerializationContext.PROFILE, node)), delegate.getUnorderedArrayFields()));
+        }
+        return ObvSyncMerkleTree.of(subtrees);
+    }
+
+    // compares the Merkle root hashes of both snapshots, without walking the snapshot nodes
+    public boolean areContentsTheSame(ObvSyncSnapshot otherSnapshot, ObvBackupAndSyncDelegate... delegates) {
+        if (otherSnapshot == null) {
+            return false;
+        }
+        try {
+            return Arrays.equals(computeMerkleTree(delegates).getHash(), otherSnapshot.computeMerkleTree(delegates).getHash());
+        } catch (Exception e) {
+            Logger.x(e);
+            return false;
+        }
+    }
+
     public List<ObvSyncDiff> computeDiff(ObvSyncSnapshot otherSnapshot) throws Exception {
         if (otherSnapshot == null || !Objects.equals(snapshotMap.keySet(), otherSnapshot.snapshotMap.keySet())) {
             throw new Exception();
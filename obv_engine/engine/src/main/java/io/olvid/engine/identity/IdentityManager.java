@@ -521,6 +521,14 @@ public class IdentityManager implements IdentityDelegate, SolveChallengeDelegate
         return new IdentityManagerSession(createSessionDelegate.getSession(), notificationPostingDelegate, this, engineBaseDirectory, jsonObjectMapper, prng);
     }
 
+    // may only be used for queries, see Session.getReadOnlySession()
+    private IdentityManagerSession getReadOnlySession() throws SQLException {
+        if (createSessionDelegate == null) {
+            throw new SQLException("No CreateSessionDelegate was set in IdentityManager.");
+        }
+        return new IdentityManagerSession(createSessionDelegate.getReadOnlySession(), notificationPostingDelegate, this, engineBaseDirectory, jsonObjectMapper, prng);
+    }
+
     private IdentityManagerSession wrapSession(Session session) {
         return new IdentityManagerSession(session, notificationPostingDelegate, this, engineBaseDirectory, jsonObjectMapper, prng);
     }
@@ -536,7 +544,7 @@ public class IdentityManager implements IdentityDelegate, SolveChallengeDelegate
 
     @Override
     public byte[] solveChallenge(byte[] challenge, Identity identity, PRNGService prng) throws Exception {
-        try (IdentityManagerSession identityManagerSession = getSession()) {
+        try (IdentityManagerSession identityManagerSession = getReadOnlySession()) {
             OwnedIdentity ownedIdentity = OwnedIdentity.get(identityManagerSession, identity);
             if (ownedIdentity == null) {
                 throw new Exception("Unknown owned identity");
@@ -2186,7 +2194,7 @@ public class IdentityManager implements IdentityDelegate, SolveChallengeDelegate
     @Override
     public List<ObvCapability> getContactCapabilities(Identity ownedIdentity, Identity contactIdentity) throws SQLException {
         // for now, we compute the intersection of all device capabilities. This may change in the future depending on capabilities we will add
-        try (IdentityManagerSession identityManagerSession = getSession()) {
+        try (IdentityManagerSession identityManagerSession = getReadOnlySession()) {
             return getContactCapabilities(identityManagerSession, ownedIdentity, contactIdentity);
         }
     }
@@ -2238,7 +2246,7 @@ public class IdentityManager implements IdentityDelegate, SolveChallengeDelegate
     @Override
     public List<ObvCapability> getOwnCapabilities(Identity ownedIdentity) throws SQLException {
         // for now, we compute the intersection of all device capabilities. This may change in the future depending on capabilities we will add
-        try (IdentityManagerSession identityManagerSession = getSession()) {
+        try (IdentityManagerSession identityManagerSession = getReadOnlySession()) {
             // initialize with current capabilities
             HashSet<ObvCapability> ownCapabilities = new HashSet<>(ObvCapability.currentCapabilities);
 
@@ -2298,7 +2306,7 @@ public class IdentityManager implements IdentityDelegate, SolveChallengeDelegate
         if (diversificationTag.length == 0) {
             throw new Exception();
         }
-        try (IdentityManagerSession identityManagerSession = getSession()) {
+        try (IdentityManagerSession identityManagerSession = getReadOnlySession()) {
             OwnedIdentity ownedIdentityObject = OwnedIdentity.get(identityManagerSession, ownedIdentity);
             if (ownedIdentity == null) {
                 throw new SQLException("OwnedIdentity not found");
@@ -4440,6 +4448,11 @@ public class IdentityManager implements IdentityDelegate, SolveChallengeDelegate
         return null;
     }
 
+    @Override
+    public Set<String> getUnorderedArrayFields() {
+        return IdentityManagerSyncSnapshot.UNORDERED_ARRAY_FIELDS;
+    }
+
     @Override
     public byte[] serialize(SerializationContext serializationContext, ObvSyncSnapshotNode snapshotNode) throws Exception {
         switch (serializationContext) {
@@ -4573,6 +4586,11 @@ public class IdentityManager implements IdentityDelegate, SolveChallengeDelegate
                 return IdentityManager.this.deserialize(serializationContext, serializedSnapshotNode);
             }
 
+            @Override
+            public Set<String> getUnorderedArrayFields() {
+                return IdentityManager.this.getUnorderedArrayFields();
+            }
+
             @Override
             public ObvSyncSnapshotNode getDeviceSnapshot() {
                 try {
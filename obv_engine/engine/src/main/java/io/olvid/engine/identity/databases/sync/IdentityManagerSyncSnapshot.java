@@ -27,6 +27,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import io.olvid.engine.Logger;
 import io.olvid.engine.datatypes.Identity;
@@ -41,6 +42,8 @@ public class IdentityManagerSyncSnapshot implements ObvSyncSnapshotNode {
     public static final String OWNED_IDENTITY = "owned_identity";
     public static final String OWNED_IDENTITY_NODE = "owned_identity_node";
     static HashSet<String> DEFAULT_DOMAIN = new HashSet<>(Arrays.asList(OWNED_IDENTITY, OWNED_IDENTITY_NODE));
+    // serialized arrays of all engine snapshot nodes which are sets (see ObvBackupAndSyncDelegate.getUnorderedArrayFields())
+    public static final Set<String> UNORDERED_ARRAY_FIELDS = new HashSet<>(Arrays.asList("domain", GroupV1SyncSnapshot.MEMBERS, GroupV2SyncSnapshot.PERMISSIONS));
 
     public byte[] owned_identity;
     public OwnedIdentitySyncSnapshot owned_identity_node;
@@ -26,4 +26,6 @@ import io.olvid.engine.datatypes.Session;
 
 public interface CreateSessionDelegate {
     Session getSession() throws SQLException;
+    // may only be used for queries, see Session.getReadOnlySession()
+    Session getReadOnlySession() throws SQLException;
 }
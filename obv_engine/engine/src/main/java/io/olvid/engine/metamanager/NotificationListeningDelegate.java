@@ -25,5 +25,7 @@ import io.olvid.engine.datatypes.NotificationListener;
 public interface NotificationListeningDelegate {
     // this method returns a unique identifier for the notificationListener
     long addListener(String notificationName, NotificationListener notificationListener);
+    // same as addListener, but notifications are delivered in order on a separate lane instead of on the posting thread
+    long addAsyncListener(String notificationName, NotificationListener notificationListener);
     void removeListener(String notificationName, long notificationListenerNumber);
 }
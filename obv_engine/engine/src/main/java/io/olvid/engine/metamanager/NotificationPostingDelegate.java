@@ -21,6 +21,9 @@ package io.olvid.engine.metamanager;
 
 import java.util.Map;
 
+import io.olvid.engine.datatypes.TypedNotification;
+
 public interface NotificationPostingDelegate {
     void postNotification(String notificationName, Map<String, Object> userInfo);
+    void postNotification(TypedNotification notification);
 }
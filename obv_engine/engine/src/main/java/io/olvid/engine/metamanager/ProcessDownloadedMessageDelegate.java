@@ -20,8 +20,12 @@
 package io.olvid.engine.metamanager;
 
 
+import java.util.List;
+
 import io.olvid.engine.datatypes.containers.NetworkReceivedMessage;
 
 public interface ProcessDownloadedMessageDelegate {
     void processDownloadedMessage(NetworkReceivedMessage networkReceivedMessage);
+    // messages are decrypted in batches, within a single transaction per batch
+    void processDownloadedMessages(List<NetworkReceivedMessage> networkReceivedMessages);
 }
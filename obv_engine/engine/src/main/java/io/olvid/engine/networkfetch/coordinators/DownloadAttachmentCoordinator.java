@@ -38,6 +38,7 @@ import io.olvid.engine.datatypes.PriorityOperation;
 import io.olvid.engine.datatypes.PriorityOperationQueue;
 import io.olvid.engine.datatypes.UID;
 import io.olvid.engine.datatypes.containers.IdentityAndUidAndNumber;
+import io.olvid.engine.datatypes.notifications.AttachmentProgressNotification;
 import io.olvid.engine.datatypes.notifications.DownloadNotifications;
 import io.olvid.engine.datatypes.notifications.IdentityNotifications;
 import io.olvid.engine.metamanager.NotificationListeningDelegate;
@@ -341,12 +342,7 @@ public class DownloadAttachmentCoordinator implements InboxAttachment.InboxAttac
 
     @Override
     public void attachmentDownloadProgressed(Identity ownedIdentity, UID messageUid, int attachmentNumber, float progress) {
-        HashMap<String, Object> userInfo = new HashMap<>();
-        userInfo.put(DownloadNotifications.NOTIFICATION_ATTACHMENT_DOWNLOAD_PROGRESS_OWNED_IDENTITY_KEY, ownedIdentity);
-        userInfo.put(DownloadNotifications.NOTIFICATION_ATTACHMENT_DOWNLOAD_PROGRESS_MESSAGE_UID_KEY, messageUid);
-        userInfo.put(DownloadNotifications.NOTIFICATION_ATTACHMENT_DOWNLOAD_PROGRESS_ATTACHMENT_NUMBER_KEY, attachmentNumber);
-        userInfo.put(DownloadNotifications.NOTIFICATION_ATTACHMENT_DOWNLOAD_PROGRESS_PROGRESS_KEY, progress);
-        notificationPostingDelegate.postNotification(DownloadNotifications.NOTIFICATION_ATTACHMENT_DOWNLOAD_PROGRESS, userInfo);
+        notificationPostingDelegate.postNotification(AttachmentProgressNotification.download(ownedIdentity, messageUid, attachmentNumber, progress, null, null));
     }
 
     @Override
@@ -20,6 +20,7 @@
 package io.olvid.engine.networkfetch.coordinators;
 
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -120,8 +121,12 @@ public class DownloadMessagesAndListAttachmentsCoordinator implements Operation.
 
             // retry processing messages that were downloaded but never decrypted nor marked for deletion
             InboxMessage[] unprocessedMessages = InboxMessage.getUnprocessedMessages(fetchManagerSession);
-            for (InboxMessage inboxMessage : unprocessedMessages) {
-                messageWasDownloaded(inboxMessage.getNetworkReceivedMessage());
+            if (unprocessedMessages.length > 0) {
+                List<NetworkReceivedMessage> networkReceivedMessages = new ArrayList<>();
+                for (InboxMessage inboxMessage : unprocessedMessages) {
+                    networkReceivedMessages.add(inboxMessage.getNetworkReceivedMessage());
+                }
+                messagesWereDownloaded(networkReceivedMessages);
             }
 
             // resend notifications for decrypted messages not yet marked for deletion
@@ -185,6 +190,15 @@ public class DownloadMessagesAndListAttachmentsCoordinator implements Operation.
         this.processDownloadedMessageDelegate.processDownloadedMessage(networkReceivedMessage);
     }
 
+    @Override
+    public void messagesWereDownloaded(List<NetworkReceivedMessage> networkReceivedMessages) {
+        if (processDownloadedMessageDelegate == null) {
+            Logger.w("Messages were downloaded but no ProcessDownloadedMessageDelegate is set yet.");
+            return;
+        }
+        this.processDownloadedMessageDelegate.processDownloadedMessages(networkReceivedMessages);
+    }
+
     @Override
     public void messageDecrypted(InboxMessage inboxMessage, InboxAttachment[] attachments) {
         if (notificationPostingDelegate != null) {
@@ -21,7 +21,6 @@ package io.olvid.engine.networkfetch.databases;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -35,6 +34,7 @@ import io.olvid.engine.crypto.AuthEnc;
 import io.olvid.engine.crypto.Hash;
 import io.olvid.engine.crypto.Suite;
 import io.olvid.engine.datatypes.Chunk;
+import io.olvid.engine.datatypes.ChunkBitmap;
 import io.olvid.engine.datatypes.Constants;
 import io.olvid.engine.datatypes.Identity;
 import io.olvid.engine.datatypes.ObvDatabase;
@@ -80,8 +80,11 @@ public class InboxAttachment implements ObvDatabase {
     static final String MARKED_FOR_DELETION = "marked_for_deletion";
     private String chunkDownloadPrivateUrls;
     static final String CHUNK_DOWNLOAD_PRIVATE_URLS = "chunk_download_private_urls";
+    private byte[] receivedChunks; // null for attachments whose chunks were all received in order
+    static final String RECEIVED_CHUNKS = "received_chunks";
 
     public static final String UPLOAD_CANCELLED_CHUNK_URLS = "__CANCELLED__";
+    private static final String TEMPORARY_CHUNK_FILE_SUFFIX = ".part";
 
 
     public Identity getOwnedIdentity() {
@@ -189,6 +192,9 @@ public class InboxAttachment implements ObvDatabase {
     }
 
     public int getReceivedChunkCount() {
+        if (receivedChunks != null) {
+            return getReceivedChunkBitmap().getCount();
+        }
         if (receivedLength == expectedLength) {
             return 1 + (int)((receivedLength -1)/ chunkLength);
         } else {
@@ -196,6 +202,26 @@ public class InboxAttachment implements ObvDatabase {
         }
     }
 
+    public int getChunkCount() {
+        if (expectedLength == 0) {
+            return 0;
+        }
+        return 1 + (int) ((expectedLength - 1) / chunkLength);
+    }
+
+    public ChunkBitmap getReceivedChunkBitmap() {
+        // without a bitmap, receivedLength is the length of the chunks received in order
+        return new ChunkBitmap(getChunkCount(), receivedChunks, (receivedChunks == null) ? getReceivedChunkCount() : 0);
+    }
+
+    // encrypted length of a chunk: all chunks have the same length, except the last one
+    public long getChunkEncryptedLength(int chunkNumber) {
+        if (chunkNumber == getChunkCount() - 1) {
+            return expectedLength - (long) chunkNumber * chunkLength;
+        }
+        return chunkLength;
+    }
+
     public float getProgress() {
         return ((float) receivedLength)/expectedLength;
     }
@@ -335,6 +361,17 @@ public class InboxAttachment implements ObvDatabase {
                 throw new IOException();
             }
         }
+        // temporary chunk files left behind if the app was killed during a download
+        String temporaryChunkFilePrefix = attachmentNumber + ".";
+        File[] files = attachmentDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().startsWith(temporaryChunkFilePrefix) && file.getName().endsWith(TEMPORARY_CHUNK_FILE_SUFFIX)) {
+                    //noinspection ResultOfMethodCallIgnored
+                    file.delete();
+                }
+            }
+        }
         String[] fileNames = attachmentDirectory.list();
         if (fileNames != null && fileNames.length == 0) {
             if (!attachmentDirectory.delete()) {
@@ -351,37 +388,60 @@ public class InboxAttachment implements ObvDatabase {
         return getAttachmentDirectory() + File.separator + attachmentNumber;
     }
 
-    public boolean writeToAttachmentFile(byte[] attachmentBytes, int encryptedLength) {
+    // Chunks are written directly to the attachment file by the download threads, each at its own position (all chunks
+    // but the last one contain the same amount of data), in any order. Once a chunk is written, markChunkReceived()
+    // records it in the received_chunks bitmap.
+    public File getAttachmentFile() {
         //noinspection ResultOfMethodCallIgnored
         new File(fetchManagerSession.engineBaseDirectory, getAttachmentDirectory()).mkdirs();
-        try (RandomAccessFile f = new RandomAccessFile(new File(fetchManagerSession.engineBaseDirectory, getUrl()), "rw")) {
-            f.setLength(fileSize);
-            f.seek(fileSize);
-            f.write(attachmentBytes);
-
-            try (PreparedStatement statement = fetchManagerSession.session.prepareStatement("InboxAttachment.writeToAttachmentFile",
-                    "UPDATE " + TABLE_NAME + " SET " +
-                    RECEIVED_LENGTH + " = ?, " +
-                    FILE_SIZE + " = ? " +
-                    " WHERE " + OWNED_IDENTITY + " = ? " +
-                    " AND " + MESSAGE_UID + " = ? " +
-                    " AND " + ATTACHMENT_NUMBER + " = ?;")) {
-                statement.setLong(1, receivedLength + encryptedLength);
-                statement.setLong(2, fileSize + attachmentBytes.length);
-                statement.setBytes(3, ownedIdentity.getBytes());
-                statement.setBytes(4, messageUid.getBytes());
-                statement.setInt(5, attachmentNumber);
-                statement.executeUpdate();
-                this.receivedLength += encryptedLength;
-                this.fileSize += attachmentBytes.length;
-                if (expectedLength == receivedLength) {
-                    commitHookBits |= HOOK_BIT_LAST_CHUNK_RECEIVED;
-                }
-                commitHookBits |= HOOK_BIT_CHUNK_RECEIVED;
-                fetchManagerSession.session.addSessionCommitListener(this);
-                return true;
+        return new File(fetchManagerSession.engineBaseDirectory, getUrl());
+    }
+
+    // the downloaded ciphertext of a chunk is kept in this file until its MAC is verified
+    public File getChunkTemporaryFile(int chunkNumber) {
+        return new File(fetchManagerSession.engineBaseDirectory, getUrl() + "." + chunkNumber + TEMPORARY_CHUNK_FILE_SUFFIX);
+    }
+
+    public long getChunkPlaintextOffset(int chunkNumber) {
+        AuthEnc authEnc = Suite.getAuthEnc(key);
+        return chunkNumber * (long) Chunk.lengthOfInnerDataFromLengthOfEncodedChunk(authEnc.plaintextLengthFromCiphertextLength(chunkLength));
+    }
+
+    public boolean markChunkReceived(int chunkNumber, int encryptedLength, int attachmentBytesLength) {
+        ChunkBitmap receivedChunkBitmap = getReceivedChunkBitmap();
+        if (chunkNumber < 0 || chunkNumber >= receivedChunkBitmap.getNumberOfChunks()) {
+            return false;
+        }
+        if (!receivedChunkBitmap.set(chunkNumber)) {
+            // chunk already received
+            return true;
+        }
+        byte[] receivedChunkBytes = receivedChunkBitmap.getBytes();
+        try (PreparedStatement statement = fetchManagerSession.session.prepareStatement("InboxAttachment.markChunkReceived",
+                "UPDATE " + TABLE_NAME + " SET " +
+                RECEIVED_LENGTH + " = ?, " +
+                FILE_SIZE + " = ?, " +
+                RECEIVED_CHUNKS + " = ? " +
+                " WHERE " + OWNED_IDENTITY + " = ? " +
+                " AND " + MESSAGE_UID + " = ? " +
+                " AND " + ATTACHMENT_NUMBER + " = ?;")) {
+            statement.setLong(1, receivedLength + encryptedLength);
+            statement.setLong(2, fileSize + attachmentBytesLength);
+            statement.setBytes(3, receivedChunkBytes);
+            statement.setBytes(4, ownedIdentity.getBytes());
+            statement.setBytes(5, messageUid.getBytes());
+            statement.setInt(6, attachmentNumber);
+            statement.executeUpdate();
+            this.receivedLength += encryptedLength;
+            this.fileSize += attachmentBytesLength;
+            this.receivedChunks = receivedChunkBytes;
+            if (expectedLength == receivedLength) {
+                commitHookBits |= HOOK_BIT_LAST_CHUNK_RECEIVED;
             }
-        } catch (Exception e) {
+            commitHookBits |= HOOK_BIT_CHUNK_RECEIVED;
+            fetchManagerSession.session.addSessionCommitListener(this);
+            return true;
+        } catch (SQLException e) {
             Logger.x(e);
             return false;
         }
@@ -422,6 +482,7 @@ public class InboxAttachment implements ObvDatabase {
         this.downloadRequested = false;
         this.timestampOfFetchRequest = null;
         this.markedForDeletion = false;
+        this.receivedChunks = null;
 
         String serialized;
         if (uploadCancelled) {
@@ -473,6 +534,7 @@ public class InboxAttachment implements ObvDatabase {
         }
         this.markedForDeletion = res.getBoolean(MARKED_FOR_DELETION);
         this.chunkDownloadPrivateUrls = res.getString(CHUNK_DOWNLOAD_PRIVATE_URLS);
+        this.receivedChunks = res.getBytes(RECEIVED_CHUNKS);
     }
 
     // endregion
@@ -603,6 +665,7 @@ public class InboxAttachment implements ObvDatabase {
                     TIMESTAMP_OF_FETCH_REQUEST + " BIGINT, " +
                     MARKED_FOR_DELETION + " BIT NOT NULL, " +
                     CHUNK_DOWNLOAD_PRIVATE_URLS + " TEXT, " +
+                    RECEIVED_CHUNKS + " BLOB DEFAULT NULL, " +
 
                     "CONSTRAINT PK_" + TABLE_NAME + " PRIMARY KEY (" + OWNED_IDENTITY + ", " + MESSAGE_UID + ", " + ATTACHMENT_NUMBER + "), " +
                     "FOREIGN KEY (" + OWNED_IDENTITY + ", " + MESSAGE_UID + ") REFERENCES " + InboxMessage.TABLE_NAME + "(" + InboxMessage.OWNED_IDENTITY + ", " + InboxMessage.UID_ + "));");
@@ -714,11 +777,18 @@ public class InboxAttachment implements ObvDatabase {
             }
             oldVersion = 16;
         }
+        if (oldVersion < 53 && newVersion >= 53) {
+            Logger.d("MIGRATING `inbox_attachment` DATABASE FROM VERSION " + oldVersion + " TO 53");
+            try (Statement statement = session.createStatement()) {
+                statement.execute("ALTER TABLE inbox_attachment ADD COLUMN received_chunks BLOB DEFAULT NULL;");
+            }
+            oldVersion = 53;
+        }
     }
     @Override
     public void insert() throws SQLException {
         try (PreparedStatement statement = fetchManagerSession.session.prepareStatement("InboxAttachment.insert",
-                "INSERT INTO " + TABLE_NAME + " VALUES(?,?,?,?,?, ?,?,?,?,?, ?,?,?,?);")) {
+                "INSERT INTO " + TABLE_NAME + " VALUES(?,?,?,?,?, ?,?,?,?,?, ?,?,?,?,?);")) {
             statement.setBytes(1, ownedIdentity.getBytes());
             statement.setBytes(2, messageUid.getBytes());
             statement.setInt(3, attachmentNumber);
@@ -743,6 +813,7 @@ public class InboxAttachment implements ObvDatabase {
             }
             statement.setBoolean(13, markedForDeletion);
             statement.setString(14, chunkDownloadPrivateUrls);
+            statement.setBytes(15, receivedChunks);
             statement.executeUpdate();
         }
     }
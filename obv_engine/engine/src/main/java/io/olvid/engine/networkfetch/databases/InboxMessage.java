@@ -777,6 +777,7 @@ public class InboxMessage implements ObvDatabase {
 
     public interface InboxMessageListener {
         void messageWasDownloaded(NetworkReceivedMessage networkReceivedMessage);
+        void messagesWereDownloaded(List<NetworkReceivedMessage> networkReceivedMessages);
         void messageDecrypted(InboxMessage inboxMessage, InboxAttachment[] attachments);
     }
 
@@ -793,14 +794,23 @@ public class InboxMessage implements ObvDatabase {
 
     private long commitHookBits = 0;
     private InboxAttachment[] attachmentsToNotify;
+    private List<NetworkReceivedMessage> downloadedMessagesBatch;
     private static final long HOOK_BIT_INSERT = 0x1;
     private static final long HOOK_BIT_PAYLOAD_AND_FROM_IDENTITY_SET = 0x2;
     private static final long HOOK_BIT_EXTENDED_PAYLOAD_SET = 0x4;
 
+    // instead of notifying the listener on commit, add the message to a batch, which the caller passes to messagesWereDownloaded()
+    public void addToDownloadedMessagesBatchOnCommit(List<NetworkReceivedMessage> downloadedMessagesBatch) {
+        this.downloadedMessagesBatch = downloadedMessagesBatch;
+    }
+
     @Override
     public void wasCommitted() {
         if ((commitHookBits & HOOK_BIT_INSERT) != 0) {
-            if (fetchManagerSession.inboxMessageListener != null) {
+            if (downloadedMessagesBatch != null) {
+                downloadedMessagesBatch.add(getNetworkReceivedMessage());
+                downloadedMessagesBatch = null;
+            } else if (fetchManagerSession.inboxMessageListener != null) {
                 fetchManagerSession.inboxMessageListener.messageWasDownloaded(getNetworkReceivedMessage());
             }
         }
@@ -19,17 +19,31 @@
 
 package io.olvid.engine.networkfetch.operations;
 
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.lang.ref.WeakReference;
-import java.sql.SQLException;
+import java.security.InvalidKeyException;
 import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.net.ssl.SSLSocketFactory;
 
 import io.olvid.engine.Logger;
 import io.olvid.engine.crypto.AuthEnc;
 import io.olvid.engine.crypto.Suite;
-import io.olvid.engine.datatypes.Chunk;
-import io.olvid.engine.datatypes.EncryptedBytes;
+import io.olvid.engine.datatypes.ChunkBitmap;
+import io.olvid.engine.datatypes.Constants;
+import io.olvid.engine.datatypes.EngineExecutor;
 import io.olvid.engine.datatypes.EtaEstimator;
 import io.olvid.engine.datatypes.Identity;
 import io.olvid.engine.datatypes.Operation;
@@ -37,8 +51,9 @@ import io.olvid.engine.datatypes.PriorityOperation;
 import io.olvid.engine.datatypes.ServerMethodForS3;
 import io.olvid.engine.datatypes.UID;
 import io.olvid.engine.datatypes.key.symmetric.AuthEncKey;
-import io.olvid.engine.datatypes.notifications.DownloadNotifications;
+import io.olvid.engine.datatypes.notifications.AttachmentProgressNotification;
 import io.olvid.engine.encoder.Encoded;
+import io.olvid.engine.metamanager.NotificationPostingDelegate;
 import io.olvid.engine.networkfetch.coordinators.DownloadAttachmentCoordinator;
 import io.olvid.engine.networkfetch.databases.InboxAttachment;
 import io.olvid.engine.networkfetch.datatypes.FetchManagerSession;
@@ -46,6 +61,8 @@ import io.olvid.engine.networkfetch.datatypes.FetchManagerSessionFactory;
 
 
 public class DownloadAttachmentOperation extends PriorityOperation {
+    private static final int STREAMING_BUFFER_LENGTH = 32_768;
+
     // possible reasons for cancel
     public static final int RFC_NETWORK_ERROR = 1;
     public static final int RFC_INVALID_SIGNED_URL = 2;
@@ -98,8 +115,11 @@ public class DownloadAttachmentOperation extends PriorityOperation {
     public void doExecute() {
         boolean finished = false;
         attachment = null;
-        try (final FetchManagerSession fetchManagerSession = fetchManagerSessionFactory.getSession()) {
-            try {
+        try {
+            final NotificationPostingDelegate notificationPostingDelegate;
+            final boolean ownedIdentityIsActive;
+            // the Session is only held while accessing the database, never during a chunk download
+            try (FetchManagerSession fetchManagerSession = fetchManagerSessionFactory.getSession()) {
                 attachment = InboxAttachment.get(fetchManagerSession, ownedIdentity, messageUid, attachmentNumber);
                 if (attachment == null) {
                     cancel(RFC_ATTACHMENT_CANNOT_BE_FOUND);
@@ -118,139 +138,306 @@ public class DownloadAttachmentOperation extends PriorityOperation {
                     cancel(RFC_FETCH_NOT_REQUESTED);
                     return;
                 }
+                notificationPostingDelegate = fetchManagerSession.notificationPostingDelegate;
+                ownedIdentityIsActive = fetchManagerSession.identityDelegate.isActiveOwnedIdentity(fetchManagerSession.session, ownedIdentity);
+            }
 
-                final EtaEstimator etaEstimator = new EtaEstimator(attachment.getReceivedLength(), attachment.getExpectedLength());
+            finished = downloadChunks(notificationPostingDelegate, ownedIdentityIsActive);
+        } catch (Exception e) {
+            Logger.x(e);
+        } finally {
+            if (finished) {
+                setFinished();
+            } else {
+                if (hasNoReasonForCancel()) {
+                    cancel(null);
+                }
+                processCancel();
+            }
+        }
+    }
 
-                while (attachment.getReceivedLength() != attachment.getExpectedLength()) {
+    // region chunk download pipeline
+
+    // Up to Constants.MAX_IN_FLIGHT_ATTACHMENT_DOWNLOAD_CHUNKS chunks are downloaded in parallel on the EngineExecutor,
+    // each one to its own temporary file. As downloads complete, in whatever order, each chunk is decrypted and written at
+    // its own position in the attachment file. All database and attachment file access stays on this thread, and a
+    // chunk is only written while holding a transaction in which the attachment was checked not to be deleted.
+    // Returns true once all chunks are received, false if the operation was cancelled.
+    private boolean downloadChunks(NotificationPostingDelegate notificationPostingDelegate, boolean ownedIdentityIsActive) throws Exception {
+        final AuthEncKey key = attachment.getKey();
+        final long expectedLength = attachment.getExpectedLength();
+        final int maxInFlightChunks = Math.max(1, Constants.MAX_IN_FLIGHT_ATTACHMENT_DOWNLOAD_CHUNKS);
+
+        final EtaEstimator etaEstimator = new EtaEstimator(attachment.getReceivedLength(), expectedLength);
+        // download threads never touch attachment, they only read this length
+        final AtomicLong receivedLength = new AtomicLong(attachment.getReceivedLength());
+        // bytes received for each chunk currently in flight, used to compute the progress
+        final ConcurrentHashMap<Integer, Long> inFlightByteCounts = new ConcurrentHashMap<>();
+        final LinkedBlockingQueue<ChunkDownloadResult> results = new LinkedBlockingQueue<>();
+        // the chunk tasks which have not yet been handled, so that none is left running when this method exits
+        final HashMap<Integer, Future<?>> inFlightChunks = new HashMap<>();
+
+        ChunkBitmap receivedChunks = attachment.getReceivedChunkBitmap();
+        int nextChunkNumber = receivedChunks.nextUnset(0);
+        Integer failureReason = null;
+        boolean stop = false;
+
+        try {
+            while (true) {
+                if (!stop && attachment.getReceivedLength() != expectedLength) {
                     if (cancelWasRequested()) {
-                        return;
-                    }
-                    if (attachment.isMarkedForDeletion()) {
-                        cancel(RFC_MARKED_FOR_DELETION);
-                        return;
-                    }
-                    if (!attachment.isDownloadRequested()) {
-                        cancel(RFC_DOWNLOAD_PAUSED);
-                        return;
-                    }
-                    if (attachment.isUploadCancelledBySender()) {
-                        cancel(RFC_UPLOAD_CANCELLED_BY_SENDER);
-                        return;
-                    }
-                    String[] downloadUrls = attachment.getChunkDownloadPrivateUrls();
-                    if (downloadUrls.length == 0) {
-                        cancel(RFC_INVALID_SIGNED_URL);
-                        return;
-                    }
-                    // TODO 2026-06-06
-                    //   ==> this can be removed once all inbox attachments have been created using server-API-21-compatible code
-                    if (downloadUrls[attachment.getReceivedChunkCount()].isEmpty()) {
-                        cancel(RFC_UPLOAD_CANCELLED_BY_SENDER);
-                        return;
+                        stop = true;
+                    } else if (attachment.isMarkedForDeletion()) {
+                        failureReason = RFC_MARKED_FOR_DELETION;
+                        stop = true;
+                    } else if (!attachment.isDownloadRequested()) {
+                        failureReason = RFC_DOWNLOAD_PAUSED;
+                        stop = true;
+                    } else if (attachment.isUploadCancelledBySender()) {
+                        failureReason = RFC_UPLOAD_CANCELLED_BY_SENDER;
+                        stop = true;
+                    } else if (nextChunkNumber != -1 && inFlightChunks.size() < maxInFlightChunks) {
+                        String[] downloadUrls = attachment.getChunkDownloadPrivateUrls();
+                        if (downloadUrls.length == 0) {
+                            failureReason = RFC_INVALID_SIGNED_URL;
+                            stop = true;
+                        } else if (downloadUrls[nextChunkNumber].isEmpty()) {
+                            // TODO 2026-06-06
+                            //   ==> this can be removed once all inbox attachments have been created using server-API-21-compatible code
+                            failureReason = RFC_UPLOAD_CANCELLED_BY_SENDER;
+                            stop = true;
+                        } else {
+                            final int chunkNumber = nextChunkNumber;
+                            final String url = downloadUrls[chunkNumber];
+                            final long expectedChunkLength = attachment.getChunkEncryptedLength(chunkNumber);
+                            final File temporaryFile = attachment.getChunkTemporaryFile(chunkNumber);
+                            final boolean identityIsActive = ownedIdentityIsActive;
+                            nextChunkNumber = receivedChunks.nextUnset(chunkNumber + 1);
+                            inFlightByteCounts.put(chunkNumber, 0L);
+                            inFlightChunks.put(chunkNumber, EngineExecutor.submit(() -> {
+                                ChunkDownloadResult result = null;
+                                try {
+                                    DownloadAttachmentServerMethodForS3 serverMethod = new DownloadAttachmentServerMethodForS3(url, temporaryFile, key);
+                                    serverMethod.setSslSocketFactory(sslSocketFactory, userAgentOverride);
+                                    serverMethod.setProgressListener(150, byteCount -> {
+                                        inFlightByteCounts.put(chunkNumber, byteCount);
+                                        long currentLength = receivedLength.get();
+                                        for (Long inFlightByteCount : inFlightByteCounts.values()) {
+                                            currentLength += inFlightByteCount;
+                                        }
+                                        etaEstimator.update(currentLength);
+                                        EtaEstimator.SpeedAndEta speedAndEta = etaEstimator.getSpeedAndEta();
+                                        notificationPostingDelegate.postNotification(AttachmentProgressNotification.download(ownedIdentity, messageUid, attachmentNumber, (float) currentLength / expectedLength, speedAndEta.speedBps, speedAndEta.etaSeconds));
+                                    });
+                                    byte returnStatus = serverMethod.execute(identityIsActive);
+                                    if (returnStatus != ServerMethodForS3.OK) {
+                                        result = new ChunkDownloadResult(chunkNumber, rfcFromReturnStatus(returnStatus));
+                                    } else if (serverMethod.getReceivedLength() != expectedChunkLength) {
+                                        result = new ChunkDownloadResult(chunkNumber, RFC_INVALID_CHUNK);
+                                    } else if (!serverMethod.isMacVerified()) {
+                                        result = new ChunkDownloadResult(chunkNumber, RFC_DECRYPTION_ERROR);
+                                    } else {
+                                        // the temporary file is kept, it is decrypted to the attachment file by the operation thread
+                                        result = new ChunkDownloadResult(chunkNumber, temporaryFile, (int) expectedChunkLength);
+                                    }
+                                } catch (Exception e) {
+                                    Logger.x(e);
+                                    result = new ChunkDownloadResult(chunkNumber, RFC_NETWORK_ERROR);
+                                } finally {
+                                    if (result == null || result.temporaryFile == null) {
+                                        //noinspection ResultOfMethodCallIgnored
+                                        temporaryFile.delete();
+                                    }
+                                    if (result != null) {
+                                        results.add(result);
+                                    }
+                                }
+                            }));
+                            continue;
+                        }
                     }
+                }
 
-                    DownloadAttachmentServerMethodForS3 serverMethod = new DownloadAttachmentServerMethodForS3(
-                            downloadUrls[attachment.getReceivedChunkCount()]
-                    );
-                    serverMethod.setSslSocketFactory(sslSocketFactory, userAgentOverride);
-                    serverMethod.setProgressListener(150, new ServerMethodForS3.ServerMethodForS3ProgressListener() {
-                        final HashMap<String, Object> userInfo;
-                        {
-                            userInfo = new HashMap<>();
-                            userInfo.put(DownloadNotifications.NOTIFICATION_ATTACHMENT_DOWNLOAD_PROGRESS_OWNED_IDENTITY_KEY, ownedIdentity);
-                            userInfo.put(DownloadNotifications.NOTIFICATION_ATTACHMENT_DOWNLOAD_PROGRESS_MESSAGE_UID_KEY, messageUid);
-                            userInfo.put(DownloadNotifications.NOTIFICATION_ATTACHMENT_DOWNLOAD_PROGRESS_ATTACHMENT_NUMBER_KEY, attachmentNumber);
-                        }
+                if (inFlightChunks.isEmpty()) {
+                    break;
+                }
 
-                        @Override
-                        public void onProgress(long byteCount) {
-                            float progress = (float) (attachment.getReceivedLength() + byteCount) / attachment.getExpectedLength();
-                            userInfo.put(DownloadNotifications.NOTIFICATION_ATTACHMENT_DOWNLOAD_PROGRESS_PROGRESS_KEY, progress);
-                            etaEstimator.update(attachment.getReceivedLength() + byteCount);
-                            EtaEstimator.SpeedAndEta speedAndEta = etaEstimator.getSpeedAndEta();
-                            userInfo.put(DownloadNotifications.NOTIFICATION_ATTACHMENT_DOWNLOAD_PROGRESS_SPEED_BPS_KEY, speedAndEta.speedBps);
-                            userInfo.put(DownloadNotifications.NOTIFICATION_ATTACHMENT_DOWNLOAD_PROGRESS_ETA_SECONDS_KEY, speedAndEta.etaSeconds);
-                            fetchManagerSession.notificationPostingDelegate.postNotification(DownloadNotifications.NOTIFICATION_ATTACHMENT_DOWNLOAD_PROGRESS, userInfo);
+                // wait for a download to complete
+                ChunkDownloadResult result = results.take();
+                inFlightChunks.remove(result.chunkNumber);
+                inFlightByteCounts.remove(result.chunkNumber);
+                try {
+                    if (result.failureReason != null) {
+                        // stop requesting new chunks, but wait for the chunks in flight
+                        if (failureReason == null) {
+                            failureReason = result.failureReason;
                         }
-                    });
-
-                    byte returnStatus = serverMethod.execute(fetchManagerSession.identityDelegate.isActiveOwnedIdentity(fetchManagerSession.session, ownedIdentity));
-
-                    fetchManagerSession.session.startTransaction();
-                    switch (returnStatus) {
-                        case ServerMethodForS3.OK:
-                            EncryptedBytes encryptedChunk = serverMethod.getEncryptedChunk();
-                            Chunk attachmentChunk;
-                            if (encryptedChunk.length != attachment.getChunkLength() &&
-                                    attachment.getReceivedLength() + encryptedChunk.length != attachment.getExpectedLength()) {
-                                cancel(RFC_INVALID_CHUNK);
-                                return;
-                            }
-                            try {
-                                AuthEncKey key = attachment.getKey();
-                                AuthEnc authEnc = Suite.getAuthEnc(key);
-                                Encoded encodedChunk = new Encoded(authEnc.decrypt(key, encryptedChunk));
-                                attachmentChunk = Chunk.of(encodedChunk);
-                            } catch (Exception e) {
-                                cancel(RFC_DECRYPTION_ERROR);
-                                return;
-                            }
-                            if (attachmentChunk.getChunkNumber() != attachment.getReceivedChunkCount()) {
-                                cancel(RFC_INVALID_CHUNK);
-                                return;
-                            }
-                            boolean success = attachment.writeToAttachmentFile(attachmentChunk.getData(), encryptedChunk.length);
-                            if (! success) {
-                                cancel(RFC_UNABLE_TO_WRITE_CHUNK_TO_FILE);
-                                return;
+                        stop = true;
+                        continue;
+                    }
+
+                    try (FetchManagerSession fetchManagerSession = fetchManagerSessionFactory.getSession()) {
+                        // the attachment is re-read within the transaction: it cannot be marked for deletion while the
+                        // chunk is written, and a chunk received after the deletion is never written
+                        fetchManagerSession.session.startTransaction();
+                        InboxAttachment refreshedAttachment = InboxAttachment.get(fetchManagerSession, ownedIdentity, messageUid, attachmentNumber);
+                        if (refreshedAttachment == null) {
+                            fetchManagerSession.session.rollback();
+                            if (failureReason == null) {
+                                failureReason = RFC_ATTACHMENT_CANNOT_BE_FOUND;
                             }
-                            fetchManagerSession.session.commit();
-                            DownloadAttachmentCoordinator coordinator = coordinatorWeakReference.get();
-                            if (coordinator != null) {
-                                coordinator.resetFailedAttemptCount(ownedIdentity, messageUid, attachmentNumber);
+                            stop = true;
+                            continue;
+                        }
+                        attachment = refreshedAttachment;
+                        this.priority = attachment.getPriority();
+                        if (attachment.isMarkedForDeletion()) {
+                            fetchManagerSession.session.rollback();
+                            continue;
+                        }
+
+                        Integer writeFailureReason = decryptChunk(key, result.chunkNumber, result.encryptedLength, result.temporaryFile, attachment.getAttachmentFile(), attachment.getChunkPlaintextOffset(result.chunkNumber));
+                        if (writeFailureReason != null || !attachment.markChunkReceived(result.chunkNumber, result.encryptedLength, decryptedChunkDataLength(key, result.encryptedLength))) {
+                            fetchManagerSession.session.rollback();
+                            if (failureReason == null) {
+                                failureReason = (writeFailureReason != null) ? writeFailureReason : RFC_UNABLE_TO_WRITE_CHUNK_TO_FILE;
                             }
-                            break;
-                        case ServerMethodForS3.INVALID_SIGNED_URL:
-                            cancel(RFC_INVALID_SIGNED_URL);
-                            return;
-                        case ServerMethodForS3.NOT_FOUND:
-                            cancel(RFC_NOT_FOUND_ON_SERVER);
-                            return;
-                        case ServerMethodForS3.IDENTITY_IS_NOT_ACTIVE:
-                            cancel(RFC_IDENTITY_IS_INACTIVE);
-                            return;
-                        default:
-                            cancel(RFC_NETWORK_ERROR);
-                            return;
+                            stop = true;
+                            continue;
+                        }
+                        fetchManagerSession.session.commit();
+                        ownedIdentityIsActive = fetchManagerSession.identityDelegate.isActiveOwnedIdentity(fetchManagerSession.session, ownedIdentity);
+                    }
+                    receivedChunks.set(result.chunkNumber);
+                    receivedLength.set(attachment.getReceivedLength());
+                    DownloadAttachmentCoordinator coordinator = coordinatorWeakReference.get();
+                    if (coordinator != null) {
+                        coordinator.resetFailedAttemptCount(ownedIdentity, messageUid, attachmentNumber);
+                    }
+                } finally {
+                    if (result.temporaryFile != null) {
+                        //noinspection ResultOfMethodCallIgnored
+                        result.temporaryFile.delete();
                     }
-
-                    // refresh the object in memory to check for externally requested cancel
-                    attachment = InboxAttachment.get(fetchManagerSession, ownedIdentity, messageUid, attachmentNumber);
-                    this.priority = attachment.getPriority();
                 }
-                finished = true;
+            }
+        } finally {
+            // only reached with chunks in flight if an exception was thrown
+            EngineExecutor.awaitAll(inFlightChunks.values());
+            for (ChunkDownloadResult result : results) {
+                if (result.temporaryFile != null) {
+                    //noinspection ResultOfMethodCallIgnored
+                    result.temporaryFile.delete();
+                }
+            }
+        }
+
+        if (failureReason != null) {
+            cancel(failureReason);
+            return false;
+        }
+        if (cancelWasRequested()) {
+            return false;
+        }
+        if (attachment.getReceivedLength() != expectedLength) {
+            // all chunks were received, but their lengths do not add up
+            cancel(RFC_INVALID_CHUNK);
+            return false;
+        }
+        return true;
+    }
+
+    private static Integer rfcFromReturnStatus(byte returnStatus) {
+        switch (returnStatus) {
+            case ServerMethodForS3.INVALID_SIGNED_URL:
+                return RFC_INVALID_SIGNED_URL;
+            case ServerMethodForS3.NOT_FOUND:
+                return RFC_NOT_FOUND_ON_SERVER;
+            case ServerMethodForS3.IDENTITY_IS_NOT_ACTIVE:
+                return RFC_IDENTITY_IS_INACTIVE;
+            default:
+                return RFC_NETWORK_ERROR;
+        }
+    }
+
+    // The ciphertext of the chunk was saved to the temporary file and its MAC verified while it was being received: it is
+    // decrypted again from the temporary file, through a single small buffer, and its data written at its position in the
+    // attachment file. Chunks may be written in any order. Returns null on success, or the reason for cancel.
+    static Integer decryptChunk(AuthEncKey key, int expectedChunkNumber, long expectedChunkLength, File temporaryFile, File attachmentFile, long plaintextOffset) {
+        AuthEnc authEnc = Suite.getAuthEnc(key);
+        int encodedChunkLength = authEnc.plaintextLengthFromCiphertextLength((int) expectedChunkLength);
+        byte[] buffer = new byte[STREAMING_BUFFER_LENGTH];
+        try (InputStream plaintext = authEnc.getDecryptingInputStream(key, new FileInputStream(temporaryFile), expectedChunkLength)) {
+            long chunkNumber;
+            try {
+                readFully(plaintext, buffer, Encoded.CHUNK_HEADER_LENGTH);
+                chunkNumber = Encoded.decodeChunkHeader(buffer, 0, encodedChunkLength);
             } catch (Exception e) {
-                Logger.x(e);
-                fetchManagerSession.session.rollback();
-            } finally {
-                if (finished) {
-                    fetchManagerSession.session.commit();
-                    setFinished();
-                } else {
-                    fetchManagerSession.session.rollback();
-                    if (hasNoReasonForCancel()) {
-                        cancel(null);
+                return RFC_DECRYPTION_ERROR;
+            }
+            if (chunkNumber != expectedChunkNumber) {
+                return RFC_INVALID_CHUNK;
+            }
+
+            int dataLength = encodedChunkLength - Encoded.CHUNK_HEADER_LENGTH;
+            try (RandomAccessFile f = new RandomAccessFile(attachmentFile, "rw")) {
+                f.seek(plaintextOffset);
+                int written = 0;
+                while (written < dataLength) {
+                    int count = plaintext.read(buffer, 0, Math.min(buffer.length, dataLength - written));
+                    if (count < 0) {
+                        throw new EOFException();
                     }
-                    processCancel();
+                    f.write(buffer, 0, count);
+                    written += count;
                 }
             }
-        } catch (SQLException e) {
+            return null;
+        } catch (Exception e) {
             Logger.x(e);
-            cancel(null);
-            processCancel();
+            return RFC_UNABLE_TO_WRITE_CHUNK_TO_FILE;
         }
     }
 
+    static int decryptedChunkDataLength(AuthEncKey key, long encryptedChunkLength) {
+        return Suite.getAuthEnc(key).plaintextLengthFromCiphertextLength((int) encryptedChunkLength) - Encoded.CHUNK_HEADER_LENGTH;
+    }
+
+    private static void readFully(InputStream inputStream, byte[] buffer, int length) throws IOException {
+        int read = 0;
+        while (read < length) {
+            int count = inputStream.read(buffer, read, length - read);
+            if (count < 0) {
+                throw new EOFException();
+            }
+            read += count;
+        }
+    }
+
+    private static final class ChunkDownloadResult {
+        final int chunkNumber;
+        final Integer failureReason;
+        final File temporaryFile; // the verified ciphertext of the chunk, null on failure
+        final int encryptedLength;
+
+        ChunkDownloadResult(int chunkNumber, File temporaryFile, int encryptedLength) {
+            this.chunkNumber = chunkNumber;
+            this.failureReason = null;
+            this.temporaryFile = temporaryFile;
+            this.encryptedLength = encryptedLength;
+        }
+
+        ChunkDownloadResult(int chunkNumber, Integer failureReason) {
+            this.chunkNumber = chunkNumber;
+            this.failureReason = failureReason;
+            this.temporaryFile = null;
+            this.encryptedLength = 0;
+        }
+    }
+
+    // endregion
+
     @Override
     public long getPriority() {
         return priority;
@@ -275,15 +462,28 @@ public class DownloadAttachmentOperation extends PriorityOperation {
 
 class DownloadAttachmentServerMethodForS3 extends ServerMethodForS3 {
     private final String url;
+    private final File temporaryFile;
+    private final AuthEncKey key;
+    private AuthEnc.StreamingVerifier verifier;
+    private long receivedLength;
 
-    private EncryptedBytes encryptedChunk;
+    // the received ciphertext is written to temporaryFile, and its MAC computed on the fly
+    DownloadAttachmentServerMethodForS3(String url, File temporaryFile, AuthEncKey key) {
+        this.url = url;
+        this.temporaryFile = temporaryFile;
+        this.key = key;
+    }
 
-    public EncryptedBytes getEncryptedChunk() {
-        return encryptedChunk;
+    public File getTemporaryFile() {
+        return temporaryFile;
     }
 
-    DownloadAttachmentServerMethodForS3(String url) {
-        this.url = url;
+    public long getReceivedLength() {
+        return receivedLength;
+    }
+
+    public boolean isMacVerified() {
+        return verifier != null && verifier.verify();
     }
 
     @Override
@@ -296,9 +496,32 @@ class DownloadAttachmentServerMethodForS3 extends ServerMethodForS3 {
         return new byte[0];
     }
 
+    @Override
+    protected OutputStream openReceivedDataOutput() throws IOException {
+        try {
+            verifier = Suite.getAuthEnc(key).getStreamingVerifier(key);
+        } catch (InvalidKeyException e) {
+            throw new IOException(e);
+        }
+        receivedLength = 0;
+        return new FilterOutputStream(new FileOutputStream(temporaryFile)) {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                verifier.update(b, off, len);
+                receivedLength += len;
+                out.write(b, off, len);
+            }
+        };
+    }
+
     @Override
     protected void handleReceivedData(byte[] receivedData) {
-        encryptedChunk = new EncryptedBytes(receivedData);
+        // data is received through openReceivedDataOutput()
     }
 
     @Override
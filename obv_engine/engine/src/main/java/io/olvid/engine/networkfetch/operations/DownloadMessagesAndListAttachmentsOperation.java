@@ -37,6 +37,7 @@ import io.olvid.engine.datatypes.Operation;
 import io.olvid.engine.datatypes.PriorityOperation;
 import io.olvid.engine.datatypes.ServerMethod;
 import io.olvid.engine.datatypes.UID;
+import io.olvid.engine.datatypes.containers.NetworkReceivedMessage;
 import io.olvid.engine.datatypes.notifications.DownloadNotifications;
 import io.olvid.engine.encoder.DecodingException;
 import io.olvid.engine.encoder.Encoded;
@@ -114,6 +115,8 @@ public class DownloadMessagesAndListAttachmentsOperation extends PriorityOperati
     @Override
     public void doExecute() {
         boolean finished = false;
+        // messages inserted in this listing, passed all at once to the InboxMessageListener for batch decryption after commit
+        List<NetworkReceivedMessage> downloadedMessages = new ArrayList<>();
         try (FetchManagerSession fetchManagerSession = fetchManagerSessionFactory.getSession()) {
             try {
                 byte[] serverSessionToken = ServerSession.getToken(fetchManagerSession, ownedIdentity);
@@ -172,6 +175,7 @@ public class DownloadMessagesAndListAttachmentsOperation extends PriorityOperati
                                 if (message == null) {
                                     continue;
                                 }
+                                message.addToDownloadedMessagesBatchOnCommit(downloadedMessages);
                                 count++;
 
                                 for (int i = 0; i < messageAndAttachmentLengths.attachmentLengths.length; i++) {
@@ -239,6 +243,9 @@ public class DownloadMessagesAndListAttachmentsOperation extends PriorityOperati
             } finally {
                 if (finished) {
                     fetchManagerSession.session.commit();
+                    if (!downloadedMessages.isEmpty() && fetchManagerSession.inboxMessageListener != null) {
+                        fetchManagerSession.inboxMessageListener.messagesWereDownloaded(downloadedMessages);
+                    }
                     setFinished();
                 } else {
                     if (hasNoReasonForCancel()) {
@@ -35,12 +35,14 @@ import io.olvid.engine.crypto.AuthEnc;
 import io.olvid.engine.crypto.Hash;
 import io.olvid.engine.crypto.Suite;
 import io.olvid.engine.datatypes.Chunk;
+import io.olvid.engine.datatypes.ChunkBitmap;
 import io.olvid.engine.datatypes.Constants;
 import io.olvid.engine.datatypes.Identity;
 import io.olvid.engine.datatypes.ObvDatabase;
 import io.olvid.engine.datatypes.Session;
 import io.olvid.engine.datatypes.UID;
 import io.olvid.engine.datatypes.key.symmetric.AuthEncKey;
+import io.olvid.engine.datatypes.notifications.AttachmentProgressNotification;
 import io.olvid.engine.datatypes.notifications.UploadNotifications;
 import io.olvid.engine.encoder.DecodingException;
 import io.olvid.engine.encoder.Encoded;
@@ -75,6 +77,8 @@ public class OutboxAttachment implements ObvDatabase {
     static final String CANCEL_EXTERNALLY_REQUESTED = "cancel_externally_requested";
     private String chunkUploadPrivateUrls;
     static final String CHUNK_UPLOAD_PRIVATE_URLS = "chunk_upload_private_urls";
+    private byte[] acknowledgedChunks; // ChunkBitmap bytes, null if the first acknowledgedChunkCount chunks are the acknowledged ones
+    static final String ACKNOWLEDGED_CHUNKS = "acknowledged_chunks";
 
     public Identity getOwnedIdentity() {
         return ownedIdentity;
@@ -112,6 +116,10 @@ public class OutboxAttachment implements ObvDatabase {
         return acknowledged;
     }
 
+    public ChunkBitmap getAcknowledgedChunkBitmap() {
+        return new ChunkBitmap(getNumberOfChunks(), acknowledgedChunks, acknowledgedChunkCount);
+    }
+
     public int getCiphertextChunkLength() {
         return ciphertextChunkLength;
     }
@@ -219,6 +227,42 @@ public class OutboxAttachment implements ObvDatabase {
     }
 
 
+    // chunks may be acknowledged in any order
+    public void setChunkAcknowledged(int chunkNumber) throws SQLException {
+        ChunkBitmap chunkBitmap = getAcknowledgedChunkBitmap();
+        if (!chunkBitmap.set(chunkNumber)) {
+            return;
+        }
+
+        byte[] bitmapBytes = chunkBitmap.getBytes();
+        try (PreparedStatement statement = sendManagerSession.session.prepareStatement("OutboxAttachment.setChunkAcknowledged",
+                "UPDATE " + TABLE_NAME + " SET " +
+                ACKNOWLEDGED_CHUNKS + " = ?, " +
+                ACKNOWLEDGED_CHUNK_COUNT + " = ?, " +
+                ACKNOWLEDGED + " = ? " +
+                " WHERE " + OWNED_IDENTITY + " = ? " +
+                " AND " + MESSAGE_UID + " = ? " +
+                " AND " + ATTACHMENT_NUMBER + " = ?;")) {
+            statement.setBytes(1, bitmapBytes);
+            statement.setInt(2, chunkBitmap.getCount());
+            statement.setBoolean(3, chunkBitmap.isComplete());
+            statement.setBytes(4, ownedIdentity.getBytes());
+            statement.setBytes(5, messageUid.getBytes());
+            statement.setInt(6, attachmentNumber);
+            statement.executeUpdate();
+            this.acknowledgedChunks = bitmapBytes;
+            this.acknowledgedChunkCount = chunkBitmap.getCount();
+            if (chunkBitmap.isComplete()) {
+                this.acknowledged = true;
+                commitHookBits |= HOOK_BIT_FINISHED;
+            } else {
+                commitHookBits |= HOOK_BIT_PROGRESS;
+            }
+            sendManagerSession.session.addSessionCommitListener(this);
+        }
+    }
+
+    // marks the first acknowledgedChunkCount chunks as acknowledged, and forgets about any other acknowledged chunk
     public void setAcknowledgedChunkCount(int acknowledgedChunkCount) {
         if (acknowledgedChunkCount < this.acknowledgedChunkCount) {
             return;
@@ -234,7 +278,8 @@ public class OutboxAttachment implements ObvDatabase {
             commitHookBits |= HOOK_BIT_FINISHED;
             sendManagerSession.session.addSessionCommitListener(this);
         }
-        sqlQueryString += ACKNOWLEDGED_CHUNK_COUNT + " = ? " +
+        sqlQueryString += ACKNOWLEDGED_CHUNKS + " = NULL, " +
+                ACKNOWLEDGED_CHUNK_COUNT + " = ? " +
                 " WHERE " + OWNED_IDENTITY + " = ? " +
                 " AND " + MESSAGE_UID + " = ? " +
                 " AND " + ATTACHMENT_NUMBER + " = ?;";
@@ -249,6 +294,7 @@ public class OutboxAttachment implements ObvDatabase {
                 this.acknowledged = true;
             }
             this.acknowledgedChunkCount = acknowledgedChunkCount;
+            this.acknowledgedChunks = null;
         } catch (SQLException e) {
             Logger.x(e);
         }
@@ -316,6 +362,7 @@ public class OutboxAttachment implements ObvDatabase {
         this.ciphertextChunkLength = (int) Math.min(Integer.MAX_VALUE, Math.max(attachmentLength / 100 + 41, Constants.DEFAULT_ATTACHMENT_CHUNK_LENGTH)); // the + 41 is here to compensate for encryption overhead
         this.cancelExternallyRequested = false;
         this.chunkUploadPrivateUrls = null;
+        this.acknowledgedChunks = null;
     }
 
     private OutboxAttachment(SendManagerSession sendManagerSession, ResultSet res) throws SQLException {
@@ -340,6 +387,7 @@ public class OutboxAttachment implements ObvDatabase {
         this.ciphertextChunkLength = res.getInt(CIPHERTEXT_CHUNK_LENGTH);
         this.cancelExternallyRequested = res.getBoolean(CANCEL_EXTERNALLY_REQUESTED);
         this.chunkUploadPrivateUrls = res.getString(CHUNK_UPLOAD_PRIVATE_URLS);
+        this.acknowledgedChunks = res.getBytes(ACKNOWLEDGED_CHUNKS);
     }
 
     // endregion
@@ -360,6 +408,7 @@ public class OutboxAttachment implements ObvDatabase {
                     CIPHERTEXT_CHUNK_LENGTH + " INT NOT NULL, " +
                     CANCEL_EXTERNALLY_REQUESTED + " BIT NOT NULL, " +
                     CHUNK_UPLOAD_PRIVATE_URLS + " TEXT, " +
+                    ACKNOWLEDGED_CHUNKS + " BLOB DEFAULT NULL, " +
                     "CONSTRAINT PK_" + TABLE_NAME + " PRIMARY KEY(" + OWNED_IDENTITY + ", " + MESSAGE_UID + ", " + ATTACHMENT_NUMBER + "), " +
                     "FOREIGN KEY (" + OWNED_IDENTITY + ", " + MESSAGE_UID + ") REFERENCES " + OutboxMessage.TABLE_NAME + "(" + OutboxMessage.OWNED_IDENTITY + ", " + OutboxMessage.UID_ + "));");
         }
@@ -426,12 +475,19 @@ public class OutboxAttachment implements ObvDatabase {
             }
             oldVersion = 16;
         }
+        if (oldVersion < 52 && newVersion >= 52) {
+            Logger.d("MIGRATING `outbox_attachment` DATABASE FROM VERSION " + oldVersion + " TO 52");
+            try (Statement statement = session.createStatement()) {
+                statement.execute("ALTER TABLE outbox_attachment ADD COLUMN acknowledged_chunks BLOB DEFAULT NULL");
+            }
+            oldVersion = 52;
+        }
     }
 
     @Override
     public void insert() throws SQLException {
         try (PreparedStatement statement = sendManagerSession.session.prepareStatement("OutboxAttachment.insert",
-                "INSERT INTO " + TABLE_NAME + " VALUES (?,?,?,?,?, ?,?,?,?,?, ?,?);")) {
+                "INSERT INTO " + TABLE_NAME + " VALUES (?,?,?,?,?, ?,?,?,?,?, ?,?,?);")) {
             statement.setBytes(1, ownedIdentity.getBytes());
             statement.setBytes(2, messageUid.getBytes());
             statement.setInt(3, attachmentNumber);
@@ -446,6 +502,7 @@ public class OutboxAttachment implements ObvDatabase {
 
             statement.setBoolean(11, cancelExternallyRequested);
             statement.setString(12, chunkUploadPrivateUrls);
+            statement.setBytes(13, acknowledgedChunks);
             statement.executeUpdate();
         }
     }
@@ -566,13 +623,8 @@ public class OutboxAttachment implements ObvDatabase {
                 sendManagerSession.notificationPostingDelegate.postNotification(UploadNotifications.NOTIFICATION_ATTACHMENT_UPLOAD_FINISHED, userInfo);
             }
         } else if ((commitHookBits & HOOK_BIT_PROGRESS) != 0) { // Only send a progress notification when upload is not finished
-            HashMap<String, Object> userInfo = new HashMap<>();
-            userInfo.put(UploadNotifications.NOTIFICATION_ATTACHMENT_UPLOAD_PROGRESS_OWNED_IDENTITY_KEY, ownedIdentity);
-            userInfo.put(UploadNotifications.NOTIFICATION_ATTACHMENT_UPLOAD_PROGRESS_MESSAGE_UID_KEY, messageUid);
-            userInfo.put(UploadNotifications.NOTIFICATION_ATTACHMENT_UPLOAD_PROGRESS_ATTACHMENT_NUMBER_KEY, attachmentNumber);
-            userInfo.put(UploadNotifications.NOTIFICATION_ATTACHMENT_UPLOAD_PROGRESS_PROGRESS_KEY, ((float) acknowledgedChunkCount*ciphertextChunkLength)/getCiphertextLength());
             if (sendManagerSession.notificationPostingDelegate != null) {
-                sendManagerSession.notificationPostingDelegate.postNotification(UploadNotifications.NOTIFICATION_ATTACHMENT_UPLOAD_PROGRESS, userInfo);
+                sendManagerSession.notificationPostingDelegate.postNotification(AttachmentProgressNotification.upload(ownedIdentity, messageUid, attachmentNumber, ((float) acknowledgedChunkCount*ciphertextChunkLength)/getCiphertextLength(), null, null));
             }
         } else if ((commitHookBits & HOOK_BIT_CANCEL_REQUESTED) != 0) {
             HashMap<String, Object> userInfo = new HashMap<>();
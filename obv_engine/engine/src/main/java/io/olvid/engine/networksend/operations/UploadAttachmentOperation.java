@@ -19,28 +19,38 @@
 
 package io.olvid.engine.networksend.operations;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.RandomAccessFile;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.lang.ref.WeakReference;
 import java.sql.SQLException;
 import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.net.ssl.SSLSocketFactory;
 
 import io.olvid.engine.Logger;
-import io.olvid.engine.crypto.AuthEnc;
 import io.olvid.engine.crypto.PRNG;
 import io.olvid.engine.crypto.PRNGService;
 import io.olvid.engine.crypto.Suite;
-import io.olvid.engine.datatypes.EncryptedBytes;
+import io.olvid.engine.datatypes.ChunkBitmap;
+import io.olvid.engine.datatypes.Constants;
+import io.olvid.engine.datatypes.EngineExecutor;
 import io.olvid.engine.datatypes.EtaEstimator;
 import io.olvid.engine.datatypes.Identity;
 import io.olvid.engine.datatypes.PriorityOperation;
 import io.olvid.engine.datatypes.ServerMethodForS3;
 import io.olvid.engine.datatypes.UID;
-import io.olvid.engine.datatypes.notifications.UploadNotifications;
+import io.olvid.engine.datatypes.key.symmetric.AuthEncKey;
+import io.olvid.engine.datatypes.notifications.AttachmentProgressNotification;
 import io.olvid.engine.encoder.Encoded;
+import io.olvid.engine.metamanager.NotificationPostingDelegate;
 import io.olvid.engine.networksend.coordinators.SendAttachmentCoordinator;
 import io.olvid.engine.networksend.databases.OutboxAttachment;
 import io.olvid.engine.networksend.databases.OutboxMessage;
@@ -92,8 +102,12 @@ public class UploadAttachmentOperation extends PriorityOperation {
     @Override
     public void doExecute() {
         boolean finished = false;
-        try (final SendManagerSession sendManagerSession = sendManagerSessionFactory.getSession()) {
-            try {
+        try {
+            final File attachmentFile;
+            final NotificationPostingDelegate notificationPostingDelegate;
+            final boolean ownedIdentityIsActive;
+            // the Session is only held while accessing the database, never during a chunk upload
+            try (SendManagerSession sendManagerSession = sendManagerSessionFactory.getSession()) {
                 final OutboxMessage outboxMessage;
                 try {
                     outboxAttachment = OutboxAttachment.get(sendManagerSession, ownedIdentity, messageUid, attachmentNumber);
@@ -116,128 +130,176 @@ public class UploadAttachmentOperation extends PriorityOperation {
                 }
 
 
-                try (final RandomAccessFile f = new RandomAccessFile(new File(sendManagerSession.engineBaseDirectory, outboxAttachment.getUrl()), "r")) {
-                    final int cleartextChunkLength = outboxAttachment.getCleartextChunkLength();
-                    byte[] buffer = new byte[cleartextChunkLength];
-
-                    long cleartextOffset = (long) outboxAttachment.getAcknowledgedChunkCount() * cleartextChunkLength;
-                    f.seek(cleartextOffset);
-
-                    AuthEnc authEnc = Suite.getAuthEnc(outboxAttachment.getKey());
-                    PRNGService prng = Suite.getPRNGService(PRNG.PRNG_HMAC_SHA256);
-
-                    final EtaEstimator etaEstimator = new EtaEstimator((long) outboxAttachment.getCiphertextChunkLength() * (long) outboxAttachment.getAcknowledgedChunkCount(), outboxAttachment.getCiphertextLength());
+                attachmentFile = new File(sendManagerSession.engineBaseDirectory, outboxAttachment.getUrl());
+                if (!attachmentFile.isFile() || !attachmentFile.canRead()) {
+                    Logger.w("Attachment not found");
+                    cancel(UploadAttachmentCompositeOperation.RFC_ATTACHMENT_FILE_NOT_READABLE);
+                    return;
+                }
+                notificationPostingDelegate = sendManagerSession.notificationPostingDelegate;
+                ownedIdentityIsActive = sendManagerSession.identityDelegate.isActiveOwnedIdentity(sendManagerSession.session, ownedIdentity);
+            }
 
-                    while (outboxAttachment != null && !outboxAttachment.isAcknowledged()) {
-                        if (cancelWasRequested()) {
-                            return;
-                        }
+            finished = uploadChunks(attachmentFile, notificationPostingDelegate, ownedIdentityIsActive);
+        } catch (Exception e) {
+            Logger.x(e);
+        } finally {
+            if (finished) {
+                setFinished();
+            } else {
+                if (hasNoReasonForCancel()) {
+                    cancel(null);
+                }
+                processCancel();
+            }
+        }
+    }
 
-                        if (outboxAttachment.isCancelExternallyRequested()) {
-                            finished = true;
-                            return;
-                        }
-                        if (outboxAttachment.getChunkUploadPrivateUrls().length == 0) {
-                            cancel(UploadAttachmentCompositeOperation.RFC_INVALID_SIGNED_URL);
-                            return;
-                        }
+    // region chunk upload pipeline
+
+    // Up to Constants.MAX_IN_FLIGHT_ATTACHMENT_UPLOAD_CHUNKS chunks are uploaded in parallel on the EngineExecutor. Each
+    // chunk is read from the file and encrypted while it is being sent, so a chunk is never held in memory. Chunks may
+    // complete in any order: each one is marked as acknowledged (and committed) as soon as its upload succeeds. All
+    // database access stays on this thread, and a Session is only held while marking a chunk.
+    // Returns true if the upload is finished (or cancelled externally), false if the operation was cancelled.
+    private boolean uploadChunks(File attachmentFile, NotificationPostingDelegate notificationPostingDelegate, boolean ownedIdentityIsActive) throws Exception {
+        final int cleartextChunkLength = outboxAttachment.getCleartextChunkLength();
+        final long ciphertextChunkLength = outboxAttachment.getCiphertextChunkLength();
+        final long attachmentLength = outboxAttachment.getAttachmentLength();
+        final long totalLength = outboxAttachment.getCiphertextLength();
+        final AuthEncKey key = outboxAttachment.getKey();
+        final PRNGService prng = Suite.getPRNGService(PRNG.PRNG_HMAC_SHA256);
+        final int maxInFlightChunks = Math.max(1, Constants.MAX_IN_FLIGHT_ATTACHMENT_UPLOAD_CHUNKS);
+
+        final EtaEstimator etaEstimator = new EtaEstimator(ciphertextChunkLength * outboxAttachment.getAcknowledgedChunkCount(), totalLength);
+        // upload threads never touch outboxAttachment, they only read this count
+        final AtomicInteger acknowledgedChunkCount = new AtomicInteger(outboxAttachment.getAcknowledgedChunkCount());
+        // bytes sent for each chunk currently in flight, used to compute the progress
+        final ConcurrentHashMap<Integer, Long> inFlightByteCounts = new ConcurrentHashMap<>();
+        final LinkedBlockingQueue<ChunkUploadResult> results = new LinkedBlockingQueue<>();
+        // the chunk tasks which have not yet been handled, so that none is left running when this method exits
+        final HashMap<Integer, Future<?>> inFlightChunks = new HashMap<>();
+
+        ChunkBitmap acknowledgedChunks = outboxAttachment.getAcknowledgedChunkBitmap();
+        int nextChunkNumber = acknowledgedChunks.nextUnset(0);
+        Byte failureStatus = null;
+        boolean stop = false;
+
+        try {
+            while (true) {
+                if (!stop) {
+                    if (cancelWasRequested()) {
+                        stop = true;
+                    } else if (outboxAttachment == null || outboxAttachment.isAcknowledged() || outboxAttachment.isCancelExternallyRequested()) {
+                        stop = true;
+                    } else if (outboxAttachment.getChunkUploadPrivateUrls().length == 0) {
+                        failureStatus = ServerMethodForS3.INVALID_SIGNED_URL;
+                        stop = true;
+                    }
+                }
 
-                        int bufferFullness = 0;
-                        while (bufferFullness < buffer.length) {
-                            int count = f.read(buffer, bufferFullness, buffer.length - bufferFullness);
-                            if (count < 0) {
-                                break;
-                            }
-                            bufferFullness += count;
-                        }
-                        int chunkNumber = outboxAttachment.getAcknowledgedChunkCount();
-
-                        UploadAttachmentServerMethodForS3 serverMethod = new UploadAttachmentServerMethodForS3(
-                                outboxAttachment.getChunkUploadPrivateUrls()[chunkNumber],
-                                authEnc.encrypt(outboxAttachment.getKey(), Encoded.encodeChunk(chunkNumber, buffer, bufferFullness), prng));
-                        serverMethod.setSslSocketFactory(sslSocketFactory, userAgentOverride);
-
-                        serverMethod.setProgressListener(150, new ServerMethodForS3.ServerMethodForS3ProgressListener() {
-                            final HashMap<String, Object> userInfo;
-                            final long totalLength;
-                            final long chunkLength;
-                            {
-                                userInfo = new HashMap<>();
-                                userInfo.put(UploadNotifications.NOTIFICATION_ATTACHMENT_UPLOAD_PROGRESS_OWNED_IDENTITY_KEY, ownedIdentity);
-                                userInfo.put(UploadNotifications.NOTIFICATION_ATTACHMENT_UPLOAD_PROGRESS_MESSAGE_UID_KEY, messageUid);
-                                userInfo.put(UploadNotifications.NOTIFICATION_ATTACHMENT_UPLOAD_PROGRESS_ATTACHMENT_NUMBER_KEY, attachmentNumber);
-                                totalLength = outboxAttachment.getCiphertextLength();
-                                chunkLength = outboxAttachment.getCiphertextChunkLength();
-                            }
-
-                            @Override
-                            public void onProgress(long byteCount) {
-                                float progress = (float) (outboxAttachment.getAcknowledgedChunkCount()*chunkLength + byteCount)/totalLength;
-                                userInfo.put(UploadNotifications.NOTIFICATION_ATTACHMENT_UPLOAD_PROGRESS_PROGRESS_KEY, progress);
-                                etaEstimator.update(outboxAttachment.getAcknowledgedChunkCount()*chunkLength + byteCount);
-                                EtaEstimator.SpeedAndEta speedAndEta = etaEstimator.getSpeedAndEta();
-                                userInfo.put(UploadNotifications.NOTIFICATION_ATTACHMENT_UPLOAD_PROGRESS_SPEED_BPS_KEY, speedAndEta.speedBps);
-                                userInfo.put(UploadNotifications.NOTIFICATION_ATTACHMENT_UPLOAD_PROGRESS_ETA_SECONDS_KEY, speedAndEta.etaSeconds);
-                                sendManagerSession.notificationPostingDelegate.postNotification(UploadNotifications.NOTIFICATION_ATTACHMENT_UPLOAD_PROGRESS, userInfo);
-                            }
-                        });
-                        byte returnStatus = serverMethod.execute(sendManagerSession.identityDelegate.isActiveOwnedIdentity(sendManagerSession.session, ownedIdentity));
-
-                        switch (returnStatus) {
-                            case ServerMethodForS3.OK:
-                                SendAttachmentCoordinator coordinator = coordinatorWeakReference.get();
-                                if (coordinator != null) {
-                                    coordinator.resetFailedAttemptCount(ownedIdentity, messageUid, attachmentNumber);
+                if (!stop && nextChunkNumber != -1 && inFlightChunks.size() < maxInFlightChunks) {
+                    final int chunkNumber = nextChunkNumber;
+                    final long plaintextOffset = (long) chunkNumber * cleartextChunkLength;
+                    final int dataLength = (int) Math.min(cleartextChunkLength, attachmentLength - plaintextOffset);
+                    final String url = outboxAttachment.getChunkUploadPrivateUrls()[chunkNumber];
+                    final boolean identityIsActive = ownedIdentityIsActive;
+                    nextChunkNumber = acknowledgedChunks.nextUnset(chunkNumber + 1);
+                    inFlightByteCounts.put(chunkNumber, 0L);
+                    inFlightChunks.put(chunkNumber, EngineExecutor.submit(() -> {
+                        byte returnStatus = ServerMethodForS3.GENERAL_ERROR;
+                        try {
+                            UploadAttachmentServerMethodForS3 serverMethod = new UploadAttachmentServerMethodForS3(url, attachmentFile, key, prng, chunkNumber, plaintextOffset, dataLength);
+                            serverMethod.setSslSocketFactory(sslSocketFactory, userAgentOverride);
+                            serverMethod.setProgressListener(150, byteCount -> {
+                                inFlightByteCounts.put(chunkNumber, byteCount);
+                                long sentByteCount = ciphertextChunkLength * acknowledgedChunkCount.get();
+                                for (Long inFlightByteCount : inFlightByteCounts.values()) {
+                                    sentByteCount += inFlightByteCount;
                                 }
-                                outboxAttachment.setAcknowledgedChunkCount(chunkNumber+1);
-                                sendManagerSession.session.commit();
-                                break;
-                            case ServerMethodForS3.GENERAL_ERROR:
-                                cancel(null);
-                                return;
-                            case ServerMethodForS3.INVALID_SIGNED_URL:
-                                cancel(UploadAttachmentCompositeOperation.RFC_INVALID_SIGNED_URL);
-                                return;
-                            case ServerMethodForS3.IDENTITY_IS_NOT_ACTIVE:
-                                cancel(UploadAttachmentCompositeOperation.RFC_IDENTITY_IS_INACTIVE);
-                                return;
-                            default:
-                                cancel(UploadAttachmentCompositeOperation.RFC_NETWORK_ERROR);
-                                return;
+                                etaEstimator.update(sentByteCount);
+                                EtaEstimator.SpeedAndEta speedAndEta = etaEstimator.getSpeedAndEta();
+                                notificationPostingDelegate.postNotification(AttachmentProgressNotification.upload(ownedIdentity, messageUid, attachmentNumber, (float) sentByteCount / totalLength, speedAndEta.speedBps, speedAndEta.etaSeconds));
+                            });
+                            returnStatus = serverMethod.execute(identityIsActive);
+                        } catch (Exception e) {
+                            Logger.x(e);
+                        } finally {
+                            results.add(new ChunkUploadResult(chunkNumber, returnStatus));
                         }
+                    }));
+                    continue;
+                }
+
+                if (inFlightChunks.isEmpty()) {
+                    break;
+                }
 
-                        // refresh the object in memory to check for externally requested cancel
+                // wait for an upload to complete
+                ChunkUploadResult result = results.take();
+                inFlightChunks.remove(result.chunkNumber);
+                inFlightByteCounts.remove(result.chunkNumber);
+                if (result.returnStatus == ServerMethodForS3.OK) {
+                    SendAttachmentCoordinator coordinator = coordinatorWeakReference.get();
+                    if (coordinator != null) {
+                        coordinator.resetFailedAttemptCount(ownedIdentity, messageUid, attachmentNumber);
+                    }
+                    try (SendManagerSession sendManagerSession = sendManagerSessionFactory.getSession()) {
+                        // the attachment is read again to check for externally requested cancel
                         outboxAttachment = OutboxAttachment.get(sendManagerSession, ownedIdentity, messageUid, attachmentNumber);
                         if (outboxAttachment != null) {
+                            outboxAttachment.setChunkAcknowledged(result.chunkNumber);
+                            sendManagerSession.session.commit();
                             this.priority = outboxAttachment.getPriority();
                         }
+                        ownedIdentityIsActive = sendManagerSession.identityDelegate.isActiveOwnedIdentity(sendManagerSession.session, ownedIdentity);
                     }
-                    finished = true;
-                } catch (FileNotFoundException e) {
-                    Logger.w("Attachment not found");
-                    cancel(UploadAttachmentCompositeOperation.RFC_ATTACHMENT_FILE_NOT_READABLE);
-                    return;
-                }
-            } catch (Exception e) {
-                Logger.x(e);
-            } finally {
-                if (finished) {
-                    sendManagerSession.session.commit();
-                    setFinished();
-                } else {
-                    if (hasNoReasonForCancel()) {
-                        cancel(null);
+                    if (acknowledgedChunks.set(result.chunkNumber)) {
+                        acknowledgedChunkCount.incrementAndGet();
                     }
-                    processCancel();
+                } else if (failureStatus == null) {
+                    // stop sending new chunks, but wait for the chunks in flight
+                    failureStatus = result.returnStatus;
+                    stop = true;
                 }
             }
-        } catch (SQLException e) {
-            Logger.x(e);
-            cancel(null);
-            processCancel();
+        } finally {
+            // only reached with chunks in flight if an exception was thrown
+            EngineExecutor.awaitAll(inFlightChunks.values());
+        }
+
+        if (failureStatus != null) {
+            switch (failureStatus) {
+                case ServerMethodForS3.GENERAL_ERROR:
+                    cancel(null);
+                    break;
+                case ServerMethodForS3.INVALID_SIGNED_URL:
+                    cancel(UploadAttachmentCompositeOperation.RFC_INVALID_SIGNED_URL);
+                    break;
+                case ServerMethodForS3.IDENTITY_IS_NOT_ACTIVE:
+                    cancel(UploadAttachmentCompositeOperation.RFC_IDENTITY_IS_INACTIVE);
+                    break;
+                default:
+                    cancel(UploadAttachmentCompositeOperation.RFC_NETWORK_ERROR);
+                    break;
+            }
+            return false;
+        }
+        return !cancelWasRequested();
+    }
+
+    private static final class ChunkUploadResult {
+        final int chunkNumber;
+        final byte returnStatus;
+
+        ChunkUploadResult(int chunkNumber, byte returnStatus) {
+            this.chunkNumber = chunkNumber;
+            this.returnStatus = returnStatus;
         }
     }
 
+    // endregion
+
     @Override
     public long getPriority() {
         return priority;
@@ -246,11 +308,22 @@ public class UploadAttachmentOperation extends PriorityOperation {
 
 class UploadAttachmentServerMethodForS3 extends ServerMethodForS3 {
     private final String url;
-    private final EncryptedBytes encryptedAttachmentChunk;
-
-    UploadAttachmentServerMethodForS3(String url, EncryptedBytes encryptedAttachmentChunk) {
+    private final File attachmentFile;
+    private final AuthEncKey key;
+    private final PRNG prng;
+    private final int chunkNumber;
+    private final long plaintextOffset;
+    private final int dataLength;
+
+    // the chunk is dataLength bytes of the attachment file, starting at plaintextOffset
+    UploadAttachmentServerMethodForS3(String url, File attachmentFile, AuthEncKey key, PRNG prng, int chunkNumber, long plaintextOffset, int dataLength) {
         this.url = url;
-        this.encryptedAttachmentChunk = encryptedAttachmentChunk;
+        this.attachmentFile = attachmentFile;
+        this.key = key;
+        this.prng = prng;
+        this.chunkNumber = chunkNumber;
+        this.plaintextOffset = plaintextOffset;
+        this.dataLength = dataLength;
     }
 
 
@@ -261,7 +334,28 @@ class UploadAttachmentServerMethodForS3 extends ServerMethodForS3 {
 
     @Override
     protected byte[] getDataToSend() {
-        return encryptedAttachmentChunk.getBytes();
+        return null;
+    }
+
+    // the encoded chunk header, then the chunk data read from the file, encrypted on the fly
+    @Override
+    protected InputStream openDataToSend() throws IOException {
+        byte[] header = new byte[Encoded.CHUNK_HEADER_LENGTH];
+        Encoded.encodeChunkHeader(chunkNumber, dataLength, header, 0);
+        FileInputStream fileInputStream = new FileInputStream(attachmentFile);
+        try {
+            fileInputStream.getChannel().position(plaintextOffset);
+            InputStream plaintext = new SequenceInputStream(new ByteArrayInputStream(header), fileInputStream);
+            return Suite.getAuthEnc(key).getEncryptingInputStream(key, plaintext, Encoded.CHUNK_HEADER_LENGTH + dataLength, prng);
+        } catch (Exception e) {
+            fileInputStream.close();
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    protected long getDataToSendLength() {
+        return Suite.getAuthEnc(key).ciphertextLengthFromPlaintextLength(Encoded.CHUNK_HEADER_LENGTH + dataLength);
     }
 
     @Override
@@ -278,4 +372,4 @@ class UploadAttachmentServerMethodForS3 extends ServerMethodForS3 {
     protected boolean isActiveIdentityRequired() {
         return true;
     }
-}
\ No newline at end of file
+}
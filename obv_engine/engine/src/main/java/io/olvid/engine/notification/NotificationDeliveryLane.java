@@ -0,0 +1,130 @@
+/*
+ *  Olvid for Android
+ *  Copyright © 2019-2026 Olvid SAS
+ *
+ *  This file is part of Olvid for Android.
+ *
+ *  Olvid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License, version 3,
+ *  as published by the Free Software Foundation.
+ *
+ *  Olvid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with Olvid.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.olvid.engine.notification;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import io.olvid.engine.Logger;
+import io.olvid.engine.datatypes.NotificationListener;
+import io.olvid.engine.datatypes.TypedNotification;
+
+// Delivers the notifications of one async listener, in order, on a thread of its own. A slow listener only delays its
+// own lane, and posting never blocks: posters may be holding a database lock the listener needs.
+//  - TypedNotifications with a coalescing key replace the pending notification with the same key instead of being queued
+//  - once MAX_PENDING_NOTIFICATIONS are waiting, a notification identical to a pending one is coalesced with it, and
+//    any other notification is dropped
+class NotificationDeliveryLane {
+    static final int MAX_PENDING_NOTIFICATIONS = 1_000;
+
+    private final ArrayDeque<PendingNotification> pendingNotifications;
+    private final HashMap<Object, PendingNotification> pendingNotificationsByCoalescingKey;
+    private boolean draining;
+    private long droppedNotificationCount;
+
+    NotificationDeliveryLane() {
+        this.pendingNotifications = new ArrayDeque<>();
+        this.pendingNotificationsByCoalescingKey = new HashMap<>();
+        this.draining = false;
+        this.droppedNotificationCount = 0;
+    }
+
+    void post(NotificationListener listener, String notificationName, Map<String, Object> userInfo, TypedNotification typedNotification) {
+        Object coalescingKey = (typedNotification == null) ? null : typedNotification.getCoalescingKey();
+        synchronized (pendingNotifications) {
+            if (coalescingKey != null) {
+                PendingNotification pendingNotification = pendingNotificationsByCoalescingKey.get(coalescingKey);
+                if (pendingNotification != null) {
+                    pendingNotification.typedNotification = typedNotification;
+                    return;
+                }
+            }
+            if (pendingNotifications.size() >= MAX_PENDING_NOTIFICATIONS) {
+                // only scanned when the lane is full, which should never happen with a listener keeping up
+                for (PendingNotification pendingNotification : pendingNotifications) {
+                    if (pendingNotification.isIdenticalTo(listener, notificationName, userInfo, typedNotification)) {
+                        return;
+                    }
+                }
+                droppedNotificationCount++;
+                Logger.w("NotificationDeliveryLane full, dropping " + notificationName + " (" + droppedNotificationCount + " dropped so far)");
+                return;
+            }
+            PendingNotification pendingNotification = new PendingNotification(listener, notificationName, userInfo, typedNotification, coalescingKey);
+            pendingNotifications.add(pendingNotification);
+            if (coalescingKey != null) {
+                pendingNotificationsByCoalescingKey.put(coalescingKey, pendingNotification);
+            }
+            if (!draining) {
+                draining = true;
+                Thread thread = new Thread(this::drain, "Notification-lane");
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            PendingNotification pendingNotification;
+            synchronized (pendingNotifications) {
+                pendingNotification = pendingNotifications.poll();
+                if (pendingNotification == null) {
+                    draining = false;
+                    return;
+                }
+                if (pendingNotification.coalescingKey != null) {
+                    pendingNotificationsByCoalescingKey.remove(pendingNotification.coalescingKey);
+                }
+            }
+            try {
+                NotificationManager.deliver(pendingNotification.listener, pendingNotification.notificationName, pendingNotification.userInfo, pendingNotification.typedNotification);
+            } catch (Throwable e) {
+                // a failing listener must not stop the lane: draining would remain true and the lane would stall
+                Logger.x(e);
+            }
+        }
+    }
+
+    private static class PendingNotification {
+        final NotificationListener listener;
+        final String notificationName;
+        final Map<String, Object> userInfo;
+        final Object coalescingKey;
+        TypedNotification typedNotification; // replaced when coalescing, guarded by the lane lock
+
+        PendingNotification(NotificationListener listener, String notificationName, Map<String, Object> userInfo, TypedNotification typedNotification, Object coalescingKey) {
+            this.listener = listener;
+            this.notificationName = notificationName;
+            this.userInfo = userInfo;
+            this.typedNotification = typedNotification;
+            this.coalescingKey = coalescingKey;
+        }
+
+        boolean isIdenticalTo(NotificationListener listener, String notificationName, Map<String, Object> userInfo, TypedNotification typedNotification) {
+            return this.listener == listener
+                    && this.notificationName.equals(notificationName)
+                    && Objects.equals(this.userInfo, userInfo)
+                    && Objects.equals(this.typedNotification, typedNotification);
+        }
+    }
+}
@@ -20,12 +20,15 @@
 package io.olvid.engine.notification;
 
 import java.lang.ref.WeakReference;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.ReentrantLock;
 
 import io.olvid.engine.Logger;
 import io.olvid.engine.datatypes.NotificationListener;
+import io.olvid.engine.datatypes.TypedNotification;
+import io.olvid.engine.datatypes.TypedNotificationListener;
 import io.olvid.engine.metamanager.MetaManager;
 import io.olvid.engine.metamanager.NotificationListeningDelegate;
 import io.olvid.engine.metamanager.NotificationPostingDelegate;
@@ -34,12 +37,15 @@ import io.olvid.engine.metamanager.ObvManager;
 
 public class NotificationManager implements NotificationListeningDelegate, NotificationPostingDelegate, ObvManager {
     private long instanceCounter;
-    private final HashMap<String, HashMap<Long, WeakReference<NotificationListener>>> listeners;
+    // copy-on-write: the arrays are never modified, adding or removing a listener replaces the array (under the listenersLock)
+    private final ConcurrentHashMap<String, ListenerRegistration[]> listeners;
+    private final WeakHashMap<NotificationListener, NotificationDeliveryLane> deliveryLanes;
     private final ReentrantLock listenersLock;
 
     public NotificationManager(MetaManager metaManager) {
         this.instanceCounter = 0;
-        this.listeners = new HashMap<>();
+        this.listeners = new ConcurrentHashMap<>();
+        this.deliveryLanes = new WeakHashMap<>();
         this.listenersLock = new ReentrantLock();
 
         metaManager.registerImplementedDelegates(this);
@@ -68,15 +74,36 @@ public class NotificationManager implements NotificationListeningDelegate, Notif
 
     @Override
     public long addListener(String notificationName, NotificationListener notificationListener) {
+        return addListener(notificationName, notificationListener, false);
+    }
+
+    @Override
+    public long addAsyncListener(String notificationName, NotificationListener notificationListener) {
+        return addListener(notificationName, notificationListener, true);
+    }
+
+    private long addListener(String notificationName, NotificationListener notificationListener, boolean async) {
         listenersLock.lock();
         long listenerNumber = getInstanceNumber();
-        HashMap<Long, WeakReference<NotificationListener>> notificationObservers = listeners.get(notificationName);
+        NotificationDeliveryLane deliveryLane = null;
+        if (async) {
+            // a single lane per listener, so that it receives all its notifications in order
+            deliveryLane = deliveryLanes.get(notificationListener);
+            if (deliveryLane == null) {
+                deliveryLane = new NotificationDeliveryLane();
+                deliveryLanes.put(notificationListener, deliveryLane);
+            }
+        }
+        ListenerRegistration[] notificationObservers = listeners.get(notificationName);
+        ListenerRegistration[] newNotificationObservers;
         if (notificationObservers == null) {
-            notificationObservers = new HashMap<>();
-            listeners.put(notificationName, notificationObservers);
+            newNotificationObservers = new ListenerRegistration[1];
+        } else {
+            newNotificationObservers = new ListenerRegistration[notificationObservers.length + 1];
+            System.arraycopy(notificationObservers, 0, newNotificationObservers, 0, notificationObservers.length);
         }
-        WeakReference<NotificationListener> weakReference = new WeakReference<>(notificationListener);
-        notificationObservers.put(listenerNumber, weakReference);
+        newNotificationObservers[newNotificationObservers.length - 1] = new ListenerRegistration(listenerNumber, new WeakReference<>(notificationListener), deliveryLane);
+        listeners.put(notificationName, newNotificationObservers);
         listenersLock.unlock();
         return listenerNumber;
     }
@@ -84,9 +111,23 @@ public class NotificationManager implements NotificationListeningDelegate, Notif
     @Override
     public void removeListener(String notificationName, long notificationListenerNumber) {
         listenersLock.lock();
-        HashMap<Long, WeakReference<NotificationListener>> notificationObservers = listeners.get(notificationName);
+        ListenerRegistration[] notificationObservers = listeners.get(notificationName);
         if (notificationObservers != null) {
-            notificationObservers.remove(notificationListenerNumber);
+            int count = 0;
+            ListenerRegistration[] newNotificationObservers = new ListenerRegistration[notificationObservers.length];
+            for (ListenerRegistration registration : notificationObservers) {
+                if (registration.listenerNumber != notificationListenerNumber) {
+                    newNotificationObservers[count] = registration;
+                    count++;
+                }
+            }
+            if (count == 0) {
+                listeners.remove(notificationName);
+            } else if (count != notificationObservers.length) {
+                ListenerRegistration[] trimmed = new ListenerRegistration[count];
+                System.arraycopy(newNotificationObservers, 0, trimmed, 0, count);
+                listeners.put(notificationName, trimmed);
+            }
         }
         listenersLock.unlock();
     }
@@ -100,29 +141,72 @@ public class NotificationManager implements NotificationListeningDelegate, Notif
     @Override
     public void postNotification(String notificationName, Map<String, Object> userInfo) {
         Logger.d("Posting notification with name " + notificationName);
-        listenersLock.lock();
-        HashMap<Long, WeakReference<NotificationListener>> notificationObservers = listeners.get(notificationName);
+        ListenerRegistration[] notificationObservers = listeners.get(notificationName);
         if (notificationObservers != null) {
-            notificationObservers = new HashMap<>(notificationObservers); // we clone the HashMap to make sure that, even outside the lock, we can iterate on the HashMap
-            listenersLock.unlock();
-            for (HashMap.Entry<Long, WeakReference<NotificationListener>> entry: notificationObservers.entrySet()) {
-                NotificationListener listener = entry.getValue().get();
+            for (ListenerRegistration registration : notificationObservers) {
+                NotificationListener listener = registration.listener.get();
                 if (listener == null) {
                     // remove the listener
-                    removeListener(notificationName, entry.getKey());
+                    removeListener(notificationName, registration.listenerNumber);
+                } else if (registration.deliveryLane != null) {
+                    registration.deliveryLane.post(listener, notificationName, userInfo, null);
                 } else {
                     // call callback method
-                    try {
-                        listener.callback(notificationName, userInfo);
-                    } catch (Exception e) {
-                        Logger.x(e);
+                    deliver(listener, notificationName, userInfo, null);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void postNotification(TypedNotification notification) {
+        String notificationName = notification.getNotificationName();
+        Logger.d("Posting notification with name " + notificationName);
+        ListenerRegistration[] notificationObservers = listeners.get(notificationName);
+        if (notificationObservers != null) {
+            // the userInfo is only built if a synchronous listener needs it, and then shared between these listeners
+            Map<String, Object> userInfo = null;
+            for (ListenerRegistration registration : notificationObservers) {
+                NotificationListener listener = registration.listener.get();
+                if (listener == null) {
+                    removeListener(notificationName, registration.listenerNumber);
+                } else if (registration.deliveryLane != null) {
+                    registration.deliveryLane.post(listener, notificationName, null, notification);
+                } else {
+                    if (userInfo == null && !(listener instanceof TypedNotificationListener)) {
+                        userInfo = notification.toUserInfo();
                     }
+                    deliver(listener, notificationName, userInfo, notification);
                 }
             }
-        } else {
-            listenersLock.unlock();
+        }
+    }
+
+    static void deliver(NotificationListener listener, String notificationName, Map<String, Object> userInfo, TypedNotification typedNotification) {
+        try {
+            if (typedNotification == null) {
+                listener.callback(notificationName, userInfo);
+            } else if (listener instanceof TypedNotificationListener) {
+                ((TypedNotificationListener) listener).typedCallback(typedNotification);
+            } else {
+                listener.callback(notificationName, (userInfo != null) ? userInfo : typedNotification.toUserInfo());
+            }
+        } catch (Exception e) {
+            Logger.x(e);
         }
     }
 
     // endregion
+
+    private static class ListenerRegistration {
+        final long listenerNumber;
+        final WeakReference<NotificationListener> listener;
+        final NotificationDeliveryLane deliveryLane; // null for synchronous listeners
+
+        ListenerRegistration(long listenerNumber, WeakReference<NotificationListener> listener, NotificationDeliveryLane deliveryLane) {
+            this.listenerNumber = listenerNumber;
+            this.listener = listener;
+            this.deliveryLane = deliveryLane;
+        }
+    }
 }
@@ -54,6 +54,7 @@ import io.olvid.engine.datatypes.key.asymmetric.ServerAuthenticationPrivateKey;
 import io.olvid.engine.datatypes.key.asymmetric.ServerAuthenticationPublicKey;
 import io.olvid.engine.datatypes.key.symmetric.MACKey;
 import io.olvid.engine.datatypes.notifications.IdentityNotifications;
+import io.olvid.engine.engine.types.EngineProtocolStepStatisticsEntry;
 import io.olvid.engine.engine.types.JsonGroupDetailsWithVersionAndPhoto;
 import io.olvid.engine.engine.types.JsonIdentityDetailsWithVersionAndPhoto;
 import io.olvid.engine.engine.types.ObvCapability;
@@ -224,6 +225,10 @@ public class ProtocolManager implements ProtocolDelegate, ProtocolStarterDelegat
         protocolStepCoordinator.startProcessing();
     }
 
+    public Map<Integer, EngineProtocolStepStatisticsEntry> getProtocolStepStatistics() {
+        return protocolStepCoordinator.getProtocolStepStatistics();
+    }
+
 
 
 //    private void triggerOwnedDevicesSync() {
@@ -24,9 +24,13 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 
 import java.sql.SQLException;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 
 import io.olvid.engine.Logger;
 import io.olvid.engine.crypto.PRNGService;
+import io.olvid.engine.datatypes.Constants;
 import io.olvid.engine.datatypes.Identity;
 import io.olvid.engine.datatypes.NoDuplicatePriorityOperationQueue;
 import io.olvid.engine.datatypes.Operation;
@@ -34,6 +38,7 @@ import io.olvid.engine.datatypes.UID;
 import io.olvid.engine.datatypes.containers.ChannelMessageToSend;
 import io.olvid.engine.datatypes.containers.DialogType;
 import io.olvid.engine.datatypes.containers.SendChannelInfo;
+import io.olvid.engine.engine.types.EngineProtocolStepStatisticsEntry;
 import io.olvid.engine.protocol.databases.ReceivedMessage;
 import io.olvid.engine.protocol.datatypes.CoreProtocolMessage;
 import io.olvid.engine.protocol.datatypes.ProtocolManagerSession;
@@ -47,25 +52,59 @@ public class ProtocolStepCoordinator implements ProtocolReceivedMessageProcessor
     private final PRNGService prng;
     private final ObjectMapper jsonObjectMapper;
 
-    private final NoDuplicatePriorityOperationQueue protocolOperationQueue;
-    private final HashMap<UID, Integer> stepFailedAttemptCount;
+    // Steps of different protocol instances are independent: they are dispatched to several queues (shards), and the
+    // steps of a given protocol instance always go to the same shard, so they are still executed one at a time, in order.
+    private final NoDuplicatePriorityOperationQueue[] protocolOperationQueues;
+    private final ConcurrentHashMap<UID, Integer> stepFailedAttemptCount;
+    private final ConcurrentHashMap<Integer, EngineProtocolStepStatisticsEntry> protocolStepStatistics; // protocolId -> statistics
 
     public ProtocolStepCoordinator(ProtocolManagerSessionFactory protocolManagerSessionFactory, PRNGService prng, ObjectMapper jsonObjectMapper) {
         this.protocolManagerSessionFactory = protocolManagerSessionFactory;
         this.prng = prng;
         this.jsonObjectMapper = jsonObjectMapper;
 
-        protocolOperationQueue = new NoDuplicatePriorityOperationQueue();
-        stepFailedAttemptCount = new HashMap<>();
+        protocolOperationQueues = new NoDuplicatePriorityOperationQueue[Constants.PROTOCOL_STEP_COORDINATOR_SHARD_COUNT];
+        for (int i=0; i<protocolOperationQueues.length; i++) {
+            protocolOperationQueues[i] = new NoDuplicatePriorityOperationQueue();
+        }
+        stepFailedAttemptCount = new ConcurrentHashMap<>();
+        protocolStepStatistics = new ConcurrentHashMap<>();
     }
 
     public void startProcessing() {
-        protocolOperationQueue.execute(1, "Engine-ProtocolStepCoordinator");
+        for (int i=0; i<protocolOperationQueues.length; i++) {
+            protocolOperationQueues[i].execute(1, "Engine-ProtocolStepCoordinator-" + i);
+        }
     }
 
-    private void queueNewProtocolOperation(UID receivedMessageUid, int protocolId, int failedAttemptsCount) {
+    private void queueNewProtocolOperation(UID receivedMessageUid, int protocolId, Identity protocolOwnedIdentity, UID protocolInstanceUid, int failedAttemptsCount) {
         ProtocolOperation op = new ProtocolOperation(protocolManagerSessionFactory, receivedMessageUid, protocolId, failedAttemptsCount, prng, jsonObjectMapper, this, this);
-        protocolOperationQueue.queue(op);
+        NoDuplicatePriorityOperationQueue shard = getShard(protocolOwnedIdentity, protocolInstanceUid);
+        int queueDepth = shard.size();
+        shard.queue(op);
+        protocolStepStatistics.compute(protocolId, (Integer key, EngineProtocolStepStatisticsEntry entry) -> (entry == null ? EngineProtocolStepStatisticsEntry.create() : entry).incrementQueued(queueDepth));
+    }
+
+    private NoDuplicatePriorityOperationQueue getShard(Identity protocolOwnedIdentity, UID protocolInstanceUid) {
+        if (protocolOwnedIdentity == null || protocolInstanceUid == null) {
+            return protocolOperationQueues[0];
+        }
+        return protocolOperationQueues[Math.floorMod(Objects.hash(protocolOwnedIdentity, protocolInstanceUid), protocolOperationQueues.length)];
+    }
+
+    private void recordStepStatistics(ProtocolOperation protocolOperation, boolean failed) {
+        long executionStartTime = protocolOperation.getExecutionStartTime();
+        if (executionStartTime == 0) {
+            // the operation was cancelled before being executed
+            return;
+        }
+        long waitTimeMicro = Math.max(0, executionStartTime - protocolOperation.getCreationTime()) * 1000;
+        long executionTimeMicro = Math.max(0, System.currentTimeMillis() - executionStartTime) * 1000;
+        protocolStepStatistics.compute(protocolOperation.getProtocolId(), (Integer key, EngineProtocolStepStatisticsEntry entry) -> (entry == null ? EngineProtocolStepStatisticsEntry.create() : entry).incrementExecuted(waitTimeMicro, executionTimeMicro, failed));
+    }
+
+    public Map<Integer, EngineProtocolStepStatisticsEntry> getProtocolStepStatistics() {
+        return protocolStepStatistics;
     }
 
     public void initialQueueing() {
@@ -78,7 +117,7 @@ public class ProtocolStepCoordinator implements ProtocolReceivedMessageProcessor
             if (receivedMessages.length > 0) {
                 Logger.i("Found " + receivedMessages.length + " ReceivedMessage to (attempt to) process.");
                 for (ReceivedMessage receivedMessage : receivedMessages) {
-                    queueNewProtocolOperation(receivedMessage.getUid(), receivedMessage.getProtocolId(), 0);
+                    queueNewProtocolOperation(receivedMessage.getUid(), receivedMessage.getProtocolId(), receivedMessage.getToIdentity(), receivedMessage.getProtocolInstanceUid(), 0);
                 }
             }
             protocolManagerSession.session.commit();
@@ -88,14 +127,15 @@ public class ProtocolStepCoordinator implements ProtocolReceivedMessageProcessor
     }
 
     @Override
-    public void processReceivedMessage(UID messageUid, int protocolId) {
-        queueNewProtocolOperation(messageUid, protocolId, 0);
+    public void processReceivedMessage(UID messageUid, int protocolId, Identity protocolOwnedIdentity, UID protocolInstanceUid) {
+        queueNewProtocolOperation(messageUid, protocolId, protocolOwnedIdentity, protocolInstanceUid, 0);
     }
 
     @Override
     public void onFinishCallback(Operation operation) {
         Logger.d("Running onFinishCallback for " + operation.getClass());
         ProtocolOperation protocolOperation = (ProtocolOperation) operation;
+        recordStepStatistics(protocolOperation, false);
         UID protocolInstanceUid = protocolOperation.getProtocolInstanceUid();
         Identity protocolOwnedIdentity = protocolOperation.getProtocolOwnedIdentity();
         if ((protocolInstanceUid == null) || (protocolOwnedIdentity == null)) {
@@ -104,7 +144,7 @@ public class ProtocolStepCoordinator implements ProtocolReceivedMessageProcessor
         }
         try (ProtocolManagerSession protocolManagerSession = protocolManagerSessionFactory.getSession()){
             for (ReceivedMessage receivedMessage : ReceivedMessage.getAll(protocolManagerSession, protocolInstanceUid, protocolOwnedIdentity)) {
-                protocolManagerSession.protocolReceivedMessageProcessorDelegate.processReceivedMessage(receivedMessage.getUid(), receivedMessage.getProtocolId());
+                protocolManagerSession.protocolReceivedMessageProcessorDelegate.processReceivedMessage(receivedMessage.getUid(), receivedMessage.getProtocolId(), receivedMessage.getToIdentity(), receivedMessage.getProtocolInstanceUid());
             }
         } catch (SQLException e) {
             Logger.x(e);
@@ -114,6 +154,7 @@ public class ProtocolStepCoordinator implements ProtocolReceivedMessageProcessor
     @Override
     public void onCancelCallback(Operation operation) {
         Logger.d("Running onCancelCallback for " + operation.getClass());
+        recordStepStatistics((ProtocolOperation) operation, true);
         if (operation.hasNoReasonForCancel()) {
             return;
         }
@@ -144,10 +185,15 @@ public class ProtocolStepCoordinator implements ProtocolReceivedMessageProcessor
                 } else {
                     // retry to execute the step
                     stepFailedAttemptCount.put(messageUid, failedAttempts);
-                    queueNewProtocolOperation(messageUid, protocolId, failedAttempts);
+                    queueNewProtocolOperation(messageUid, protocolId, ((ProtocolOperation) operation).getProtocolOwnedIdentity(), ((ProtocolOperation) operation).getProtocolInstanceUid(), failedAttempts);
                 }
                 break;
             }
+            case ProtocolOperation.RFC_PROTOCOL_CHANGED_BEFORE_TRANSACTION: {
+                // the protocol instance was modified outside of a step, run the step again from the new state
+                queueNewProtocolOperation(((ProtocolOperation) operation).getReceivedMessageUid(), ((ProtocolOperation) operation).getProtocolId(), ((ProtocolOperation) operation).getProtocolOwnedIdentity(), ((ProtocolOperation) operation).getProtocolInstanceUid(), ((ProtocolOperation) operation).getFailedAttempts());
+                break;
+            }
             case ProtocolOperation.RFC_UNABLE_TO_RECONSTRUCT_MESSAGE:
             case ProtocolOperation.RFC_UNABLE_TO_RECONSTRUCT_PROTOCOL: {
                 // Delete the protocol message
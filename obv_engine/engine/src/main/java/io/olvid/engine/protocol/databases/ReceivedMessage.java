@@ -402,7 +402,7 @@ public class ReceivedMessage implements ObvDatabase {
     public void wasCommitted() {
         if ((commitHookBits & HOOK_BIT_INSERTED) != 0) {
             if (protocolManagerSession.protocolReceivedMessageProcessorDelegate != null) {
-                protocolManagerSession.protocolReceivedMessageProcessorDelegate.processReceivedMessage(uid, protocolId);
+                protocolManagerSession.protocolReceivedMessageProcessorDelegate.processReceivedMessage(uid, protocolId, toIdentity, protocolInstanceUid);
             }
         }
         commitHookBits = 0;
@@ -26,6 +26,7 @@ import io.olvid.engine.datatypes.containers.ChannelProtocolMessageToSend;
 import io.olvid.engine.datatypes.containers.ChannelServerQueryMessageToSend;
 import io.olvid.engine.datatypes.containers.SendChannelInfo;
 import io.olvid.engine.encoder.Encoded;
+import io.olvid.engine.encoder.EncodedWriter;
 
 public class GenericProtocolMessageToSend {
     private final SendChannelInfo sendChannelInfo;
@@ -39,12 +40,11 @@ public class GenericProtocolMessageToSend {
     }
 
     private static Encoded encode(int protocolId, UID protocolInstanceUid, int protocolMessageId, Encoded[] inputs) {
-        return Encoded.of(new Encoded[]{
+        return EncodedWriter.list(
                 Encoded.of(protocolId),
                 Encoded.of(protocolInstanceUid),
-                Encoded.of(protocolMessageId),
-                Encoded.of(inputs)
-        });
+                Encoded.of(protocolMessageId)
+        ).add(EncodedWriter.list(inputs)).toEncoded();
     }
 
     public ChannelProtocolMessageToSend generateChannelProtocolMessageToSend() {
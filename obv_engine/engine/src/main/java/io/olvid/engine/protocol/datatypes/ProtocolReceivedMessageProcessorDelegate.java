@@ -20,8 +20,9 @@
 package io.olvid.engine.protocol.datatypes;
 
 
+import io.olvid.engine.datatypes.Identity;
 import io.olvid.engine.datatypes.UID;
 
 public interface ProtocolReceivedMessageProcessorDelegate {
-    void processReceivedMessage(UID messageUid, int protocolId);
+    void processReceivedMessage(UID messageUid, int protocolId, Identity protocolOwnedIdentity, UID protocolInstanceUid);
 }
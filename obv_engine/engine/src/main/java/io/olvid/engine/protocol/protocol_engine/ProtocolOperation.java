@@ -47,6 +47,7 @@ public final class ProtocolOperation extends PriorityOperation {
     public static final int RFC_UNABLE_TO_FIND_STEP_TO_EXECUTE = 5;
     public static final int RFC_THE_STEP_TO_EXECUTE_FAILED = 6;
     public static final int RFC_DIALOG_RESPONSE_CANNOT_BE_PROCESSED = 7;
+    public static final int RFC_PROTOCOL_CHANGED_BEFORE_TRANSACTION = 8;
 
 
     private final ProtocolManagerSessionFactory protocolManagerSessionFactory;
@@ -54,6 +55,7 @@ public final class ProtocolOperation extends PriorityOperation {
     private final int protocolId;
     private final int failedAttempts;
     private final long creationTime;
+    private long executionStartTime;
     private final PRNGService prng;
     private final ObjectMapper jsonObjectMapper;
 
@@ -77,6 +79,19 @@ public final class ProtocolOperation extends PriorityOperation {
         return protocolOwnedIdentity;
     }
 
+    public int getFailedAttempts() {
+        return failedAttempts;
+    }
+
+    public long getCreationTime() {
+        return creationTime;
+    }
+
+    // 0 if the operation was never executed
+    public long getExecutionStartTime() {
+        return executionStartTime;
+    }
+
     public ProtocolOperation(ProtocolManagerSessionFactory protocolManagerSessionFactory, UID receivedMessageUid, int protocolId, int failedAttempts, PRNGService prng, ObjectMapper jsonObjectMapper, Operation.OnFinishCallback onFinishCallback, Operation.OnCancelCallback onCancelCallback) {
         super(receivedMessageUid, onFinishCallback, onCancelCallback);
         this.protocolManagerSessionFactory = protocolManagerSessionFactory;
@@ -104,6 +119,7 @@ public final class ProtocolOperation extends PriorityOperation {
 
     @Override
     public void doExecute() {
+        executionStartTime = System.currentTimeMillis();
         try (ProtocolManagerSession protocolManagerSession = protocolManagerSessionFactory.getSession()) {
             boolean finished = false;
             try {
@@ -117,8 +133,11 @@ public final class ProtocolOperation extends PriorityOperation {
                 this.protocolInstanceUid = message.getProtocolInstanceUid();
                 this.protocolOwnedIdentity = message.getToIdentity();
 
-                protocolManagerSession.session.startTransaction();
-
+                // The protocol and message are reconstructed before starting the transaction, so that this work does not
+                // hold the global write lock. Steps of the same protocol instance are never executed concurrently (see
+                // ProtocolStepCoordinator), but the ProtocolManager may still delete protocol instances and messages
+                // outside of any step (protocol abort, owned identity deletion, transfer cleanup): this is checked once
+                // the transaction is started.
                 ProtocolInstance protocolInstance = null;
                 boolean protocolInstanceNeedsToBeInserted = false;
                 ConcreteProtocol protocol = null;
@@ -134,6 +153,7 @@ public final class ProtocolOperation extends PriorityOperation {
                         protocol = ConcreteProtocol.getConcreteProtocol(protocolInstance, prng, jsonObjectMapper);
                         if (protocol == null) {
                             // we have a protocolInstance in db but cannot reconstruct it --> delete it!
+                            protocolManagerSession.session.startTransaction();
                             protocolInstance.delete();
                             protocolManagerSession.session.commit();
                         }
@@ -164,6 +184,17 @@ public final class ProtocolOperation extends PriorityOperation {
                     return;
                 }
 
+                protocolManagerSession.session.startTransaction();
+
+                if (ReceivedMessage.get(protocolManagerSession, receivedMessageUid) == null) {
+                    cancel(RFC_MESSAGE_NOT_FOUND);
+                    return;
+                }
+                if (protocolInstanceChanged(protocolManagerSession, protocolInstance, protocolInstanceNeedsToBeInserted)) {
+                    cancel(RFC_PROTOCOL_CHANGED_BEFORE_TRANSACTION);
+                    return;
+                }
+
                 if (protocol.requiresProtocolInstanceToBeInsertedBeforeInitialStep && protocolInstanceNeedsToBeInserted) {
                     try {
                         protocolInstance.insert();
@@ -250,4 +281,14 @@ public final class ProtocolOperation extends PriorityOperation {
             processCancel();
         }
     }
+
+    private static boolean protocolInstanceChanged(ProtocolManagerSession protocolManagerSession, ProtocolInstance protocolInstance, boolean protocolInstanceNeedsToBeInserted) {
+        ProtocolInstance currentProtocolInstance = ProtocolInstance.get(protocolManagerSession, protocolInstance.getUid(), protocolInstance.getOwnedIdentity());
+        if (protocolInstanceNeedsToBeInserted) {
+            return currentProtocolInstance != null;
+        }
+        return currentProtocolInstance == null
+                || currentProtocolInstance.getCurrentStateId() != protocolInstance.getCurrentStateId()
+                || !currentProtocolInstance.getEncodedCurrentState().equals(protocolInstance.getEncodedCurrentState());
+    }
 }
@@ -21,6 +21,7 @@ package io.olvid.engine.backup;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.core.type.TypeReference;
@@ -29,9 +30,14 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.Test;
 
 import java.net.URL;
+import java.util.Arrays;
+import java.util.HashMap;
 
 import io.olvid.engine.Logger;
 import io.olvid.engine.datatypes.BackupSeed;
+import io.olvid.engine.datatypes.DictionaryKey;
+import io.olvid.engine.encoder.Encoded;
+import io.olvid.engine.engine.types.sync.ObvProfileBackupSnapshot;
 
 public class BackupManagerTest {
 
@@ -47,6 +53,45 @@ public class BackupManagerTest {
         }
     }
 
+    @Test
+    public void testProfileBackupContentDigest() throws Exception {
+        HashMap<DictionaryKey, Encoded> map = new HashMap<>();
+        map.put(new DictionaryKey(ObvProfileBackupSnapshot.SNAPSHOT), Encoded.of(new byte[100_000]));
+        map.put(new DictionaryKey(ObvProfileBackupSnapshot.TIMESTAMP), Encoded.of(1234L));
+
+        // the digest ignores the timestamp, but not the content
+        HashMap<DictionaryKey, Encoded> otherTimestamp = new HashMap<>(map);
+        otherTimestamp.put(new DictionaryKey(ObvProfileBackupSnapshot.TIMESTAMP), Encoded.of(5678L));
+        assertArrayEquals(ObvProfileBackupSnapshot.computeContentDigest(map), ObvProfileBackupSnapshot.computeContentDigest(otherTimestamp));
+        HashMap<DictionaryKey, Encoded> otherContent = new HashMap<>(map);
+        otherContent.put(new DictionaryKey(ObvProfileBackupSnapshot.SNAPSHOT), Encoded.of(new byte[100_001]));
+        assertFalse(Arrays.equals(ObvProfileBackupSnapshot.computeContentDigest(map), ObvProfileBackupSnapshot.computeContentDigest(otherContent)));
+    }
+
+    @Test
+    public void testProfileBackupContentDigestIgnoresEntryOrder() throws Exception {
+        // the same entries, iterated in a different order (HashMaps of different capacities), at every depth
+        HashMap<DictionaryKey, Encoded> snapshot = new HashMap<>();
+        HashMap<DictionaryKey, Encoded> sameSnapshot = new HashMap<>(1024);
+        HashMap<DictionaryKey, Encoded> map = new HashMap<>();
+        HashMap<DictionaryKey, Encoded> sameMap = new HashMap<>(1024);
+        for (int i = 0; i < 50; i++) {
+            snapshot.put(new DictionaryKey("key" + i), Encoded.of(i));
+            sameSnapshot.put(new DictionaryKey("key" + (49 - i)), Encoded.of(49 - i));
+        }
+        for (int i = 0; i < 50; i++) {
+            map.put(new DictionaryKey("entry" + i), Encoded.of(new Encoded[]{Encoded.of(i), Encoded.of(snapshot)}));
+        }
+        for (int i = 49; i >= 0; i--) {
+            sameMap.put(new DictionaryKey("entry" + i), Encoded.of(new Encoded[]{Encoded.of(i), Encoded.of(sameSnapshot)}));
+        }
+        map.put(new DictionaryKey(ObvProfileBackupSnapshot.SNAPSHOT), Encoded.of(snapshot));
+        sameMap.put(new DictionaryKey(ObvProfileBackupSnapshot.SNAPSHOT), Encoded.of(sameSnapshot));
+
+        assertFalse(Arrays.equals(Encoded.of(map).getBytes(), Encoded.of(sameMap).getBytes()));
+        assertArrayEquals(ObvProfileBackupSnapshot.computeContentDigest(map), ObvProfileBackupSnapshot.computeContentDigest(sameMap));
+    }
+
     @Test
     public void testStringAndSeed() throws Exception {
         ObjectMapper mapper = new ObjectMapper();
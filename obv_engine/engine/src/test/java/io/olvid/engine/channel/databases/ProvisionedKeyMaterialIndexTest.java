@@ -0,0 +1,180 @@
+/*
+ *  Olvid for Android
+ *  Copyright © 2019-2026 Olvid SAS
+ *
+ *  This file is part of Olvid for Android.
+ *
+ *  Olvid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License, version 3,
+ *  as published by the Free Software Foundation.
+ *
+ *  Olvid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with Olvid.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.olvid.engine.channel.databases;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import io.olvid.engine.channel.datatypes.ChannelManagerSession;
+import io.olvid.engine.crypto.PRNGService;
+import io.olvid.engine.crypto.Suite;
+import io.olvid.engine.datatypes.Identity;
+import io.olvid.engine.datatypes.KeyId;
+import io.olvid.engine.datatypes.Session;
+import io.olvid.engine.datatypes.UID;
+import io.olvid.engine.datatypes.key.asymmetric.EncryptionPublicKey;
+import io.olvid.engine.datatypes.key.asymmetric.ServerAuthenticationPublicKey;
+import io.olvid.engine.encoder.Encoded;
+import io.olvid.engine.engine.types.EngineCacheStatisticsEntry;
+
+public class ProvisionedKeyMaterialIndexTest {
+    private File dbFile;
+    private Session session;
+    private ChannelManagerSession channelManagerSession;
+    private ProvisionedKeyMaterialIndex index;
+    private PRNGService prng;
+    private UID currentDeviceUid;
+    private UID remoteDeviceUid;
+    private Identity remoteIdentity;
+
+    @Before
+    public void setUp() throws Exception {
+        dbFile = File.createTempFile("provisioned_key_material_index_test", ".db");
+        // upgrade sessions do not enforce foreign keys, so no Provision or ObliviousChannel is needed
+        session = Session.getUpgradeTablesSession(dbFile.getAbsolutePath(), null);
+        ProvisionedKeyMaterial.createTable(session);
+        index = new ProvisionedKeyMaterialIndex();
+        channelManagerSession = new ChannelManagerSession(session, null, null, null, null, null, null, null, null, null, index);
+
+        prng = Suite.getDefaultPRNGService(0);
+        currentDeviceUid = new UID(prng);
+        remoteDeviceUid = new UID(prng);
+        remoteIdentity = new Identity("https://server.olvid.io",
+                (ServerAuthenticationPublicKey) Suite.generateServerAuthenticationKeyPair(null, prng).getPublicKey(),
+                (EncryptionPublicKey) Suite.generateEncryptionKeyPair(null, prng).getPublicKey());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        session.close();
+        //noinspection ResultOfMethodCallIgnored
+        dbFile.delete();
+    }
+
+    private KeyId insertKey(int selfRatchetingCount, UID remoteDeviceUid) throws SQLException {
+        KeyId keyId = new KeyId(prng.bytes(KeyId.KEYID_LENGTH));
+        try (PreparedStatement statement = session.prepareStatement("INSERT INTO " + ProvisionedKeyMaterial.TABLE_NAME + " VALUES (?,?,NULL,?,0, ?,?,?);")) {
+            statement.setBytes(1, keyId.getBytes());
+            statement.setBytes(2, Encoded.of(Suite.getDefaultAuthEnc(0).generateKey(prng)).getBytes());
+            statement.setInt(3, selfRatchetingCount);
+            statement.setBytes(4, currentDeviceUid.getBytes());
+            statement.setBytes(5, remoteDeviceUid.getBytes());
+            statement.setBytes(6, remoteIdentity.getBytes());
+            statement.executeUpdate();
+        }
+        return keyId;
+    }
+
+    @Test
+    public void test_lookups() throws Exception {
+        KeyId keyId = insertKey(0, remoteDeviceUid);
+        insertKey(1, remoteDeviceUid);
+
+        // the device is indexed on the first lookup
+        ProvisionedKeyMaterial[] candidates = index.getCandidates(channelManagerSession, keyId, currentDeviceUid);
+        assertNotNull(candidates);
+        assertEquals(1, candidates.length);
+        assertEquals(keyId, candidates[0].getKeyId());
+        assertEquals(2, index.getStatistics().size);
+
+        // unknown keys and devices
+        candidates = index.getCandidates(channelManagerSession, new KeyId(prng.bytes(KeyId.KEYID_LENGTH)), currentDeviceUid);
+        assertNotNull(candidates);
+        assertEquals(0, candidates.length);
+        candidates = index.getCandidates(channelManagerSession, keyId, new UID(prng));
+        assertNotNull(candidates);
+        assertEquals(0, candidates.length);
+
+        index.registerLookup(true);
+        index.registerLookup(true);
+        index.registerLookup(false);
+        EngineCacheStatisticsEntry statistics = index.getStatistics();
+        assertEquals(2, statistics.hits);
+        assertEquals(1, statistics.misses);
+    }
+
+    @Test
+    public void test_keysInsertedAndDeletedOnCommit() throws Exception {
+        KeyId keyId = insertKey(0, remoteDeviceUid);
+        ProvisionedKeyMaterial[] candidates = index.getCandidates(channelManagerSession, keyId, currentDeviceUid);
+        assertNotNull(candidates);
+        assertEquals(1, candidates.length);
+
+        // a key inserted after the device was indexed
+        KeyId insertedKeyId = insertKey(1, remoteDeviceUid);
+        assertEquals(0, index.getCandidates(channelManagerSession, insertedKeyId, currentDeviceUid).length);
+        index.keyInserted(ProvisionedKeyMaterial.getAll(channelManagerSession, insertedKeyId, currentDeviceUid)[0]);
+        assertEquals(1, index.getCandidates(channelManagerSession, insertedKeyId, currentDeviceUid).length);
+
+        // the deletion is only applied to the index once committed
+        assertTrue(candidates[0].deleteIfUnchanged());
+        assertEquals(1, index.getCandidates(channelManagerSession, keyId, currentDeviceUid).length);
+        session.commit();
+        assertEquals(0, index.getCandidates(channelManagerSession, keyId, currentDeviceUid).length);
+        assertEquals(1, index.getStatistics().size);
+
+        // a stale copy cannot be used twice
+        assertFalse(candidates[0].deleteIfUnchanged());
+    }
+
+    @Test
+    public void test_channelDeletedAndClear() throws Exception {
+        UID otherRemoteDeviceUid = new UID(prng);
+        KeyId keyId = insertKey(0, remoteDeviceUid);
+        KeyId otherKeyId = insertKey(0, otherRemoteDeviceUid);
+        assertEquals(1, index.getCandidates(channelManagerSession, keyId, currentDeviceUid).length);
+
+        // only the keys of the deleted channel are removed
+        index.channelDeleted(currentDeviceUid, remoteDeviceUid, remoteIdentity);
+        assertEquals(0, index.getCandidates(channelManagerSession, keyId, currentDeviceUid).length);
+        assertEquals(1, index.getCandidates(channelManagerSession, otherKeyId, currentDeviceUid).length);
+        assertEquals(1, index.getStatistics().size);
+
+        // after a clear, keys are reloaded from the database
+        index.clear();
+        assertEquals(0, index.getStatistics().size);
+        assertEquals(1, index.getCandidates(channelManagerSession, keyId, currentDeviceUid).length);
+        assertEquals(2, index.getStatistics().size);
+    }
+
+    @Test
+    public void test_tooManyKeys() throws Exception {
+        session.startTransaction();
+        KeyId keyId = insertKey(0, remoteDeviceUid);
+        for (int i = 1; i <= ProvisionedKeyMaterialIndex.MAX_INDEXED_KEYS; i++) {
+            insertKey(i, remoteDeviceUid);
+        }
+        session.commit();
+        // devices which do not fit are not indexed, lookups fall back to the database
+        assertNull(index.getCandidates(channelManagerSession, keyId, currentDeviceUid));
+        assertEquals(0, index.getStatistics().size);
+    }
+}
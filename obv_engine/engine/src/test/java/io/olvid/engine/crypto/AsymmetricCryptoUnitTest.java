@@ -36,9 +36,12 @@ import java.util.Arrays;
 
 import io.olvid.engine.Logger;
 import io.olvid.engine.datatypes.Constants;
+import io.olvid.engine.datatypes.Identity;
 import io.olvid.engine.datatypes.Seed;
 import io.olvid.engine.datatypes.containers.CiphertextAndKey;
+import io.olvid.engine.datatypes.key.asymmetric.EncryptionEciesCurve25519KeyPair;
 import io.olvid.engine.datatypes.key.asymmetric.EncryptionEciesMDCKeyPair;
+import io.olvid.engine.datatypes.key.asymmetric.ServerAuthenticationECSdsaCurve25519KeyPair;
 import io.olvid.engine.datatypes.key.asymmetric.ServerAuthenticationECSdsaPrivateKey;
 import io.olvid.engine.datatypes.key.asymmetric.ServerAuthenticationECSdsaPublicKey;
 import io.olvid.engine.datatypes.key.asymmetric.SignaturePublicKey;
@@ -192,4 +195,58 @@ public class AsymmetricCryptoUnitTest {
             }
         }
     }
+
+    @Test
+    public void test_signatureBatchVerifier() throws Exception {
+        PRNGService prng = Suite.getDefaultPRNGService(0);
+        Identity[] identities = new Identity[3];
+        ServerAuthenticationECSdsaPrivateKey[] privateKeys = new ServerAuthenticationECSdsaPrivateKey[3];
+        for (int i=0; i<identities.length; i++) {
+            ServerAuthenticationECSdsaCurve25519KeyPair keyPair = ServerAuthenticationECSdsaCurve25519KeyPair.generate(prng);
+            identities[i] = new Identity("https://server.olvid.io", keyPair.getPublicKey(), EncryptionEciesCurve25519KeyPair.generate(prng).getPublicKey());
+            privateKeys[i] = keyPair.getPrivateKey();
+        }
+
+        byte[][] blocks = new byte[10][];
+        byte[][] signatures = new byte[blocks.length][];
+        for (int i=0; i<blocks.length; i++) {
+            blocks[i] = prng.bytes(100 + i);
+            signatures[i] = Signature.sign(Constants.SignatureContext.GROUP_ADMINISTRATORS_CHAIN, blocks[i], privateKeys[i % identities.length].getSignaturePrivateKey(), prng);
+        }
+
+        Signature.BatchVerifier verifier = new Signature.BatchVerifier();
+        for (int i=0; i<blocks.length; i++) {
+            verifier.add(Constants.SignatureContext.GROUP_ADMINISTRATORS_CHAIN, blocks[i], identities[i % identities.length], signatures[i]);
+        }
+        assertEquals(-1, verifier.verifyAll());
+
+        // wrong signer, wrong context, and tampered signature are all located
+        for (int invalid=0; invalid<blocks.length; invalid++) {
+            for (int kind=0; kind<3; kind++) {
+                for (int i=0; i<blocks.length; i++) {
+                    Identity signer = identities[i % identities.length];
+                    Constants.SignatureContext context = Constants.SignatureContext.GROUP_ADMINISTRATORS_CHAIN;
+                    byte[] signature = signatures[i];
+                    if (i == invalid) {
+                        if (kind == 0) {
+                            signer = identities[(i + 1) % identities.length];
+                        } else if (kind == 1) {
+                            context = Constants.SignatureContext.GROUP_BLOB;
+                        } else {
+                            signature = signature.clone();
+                            signature[signature.length - 1] ^= 1;
+                        }
+                    }
+                    verifier.add(context, blocks[i], signer, signature);
+                }
+                assertEquals(invalid, verifier.verifyAll());
+            }
+        }
+
+        for (int i=0; i<blocks.length; i++) {
+            assertTrue(verifier.verify(Constants.SignatureContext.GROUP_ADMINISTRATORS_CHAIN, blocks[i], identities[i % identities.length], signatures[i]));
+            assertEquals(Signature.verify(Constants.SignatureContext.GROUP_ADMINISTRATORS_CHAIN, blocks[i], identities[(i + 1) % identities.length], signatures[i]),
+                    verifier.verify(Constants.SignatureContext.GROUP_ADMINISTRATORS_CHAIN, blocks[i], identities[(i + 1) % identities.length], signatures[i]));
+        }
+    }
 }
@@ -0,0 +1,157 @@
+/*
+ *  Olvid for Android
+ *  Copyright © 2019-2026 Olvid SAS
+ *
+ *  This file is part of Olvid for Android.
+ *
+ *  Olvid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License, version 3,
+ *  as published by the Free Software Foundation.
+ *
+ *  Olvid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with Olvid.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.olvid.engine.crypto;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assume.assumeTrue;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Locale;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import io.olvid.engine.datatypes.Constants;
+import io.olvid.engine.datatypes.EdwardCurvePoint;
+import io.olvid.engine.datatypes.EncryptedBytes;
+import io.olvid.engine.datatypes.Identity;
+import io.olvid.engine.datatypes.Seed;
+import io.olvid.engine.datatypes.key.asymmetric.EncryptionEciesCurve25519KeyPair;
+import io.olvid.engine.datatypes.key.asymmetric.ServerAuthenticationECSdsaCurve25519KeyPair;
+import io.olvid.engine.datatypes.key.symmetric.AuthEncKey;
+import io.olvid.engine.datatypes.key.symmetric.MACHmacSha256Key;
+
+// Micro-benchmarks for the crypto primitives, too slow for the regular test run: they only run when the olvid.benchmark
+// system property is set (./gradlew test -Polvid.benchmark=true). Each benchmark is warmed up, then measured over a fixed
+// duration and prints the number of operations per second.
+public class CryptoBenchmark {
+    private static final long WARMUP_MILLIS = 1_000;
+    private static final long MEASURE_MILLIS = 3_000;
+
+    @BeforeClass
+    public static void onlyWhenRequested() {
+        assumeTrue("benchmark, run with -Dolvid.benchmark=true", Boolean.getBoolean("olvid.benchmark"));
+    }
+
+    interface BenchmarkedOperation {
+        void run() throws Exception;
+    }
+
+    private static void benchmark(String name, BenchmarkedOperation operation) throws Exception {
+        long end = System.currentTimeMillis() + WARMUP_MILLIS;
+        while (System.currentTimeMillis() < end) {
+            operation.run();
+        }
+
+        long count = 0;
+        long start = System.nanoTime();
+        end = start + MEASURE_MILLIS * 1_000_000L;
+        long now;
+        do {
+            for (int i = 0; i < 16; i++) {
+                operation.run();
+            }
+            count += 16;
+            now = System.nanoTime();
+        } while (now < end);
+        System.out.println(String.format(Locale.ENGLISH, "%-40s %12.0f ops/s", name, count * 1e9 / (now - start)));
+    }
+
+    @Test
+    public void benchmarkAuthEnc() throws Exception {
+        PRNGService prng = Suite.getDefaultPRNGService(0);
+        AuthEnc authEnc = Suite.getDefaultAuthEnc(0);
+        AuthEncKey key = authEnc.generateKey(prng);
+
+        for (int length : new int[]{64, 1024, 16_384, 1_048_576}) {
+            byte[] plaintext = prng.bytes(length);
+            EncryptedBytes ciphertext = authEnc.encrypt(key, plaintext, prng);
+            assertArrayEquals(plaintext, authEnc.decrypt(key, ciphertext));
+
+            benchmark("AuthEnc.encrypt (" + length + " bytes)", () -> authEnc.encrypt(key, plaintext, prng));
+            benchmark("AuthEnc.decrypt (" + length + " bytes)", () -> authEnc.decrypt(key, ciphertext));
+        }
+    }
+
+    @Test
+    public void benchmarkKDF() throws Exception {
+        KDF kdf = Suite.getDefaultKDF(0);
+        Seed seed = new Seed(Suite.getDefaultPRNGService(0));
+        KDF.Delegate delegate = Suite.getDefaultAuthEnc(0).getKDFDelegate();
+
+        benchmark("KDF.gen", () -> kdf.gen(seed, delegate));
+    }
+
+    @Test
+    public void benchmarkPRNGService() throws Exception {
+        PRNGService prng = Suite.getDefaultPRNGService(0);
+
+        benchmark("PRNGService.bytes (32 bytes)", () -> prng.bytes(32));
+        benchmark("PRNGService.bytes (1024 bytes)", () -> prng.bytes(1024));
+    }
+
+    @Test
+    public void benchmarkHmacProviderLookup() throws Exception {
+        // compares a short HMAC with a cached Mac instance to the previous behaviour of looking up the provider on every call
+        byte[] keyBytes = Suite.getDefaultPRNGService(0).bytes(MACHmacSha256Key.KEY_BYTE_LENGTH);
+        MACHmacSha256Key key = MACHmacSha256Key.of(keyBytes);
+        byte[] input = new byte[64];
+        MAC mac = Suite.getDefaultMAC(0);
+
+        benchmark("HMAC-SHA256 (cached Mac)", () -> mac.digest(key, input));
+        benchmark("HMAC-SHA256 (Mac.getInstance each call)", () -> {
+            Mac h = Mac.getInstance("HmacSHA256");
+            h.init(new SecretKeySpec(keyBytes, "HmacSHA256"));
+            h.doFinal(input);
+        });
+    }
+
+    @Test
+    public void benchmarkEdwardCurves() throws Exception {
+        PRNGService prng = Suite.getDefaultPRNGService(0);
+        for (String curveName : new String[]{EdwardCurve.MDC, EdwardCurve.CURVE_25519}) {
+            EdwardCurve curve = Suite.getCurve(curveName);
+            BigInteger n = prng.bigInt(curve.q);
+            BigInteger m = prng.bigInt(curve.q);
+            EdwardCurvePoint P = curve.scalarMultiplicationWithX(prng.bigInt(curve.q), curve.G);
+
+            benchmark(curveName + " n.G", () -> curve.scalarMultiplicationWithX(n, curve.G));
+            benchmark(curveName + " n.P", () -> curve.scalarMultiplicationWithX(n, P));
+            benchmark(curveName + " n.G + m.P", () -> curve.mulAdd(n, curve.G, m, P));
+            benchmark(curveName + " n.Y (y only)", () -> curve.scalarMultiplication(n, P.getY()));
+        }
+    }
+
+    @Test
+    public void benchmarkSignatureVerification() throws Exception {
+        PRNGService prng = Suite.getDefaultPRNGService(0);
+        ServerAuthenticationECSdsaCurve25519KeyPair keyPair = ServerAuthenticationECSdsaCurve25519KeyPair.generate(prng);
+        Identity identity = new Identity("https://server.olvid.io", keyPair.getPublicKey(), EncryptionEciesCurve25519KeyPair.generate(prng).getPublicKey());
+        byte[] block = prng.bytes(200);
+        byte[] signature = Signature.sign(Constants.SignatureContext.GROUP_ADMINISTRATORS_CHAIN, block, keyPair.getPrivateKey().getSignaturePrivateKey(), prng);
+        Signature.BatchVerifier verifier = new Signature.BatchVerifier();
+
+        benchmark("Signature.verify", () -> Signature.verify(Constants.SignatureContext.GROUP_ADMINISTRATORS_CHAIN, block, identity, signature));
+        benchmark("BatchVerifier.verify (same signer)", () -> verifier.verify(Constants.SignatureContext.GROUP_ADMINISTRATORS_CHAIN, block, identity, signature));
+    }
+}
@@ -408,4 +408,51 @@ public class EdwardCurvesUnitTest {
         }
     }
 
+    @Test
+    public void test_scalarMultiplicationMatchesAffineLadder() throws Exception {
+        PRNGService prng = Suite.getDefaultPRNGService(0);
+        for (EdwardCurve curve : new EdwardCurve[]{mdc, curve25519}) {
+            EdwardCurvePoint P = curve.scalarMultiplicationWithX(prng.bigInt(curve.q), curve.G);
+            BigInteger[] scalars = new BigInteger[]{
+                    BigInteger.ONE,
+                    BigInteger.valueOf(15),
+                    BigInteger.valueOf(16),
+                    curve.q,
+                    curve.q.subtract(BigInteger.ONE),
+                    curve.cardinality.subtract(BigInteger.ONE),
+                    curve.cardinality.add(BigInteger.valueOf(3)),
+                    prng.bigInt(curve.q),
+                    prng.bigInt(curve.q),
+            };
+            for (BigInteger n : scalars) {
+                // fixed-base table for G
+                assertEquals(affineLadder(curve, n, curve.G), curve.scalarMultiplicationWithX(n, curve.G));
+                // variable base
+                assertEquals(affineLadder(curve, n, P), curve.scalarMultiplicationWithX(n, P));
+                // mulAdd with and without the x coordinate
+                BigInteger m = prng.bigInt(curve.q);
+                EdwardCurvePoint expected = curve.pointAddition(affineLadder(curve, n, curve.G), affineLadder(curve, m, P));
+                EdwardCurvePoint[] list = curve.mulAdd(n, curve.G, m, P);
+                assertEquals(1, list.length);
+                assertEquals(expected, list[0]);
+                list = curve.mulAdd(n, curve.G, m, EdwardCurvePoint.noCheckFactory(null, P.getY(), curve));
+                assertEquals(2, list.length);
+                assertTrue(expected.equals(list[0]) || expected.equals(list[1]));
+            }
+        }
+    }
+
+    // reference double-and-add using only affine point additions
+    private static EdwardCurvePoint affineLadder(EdwardCurve curve, BigInteger n, EdwardCurvePoint P) {
+        EdwardCurvePoint R = EdwardCurvePoint.noCheckFactory(BigInteger.ZERO, BigInteger.ONE, curve);
+        n = n.mod(curve.cardinality);
+        for (int i=n.bitLength()-1; i>=0; i--) {
+            R = curve.pointAddition(R, R);
+            if (n.testBit(i)) {
+                R = curve.pointAddition(R, P);
+            }
+        }
+        return R;
+    }
+
 }
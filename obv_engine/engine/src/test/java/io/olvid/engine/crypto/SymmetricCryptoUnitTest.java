@@ -21,6 +21,9 @@ package io.olvid.engine.crypto;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonParser;
@@ -29,13 +32,18 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
 import java.math.BigInteger;
 import java.net.URL;
 import java.util.Arrays;
 
+import io.olvid.engine.crypto.exceptions.DecryptionException;
 import io.olvid.engine.datatypes.EncryptedBytes;
 import io.olvid.engine.datatypes.Seed;
 import io.olvid.engine.datatypes.key.symmetric.AuthEncAES256ThenSHA256Key;
+import io.olvid.engine.datatypes.key.symmetric.AuthEncKey;
 import io.olvid.engine.datatypes.key.symmetric.MACHmacSha256Key;
 import io.olvid.engine.datatypes.key.symmetric.SymEncCTRAES256Key;
 
@@ -308,6 +316,84 @@ public class SymmetricCryptoUnitTest {
         }
     }
 
+    @Test
+    public void test_AuthEncInPlace() throws Exception {
+        PRNGService prng = Suite.getDefaultPRNGService(0);
+        AuthEnc authEnc = Suite.getDefaultAuthEnc(0);
+        AuthEncKey key = authEnc.generateKey(prng);
+        for (int length : new int[]{0, 1, 15, 16, 17, 1000}) {
+            byte[] plaintext = prng.bytes(length);
+
+            // encrypt in place: the plaintext is placed where the ciphertext expects it
+            byte[] buffer = new byte[authEnc.ciphertextLengthFromPlaintextLength(length)];
+            System.arraycopy(plaintext, 0, buffer, authEnc.plaintextOffsetInCiphertext(), length);
+            int ciphertextLength = authEnc.encrypt(key, buffer, authEnc.plaintextOffsetInCiphertext(), length, buffer, 0, prng);
+            assertEquals(buffer.length, ciphertextLength);
+            assertArrayEquals(plaintext, authEnc.decrypt(key, new EncryptedBytes(buffer)));
+
+            // decrypt from an offset in a larger array, in place
+            byte[] larger = new byte[ciphertextLength + 7];
+            System.arraycopy(buffer, 0, larger, 3, ciphertextLength);
+            int plaintextLength = authEnc.decrypt(key, larger, 3, ciphertextLength, larger, 3 + authEnc.plaintextOffsetInCiphertext());
+            assertEquals(length, plaintextLength);
+            assertArrayEquals(plaintext, Arrays.copyOfRange(larger, 3 + authEnc.plaintextOffsetInCiphertext(), 3 + authEnc.plaintextOffsetInCiphertext() + length));
+
+            // a tampered ciphertext is rejected
+            buffer[(prng.bytes(1)[0] & 0xff) % buffer.length] ^= 1;
+            try {
+                authEnc.decrypt(key, buffer, 0, buffer.length, new byte[buffer.length], 0);
+                fail();
+            } catch (DecryptionException ignored) { }
+        }
+    }
+
+    @Test
+    public void test_AuthEncStreaming() throws Exception {
+        PRNGService prng = Suite.getDefaultPRNGService(0);
+        AuthEnc authEnc = Suite.getDefaultAuthEnc(0);
+        AuthEncKey key = authEnc.generateKey(prng);
+        for (int length : new int[]{0, 1, 31, 32, 33, 1000, 100_000}) {
+            byte[] plaintext = prng.bytes(length);
+
+            // streamed ciphertext, read through small and uneven reads, can be decrypted in one go
+            ByteArrayOutputStream ciphertextStream = new ByteArrayOutputStream();
+            try (InputStream is = authEnc.getEncryptingInputStream(key, new ByteArrayInputStream(plaintext), length, prng)) {
+                byte[] buffer = new byte[777];
+                int count;
+                while ((count = is.read(buffer)) != -1) {
+                    ciphertextStream.write(buffer, 0, count);
+                }
+            }
+            byte[] ciphertext = ciphertextStream.toByteArray();
+            assertEquals(authEnc.ciphertextLengthFromPlaintextLength(length), ciphertext.length);
+            assertArrayEquals(plaintext, authEnc.decrypt(key, new EncryptedBytes(ciphertext)));
+
+            // the verifier accepts the ciphertext, whatever the update sizes
+            AuthEnc.StreamingVerifier verifier = authEnc.getStreamingVerifier(key);
+            for (int offset = 0; offset < ciphertext.length; offset += 13) {
+                verifier.update(ciphertext, offset, Math.min(13, ciphertext.length - offset));
+            }
+            assertTrue(verifier.verify());
+
+            // decrypting stream
+            ByteArrayOutputStream plaintextStream = new ByteArrayOutputStream();
+            try (InputStream is = authEnc.getDecryptingInputStream(key, new ByteArrayInputStream(ciphertext), ciphertext.length)) {
+                byte[] buffer = new byte[100];
+                int count;
+                while ((count = is.read(buffer)) != -1) {
+                    plaintextStream.write(buffer, 0, count);
+                }
+            }
+            assertArrayEquals(plaintext, plaintextStream.toByteArray());
+
+            // a tampered ciphertext is rejected by the verifier
+            ciphertext[(prng.bytes(1)[0] & 0xff) % ciphertext.length] ^= 1;
+            verifier = authEnc.getStreamingVerifier(key);
+            verifier.update(ciphertext, 0, ciphertext.length);
+            assertFalse(verifier.verify());
+        }
+    }
+
     @Test
     public void test_CommitmentSHA256() throws Exception {
         Commitment commitmentScheme = new CommitmentWithSHA256();
@@ -0,0 +1,79 @@
+/*
+ *  Olvid for Android
+ *  Copyright © 2019-2026 Olvid SAS
+ *
+ *  This file is part of Olvid for Android.
+ *
+ *  Olvid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License, version 3,
+ *  as published by the Free Software Foundation.
+ *
+ *  Olvid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with Olvid.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.olvid.engine.datatypes;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ChunkBitmapTest {
+    @Test
+    public void test_prefixCount() {
+        ChunkBitmap bitmap = new ChunkBitmap(11, null, 5);
+        assertEquals(5, bitmap.getCount());
+        assertEquals(5, bitmap.getPrefixCount());
+        assertTrue(bitmap.isSet(4));
+        assertFalse(bitmap.isSet(5));
+        assertEquals(5, bitmap.nextUnset(0));
+    }
+
+    @Test
+    public void test_outOfOrder() {
+        ChunkBitmap bitmap = new ChunkBitmap(11, null, 0);
+        assertTrue(bitmap.set(2));
+        assertTrue(bitmap.set(0));
+        assertTrue(bitmap.set(10));
+        assertFalse(bitmap.set(2));
+        assertEquals(3, bitmap.getCount());
+        assertEquals(1, bitmap.getPrefixCount());
+        assertEquals(1, bitmap.nextUnset(0));
+        assertEquals(3, bitmap.nextUnset(2));
+        assertEquals(-1, bitmap.nextUnset(10));
+
+        for (int i=0; i<11; i++) {
+            bitmap.set(i);
+        }
+        assertTrue(bitmap.isComplete());
+        assertEquals(11, bitmap.getPrefixCount());
+        assertEquals(-1, bitmap.nextUnset(0));
+    }
+
+    @Test
+    public void test_bytes() {
+        ChunkBitmap bitmap = new ChunkBitmap(11, null, 0);
+        bitmap.set(1);
+        bitmap.set(9);
+        byte[] bytes = bitmap.getBytes();
+        assertArrayEquals(new byte[]{0x02, 0x02}, bytes);
+
+        ChunkBitmap copy = new ChunkBitmap(11, bytes, 0);
+        assertEquals(2, copy.getCount());
+        assertTrue(copy.isSet(1));
+        assertTrue(copy.isSet(9));
+
+        // bits beyond the last chunk are ignored
+        ChunkBitmap truncated = new ChunkBitmap(11, new byte[]{(byte) 0xff, (byte) 0xff}, 0);
+        assertEquals(11, truncated.getCount());
+        assertTrue(truncated.isComplete());
+    }
+}
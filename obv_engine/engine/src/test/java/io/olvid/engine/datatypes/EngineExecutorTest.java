@@ -0,0 +1,143 @@
+/*
+ *  Olvid for Android
+ *  Copyright © 2019-2026 Olvid SAS
+ *
+ *  This file is part of Olvid for Android.
+ *
+ *  Olvid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License, version 3,
+ *  as published by the Free Software Foundation.
+ *
+ *  Olvid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with Olvid.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.olvid.engine.datatypes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class EngineExecutorTest {
+    @Test
+    public void test_schedule() throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        long start = System.currentTimeMillis();
+        EngineExecutor.schedule(latch::countDown, 200);
+
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+        assertTrue(System.currentTimeMillis() - start >= 200);
+    }
+
+    @Test
+    public void test_cancel() throws Exception {
+        AtomicInteger runCount = new AtomicInteger(0);
+        HashedTimerWheel.Timeout timeout = EngineExecutor.schedule(runCount::incrementAndGet, 100);
+        timeout.cancel();
+        assertTrue(timeout.isCancelled());
+
+        Thread.sleep(300);
+        assertEquals(0, runCount.get());
+    }
+
+    @Test
+    public void test_timerWheelSkipsToEarliestDeadline() throws Exception {
+        HashedTimerWheel wheel = new HashedTimerWheel();
+        CountDownLatch latch = new CountDownLatch(1);
+        HashedTimerWheel.Timeout later = wheel.schedule(() -> {}, 60_000, 0);
+        long start = System.currentTimeMillis();
+        wheel.schedule(latch::countDown, 300, 0);
+        later.cancel();
+        assertEquals(2, wheel.getPendingTimeoutCount());
+
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+        assertTrue(System.currentTimeMillis() - start >= 300);
+        // the cancelled timeout is removed when the timer thread wakes up, even though its bucket is not due
+        assertEquals(0, wheel.getPendingTimeoutCount());
+    }
+
+    @Test
+    public void test_scheduleWithFixedDelay() throws Exception {
+        CountDownLatch latch = new CountDownLatch(3);
+        HashedTimerWheel.Timeout timeout = EngineExecutor.scheduleWithFixedDelay(latch::countDown, 0, 60);
+
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+        timeout.cancel();
+
+        EngineExecutor.Statistics statistics = EngineExecutor.getStatistics();
+        assertTrue(statistics.executedTaskCount >= 3);
+        assertTrue(statistics.threadCount >= 1);
+    }
+
+    @Test
+    public void test_blockedTasksDoNotStarveQueuedTasks() throws Exception {
+        // each task blocks until all the others have started, like composite operations waiting for their sub-operations
+        int taskCount = 300;
+        CountDownLatch started = new CountDownLatch(taskCount);
+        CountDownLatch finished = new CountDownLatch(taskCount);
+        for (int i = 0; i < taskCount; i++) {
+            EngineExecutor.execute(() -> {
+                started.countDown();
+                try {
+                    if (started.await(10, TimeUnit.SECONDS)) {
+                        finished.countDown();
+                    }
+                } catch (InterruptedException ignored) { }
+            });
+        }
+
+        assertTrue(finished.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void test_awaitAll() throws Exception {
+        AtomicInteger completedCount = new AtomicInteger(0);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            int delay = 50 * i;
+            futures.add(EngineExecutor.submit(() -> {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ignored) { }
+                completedCount.incrementAndGet();
+            }));
+        }
+        futures.add(EngineExecutor.submit(() -> {
+            throw new RuntimeException();
+        }));
+
+        EngineExecutor.awaitAll(futures);
+        assertEquals(5, completedCount.get());
+
+        // when interrupted, the tasks still running are cancelled
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        Future<?> blocked = EngineExecutor.submit(() -> {
+            started.countDown();
+            try {
+                Thread.sleep(10_000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+        });
+        assertTrue(started.await(2, TimeUnit.SECONDS));
+        Thread.currentThread().interrupt();
+        EngineExecutor.awaitAll(List.of(blocked));
+        assertTrue(Thread.interrupted());
+        assertTrue(blocked.isCancelled());
+        assertTrue(interrupted.await(2, TimeUnit.SECONDS));
+    }
+}
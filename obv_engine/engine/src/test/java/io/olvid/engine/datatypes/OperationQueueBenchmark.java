@@ -0,0 +1,134 @@
+/*
+ *  Olvid for Android
+ *  Copyright © 2019-2026 Olvid SAS
+ *
+ *  This file is part of Olvid for Android.
+ *
+ *  Olvid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License, version 3,
+ *  as published by the Free Software Foundation.
+ *
+ *  Olvid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with Olvid.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.olvid.engine.datatypes;
+
+import static org.junit.Assume.assumeTrue;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Throughput of OperationQueue for the OperationsUnitTest scenarios (independent operations), and for operations with
+// dependencies. Too slow for the regular test run: it only runs when the olvid.benchmark system property is set
+// (./gradlew test -Polvid.benchmark=true), each scenario prints the number of operations processed per second.
+public class OperationQueueBenchmark {
+    private static final int ROUNDS = 20;
+    private static final int OPERATIONS_PER_ROUND = 2_000;
+
+    @BeforeClass
+    public static void onlyWhenRequested() {
+        assumeTrue("benchmark, run with -Dolvid.benchmark=true", Boolean.getBoolean("olvid.benchmark"));
+    }
+
+    interface QueueScenario {
+        void queueOperations(OperationQueue queue, AtomicLong sum);
+    }
+
+    private static void benchmark(String name, int numberOfThreads, QueueScenario scenario) {
+        // warmup
+        runRound(numberOfThreads, scenario);
+
+        long start = System.nanoTime();
+        for (int i=0; i<ROUNDS; i++) {
+            runRound(numberOfThreads, scenario);
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.println(String.format(Locale.ENGLISH, "%-50s %12.0f ops/s", name + " (" + numberOfThreads + " threads)", ROUNDS * OPERATIONS_PER_ROUND * 1e9 / elapsed));
+    }
+
+    private static void runRound(int numberOfThreads, QueueScenario scenario) {
+        AtomicLong sum = new AtomicLong(0);
+        OperationQueue queue = new OperationQueue();
+        scenario.queueOperations(queue, sum);
+        queue.execute(numberOfThreads);
+        queue.join();
+    }
+
+    static Operation sumOperation(AtomicLong sum, int iterations) {
+        return new Operation() {
+            @Override
+            public void doCancel() {
+            }
+
+            @Override
+            public void doExecute() {
+                for (int i=0; i<iterations; i++) {
+                    sum.addAndGet(i);
+                }
+                setFinished();
+            }
+        };
+    }
+
+    @Test
+    public void benchmarkIndependentOperations() {
+        QueueScenario scenario = (queue, sum) -> {
+            for (int i=0; i<OPERATIONS_PER_ROUND; i++) {
+                queue.queue(sumOperation(sum, (i % 5 < 2) ? 100 : 200));
+            }
+        };
+        benchmark("independent operations", 1, scenario);
+        benchmark("independent operations", 4, scenario);
+    }
+
+    @Test
+    public void benchmarkDependencyChains() {
+        // chains of 10 operations, each depending on the previous one, queued in reverse order
+        QueueScenario scenario = (queue, sum) -> {
+            for (int i=0; i<OPERATIONS_PER_ROUND; i+=10) {
+                List<Operation> chain = new ArrayList<>();
+                for (int j=0; j<10; j++) {
+                    Operation op = sumOperation(sum, 100);
+                    if (j > 0) {
+                        op.addDependency(chain.get(j-1));
+                    }
+                    chain.add(op);
+                }
+                for (int j=9; j>=0; j--) {
+                    queue.queue(chain.get(j));
+                }
+            }
+        };
+        benchmark("dependency chains", 1, scenario);
+        benchmark("dependency chains", 4, scenario);
+    }
+
+    @Test
+    public void benchmarkFanOut() {
+        // 99 operations depending on a single operation, queued after them
+        QueueScenario scenario = (queue, sum) -> {
+            for (int i=0; i<OPERATIONS_PER_ROUND; i+=100) {
+                Operation first = sumOperation(sum, 100);
+                for (int j=0; j<99; j++) {
+                    Operation op = sumOperation(sum, 100);
+                    op.addDependency(first);
+                    queue.queue(op);
+                }
+                queue.queue(first);
+            }
+        };
+        benchmark("fan-out", 1, scenario);
+        benchmark("fan-out", 4, scenario);
+    }
+}
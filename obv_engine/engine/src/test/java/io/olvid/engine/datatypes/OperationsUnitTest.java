@@ -19,8 +19,15 @@
 
 package io.olvid.engine.datatypes;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 public class OperationsUnitTest {
     Integer j;
 
@@ -70,4 +77,88 @@ public class OperationsUnitTest {
 //        queue.join();
 //        assertEquals(j.intValue(), 2*5000*9999 + 3*10000*19999);
     }
+
+    @Test
+    public void testDependencies() {
+        List<Integer> executionOrder = Collections.synchronizedList(new ArrayList<>());
+        OperationQueue queue = new OperationQueue();
+        OperationQueue otherQueue = new OperationQueue();
+
+        // a chain 0 <- 1 <- 2, queued in reverse order, with the first operation in another queue
+        TestOperation op0 = new TestOperation(0, executionOrder);
+        TestOperation op1 = new TestOperation(1, executionOrder);
+        TestOperation op2 = new TestOperation(2, executionOrder);
+        op1.addDependency(op0);
+        op2.addDependency(op1);
+        queue.queue(op2);
+        queue.queue(op1);
+        queue.execute(4);
+        otherQueue.queue(op0);
+        otherQueue.execute(1);
+
+        queue.join();
+        assertEquals(List.of(0, 1, 2), executionOrder);
+    }
+
+    @Test
+    public void testCancelledDependency() {
+        List<Integer> executionOrder = Collections.synchronizedList(new ArrayList<>());
+        OperationQueue queue = new OperationQueue();
+
+        TestOperation op0 = new TestOperation(0, executionOrder);
+        TestOperation op1 = new TestOperation(1, executionOrder);
+        op1.addDependency(op0);
+        queue.queue(op1);
+        queue.execute(1);
+        op0.cancel(null);
+        op0.processCancel();
+
+        queue.join();
+        assertTrue(op1.isCancelled());
+        assertTrue(executionOrder.isEmpty());
+    }
+
+    @Test(timeout = 5_000)
+    public void testDependenciesFinishingInTurn() {
+        List<Integer> executionOrder = Collections.synchronizedList(new ArrayList<>());
+        OperationQueue queue = new OperationQueue();
+        OperationQueue otherQueue = new OperationQueue();
+
+        // op2 depends on op0 and op1 (and addDependency makes op0 depend on op1): when op1 finishes, op2 is notified
+        // while op0 is still pending
+        TestOperation op0 = new TestOperation(0, executionOrder);
+        TestOperation op1 = new TestOperation(1, executionOrder);
+        TestOperation op2 = new TestOperation(2, executionOrder);
+        op2.addDependency(op0);
+        op2.addDependency(op1);
+        queue.queue(op2);
+        queue.queue(op0);
+        queue.execute(2);
+        otherQueue.queue(op1);
+        otherQueue.execute(1);
+
+        otherQueue.join();
+        queue.join();
+        assertEquals(List.of(1, 0, 2), executionOrder);
+    }
+
+    static class TestOperation extends Operation {
+        private final int number;
+        private final List<Integer> executionOrder;
+
+        TestOperation(int number, List<Integer> executionOrder) {
+            this.number = number;
+            this.executionOrder = executionOrder;
+        }
+
+        @Override
+        public void doCancel() {
+        }
+
+        @Override
+        public void doExecute() {
+            executionOrder.add(number);
+            setFinished();
+        }
+    }
 }
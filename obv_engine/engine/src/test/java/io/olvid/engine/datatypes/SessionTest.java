@@ -0,0 +1,261 @@
+/*
+ *  Olvid for Android
+ *  Copyright © 2019-2026 Olvid SAS
+ *
+ *  This file is part of Olvid for Android.
+ *
+ *  Olvid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License, version 3,
+ *  as published by the Free Software Foundation.
+ *
+ *  Olvid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with Olvid.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.olvid.engine.datatypes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class SessionTest {
+    private File dbFile;
+    private String dbPath;
+
+    @Before
+    public void setUp() throws Exception {
+        dbFile = File.createTempFile("session_test", ".db");
+        dbPath = dbFile.getAbsolutePath();
+        try (Session session = Session.getUpgradeTablesSession(dbPath, null)) {
+            try (Statement statement = session.createStatement()) {
+                statement.execute("CREATE TABLE test (id INTEGER PRIMARY KEY, value TEXT);");
+                statement.execute("INSERT INTO test (id, value) VALUES (1, 'a');");
+            }
+            session.commit();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        //noinspection ResultOfMethodCallIgnored
+        dbFile.delete();
+        //noinspection ResultOfMethodCallIgnored
+        new File(dbPath + "-wal").delete();
+        //noinspection ResultOfMethodCallIgnored
+        new File(dbPath + "-shm").delete();
+    }
+
+    @Test
+    public void test_readOnlySession() throws Exception {
+        try (Session session = Session.getReadOnlySession(dbPath, null)) {
+            assertTrue(session.isReadOnly());
+            try (PreparedStatement statement = session.prepareStatement("SELECT value FROM test WHERE id = ?;")) {
+                statement.setInt(1, 1);
+                try (ResultSet res = statement.executeQuery()) {
+                    assertTrue(res.next());
+                    assertEquals("a", res.getString(1));
+                }
+            }
+
+            try (Statement statement = session.createStatement()) {
+                statement.executeUpdate("INSERT INTO test (id, value) VALUES (2, 'b');");
+                fail();
+            } catch (SQLException ignored) { }
+
+            try {
+                session.startTransaction();
+                fail();
+            } catch (SQLException ignored) { }
+        }
+    }
+
+    @Test
+    public void test_sessionPool() throws Exception {
+        Session readWrite = Session.getSession(dbPath, null);
+        Session readOnly = Session.getReadOnlySession(dbPath, null);
+        assertFalse(readWrite.isReadOnly());
+
+        // readers do not wait for the writer
+        readWrite.startTransaction();
+        try (Statement statement = readWrite.createStatement()) {
+            statement.executeUpdate("UPDATE test SET value = 'c' WHERE id = 1;");
+        }
+        try (Statement statement = readOnly.createStatement(); ResultSet res = statement.executeQuery("SELECT value FROM test WHERE id = 1;")) {
+            assertTrue(res.next());
+            assertEquals("a", res.getString(1));
+        }
+        readWrite.commit();
+
+        readWrite.close();
+        readOnly.close();
+        Session.PoolStatistics statistics = Session.getPoolStatistics(dbPath);
+        assertEquals(1, statistics.openReadWriteConnections);
+        assertEquals(1, statistics.idleReadWriteConnections);
+        assertEquals(1, statistics.openReadOnlyConnections);
+        assertEquals(1, statistics.idleReadOnlyConnections);
+
+        // released sessions are reused
+        try (Session session = Session.getSession(dbPath, null)) {
+            assertSame(readWrite, session);
+        }
+        try (Session session = Session.getReadOnlySession(dbPath, null)) {
+            assertSame(readOnly, session);
+        }
+
+        // once all read-only sessions are in use, a read-write session is returned
+        Session[] sessions = new Session[Session.MAX_READ_ONLY_CONNECTIONS];
+        for (int i=0; i<sessions.length; i++) {
+            sessions[i] = Session.getReadOnlySession(dbPath, null);
+            assertTrue(sessions[i].isReadOnly());
+        }
+        try (Session session = Session.getReadOnlySession(dbPath, null)) {
+            assertFalse(session.isReadOnly());
+        }
+        for (Session session : sessions) {
+            session.close();
+        }
+        assertEquals(Session.MAX_READ_ONLY_CONNECTIONS, Session.getPoolStatistics(dbPath).idleReadOnlyConnections);
+    }
+
+    @Test
+    public void test_readWriteSessionLimit() throws Exception {
+        List<Session> sessions = new ArrayList<>();
+        Thread holder = new Thread(() -> {
+            try {
+                for (int i=0; i<Session.MAX_READ_WRITE_CONNECTIONS; i++) {
+                    sessions.add(Session.getSession(dbPath, null));
+                }
+                // a thread already holding a Session does not wait, even above the limit
+                sessions.add(Session.getSession(dbPath, null));
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        holder.start();
+        holder.join();
+        assertEquals(Session.MAX_READ_WRITE_CONNECTIONS + 1, sessions.size());
+
+        // other threads wait until a Session is released
+        CountDownLatch acquired = new CountDownLatch(1);
+        AtomicReference<Session> waitingSession = new AtomicReference<>();
+        Thread waiter = new Thread(() -> {
+            try {
+                waitingSession.set(Session.getSession(dbPath, null));
+                acquired.countDown();
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        waiter.start();
+        assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+
+        sessions.remove(0).close();
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        waiter.join();
+        assertEquals(Session.MAX_READ_WRITE_CONNECTIONS + 1, Session.getPoolStatistics(dbPath).openReadWriteConnections);
+        assertTrue(Session.lockWaitStatistics.get(Session.READ_WRITE_SESSION_WAIT_STATISTICS_TAG).totalTimeMicro >= 200_000);
+
+        // when no Session is released in time, a connection is opened above the limit instead of failing
+        long start = System.currentTimeMillis();
+        Session overflowSession = Session.getSession(dbPath, null);
+        assertTrue(System.currentTimeMillis() - start >= Session.READ_WRITE_CONNECTION_WAIT_MILLIS);
+        assertEquals(Session.MAX_READ_WRITE_CONNECTIONS + 2, Session.getPoolStatistics(dbPath).openReadWriteConnections);
+        overflowSession.close();
+
+        waitingSession.get().close();
+        for (Session session : sessions) {
+            session.close();
+        }
+        assertEquals(Session.MAX_IDLE_READ_WRITE_CONNECTIONS, Session.getPoolStatistics(dbPath).openReadWriteConnections);
+    }
+
+    @Test
+    public void test_preparedStatementCache() throws Exception {
+        String tag = "SessionTest.test_preparedStatementCache";
+        String sql = "SELECT value FROM test WHERE id = ?;";
+        try (Session session = Session.getSession(dbPath, null)) {
+            PreparedStatement first;
+            try (PreparedStatement statement = session.prepareStatement(tag, sql)) {
+                first = statement;
+                statement.setInt(1, 1);
+                // result set deliberately left open, it is closed when the statement is returned to the cache
+                assertTrue(statement.executeQuery().next());
+            }
+
+            try (PreparedStatement statement = session.prepareStatement(tag, sql)) {
+                assertSame(first, statement);
+                // parameters were cleared
+                try (ResultSet res = statement.executeQuery()) {
+                    assertFalse(res.next());
+                }
+
+                // the cached statement is in use, preparing the same query again gives another statement
+                try (PreparedStatement nested = session.prepareStatement(tag, sql)) {
+                    assertNotSame(first, nested);
+                    nested.setInt(1, 1);
+                    try (ResultSet res = nested.executeQuery()) {
+                        assertTrue(res.next());
+                        assertEquals("a", res.getString(1));
+                    }
+                }
+            }
+
+            try (PreparedStatement statement = session.prepareStatement(tag, sql)) {
+                assertSame(first, statement);
+            }
+        }
+
+        assertEquals(2, Session.queryStatistics.get(tag).preparedStatementCacheHits);
+        assertEquals(2, Session.queryStatistics.get(tag).preparedStatementCacheMisses);
+    }
+
+    @Test
+    public void test_preparedStatementClosesAllResultSets() throws Exception {
+        String tag = "SessionTest.test_preparedStatementClosesAllResultSets";
+        String sql = "SELECT value FROM test WHERE id = ?;";
+        try (Session session = Session.getSession(dbPath, null)) {
+            List<ResultSet> resultSets = new ArrayList<>();
+            try (PreparedStatement statement = session.prepareStatement(tag, sql)) {
+                statement.setInt(1, 1);
+                // result sets deliberately left open, from several executions
+                resultSets.add(statement.executeQuery());
+                resultSets.add(statement.executeQuery());
+            }
+            for (ResultSet resultSet : resultSets) {
+                assertTrue(resultSet.isClosed());
+            }
+
+            // the statement was reset and can be reused from the cache
+            try (PreparedStatement statement = session.prepareStatement(tag, sql)) {
+                statement.setInt(1, 1);
+                try (ResultSet res = statement.executeQuery()) {
+                    assertTrue(res.next());
+                }
+            }
+        }
+        assertEquals(1, Session.queryStatistics.get(tag).preparedStatementCacheHits);
+    }
+}
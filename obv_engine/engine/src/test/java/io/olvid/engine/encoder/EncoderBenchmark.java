@@ -0,0 +1,99 @@
+/*
+ *  Olvid for Android
+ *  Copyright © 2019-2026 Olvid SAS
+ *
+ *  This file is part of Olvid for Android.
+ *
+ *  Olvid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License, version 3,
+ *  as published by the Free Software Foundation.
+ *
+ *  Olvid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with Olvid.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.olvid.engine.encoder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+
+// Compares decoding a listing-like payload with views (the current Encoded) to decoding it with a copy of every element
+// at each nesting level (what Encoded did before). Only runs when the olvid.benchmark system property is set
+// (./gradlew test -Polvid.benchmark=true), and prints the allocated bytes and time of both decoders.
+public class EncoderBenchmark {
+    private static final int ROUNDS = 50;
+
+    @BeforeClass
+    public static void onlyWhenRequested() {
+        assumeTrue("benchmark, run with -Dolvid.benchmark=true", Boolean.getBoolean("olvid.benchmark"));
+    }
+
+    interface Decoder {
+        long decode(Encoded encoded) throws Exception;
+    }
+
+    private static long decodeWithViews(Encoded encoded) throws Exception {
+        long sum = 0;
+        for (Encoded element : encoded.decodeList()) {
+            sum += element.decodeList()[0].decodeLong();
+        }
+        return sum;
+    }
+
+    private static long decodeWithCopies(Encoded encoded) throws Exception {
+        long sum = 0;
+        for (Encoded element : encoded.decodeList()) {
+            Encoded[] fields = new Encoded(element.getBytes()).decodeList();
+            sum += new Encoded(fields[0].getBytes()).decodeLong();
+            new Encoded(fields[1].getBytes());
+        }
+        return sum;
+    }
+
+    private static void benchmark(String name, Encoded encoded, Decoder decoder) throws Exception {
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        // warmup
+        for (int i=0; i<ROUNDS; i++) {
+            decoder.decode(encoded);
+        }
+
+        long allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i=0; i<ROUNDS; i++) {
+            decoder.decode(encoded);
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        System.out.println(String.format(Locale.ENGLISH, "%-30s %12d bytes/decode %10.3f ms/decode", name, allocated / ROUNDS, elapsed / 1e6 / ROUNDS));
+    }
+
+    @Test
+    public void benchmarkDecodeList() throws Exception {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+
+        // a listing-like payload: 2000 elements of 4kB each
+        Encoded[] elements = new Encoded[2000];
+        for (int i=0; i<elements.length; i++) {
+            elements[i] = Encoded.of(new Encoded[]{Encoded.of(i), Encoded.of(new byte[4096])});
+        }
+        Encoded encoded = new Encoded(Encoded.of(elements).getBytes());
+        assertEquals(decodeWithCopies(encoded), decodeWithViews(encoded));
+
+        System.out.println("payload of " + encoded.getLength() + " bytes");
+        benchmark("decode with copies (before)", encoded, EncoderBenchmark::decodeWithCopies);
+        benchmark("decode with views", encoded, EncoderBenchmark::decodeWithViews);
+    }
+}
@@ -21,6 +21,7 @@ package io.olvid.engine.encoder;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonParser;
@@ -29,6 +30,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.math.BigInteger;
 import java.net.URL;
 import java.security.SecureRandom;
@@ -178,4 +180,105 @@ public class EncoderUnitTest {
         assertArrayEquals(expected2, Encoded.of(src2).data);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void test_decodeNestedViews() throws Exception {
+        SecureRandom rand = new SecureRandom();
+        for (int i=0; i<128; i++) {
+            byte[][] bytes = new byte[1 + rand.nextInt(20)][];
+            Encoded[] elements = new Encoded[bytes.length];
+            HashMap<DictionaryKey, Encoded> dict = new HashMap<>();
+            for (int j=0; j<bytes.length; j++) {
+                bytes[j] = new byte[rand.nextInt(100)];
+                rand.nextBytes(bytes[j]);
+                elements[j] = Encoded.of(bytes[j]);
+                dict.put(new DictionaryKey("key" + j), Encoded.of(new Encoded[]{Encoded.of(j), elements[j]}));
+            }
+            Encoded encoded = Encoded.of(new Encoded[]{Encoded.of(elements), Encoded.of(dict), Encoded.of("test")});
+
+            Encoded[] list = encoded.decodeList();
+            assertEquals(3, list.length);
+            Encoded[] decodedElements = list[0].decodeList();
+            assertEquals(bytes.length, decodedElements.length);
+            for (int j=0; j<bytes.length; j++) {
+                assertArrayEquals(bytes[j], decodedElements[j].decodeBytes());
+                assertEquals(elements[j], decodedElements[j]);
+                assertArrayEquals(elements[j].getBytes(), decodedElements[j].getBytes());
+            }
+            HashMap<DictionaryKey, Encoded> decodedDict = list[1].decodeDictionary();
+            assertEquals(bytes.length, decodedDict.size());
+            for (int j=0; j<bytes.length; j++) {
+                Encoded[] pair = decodedDict.get(new DictionaryKey("key" + j)).decodeList();
+                assertEquals(j, pair[0].decodeLong());
+                assertArrayEquals(bytes[j], pair[1].decodeBytes());
+            }
+            assertEquals("test", list[2].decodeString());
+
+            // re-encoding views must give back the exact same bytes
+            assertArrayEquals(encoded.getBytes(), Encoded.of(list).getBytes());
+            assertArrayEquals(list[1].getBytes(), Encoded.of(decodedDict).getBytes());
+
+            // padded variants
+            byte[] padded = new byte[encoded.getBytes().length + rand.nextInt(50)];
+            System.arraycopy(encoded.getBytes(), 0, padded, 0, encoded.getBytes().length);
+            Encoded[] paddedList = new Encoded(padded).decodeListWithPadding();
+            assertEquals(3, paddedList.length);
+            assertEquals(list[1], paddedList[1]);
+            assertEquals(encoded, Encoded.fromLongerByteArray(padded));
+        }
+    }
+
+    @Test
+    public void test_encodedWriter() throws Exception {
+        SecureRandom rand = new SecureRandom();
+        for (int i=0; i<128; i++) {
+            Encoded[] elements = new Encoded[rand.nextInt(20)];
+            EncodedWriter elementsWriter = EncodedWriter.list();
+            HashMap<DictionaryKey, Encoded> dict = new HashMap<>();
+            for (int j=0; j<elements.length; j++) {
+                byte[] bytes = new byte[rand.nextInt(100)];
+                rand.nextBytes(bytes);
+                elements[j] = Encoded.of(new Encoded[]{Encoded.of(j), Encoded.of(bytes)});
+                elementsWriter.add(EncodedWriter.list(Encoded.of(j), Encoded.of(bytes)));
+                dict.put(new DictionaryKey("key" + j), Encoded.of(bytes));
+            }
+            Encoded expected = Encoded.of(new Encoded[]{
+                    Encoded.of(elements),
+                    Encoded.of(dict),
+                    Encoded.of(new Encoded[0]),
+                    Encoded.of(true),
+            });
+            EncodedWriter writer = EncodedWriter.list()
+                    .add(elementsWriter)
+                    .add(EncodedWriter.dictionary(dict))
+                    .add(EncodedWriter.list())
+                    .add(Encoded.of(true));
+
+            assertEquals(expected.getLength(), writer.getEncodedLength());
+            assertArrayEquals(expected.getBytes(), writer.toEncoded().getBytes());
+
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            writer.writeTo(baos);
+            assertArrayEquals(expected.getBytes(), baos.toByteArray());
+
+            byte[] padded = writer.toPaddedByteArray(((writer.getEncodedLength() - 1) | 511) + 1);
+            assertEquals(0, padded.length % 512);
+            assertEquals(expected, Encoded.fromLongerByteArray(padded));
+        }
+    }
+
+    @Test
+    public void test_decodeChunkHeader() throws Exception {
+        byte[] data = new byte[]{1, 2, 3, 4, 5};
+        // a chunk encoded the generic way has the header written by encodeChunkHeader
+        byte[] encodedChunk = Encoded.of(new Encoded[]{Encoded.of(12L), Encoded.of(data)}).getBytes();
+        assertArrayEquals(encodedChunk, Encoded.encodeChunk(12, data, data.length));
+        assertEquals(12L, Encoded.decodeChunkHeader(encodedChunk, 0, encodedChunk.length));
+
+        // the lengths in the header must match the chunk length
+        try {
+            Encoded.decodeChunkHeader(encodedChunk, 0, encodedChunk.length + 1);
+            fail();
+        } catch (DecodingException ignored) { }
+    }
+
+}
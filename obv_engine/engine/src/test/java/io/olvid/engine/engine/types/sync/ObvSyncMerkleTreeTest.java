@@ -0,0 +1,78 @@
+/*
+ *  Olvid for Android
+ *  Copyright © 2019-2026 Olvid SAS
+ *
+ *  This file is part of Olvid for Android.
+ *
+ *  Olvid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License, version 3,
+ *  as published by the Free Software Foundation.
+ *
+ *  Olvid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with Olvid.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.olvid.engine.engine.types.sync;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import io.olvid.engine.encoder.Encoded;
+
+public class ObvSyncMerkleTreeTest {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private ObvSyncMerkleTree tree(String json) throws Exception {
+        return ObvSyncMerkleTree.of(objectMapper.readTree(json), Collections.singleton("domain"));
+    }
+
+    @Test
+    public void testStableHash() throws Exception {
+        // field order, set order and null fields do not change the hash
+        ObvSyncMerkleTree a = tree("{\"contacts\":{\"c1\":{\"name\":\"Alice\"},\"c2\":{\"name\":\"Bob\"}},\"domain\":[\"x\",\"y\"],\"keycloak\":null}");
+        ObvSyncMerkleTree b = tree("{\"domain\":[\"y\",\"x\"],\"contacts\":{\"c2\":{\"name\":\"Bob\"},\"c1\":{\"name\":\"Alice\"}}}");
+        assertArrayEquals(a.getHash(), b.getHash());
+        assertTrue(a.computeDifferingPaths(b).isEmpty());
+
+        // arrays which are not sets are ordered
+        assertFalse(Arrays.equals(tree("{\"pinned\":[\"x\",\"y\"]}").getHash(), tree("{\"pinned\":[\"y\",\"x\"]}").getHash()));
+        assertFalse(Arrays.equals(ObvSyncMerkleTree.of(objectMapper.readTree("[\"x\",\"y\"]")).getHash(), ObvSyncMerkleTree.of(objectMapper.readTree("[\"y\",\"x\"]")).getHash()));
+
+        assertFalse(Arrays.equals(tree("{\"v\":1}").getHash(), tree("{\"v\":\"1\"}").getHash()));
+        assertFalse(Arrays.equals(tree("{\"v\":[\"x\"]}").getHash(), tree("{\"v\":[\"x\",\"x\"]}").getHash()));
+    }
+
+    @Test
+    public void testDifferingPaths() throws Exception {
+        ObvSyncMerkleTree a = tree("{\"contacts\":{\"c1\":{\"name\":\"Alice\",\"note\":\"n\"},\"c2\":{\"name\":\"Bob\"}},\"settings\":{\"s\":true}}");
+        ObvSyncMerkleTree b = tree("{\"contacts\":{\"c1\":{\"name\":\"Alicia\",\"note\":\"n\"},\"c3\":{\"name\":\"Carol\"}},\"settings\":{\"s\":true}}");
+
+        List<List<String>> paths = a.computeDifferingPaths(b);
+        assertEquals(Arrays.asList(
+                Arrays.asList("contacts", "c1", "name"),
+                Arrays.asList("contacts", "c2"),
+                Arrays.asList("contacts", "c3")
+        ), paths);
+
+        // with a truncated tree, the diff stops at the deepest transmitted level
+        ObvSyncMerkleTree truncatedB = ObvSyncMerkleTree.of(new Encoded(b.encode(1).getBytes()));
+        assertArrayEquals(b.getHash(), truncatedB.getHash());
+        assertEquals(Collections.singletonList(Collections.singletonList("contacts")), a.computeDifferingPaths(truncatedB));
+        assertEquals(paths, a.computeDifferingPaths(ObvSyncMerkleTree.of(new Encoded(b.encode(10).getBytes()))));
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ *  Olvid for Android
+ *  Copyright © 2019-2026 Olvid SAS
+ *
+ *  This file is part of Olvid for Android.
+ *
+ *  Olvid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License, version 3,
+ *  as published by the Free Software Foundation.
+ *
+ *  Olvid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with Olvid.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package io.olvid.engine.networkfetch.operations;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+
+import io.olvid.engine.crypto.AuthEnc;
+import io.olvid.engine.crypto.PRNGService;
+import io.olvid.engine.crypto.Suite;
+import io.olvid.engine.datatypes.ChunkBitmap;
+import io.olvid.engine.datatypes.key.symmetric.AuthEncKey;
+import io.olvid.engine.encoder.Encoded;
+
+public class DownloadAttachmentOperationTest {
+    private static final int CHUNK_DATA_LENGTH = 50_000; // more than the streaming buffer
+    private static final int ATTACHMENT_LENGTH = 4 * CHUNK_DATA_LENGTH + 1_234;
+
+    private PRNGService prng;
+    private AuthEnc authEnc;
+    private AuthEncKey key;
+    private byte[] attachment;
+    private File directory;
+    private File attachmentFile;
+
+    @Before
+    public void setUp() throws Exception {
+        prng = Suite.getDefaultPRNGService(0);
+        authEnc = Suite.getDefaultAuthEnc(0);
+        key = authEnc.generateKey(prng);
+        attachment = prng.bytes(ATTACHMENT_LENGTH);
+        directory = Files.createTempDirectory("download_attachment_test").toFile();
+        attachmentFile = new File(directory, "attachment");
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        directory.delete();
+    }
+
+    private int chunkCount() {
+        return (ATTACHMENT_LENGTH + CHUNK_DATA_LENGTH - 1) / CHUNK_DATA_LENGTH;
+    }
+
+    // the verified ciphertext of a chunk, as saved by the download thread
+    private File chunkTemporaryFile(int chunkNumber, int encodedChunkNumber) throws Exception {
+        int offset = chunkNumber * CHUNK_DATA_LENGTH;
+        int dataLength = Math.min(CHUNK_DATA_LENGTH, ATTACHMENT_LENGTH - offset);
+        byte[] encodedChunk = new byte[Encoded.CHUNK_HEADER_LENGTH + dataLength];
+        Encoded.encodeChunkHeader(encodedChunkNumber, dataLength, encodedChunk, 0);
+        System.arraycopy(attachment, offset, encodedChunk, Encoded.CHUNK_HEADER_LENGTH, dataLength);
+        File temporaryFile = new File(directory, "chunk." + chunkNumber);
+        try (FileOutputStream fileOutputStream = new FileOutputStream(temporaryFile)) {
+            fileOutputStream.write(authEnc.encrypt(key, encodedChunk, prng).getBytes());
+        }
+        return temporaryFile;
+    }
+
+    private Integer decryptChunk(int chunkNumber, File temporaryFile) {
+        return DownloadAttachmentOperation.decryptChunk(key, chunkNumber, temporaryFile.length(), temporaryFile, attachmentFile, (long) chunkNumber * CHUNK_DATA_LENGTH);
+    }
+
+    @Test
+    public void test_outOfOrderWrites() throws Exception {
+        for (int chunkNumber : new int[]{3, 0, 4, 2, 1}) {
+            File temporaryFile = chunkTemporaryFile(chunkNumber, chunkNumber);
+            assertNull(decryptChunk(chunkNumber, temporaryFile));
+            int expectedDataLength = Math.min(CHUNK_DATA_LENGTH, ATTACHMENT_LENGTH - chunkNumber * CHUNK_DATA_LENGTH);
+            assertEquals(expectedDataLength, DownloadAttachmentOperation.decryptedChunkDataLength(key, temporaryFile.length()));
+        }
+
+        assertArrayEquals(attachment, Files.readAllBytes(attachmentFile.toPath()));
+    }
+
+    @Test
+    public void test_bitmapResume() throws Exception {
+        // a previous attempt received chunks 1 and 3 before being interrupted
+        ChunkBitmap receivedChunks = new ChunkBitmap(chunkCount(), null, 0);
+        for (int chunkNumber : new int[]{3, 1}) {
+            assertNull(decryptChunk(chunkNumber, chunkTemporaryFile(chunkNumber, chunkNumber)));
+            receivedChunks.set(chunkNumber);
+        }
+        ChunkBitmap resumedChunks = new ChunkBitmap(chunkCount(), receivedChunks.getBytes(), receivedChunks.getPrefixCount());
+
+        // the resumed attempt only downloads the missing chunks
+        int downloadedChunkCount = 0;
+        for (int chunkNumber = resumedChunks.nextUnset(0); chunkNumber != -1; chunkNumber = resumedChunks.nextUnset(chunkNumber + 1)) {
+            assertNull(decryptChunk(chunkNumber, chunkTemporaryFile(chunkNumber, chunkNumber)));
+            resumedChunks.set(chunkNumber);
+            downloadedChunkCount++;
+        }
+
+        assertEquals(chunkCount() - 2, downloadedChunkCount);
+        assertEquals(chunkCount(), resumedChunks.getPrefixCount());
+        assertArrayEquals(attachment, Files.readAllBytes(attachmentFile.toPath()));
+    }
+
+    @Test
+    public void test_wrongChunkNumberIsNotWritten() throws Exception {
+        assertEquals(Integer.valueOf(DownloadAttachmentOperation.RFC_INVALID_CHUNK), decryptChunk(2, chunkTemporaryFile(2, 1)));
+        // nothing is written for a chunk whose header does not match
+        assertFalse(attachmentFile.exists());
+    }
+}
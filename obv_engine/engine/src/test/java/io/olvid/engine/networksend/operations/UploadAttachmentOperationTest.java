@@ -0,0 +1,111 @@
+/*
+ *  Olvid for Android
+ *  Copyright © 2019-2026 Olvid SAS
+ *
+ *  This file is part of Olvid for Android.
+ *
+ *  Olvid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License, version 3,
+ *  as published by the Free Software Foundation.
+ *
+ *  Olvid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with Olvid.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package io.olvid.engine.networksend.operations;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import io.olvid.engine.crypto.AuthEnc;
+import io.olvid.engine.crypto.PRNGService;
+import io.olvid.engine.crypto.Suite;
+import io.olvid.engine.datatypes.ChunkBitmap;
+import io.olvid.engine.datatypes.EncryptedBytes;
+import io.olvid.engine.datatypes.key.symmetric.AuthEncKey;
+import io.olvid.engine.encoder.Encoded;
+
+public class UploadAttachmentOperationTest {
+    private static final int CHUNK_DATA_LENGTH = 50_000;
+    private static final int ATTACHMENT_LENGTH = 4 * CHUNK_DATA_LENGTH + 1_234;
+    private static final int CHUNK_COUNT = 5;
+
+    private PRNGService prng;
+    private AuthEnc authEnc;
+    private AuthEncKey key;
+    private byte[] attachment;
+    private File attachmentFile;
+
+    @Before
+    public void setUp() throws Exception {
+        prng = Suite.getDefaultPRNGService(0);
+        authEnc = Suite.getDefaultAuthEnc(0);
+        key = authEnc.generateKey(prng);
+        attachment = prng.bytes(ATTACHMENT_LENGTH);
+        attachmentFile = File.createTempFile("upload_attachment_test", ".bin");
+        Files.write(attachmentFile.toPath(), attachment);
+    }
+
+    @After
+    public void tearDown() {
+        //noinspection ResultOfMethodCallIgnored
+        attachmentFile.delete();
+    }
+
+    // reads the body of the request uploading a chunk, and checks it decrypts to this chunk of the attachment
+    private void checkUploadedChunk(int chunkNumber) throws Exception {
+        long plaintextOffset = (long) chunkNumber * CHUNK_DATA_LENGTH;
+        int dataLength = (int) Math.min(CHUNK_DATA_LENGTH, ATTACHMENT_LENGTH - plaintextOffset);
+        UploadAttachmentServerMethodForS3 serverMethod = new UploadAttachmentServerMethodForS3("", attachmentFile, key, prng, chunkNumber, plaintextOffset, dataLength);
+
+        byte[] ciphertext;
+        try (InputStream inputStream = serverMethod.openDataToSend()) {
+            ciphertext = inputStream.readAllBytes();
+        }
+        assertEquals(serverMethod.getDataToSendLength(), ciphertext.length);
+
+        byte[] encodedChunk = authEnc.decrypt(key, new EncryptedBytes(ciphertext));
+        assertEquals(chunkNumber, Encoded.decodeChunkHeader(encodedChunk, 0, encodedChunk.length));
+        assertArrayEquals(Arrays.copyOfRange(attachment, (int) plaintextOffset, (int) plaintextOffset + dataLength), Arrays.copyOfRange(encodedChunk, Encoded.CHUNK_HEADER_LENGTH, encodedChunk.length));
+    }
+
+    @Test
+    public void test_outOfOrderChunks() throws Exception {
+        // chunks are uploaded in parallel: each one is read at its own offset, independently of the others
+        for (int chunkNumber : new int[]{4, 1, 3, 0, 2}) {
+            checkUploadedChunk(chunkNumber);
+        }
+    }
+
+    @Test
+    public void test_bitmapResume() throws Exception {
+        // chunks 0 and 2 were acknowledged before the upload was interrupted
+        ChunkBitmap acknowledgedChunks = new ChunkBitmap(CHUNK_COUNT, null, 0);
+        acknowledgedChunks.set(2);
+        acknowledgedChunks.set(0);
+        ChunkBitmap resumedChunks = new ChunkBitmap(CHUNK_COUNT, acknowledgedChunks.getBytes(), acknowledgedChunks.getPrefixCount());
+
+        List<Integer> uploadedChunks = new ArrayList<>();
+        for (int chunkNumber = resumedChunks.nextUnset(0); chunkNumber != -1; chunkNumber = resumedChunks.nextUnset(chunkNumber + 1)) {
+            checkUploadedChunk(chunkNumber);
+            uploadedChunks.add(chunkNumber);
+        }
+
+        assertEquals(List.of(1, 3, 4), uploadedChunks);
+    }
+}
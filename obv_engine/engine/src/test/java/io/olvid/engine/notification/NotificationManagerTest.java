@@ -0,0 +1,153 @@
+/*
+ *  Olvid for Android
+ *  Copyright © 2019-2026 Olvid SAS
+ *
+ *  This file is part of Olvid for Android.
+ *
+ *  Olvid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License, version 3,
+ *  as published by the Free Software Foundation.
+ *
+ *  Olvid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with Olvid.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.olvid.engine.notification;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import io.olvid.engine.datatypes.NotificationListener;
+import io.olvid.engine.datatypes.TypedNotification;
+import io.olvid.engine.datatypes.TypedNotificationListener;
+import io.olvid.engine.datatypes.UID;
+import io.olvid.engine.datatypes.notifications.AttachmentProgressNotification;
+import io.olvid.engine.datatypes.notifications.UploadNotifications;
+import io.olvid.engine.metamanager.MetaManager;
+
+public class NotificationManagerTest {
+    private static final String NOTIFICATION_NAME = "test_notification";
+    private static final String NOTIFICATION_VALUE_KEY = "value";
+
+    @Test
+    public void test_synchronousListener() {
+        NotificationManager notificationManager = new NotificationManager(new MetaManager());
+        List<Object> values = new ArrayList<>();
+        NotificationListener listener = (notificationName, userInfo) -> values.add(userInfo.get(NOTIFICATION_VALUE_KEY));
+        long listenerNumber = notificationManager.addListener(NOTIFICATION_NAME, listener);
+
+        notificationManager.postNotification(NOTIFICATION_NAME, userInfo(1));
+        notificationManager.removeListener(NOTIFICATION_NAME, listenerNumber);
+        notificationManager.postNotification(NOTIFICATION_NAME, userInfo(2));
+
+        assertEquals(List.of(1), values);
+    }
+
+    @Test
+    public void test_asyncListenerOrderAndCoalescing() throws Exception {
+        NotificationManager notificationManager = new NotificationManager(new MetaManager());
+        UID messageUid = new UID(new byte[UID.UID_LENGTH]);
+        CountDownLatch blockListener = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        List<Object> received = Collections.synchronizedList(new ArrayList<>());
+
+        TypedNotificationListener listener = new TypedNotificationListener() {
+            @Override
+            public void typedCallback(TypedNotification notification) {
+                received.add(((AttachmentProgressNotification) notification).progress);
+            }
+
+            @Override
+            public void callback(String notificationName, Map<String, Object> userInfo) {
+                try {
+                    blockListener.await(2, TimeUnit.SECONDS);
+                } catch (InterruptedException ignored) { }
+                received.add(userInfo.get(NOTIFICATION_VALUE_KEY));
+                if (Integer.valueOf(3).equals(userInfo.get(NOTIFICATION_VALUE_KEY))) {
+                    done.countDown();
+                }
+            }
+        };
+        notificationManager.addAsyncListener(NOTIFICATION_NAME, listener);
+        notificationManager.addAsyncListener(UploadNotifications.NOTIFICATION_ATTACHMENT_UPLOAD_PROGRESS, listener);
+
+        // the listener is blocked on the first notification: posting must not block, and the progress notifications coalesce
+        notificationManager.postNotification(NOTIFICATION_NAME, userInfo(1));
+        for (int i=1; i<=10; i++) {
+            notificationManager.postNotification(AttachmentProgressNotification.upload(null, messageUid, 0, i/10f, null, null));
+        }
+        notificationManager.postNotification(NOTIFICATION_NAME, userInfo(3));
+        blockListener.countDown();
+
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertEquals(List.of(1, 1f, 3), received);
+    }
+
+    @Test
+    public void test_asyncListenerFullLaneDoesNotBlockPoster() throws Exception {
+        NotificationManager notificationManager = new NotificationManager(new MetaManager());
+        CountDownLatch blockListener = new CountDownLatch(1);
+        List<Object> received = Collections.synchronizedList(new ArrayList<>());
+
+        NotificationListener listener = (notificationName, userInfo) -> {
+            try {
+                blockListener.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException ignored) { }
+            received.add(userInfo.get(NOTIFICATION_VALUE_KEY));
+        };
+        notificationManager.addAsyncListener(NOTIFICATION_NAME, listener);
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 3 * NotificationDeliveryLane.MAX_PENDING_NOTIFICATIONS; i++) {
+            notificationManager.postNotification(NOTIFICATION_NAME, userInfo(i));
+        }
+        // once the lane is full, a notification identical to a pending one is coalesced
+        notificationManager.postNotification(NOTIFICATION_NAME, userInfo(NotificationDeliveryLane.MAX_PENDING_NOTIFICATIONS - 1));
+        assertTrue(System.currentTimeMillis() - start < 2_000);
+        blockListener.countDown();
+
+        Thread.sleep(500);
+        assertTrue(received.size() <= NotificationDeliveryLane.MAX_PENDING_NOTIFICATIONS + 1);
+        assertEquals(0, received.get(0));
+        assertEquals(received.size(), received.stream().distinct().count());
+    }
+
+    @Test
+    public void test_typedNotificationUserInfo() {
+        NotificationManager notificationManager = new NotificationManager(new MetaManager());
+        UID messageUid = new UID(new byte[UID.UID_LENGTH]);
+        List<Map<String, Object>> userInfos = new ArrayList<>();
+        NotificationListener listener = (notificationName, userInfo) -> userInfos.add(userInfo);
+        notificationManager.addListener(UploadNotifications.NOTIFICATION_ATTACHMENT_UPLOAD_PROGRESS, listener);
+
+        notificationManager.postNotification(AttachmentProgressNotification.upload(null, messageUid, 2, .5f, null, null));
+
+        assertEquals(1, userInfos.size());
+        assertEquals(messageUid, userInfos.get(0).get(UploadNotifications.NOTIFICATION_ATTACHMENT_UPLOAD_PROGRESS_MESSAGE_UID_KEY));
+        assertEquals(2, userInfos.get(0).get(UploadNotifications.NOTIFICATION_ATTACHMENT_UPLOAD_PROGRESS_ATTACHMENT_NUMBER_KEY));
+        assertEquals(.5f, userInfos.get(0).get(UploadNotifications.NOTIFICATION_ATTACHMENT_UPLOAD_PROGRESS_PROGRESS_KEY));
+        assertNull(userInfos.get(0).get(UploadNotifications.NOTIFICATION_ATTACHMENT_UPLOAD_PROGRESS_SPEED_BPS_KEY));
+    }
+
+    private static HashMap<String, Object> userInfo(int value) {
+        HashMap<String, Object> userInfo = new HashMap<>();
+        userInfo.put(NOTIFICATION_VALUE_KEY, value);
+        return userInfo;
+    }
+}
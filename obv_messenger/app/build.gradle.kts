@@ -164,6 +164,12 @@ android {
         }
     }
 
+    testOptions {
+        unitTests.all {
+            // benchmarks are skipped unless run with -Polvid.benchmark=true
+            it.systemProperty("olvid.benchmark", project.findProperty("olvid.benchmark") ?: "false")
+        }
+    }
 }
 
 androidComponents {
@@ -211,6 +217,7 @@ composeCompiler {
 
 dependencies {
     testImplementation(libs.junit)
+    testImplementation(libs.sqlite.jdbc)
 
     ksp(libs.androidx.room.compiler)
 
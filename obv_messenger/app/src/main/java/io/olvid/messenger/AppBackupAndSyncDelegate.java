@@ -22,6 +22,7 @@ package io.olvid.messenger;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 import io.olvid.engine.Logger;
 import io.olvid.engine.datatypes.Identity;
@@ -208,6 +209,12 @@ public class AppBackupAndSyncDelegate implements ObvBackupAndSyncDelegate {
         }
     }
 
+    @Override
+    public Set<String> getUnorderedArrayFields() {
+        // pinned_discussions is ordered (see OwnedIdentitySyncSnapshot.pinned_sorted)
+        return Set.of("domain");
+    }
+
     @Override
     public ObvSyncSnapshotNode getDeviceSnapshot() {
         return AppDeviceSnapshot.of(AppDatabase.getInstance());
@@ -37,7 +37,6 @@ import androidx.lifecycle.Observer;
 import androidx.lifecycle.Transformations;
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 import androidx.preference.PreferenceManager;
-import androidx.sqlite.db.SimpleSQLiteQuery;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -75,6 +74,8 @@ import io.olvid.messenger.customClasses.CustomSSLSocketFactory;
 import io.olvid.messenger.customClasses.DatabaseKey;
 import io.olvid.messenger.databases.AppDatabase;
 import io.olvid.messenger.databases.ContactCacheSingleton;
+import io.olvid.messenger.databases.FtsIndexer;
+import io.olvid.messenger.databases.entity.FyleMessageJoinWithStatus;
 import io.olvid.messenger.databases.entity.Message;
 import io.olvid.messenger.databases.entity.OwnedIdentity;
 import io.olvid.messenger.databases.tasks.ContactDisplayNameFormatChangedTask;
@@ -399,6 +400,9 @@ public class AppSingleton {
 
         if (lastFtsGlobalSearchVersion != AppDatabase.DB_FTS_GLOBAL_SEARCH_VERSION) {
             App.runThread(() -> runFtsGlobalSearchRebuild(lastFtsGlobalSearchVersion));
+        } else {
+            // resume any interrupted FTS indexing
+            FtsIndexer.INSTANCE.start();
         }
 
         App.runThread(() -> {
@@ -1107,19 +1111,24 @@ public class AppSingleton {
     private void runFtsGlobalSearchRebuild(int lastFtsGlobalSearchVersion) {
         try {
             Logger.i("FTS rebuild required");
-            long startTime = System.currentTimeMillis();
+            // indexing itself is done incrementally in the background by the FtsIndexer, we only schedule it here
             if (lastFtsGlobalSearchVersion < 1) {
-                // initial rebuild to index all messages received before the creation of the FTS table
-                Logger.i("- Rebuilding message table FTS");
-                AppDatabase.getInstance().rawDao().executeRawQuery(new SimpleSQLiteQuery("INSERT INTO message_table_fts(message_table_fts) VALUES ('rebuild')"));
+                // initial indexing of all messages received before the creation of the FTS table
+                Logger.i("- Scheduling message table FTS indexing");
+                FtsIndexer.INSTANCE.schedule(Message.FTS_TABLE_NAME);
+            }
+            if (lastFtsGlobalSearchVersion < 2) {
+                // attachments received before the creation of the FTS table were never indexed either
+                Logger.i("- Scheduling attachment table FTS indexing");
+                FtsIndexer.INSTANCE.schedule(FyleMessageJoinWithStatus.FTS_TABLE_NAME);
             }
             saveLastFtsGlobalSearchVersion(AppDatabase.DB_FTS_GLOBAL_SEARCH_VERSION);
-            Logger.i("FTS rebuild finished in " + (System.currentTimeMillis() - startTime) + "ms");
         } catch (Exception e) {
-            // rebuild failed, will be tried again at next startup...
-            Logger.w("FTS rebuild failed");
+            // scheduling failed, will be tried again at next startup...
+            Logger.w("FTS rebuild scheduling failed");
             e.printStackTrace();
         }
+        FtsIndexer.INSTANCE.start();
     }
 
     // endregion
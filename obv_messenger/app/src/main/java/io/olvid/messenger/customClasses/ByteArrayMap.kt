@@ -0,0 +1,180 @@
+/*
+ *  Olvid for Android
+ *  Copyright © 2019-2026 Olvid SAS
+ *
+ *  This file is part of Olvid for Android.
+ *
+ *  Olvid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License, version 3,
+ *  as published by the Free Software Foundation.
+ *
+ *  Olvid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with Olvid.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.olvid.messenger.customClasses
+
+
+// Immutable open-addressing hash map keyed by the content of a ByteArray.
+// Lookups hash the ByteArray directly, without allocating a BytesKey wrapper. Use a Builder to create a map, and with()
+// or without() to create a copy with a single entry modified.
+class ByteArrayMap<V : Any> private constructor(
+    private val keys: Array<ByteArray?>,
+    private val hashes: IntArray,
+    private val values: Array<Any?>,
+    val size: Int,
+) {
+    companion object {
+        private val EMPTY = ByteArrayMap<Any>(arrayOfNulls(1), IntArray(1), arrayOfNulls(1), 0)
+
+        @Suppress("UNCHECKED_CAST")
+        fun <V : Any> empty(): ByteArrayMap<V> = EMPTY as ByteArrayMap<V>
+
+        private fun slot(hash: Int, mask: Int): Int {
+            // spread the high bits, Arrays.hashCode() of identities is not uniform in its low bits
+            return (hash xor (hash ushr 16)) and mask
+        }
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    operator fun get(key: ByteArray?): V? {
+        if (key == null) {
+            return null
+        }
+        val index = indexOf(key, key.contentHashCode())
+        return if (keys[index] == null) null else values[index] as V
+    }
+
+    // index of the slot containing key, or of the empty slot where it would be inserted
+    private fun indexOf(key: ByteArray, hash: Int): Int {
+        val mask = keys.size - 1
+        var index = slot(hash, mask)
+        while (true) {
+            val candidate = keys[index] ?: return index
+            if (hashes[index] == hash && candidate.contentEquals(key)) {
+                return index
+            }
+            index = (index + 1) and mask
+        }
+    }
+
+    // Returns a copy of this map where key is mapped to value. Replacing the value of an existing key only copies the
+    // values array, the keys and hashes arrays are shared with this map.
+    fun with(key: ByteArray, value: V): ByteArrayMap<V> {
+        val hash = key.contentHashCode()
+        val index = indexOf(key, hash)
+        if (keys[index] != null) {
+            val newValues = values.copyOf()
+            newValues[index] = value
+            return ByteArrayMap(keys, hashes, newValues, size)
+        }
+        if ((size + 1) * 2 > keys.size) {
+            return resized(keys.size shl 1).with(key, value)
+        }
+        val newKeys = keys.copyOf()
+        val newHashes = hashes.copyOf()
+        val newValues = values.copyOf()
+        newKeys[index] = key
+        newHashes[index] = hash
+        newValues[index] = value
+        return ByteArrayMap(newKeys, newHashes, newValues, size + 1)
+    }
+
+    // Returns a copy of this map without key, or this map if it does not contain key.
+    fun without(key: ByteArray): ByteArrayMap<V> {
+        var hole = indexOf(key, key.contentHashCode())
+        if (keys[hole] == null) {
+            return this
+        }
+        if (size == 1) {
+            return empty()
+        }
+        val newKeys = keys.copyOf()
+        val newHashes = hashes.copyOf()
+        val newValues = values.copyOf()
+        newKeys[hole] = null
+        newValues[hole] = null
+        // shift back the following entries of the probe sequence, so that no lookup stops at the freed slot
+        val mask = keys.size - 1
+        var index = (hole + 1) and mask
+        while (true) {
+            val candidate = newKeys[index] ?: break
+            val idealIndex = slot(newHashes[index], mask)
+            if (((index - idealIndex) and mask) >= ((index - hole) and mask)) {
+                newKeys[hole] = candidate
+                newHashes[hole] = newHashes[index]
+                newValues[hole] = newValues[index]
+                newKeys[index] = null
+                newValues[index] = null
+                hole = index
+            }
+            index = (index + 1) and mask
+        }
+        return ByteArrayMap(newKeys, newHashes, newValues, size - 1)
+    }
+
+    private fun resized(capacity: Int): ByteArrayMap<V> {
+        val newKeys = arrayOfNulls<ByteArray>(capacity)
+        val newHashes = IntArray(capacity)
+        val newValues = arrayOfNulls<Any>(capacity)
+        val mask = capacity - 1
+        for (i in keys.indices) {
+            val key = keys[i] ?: continue
+            var index = slot(hashes[i], mask)
+            while (newKeys[index] != null) {
+                index = (index + 1) and mask
+            }
+            newKeys[index] = key
+            newHashes[index] = hashes[i]
+            newValues[index] = values[i]
+        }
+        return ByteArrayMap(newKeys, newHashes, newValues, size)
+    }
+
+    class Builder<V : Any>(expectedSize: Int = 16) {
+        private val entries = HashMap<BytesKey, V>(expectedSize * 4 / 3 + 1)
+
+        operator fun get(key: ByteArray): V? = entries[BytesKey(key)]
+
+        fun put(key: ByteArray, value: V): Builder<V> {
+            entries[BytesKey(key)] = value
+            return this
+        }
+
+        fun remove(key: ByteArray): Builder<V> {
+            entries.remove(BytesKey(key))
+            return this
+        }
+
+        fun build(): ByteArrayMap<V> {
+            if (entries.isEmpty()) {
+                return empty()
+            }
+            // keep the load factor at or below 1/2 so probe sequences stay short
+            var capacity = 2
+            while (capacity < entries.size * 2) {
+                capacity = capacity shl 1
+            }
+            val keys = arrayOfNulls<ByteArray>(capacity)
+            val hashes = IntArray(capacity)
+            val values = arrayOfNulls<Any>(capacity)
+            val mask = capacity - 1
+            for ((key, value) in entries) {
+                val hash = key.bytes.contentHashCode()
+                var index = slot(hash, mask)
+                while (keys[index] != null) {
+                    index = (index + 1) and mask
+                }
+                keys[index] = key.bytes
+                hashes[index] = hash
+                values[index] = value
+            }
+            return ByteArrayMap(keys, hashes, values, entries.size)
+        }
+    }
+}
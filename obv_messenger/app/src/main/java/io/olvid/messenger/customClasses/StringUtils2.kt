@@ -217,6 +217,13 @@ fun List<String>.fullTextSearchEscape(): String {
     })
 }
 
+// LIKE pattern (with backslash as escape character) approximating a full text search on rows that are not indexed yet
+fun List<String>.likePatternEscape(): String {
+    return this.joinToString(separator = "%", prefix = "%", postfix = "%", transform = {
+        it.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_")
+    })
+}
+
 
 data class PositionsMapping(val input: String) {
 
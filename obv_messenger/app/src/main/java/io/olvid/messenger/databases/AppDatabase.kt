@@ -34,6 +34,7 @@ import io.olvid.messenger.databases.dao.ContactGroupJoinDao
 import io.olvid.messenger.databases.dao.DiscussionCustomizationDao
 import io.olvid.messenger.databases.dao.DiscussionDao
 import io.olvid.messenger.databases.dao.EmojiDao
+import io.olvid.messenger.databases.dao.FtsIndexingProgressDao
 import io.olvid.messenger.databases.dao.FyleDao
 import io.olvid.messenger.databases.dao.FyleMessageJoinWithStatusDao
 import io.olvid.messenger.databases.dao.FyleMessageTextBlockDao
@@ -65,7 +66,9 @@ import io.olvid.messenger.databases.entity.Contact
 import io.olvid.messenger.databases.entity.ContactGroupJoin
 import io.olvid.messenger.databases.entity.Discussion
 import io.olvid.messenger.databases.entity.DiscussionCustomization
+import io.olvid.messenger.databases.entity.DiscussionStorageUsage
 import io.olvid.messenger.databases.entity.Emoji
+import io.olvid.messenger.databases.entity.FtsIndexingProgress
 import io.olvid.messenger.databases.entity.Fyle
 import io.olvid.messenger.databases.entity.FyleMessageJoinWithStatus
 import io.olvid.messenger.databases.entity.FyleMessageJoinWithStatusFTS
@@ -89,6 +92,7 @@ import io.olvid.messenger.databases.entity.PendingGroupMember
 import io.olvid.messenger.databases.entity.PollVote
 import io.olvid.messenger.databases.entity.Reaction
 import io.olvid.messenger.databases.entity.RemoteDeleteAndEditRequest
+import io.olvid.messenger.databases.entity.StorageUsageFyle
 import io.olvid.messenger.databases.entity.TextBlock
 import io.olvid.messenger.settings.SettingsActivity
 import net.zetetic.database.sqlcipher.SQLiteDatabase
@@ -101,6 +105,8 @@ import java.io.File
         CallLogItemContactJoin::class,
         Contact::class, ContactGroupJoin::class,
         Discussion::class, DiscussionCustomization::class,
+        DiscussionStorageUsage::class,
+        FtsIndexingProgress::class,
         Fyle::class,
         FyleMessageJoinWithStatus::class,
         FyleMessageJoinWithStatusFTS::class,
@@ -122,6 +128,7 @@ import java.io.File
         PendingGroupMember::class,
         Reaction::class,
         RemoteDeleteAndEditRequest::class,
+        StorageUsageFyle::class,
         TextBlock::class,
         PollVote::class,
         OnHoldInboxMessage::class,
@@ -183,6 +190,8 @@ abstract class AppDatabase : RoomDatabase() {
 
     abstract fun globalSearchDao(): GlobalSearchDao
 
+    abstract fun ftsIndexingProgressDao(): FtsIndexingProgressDao
+
     abstract fun fyleMessageTextBlockDao(): FyleMessageTextBlockDao
 
     abstract fun messageReturnReceiptDao(): MessageReturnReceiptDao
@@ -194,8 +203,8 @@ abstract class AppDatabase : RoomDatabase() {
     abstract fun emojiDao(): EmojiDao
 
     companion object {
-        const val DB_SCHEMA_VERSION: Int = 84
-        const val DB_FTS_GLOBAL_SEARCH_VERSION: Int = 1
+        const val DB_SCHEMA_VERSION: Int = 87
+        const val DB_FTS_GLOBAL_SEARCH_VERSION: Int = 2
         const val DB_FILE_NAME: String = "app_database"
         const val TMP_ENCRYPTED_DB_FILE_NAME: String = "encrypted_app_database"
 
@@ -209,6 +218,7 @@ abstract class AppDatabase : RoomDatabase() {
                     values.put(Emoji.LAST_USED, 0)
                     db.insert(Emoji.TABLE_NAME, SQLiteDatabase.CONFLICT_IGNORE, values)
                 }
+                DiscussionStorageUsage.TRIGGERS.forEach { db.execSQL(it) }
             }
 
             override fun onOpen(db: SupportSQLiteDatabase) {
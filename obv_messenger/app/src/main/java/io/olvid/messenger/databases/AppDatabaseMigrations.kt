@@ -29,6 +29,7 @@ import io.olvid.engine.crypto.Suite
 import io.olvid.messenger.App
 import io.olvid.messenger.R
 import io.olvid.messenger.customClasses.StringUtils
+import io.olvid.messenger.databases.entity.DiscussionStorageUsage
 import io.olvid.messenger.databases.entity.Emoji
 import io.olvid.messenger.databases.entity.Reaction
 import io.olvid.messenger.settings.SettingsActivity
@@ -38,6 +39,64 @@ import java.util.regex.Pattern
 
 internal object AppDatabaseMigrations {
     val MIGRATIONS: Array<Migration> = arrayOf(
+        object : Migration(86, 87) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                Logger.w("ROOM MIGRATING FROM VERSION 86 TO 87")
+                db.execSQL("CREATE TABLE IF NOT EXISTS `storage_usage_fyle_table` (`discussion_id` INTEGER NOT NULL, `fyle_id` INTEGER NOT NULL, `bytes_owned_identity` BLOB NOT NULL, `size` INTEGER NOT NULL, `complete` INTEGER NOT NULL, `ref_count` INTEGER NOT NULL, PRIMARY KEY(`discussion_id`, `fyle_id`), FOREIGN KEY(`discussion_id`) REFERENCES `discussion_table`(`id`) ON UPDATE NO ACTION ON DELETE CASCADE , FOREIGN KEY(`fyle_id`) REFERENCES `fyle_table`(`id`) ON UPDATE NO ACTION ON DELETE CASCADE )")
+                db.execSQL("CREATE INDEX IF NOT EXISTS `index_storage_usage_fyle_table_fyle_id` ON `storage_usage_fyle_table` (`fyle_id`)")
+                db.execSQL("CREATE INDEX IF NOT EXISTS `index_storage_usage_fyle_table_bytes_owned_identity_fyle_id` ON `storage_usage_fyle_table` (`bytes_owned_identity`, `fyle_id`)")
+                db.execSQL("CREATE TABLE IF NOT EXISTS `discussion_storage_usage_table` (`discussion_id` INTEGER NOT NULL, `bytes_owned_identity` BLOB NOT NULL, `total_size` INTEGER NOT NULL, PRIMARY KEY(`discussion_id`), FOREIGN KEY(`discussion_id`) REFERENCES `discussion_table`(`id`) ON UPDATE NO ACTION ON DELETE CASCADE )")
+                db.execSQL("CREATE INDEX IF NOT EXISTS `index_discussion_storage_usage_table_bytes_owned_identity` ON `discussion_storage_usage_table` (`bytes_owned_identity`)")
+
+                // backfill from the existing attachments, before creating the triggers so nothing is counted twice
+                db.execSQL("INSERT INTO `storage_usage_fyle_table` (`discussion_id`, `fyle_id`, `bytes_owned_identity`, `size`, `complete`, `ref_count`) " +
+                        " SELECT mess.`discussion_id`, FMjoin.`fyle_id`, FMjoin.`bytes_owned_identity`, MAX(FMjoin.`size`), fyle.`permanent_file_path` IS NOT NULL, COUNT(*) " +
+                        " FROM `fyle_message_join_with_status` AS FMjoin " +
+                        " INNER JOIN `message_table` AS mess ON mess.`id` = FMjoin.`message_id` " +
+                        " INNER JOIN `fyle_table` AS fyle ON fyle.`id` = FMjoin.`fyle_id` " +
+                        " GROUP BY mess.`discussion_id`, FMjoin.`fyle_id`")
+                db.execSQL("INSERT INTO `discussion_storage_usage_table` (`discussion_id`, `bytes_owned_identity`, `total_size`) " +
+                        " SELECT `discussion_id`, `bytes_owned_identity`, SUM(`size`) " +
+                        " FROM `storage_usage_fyle_table` " +
+                        " WHERE `complete` = 1 " +
+                        " GROUP BY `discussion_id`")
+
+                DiscussionStorageUsage.TRIGGERS.forEach { db.execSQL(it) }
+            }
+        },
+
+        object : Migration(85, 86) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                Logger.w("ROOM MIGRATING FROM VERSION 85 TO 86")
+                db.execSQL("ALTER TABLE `fyle_message_join_with_status` ADD COLUMN `media_category` INTEGER NOT NULL DEFAULT 0")
+
+                // the backfill does not change any indexed column: temporarily drop the FTS update triggers so it does not re-index every attachment
+                db.execSQL("DROP TRIGGER IF EXISTS room_fts_content_sync_fyle_message_join_with_status_fts_BEFORE_UPDATE")
+                db.execSQL("DROP TRIGGER IF EXISTS room_fts_content_sync_fyle_message_join_with_status_fts_AFTER_UPDATE")
+                // keep in sync with FyleMessageJoinWithStatus.computeMediaCategory()
+                db.execSQL("UPDATE `fyle_message_join_with_status` SET `media_category` = CASE " +
+                        " WHEN `file_type` IS NULL THEN 0 " +
+                        " WHEN `file_type` = 'olvid/link-preview' THEN 5 " +
+                        " WHEN `file_type` LIKE 'audio/%' AND `file_name` LIKE '%.olvidaudio%' THEN 4 " +
+                        " WHEN `file_type` LIKE 'audio/%' THEN 3 " +
+                        " WHEN `file_type` LIKE 'video/%' THEN 2 " +
+                        " WHEN `file_type` LIKE 'image/%' THEN 1 " +
+                        " ELSE 0 END")
+                db.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_fyle_message_join_with_status_fts_BEFORE_UPDATE BEFORE UPDATE ON `fyle_message_join_with_status` BEGIN DELETE FROM `fyle_message_join_with_status_fts` WHERE `docid`=OLD.`rowid`; END")
+                db.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_fyle_message_join_with_status_fts_AFTER_UPDATE AFTER UPDATE ON `fyle_message_join_with_status` BEGIN INSERT INTO `fyle_message_join_with_status_fts`(`docid`, `file_name`, `text_content`) VALUES (NEW.`rowid`, NEW.`file_name`, NEW.`text_content`); END")
+
+                db.execSQL("CREATE INDEX IF NOT EXISTS `index_fyle_message_join_with_status_message_id_media_category` ON `fyle_message_join_with_status` (`message_id`, `media_category`)")
+                db.execSQL("CREATE INDEX IF NOT EXISTS `index_fyle_message_join_with_status_bytes_owned_identity_media_category` ON `fyle_message_join_with_status` (`bytes_owned_identity`, `media_category`)")
+            }
+        },
+
+        object : Migration(84, 85) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                Logger.w("ROOM MIGRATING FROM VERSION 84 TO 85")
+                db.execSQL("CREATE TABLE IF NOT EXISTS `fts_indexing_progress_table` (`fts_table_name` TEXT NOT NULL, `last_indexed_rowid` INTEGER NOT NULL, `max_rowid` INTEGER NOT NULL, `indexed_count` INTEGER NOT NULL, `indexing_duration` INTEGER NOT NULL, PRIMARY KEY(`fts_table_name`))")
+            }
+        },
+
         object : Migration(83, 84) {
             override fun migrate(db: SupportSQLiteDatabase) {
                 Logger.w("ROOM MIGRATING FROM VERSION 83 TO 84")
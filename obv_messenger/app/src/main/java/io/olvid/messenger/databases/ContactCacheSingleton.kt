@@ -19,236 +19,257 @@
 
 package io.olvid.messenger.databases
 
-import androidx.lifecycle.MutableLiveData
 import io.olvid.engine.engine.types.JsonIdentityDetails
 import io.olvid.messenger.App
 import io.olvid.messenger.AppSingleton
 import io.olvid.messenger.R
-import io.olvid.messenger.customClasses.BytesKey
+import io.olvid.messenger.customClasses.ByteArrayMap
 import io.olvid.messenger.databases.AppDatabase.Companion.getInstance
 import io.olvid.messenger.databases.entity.Contact
 import io.olvid.messenger.databases.entity.Group2PendingMember
 import io.olvid.messenger.databases.entity.OwnedIdentity
 import io.olvid.messenger.settings.SettingsActivity
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
 
 
 // Contact names and info caches (for main thread access)
+// All cached data lives in a single immutable map, swapped atomically on each reload or update, so readers always see a
+// coherent snapshot without locking.
 object ContactCacheSingleton {
-    private val contactNamesCache: MutableLiveData<MutableMap<BytesKey, ContactCacheDisplayNames>> = MutableLiveData() // the first element of the pair is the full display name, the second the first name (or custom name for both, if set)
-    private val contactHuesCache: MutableLiveData<MutableMap<BytesKey, Int>> = MutableLiveData()
-    private val contactPhotoUrlsCache: MutableLiveData<MutableMap<BytesKey, String>> = MutableLiveData()
-    private val contactInfoCache: MutableLiveData<MutableMap<BytesKey, ContactCacheInfo>> = MutableLiveData()
+    private const val RELOAD_DEBOUNCE_MS = 100L
+
+    @Volatile
+    private var contactCache: ByteArrayMap<ContactCacheEntry> = ByteArrayMap.empty()
+    private val updateLock = Any()
+
+    private val reloadExecutor = Executors.newSingleThreadScheduledExecutor()
+    private val reloadLock = Any()
+    private var scheduledReload: ScheduledFuture<*>? = null
+    private var ownedIdentityToReload: OwnedIdentity? = null
 
 
     fun reloadCachedDisplayNamesAndHues() {
         reloadCachedDisplayNamesAndHues(AppSingleton.getCurrentIdentityLiveData().value)
     }
 
+    // Reloads are debounced: a burst of reload requests (identity switch, display name format change, restore...) results
+    // in a single reload, for the last requested identity.
     fun reloadCachedDisplayNamesAndHues(ownedIdentity: OwnedIdentity?) {
+        synchronized(reloadLock) {
+            ownedIdentityToReload = ownedIdentity
+            if (scheduledReload == null) {
+                scheduledReload = reloadExecutor.schedule({
+                    val reloadOwnedIdentity = synchronized(reloadLock) {
+                        scheduledReload = null
+                        ownedIdentityToReload
+                    }
+                    try {
+                        reload(reloadOwnedIdentity)
+                    } catch (e: Exception) {
+                        e.printStackTrace()
+                    }
+                }, RELOAD_DEBOUNCE_MS, TimeUnit.MILLISECONDS)
+            }
+        }
+    }
+
+    private fun reload(ownedIdentity: OwnedIdentity?) {
         if (ownedIdentity == null) {
-            contactNamesCache.postValue(mutableMapOf())
-            contactHuesCache.postValue(mutableMapOf())
-            contactPhotoUrlsCache.postValue(mutableMapOf())
-            contactInfoCache.postValue(mutableMapOf())
+            synchronized(updateLock) {
+                contactCache = ByteArrayMap.empty()
+            }
             return
         }
 
-        val contactNamesHashMap = mutableMapOf<BytesKey, ContactCacheDisplayNames>()
-        val contactHuesHashMap = mutableMapOf<BytesKey, Int>()
-        val contactPhotoUrlsHashMap = mutableMapOf<BytesKey, String>()
-        val contactCacheInfoHashMap = mutableMapOf<BytesKey, ContactCacheInfo>()
+        val contacts = getInstance().contactDao().getAllForOwnedIdentitySync(ownedIdentity.bytesOwnedIdentity)
+        val builder = ByteArrayMap.Builder<ContactCacheEntry>(contacts.size + 1)
 
-        getInstance().contactDao().getAllForOwnedIdentitySync(ownedIdentity.bytesOwnedIdentity).forEach { contact ->
-            val key = BytesKey(contact.bytesContactIdentity)
-            contactNamesHashMap[key] =
-                ContactCacheDisplayNames.of(
+        contacts.forEach { contact ->
+            builder.put(contact.bytesContactIdentity, ContactCacheEntry(
+                displayNames = ContactCacheDisplayNames.of(
                     displayName = contact.displayName,
                     customDisplayName = contact.customDisplayName,
                     firstName = contact.firstName,
                     identityDetails = contact.getIdentityDetails(),
-                )
-            contact.customNameHue?.let {
-                contactHuesHashMap[key] = it
-            }
-            if (contact.getCustomPhotoUrl() != null) {
-                contactPhotoUrlsHashMap[key] = contact.getCustomPhotoUrl()
-            }
-            contactCacheInfoHashMap[key] = ContactCacheInfo(
-                contact.keycloakManaged,
-                contact.active,
-                contact.oneToOne,
-                contact.recentlyOnline,
-                contact.trustLevel
-            )
+                ),
+                customHue = contact.customNameHue,
+                photoUrl = contact.getCustomPhotoUrl(),
+                info = ContactCacheInfo(
+                    contact.keycloakManaged,
+                    contact.active,
+                    contact.oneToOne,
+                    contact.recentlyOnline,
+                    contact.trustLevel
+                ),
+            ))
         }
 
-        val ownKey = BytesKey(ownedIdentity.bytesOwnedIdentity)
-        contactNamesHashMap[ownKey] = ContactCacheDisplayNames.of(
-            displayName = ownedIdentity.displayName,
-            customDisplayName = ownedIdentity.customDisplayName,
-            firstName = null,
-            identityDetails = ownedIdentity.getIdentityDetails(),
-            isOwnedIdentity = true
-        )
-        ownedIdentity.photoUrl?.let {
-            contactPhotoUrlsHashMap[ownKey] = it
-        }
-        contactCacheInfoHashMap[ownKey] =
-            ContactCacheInfo(
+        builder.put(ownedIdentity.bytesOwnedIdentity, ContactCacheEntry(
+            displayNames = ContactCacheDisplayNames.of(
+                displayName = ownedIdentity.displayName,
+                customDisplayName = ownedIdentity.customDisplayName,
+                firstName = null,
+                identityDetails = ownedIdentity.getIdentityDetails(),
+                isOwnedIdentity = true
+            ),
+            customHue = null,
+            photoUrl = ownedIdentity.photoUrl,
+            info = ContactCacheInfo(
                 keycloakManaged = ownedIdentity.keycloakManaged,
                 active = ownedIdentity.active,
                 oneToOne = true,
                 recentlyOnline = true,
                 trustLevel = -1
-            )
+            ),
+        ))
 
         getInstance().group2PendingMemberDao().getAll(ownedIdentity.bytesOwnedIdentity).forEach { pendingMember ->
-            val key = BytesKey(pendingMember.bytesContactIdentity)
-            if (!contactNamesHashMap.containsKey(key)) {
-                contactNamesHashMap[key] = ContactCacheDisplayNames.of(
-                    displayName = pendingMember.displayName,
-                    customDisplayName = null,
-                    firstName = pendingMember.getNonNullFirstName(),
-                    identityDetails = kotlin.runCatching { AppSingleton.getJsonObjectMapper().readValue(pendingMember.identityDetails, JsonIdentityDetails::class.java) }.getOrNull(),
-                )
+            if (builder[pendingMember.bytesContactIdentity] == null) {
+                builder.put(pendingMember.bytesContactIdentity, ContactCacheEntry(
+                    displayNames = pendingMember.toContactCacheDisplayNames(),
+                ))
+            }
+        }
+
+        synchronized(updateLock) {
+            contactCache = builder.build()
+        }
+    }
+
+    // copy-on-write update of a single entry: the arrays backing the map are copied as is, without rehashing or wrapping
+    // any key
+    private fun updateEntry(bytesContactIdentity: ByteArray, update: (ContactCacheEntry?) -> ContactCacheEntry?) {
+        synchronized(updateLock) {
+            val cache = contactCache
+            val previousEntry = cache[bytesContactIdentity]
+            val updatedEntry = update(previousEntry)
+            if (updatedEntry == previousEntry) {
+                return
+            }
+            contactCache = if (updatedEntry == null) {
+                cache.without(bytesContactIdentity)
+            } else {
+                cache.with(bytesContactIdentity, updatedEntry)
             }
         }
+    }
 
-        contactNamesCache.postValue(contactNamesHashMap)
-        contactHuesCache.postValue(contactHuesHashMap)
-        contactPhotoUrlsCache.postValue(contactPhotoUrlsHashMap)
-        contactInfoCache.postValue(contactCacheInfoHashMap)
+    private fun Group2PendingMember.toContactCacheDisplayNames(): ContactCacheDisplayNames {
+        return ContactCacheDisplayNames.of(
+            displayName = displayName,
+            customDisplayName = null,
+            firstName = getNonNullFirstName(),
+            identityDetails = kotlin.runCatching { AppSingleton.getJsonObjectMapper().readValue(identityDetails, JsonIdentityDetails::class.java) }.getOrNull(),
+        )
     }
 
     fun getContactCustomDisplayName(bytesContactIdentity: ByteArray?): String? {
-        return contactNamesCache.value?.get(BytesKey(bytesContactIdentity))?.displayName
+        return contactCache[bytesContactIdentity]?.displayNames?.displayName
     }
 
     fun getContactFirstName(bytesContactIdentity: ByteArray?): String? {
-        return contactNamesCache.value?.get(BytesKey(bytesContactIdentity))?.firstName
+        return contactCache[bytesContactIdentity]?.displayNames?.firstName
     }
 
     fun getContactDetailsFirstLine(bytesContactIdentity: ByteArray?): String? {
-        return contactNamesCache.value?.get(BytesKey(bytesContactIdentity))?.detailsFirstLine
+        return contactCache[bytesContactIdentity]?.displayNames?.detailsFirstLine
     }
 
     fun getContactDetailsSecondLine(bytesContactIdentity: ByteArray?): String? {
-        return contactNamesCache.value?.get(BytesKey(bytesContactIdentity))?.detailsSecondLine
+        return contactCache[bytesContactIdentity]?.displayNames?.detailsSecondLine
     }
 
     fun getContactDetailsSingleLine(bytesContactIdentity: ByteArray?): String? {
-        return contactNamesCache.value?.get(BytesKey(bytesContactIdentity))?.detailsSingleLine
+        return contactCache[bytesContactIdentity]?.displayNames?.detailsSingleLine
     }
 
     fun getContactCustomHue(bytesContactIdentity: ByteArray?): Int? {
-        return contactHuesCache.value?.get(BytesKey(bytesContactIdentity))
+        return contactCache[bytesContactIdentity]?.customHue
     }
 
     fun getContactPhotoUrl(bytesContactIdentity: ByteArray?): String? {
-        return contactPhotoUrlsCache.value?.get(BytesKey(bytesContactIdentity))
+        return contactCache[bytesContactIdentity]?.photoUrl
     }
 
     fun getContactCacheInfo(bytesContactIdentity: ByteArray?): ContactCacheInfo? {
-        return contactInfoCache.value?.get(BytesKey(bytesContactIdentity))
+        return contactCache[bytesContactIdentity]?.info
     }
 
     fun updateCachedCustomDisplayName(
         contact: Contact
     ) {
-        contactNamesCache.value?.let { mutableMap ->
-            mutableMap[BytesKey(contact.bytesContactIdentity)] = ContactCacheDisplayNames.of(
-                displayName = contact.displayName,
-                customDisplayName = contact.customDisplayName,
-                firstName = contact.firstName,
-                identityDetails = contact.getIdentityDetails(),
-            )
-            contactNamesCache.postValue(mutableMap)
+        val displayNames = ContactCacheDisplayNames.of(
+            displayName = contact.displayName,
+            customDisplayName = contact.customDisplayName,
+            firstName = contact.firstName,
+            identityDetails = contact.getIdentityDetails(),
+        )
+        updateEntry(contact.bytesContactIdentity) { entry ->
+            entry?.copy(displayNames = displayNames) ?: ContactCacheEntry(displayNames = displayNames)
         }
     }
 
     fun updateCachedCustomDisplayName(
         pendingMember: Group2PendingMember,
     ) {
-        contactNamesCache.value?.let { mutableMap ->
-            mutableMap[BytesKey(pendingMember.bytesContactIdentity)] = ContactCacheDisplayNames.of(
-                displayName = pendingMember.displayName,
-                customDisplayName = null,
-                firstName = pendingMember.getNonNullFirstName(),
-                identityDetails = kotlin.runCatching { AppSingleton.getJsonObjectMapper().readValue(pendingMember.identityDetails, JsonIdentityDetails::class.java) }.getOrNull(),
-            )
-            contactNamesCache.postValue(mutableMap)
+        val displayNames = pendingMember.toContactCacheDisplayNames()
+        updateEntry(pendingMember.bytesContactIdentity) { entry ->
+            entry?.copy(displayNames = displayNames) ?: ContactCacheEntry(displayNames = displayNames)
         }
     }
 
     fun updateCachedCustomHue(bytesContactIdentity: ByteArray, customHue: Int?) {
-        contactHuesCache.value?.let { mutableMap ->
-            if (customHue == null) {
-                mutableMap.remove(BytesKey(bytesContactIdentity))
-            } else {
-                mutableMap[BytesKey(bytesContactIdentity)] = customHue
-            }
-            contactHuesCache.postValue(mutableMap)
+        updateEntry(bytesContactIdentity) { entry ->
+            entry?.copy(customHue = customHue) ?: customHue?.let { ContactCacheEntry(customHue = it) }
         }
     }
 
     fun updateCachedPhotoUrl(bytesContactIdentity: ByteArray, photoUrl: String?) {
-        contactPhotoUrlsCache.value?.let { mutableMap ->
-            if (photoUrl == null) {
-                mutableMap.remove(BytesKey(bytesContactIdentity))
-            } else {
-                mutableMap[BytesKey(bytesContactIdentity)] = photoUrl
-            }
-            contactPhotoUrlsCache.postValue(mutableMap)
+        updateEntry(bytesContactIdentity) { entry ->
+            entry?.copy(photoUrl = photoUrl) ?: photoUrl?.let { ContactCacheEntry(photoUrl = it) }
         }
     }
 
     fun updateContactCachedInfo(contact: Contact) {
-        contactInfoCache.value?.let { mutableMap ->
-            mutableMap[BytesKey(contact.bytesContactIdentity)] = ContactCacheInfo(
-                keycloakManaged = contact.keycloakManaged,
-                active = contact.active,
-                oneToOne = contact.oneToOne,
-                recentlyOnline = contact.recentlyOnline,
-                trustLevel = contact.trustLevel
-            )
-            contactInfoCache.postValue(mutableMap)
+        val info = ContactCacheInfo(
+            keycloakManaged = contact.keycloakManaged,
+            active = contact.active,
+            oneToOne = contact.oneToOne,
+            recentlyOnline = contact.recentlyOnline,
+            trustLevel = contact.trustLevel
+        )
+        updateEntry(contact.bytesContactIdentity) { entry ->
+            entry?.copy(info = info) ?: ContactCacheEntry(info = info)
         }
     }
 
     fun updateContactCachedInfo(ownedIdentity: OwnedIdentity) {
-        contactInfoCache.value?.let { mutableMap ->
-            mutableMap[BytesKey(ownedIdentity.bytesOwnedIdentity)] = ContactCacheInfo(
-                keycloakManaged = ownedIdentity.keycloakManaged,
-                active = ownedIdentity.active,
-                oneToOne = true,
-                recentlyOnline = true,
-                trustLevel = 0
-            )
-            contactInfoCache.postValue(mutableMap)
+        val info = ContactCacheInfo(
+            keycloakManaged = ownedIdentity.keycloakManaged,
+            active = ownedIdentity.active,
+            oneToOne = true,
+            recentlyOnline = true,
+            trustLevel = 0
+        )
+        updateEntry(ownedIdentity.bytesOwnedIdentity) { entry ->
+            entry?.copy(info = info) ?: ContactCacheEntry(info = info)
         }
     }
 
     fun updateCacheContactDeleted(bytesContactIdentity: ByteArray) {
-        val key = BytesKey(bytesContactIdentity)
-        contactNamesCache.value?.let {
-            it.remove(key)
-            contactNamesCache.postValue(it)
-        }
-        contactHuesCache.value?.let {
-            it.remove(key)
-            contactHuesCache.postValue(it)
-        }
-        contactPhotoUrlsCache.value?.let {
-            it.remove(key)
-            contactPhotoUrlsCache.postValue(it)
-        }
-        contactInfoCache.value?.let {
-            it.remove(key)
-            contactInfoCache.postValue(it)
-        }
+        updateEntry(bytesContactIdentity) { null }
     }
 }
 
+data class ContactCacheEntry(
+    val displayNames: ContactCacheDisplayNames? = null,
+    val customHue: Int? = null,
+    val photoUrl: String? = null,
+    val info: ContactCacheInfo? = null,
+)
+
 data class ContactCacheInfo(
     val keycloakManaged: Boolean,
     val active: Boolean,
@@ -0,0 +1,125 @@
+/*
+ *  Olvid for Android
+ *  Copyright © 2019-2026 Olvid SAS
+ *
+ *  This file is part of Olvid for Android.
+ *
+ *  Olvid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License, version 3,
+ *  as published by the Free Software Foundation.
+ *
+ *  Olvid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with Olvid.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.olvid.messenger.databases
+
+import io.olvid.engine.Logger
+import io.olvid.messenger.App
+import io.olvid.messenger.databases.entity.FtsIndexingProgress
+import io.olvid.messenger.databases.entity.FyleMessageJoinWithStatus
+import io.olvid.messenger.databases.entity.Message
+import java.util.Locale
+import java.util.concurrent.atomic.AtomicBoolean
+
+// Resumable background (re-)indexing of the FTS tables, in small rowid ranges.
+// Each batch runs in its own transaction, so message insertion is never blocked for long, and progress is
+// checkpointed in the FtsIndexingProgress table so indexing resumes where it stopped after an app restart.
+object FtsIndexer {
+    private const val BATCH_SIZE = 500L
+    // after each batch, pause for IDLE_RATIO times the batch duration to leave the database to other writers
+    private const val IDLE_RATIO = 4L
+    private const val MIN_PAUSE_MS = 50L
+
+    private val running = AtomicBoolean(false)
+
+    // only rows existing at that time need to be indexed, later rows are indexed by the FTS triggers
+    fun schedule(ftsTableName: String) {
+        val ftsIndexingProgressDao = AppDatabase.getInstance().ftsIndexingProgressDao()
+        val maxRowid = when (ftsTableName) {
+            Message.FTS_TABLE_NAME -> ftsIndexingProgressDao.getMessageMaxRowid()
+            FyleMessageJoinWithStatus.FTS_TABLE_NAME -> ftsIndexingProgressDao.getFyleMessageJoinWithStatusMaxRowid()
+            else -> return
+        }
+        Logger.i("Scheduling FTS indexing of $ftsTableName up to rowid $maxRowid")
+        ftsIndexingProgressDao.insert(FtsIndexingProgress(ftsTableName, 0, maxRowid, 0, 0))
+    }
+
+    fun start() {
+        if (!running.compareAndSet(false, true)) {
+            return
+        }
+        App.runThread {
+            try {
+                indexPendingTables()
+            } catch (e: Exception) {
+                // will be resumed at next startup
+                Logger.x(e)
+            } finally {
+                running.set(false)
+            }
+        }
+    }
+
+    // the range of rowids (exclusive, inclusive) of the table that may not be indexed yet, null if indexing is complete
+    fun getUnindexedRange(ftsTableName: String): Pair<Long, Long>? {
+        return AppDatabase.getInstance().ftsIndexingProgressDao().get(ftsTableName)?.let {
+            it.lastIndexedRowid to it.maxRowid
+        }
+    }
+
+    fun getIndexingStatus(): List<FtsIndexingProgress> {
+        return AppDatabase.getInstance().ftsIndexingProgressDao().getAll()
+    }
+
+    private fun indexPendingTables() {
+        val db = AppDatabase.getInstance()
+        val ftsIndexingProgressDao = db.ftsIndexingProgressDao()
+        while (true) {
+            val progress = ftsIndexingProgressDao.getAll().firstOrNull() ?: return
+            if (progress.lastIndexedRowid >= progress.maxRowid) {
+                ftsIndexingProgressDao.delete(progress.ftsTableName)
+                Logger.i("FTS indexing of ${progress.ftsTableName} finished: ${progress.indexedCount} rows in ${progress.indexingDuration}ms (${String.format(Locale.ENGLISH, "%.0f", progress.throughput())} rows/s)")
+                continue
+            }
+
+            val fromRowid = progress.lastIndexedRowid
+            val toRowid = (fromRowid + BATCH_SIZE).coerceAtMost(progress.maxRowid)
+            val startTime = System.currentTimeMillis()
+            db.runInTransaction {
+                val count = when (progress.ftsTableName) {
+                    Message.FTS_TABLE_NAME -> {
+                        ftsIndexingProgressDao.indexMessages(fromRowid, toRowid)
+                        ftsIndexingProgressDao.countMessages(fromRowid, toRowid)
+                    }
+                    FyleMessageJoinWithStatus.FTS_TABLE_NAME -> {
+                        ftsIndexingProgressDao.indexFyleMessageJoinWithStatuses(fromRowid, toRowid)
+                        ftsIndexingProgressDao.countFyleMessageJoinWithStatuses(fromRowid, toRowid)
+                    }
+                    else -> {
+                        // unknown table, drop it
+                        ftsIndexingProgressDao.delete(progress.ftsTableName)
+                        return@runInTransaction
+                    }
+                }
+                progress.lastIndexedRowid = toRowid
+                progress.indexedCount += count
+                progress.indexingDuration += System.currentTimeMillis() - startTime
+                ftsIndexingProgressDao.update(progress)
+            }
+            val elapsed = System.currentTimeMillis() - startTime
+            Logger.d("FTS indexing of ${progress.ftsTableName}: ${progress.backlog()} rowids left")
+
+            try {
+                Thread.sleep((elapsed * IDLE_RATIO).coerceAtLeast(MIN_PAUSE_MS))
+            } catch (_: InterruptedException) {
+                return
+            }
+        }
+    }
+}
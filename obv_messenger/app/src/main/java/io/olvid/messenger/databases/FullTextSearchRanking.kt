@@ -0,0 +1,69 @@
+/*
+ *  Olvid for Android
+ *  Copyright © 2019-2026 Olvid SAS
+ *
+ *  This file is part of Olvid for Android.
+ *
+ *  Olvid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License, version 3,
+ *  as published by the Free Software Foundation.
+ *
+ *  Olvid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with Olvid.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.olvid.messenger.databases
+
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import kotlin.math.ln
+
+// Okapi BM25 scoring of FTS4 hits, computed from the output of matchinfo(fts_table, 'pcnalx')
+object FullTextSearchRanking {
+    const val MATCHINFO_FORMAT = "pcnalx"
+
+    private const val K1 = 1.2
+    private const val B = 0.75
+
+    // higher is better, returns 0 for a malformed matchinfo
+    fun bm25(matchInfo: ByteArray): Double {
+        // matchinfo is an array of unsigned 32-bit integers, in native byte order
+        val buffer = ByteBuffer.wrap(matchInfo).order(ByteOrder.nativeOrder()).asIntBuffer()
+        if (buffer.remaining() < 3) {
+            return 0.0
+        }
+        val phraseCount = buffer[0]
+        val columnCount = buffer[1]
+        val rowCount = buffer[2].toUInt().toDouble()
+        val averageLengthsOffset = 3
+        val lengthsOffset = averageLengthsOffset + columnCount
+        val hitsOffset = lengthsOffset + columnCount
+        if (buffer.remaining() < hitsOffset + 3 * phraseCount * columnCount) {
+            return 0.0
+        }
+
+        var score = 0.0
+        for (phrase in 0 until phraseCount) {
+            for (column in 0 until columnCount) {
+                val hitsOffsetForColumn = hitsOffset + 3 * (column + phrase * columnCount)
+                val termFrequency = buffer[hitsOffsetForColumn].toUInt().toDouble()
+                if (termFrequency == 0.0) {
+                    continue
+                }
+                val documentFrequency = buffer[hitsOffsetForColumn + 2].toUInt().toDouble()
+                val averageLength = buffer[averageLengthsOffset + column].toUInt().toDouble().coerceAtLeast(1.0)
+                val length = buffer[lengthsOffset + column].toUInt().toDouble()
+
+                // the "+1" variant of the idf never goes negative, even for terms present in most rows
+                val idf = ln(1 + (rowCount - documentFrequency + .5) / (documentFrequency + .5))
+                score += idf * termFrequency * (K1 + 1) / (termFrequency + K1 * (1 - B + B * length / averageLength))
+            }
+        }
+        return score
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ *  Olvid for Android
+ *  Copyright © 2019-2026 Olvid SAS
+ *
+ *  This file is part of Olvid for Android.
+ *
+ *  Olvid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License, version 3,
+ *  as published by the Free Software Foundation.
+ *
+ *  Olvid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with Olvid.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.olvid.messenger.databases.dao
+
+import androidx.room.Dao
+import androidx.room.Insert
+import androidx.room.OnConflictStrategy
+import androidx.room.Query
+import androidx.room.Update
+import io.olvid.messenger.databases.entity.FtsIndexingProgress
+import io.olvid.messenger.databases.entity.FyleMessageJoinWithStatus
+import io.olvid.messenger.databases.entity.Message
+
+@Dao
+interface FtsIndexingProgressDao {
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    fun insert(ftsIndexingProgress: FtsIndexingProgress)
+
+    @Update
+    fun update(ftsIndexingProgress: FtsIndexingProgress)
+
+    @Query("DELETE FROM " + FtsIndexingProgress.TABLE_NAME + " WHERE " + FtsIndexingProgress.FTS_TABLE_NAME + " = :ftsTableName")
+    fun delete(ftsTableName: String)
+
+    @Query("SELECT * FROM " + FtsIndexingProgress.TABLE_NAME)
+    fun getAll(): List<FtsIndexingProgress>
+
+    @Query("SELECT * FROM " + FtsIndexingProgress.TABLE_NAME + " WHERE " + FtsIndexingProgress.FTS_TABLE_NAME + " = :ftsTableName")
+    fun get(ftsTableName: String): FtsIndexingProgress?
+
+
+    // region message FTS
+    @Query("SELECT COALESCE(MAX(id), 0) FROM " + Message.TABLE_NAME)
+    fun getMessageMaxRowid(): Long
+
+    @Query("SELECT COUNT(*) FROM " + Message.TABLE_NAME + " WHERE id > :fromRowid AND id <= :toRowid")
+    fun countMessages(fromRowid: Long, toRowid: Long): Long
+
+    // the _docsize shadow table only contains indexed docids: this skips rows already indexed by the FTS triggers
+    @Query("INSERT INTO " + Message.FTS_TABLE_NAME + " (docid, " + Message.CONTENT_BODY + ") " +
+            " SELECT id, " + Message.CONTENT_BODY + " FROM " + Message.TABLE_NAME +
+            " WHERE id > :fromRowid AND id <= :toRowid " +
+            " AND id NOT IN (SELECT docid FROM " + Message.FTS_TABLE_NAME + "_docsize WHERE docid > :fromRowid AND docid <= :toRowid)")
+    fun indexMessages(fromRowid: Long, toRowid: Long)
+    // endregion
+
+
+    // region attachment FTS
+    @Query("SELECT COALESCE(MAX(rowid), 0) FROM " + FyleMessageJoinWithStatus.TABLE_NAME)
+    fun getFyleMessageJoinWithStatusMaxRowid(): Long
+
+    @Query("SELECT COUNT(*) FROM " + FyleMessageJoinWithStatus.TABLE_NAME + " WHERE rowid > :fromRowid AND rowid <= :toRowid")
+    fun countFyleMessageJoinWithStatuses(fromRowid: Long, toRowid: Long): Long
+
+    @Query("INSERT INTO " + FyleMessageJoinWithStatus.FTS_TABLE_NAME + " (docid, " + FyleMessageJoinWithStatus.FILE_NAME + ", " + FyleMessageJoinWithStatus.TEXT_CONTENT + ") " +
+            " SELECT rowid, " + FyleMessageJoinWithStatus.FILE_NAME + ", " + FyleMessageJoinWithStatus.TEXT_CONTENT + " FROM " + FyleMessageJoinWithStatus.TABLE_NAME +
+            " WHERE rowid > :fromRowid AND rowid <= :toRowid " +
+            " AND rowid NOT IN (SELECT docid FROM " + FyleMessageJoinWithStatus.FTS_TABLE_NAME + "_docsize WHERE docid > :fromRowid AND docid <= :toRowid)")
+    fun indexFyleMessageJoinWithStatuses(fromRowid: Long, toRowid: Long)
+    // endregion
+}
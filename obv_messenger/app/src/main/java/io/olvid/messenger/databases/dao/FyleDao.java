@@ -34,7 +34,6 @@ import io.olvid.messenger.databases.entity.Discussion;
 import io.olvid.messenger.databases.entity.Fyle;
 import io.olvid.messenger.databases.entity.FyleMessageJoinWithStatus;
 import io.olvid.messenger.databases.entity.Message;
-import io.olvid.messenger.discussion.compose.VoiceMessageRecorder;
 import io.olvid.messenger.discussion.linkpreview.OpenGraph;
 
 @Dao
@@ -63,11 +62,7 @@ public interface FyleDao {
             " ON fyle.id = FMjoin." + FyleMessageJoinWithStatus.FYLE_ID +
             " WHERE FMjoin." + FyleMessageJoinWithStatus.MESSAGE_ID + " = " +
             " ( SELECT id FROM " + Message.TABLE_NAME + " WHERE " + Message.STATUS + " = " + Message.STATUS_DRAFT + " AND " + Message.DISCUSSION_ID + " = :discussionId ) " +
-            " AND FMjoin." + FyleMessageJoinWithStatus.MIME_TYPE + " != '" + OpenGraph.MIME_TYPE + "' " +
-            " AND (" +
-            "FMjoin." + FyleMessageJoinWithStatus.MIME_TYPE + " NOT LIKE 'audio/%' " +
-            " OR FMjoin." + FyleMessageJoinWithStatus.FILE_NAME + " NOT LIKE '%" + VoiceMessageRecorder.AUDIO_FILE_NAME_SUFFIX + "%'" +
-            ") " +
+            " AND FMjoin." + FyleMessageJoinWithStatus.MEDIA_CATEGORY + " IN (" + FyleMessageJoinWithStatus.MEDIA_CATEGORY_DOCUMENT + "," + FyleMessageJoinWithStatus.MEDIA_CATEGORY_IMAGE + "," + FyleMessageJoinWithStatus.MEDIA_CATEGORY_VIDEO + "," + FyleMessageJoinWithStatus.MEDIA_CATEGORY_AUDIO + ") " +
             " ORDER BY FMjoin.rowid ASC")
     LiveData<List<FyleMessageJoinWithStatusDao.FyleAndStatus>> getDiscussionDraftFylesWithoutVoiceRecordings(long discussionId);
 
@@ -76,8 +71,7 @@ public interface FyleDao {
             " ON fyle.id = FMjoin." + FyleMessageJoinWithStatus.FYLE_ID +
             " WHERE FMjoin." + FyleMessageJoinWithStatus.MESSAGE_ID + " = " +
             " ( SELECT id FROM " + Message.TABLE_NAME + " WHERE " + Message.STATUS + " = " + Message.STATUS_DRAFT + " AND " + Message.DISCUSSION_ID + " = :discussionId ) " +
-            " AND FMjoin." + FyleMessageJoinWithStatus.FILE_NAME + " LIKE '%" + VoiceMessageRecorder.AUDIO_FILE_NAME_SUFFIX + "%' " +
-            " AND FMjoin." + FyleMessageJoinWithStatus.MIME_TYPE + " LIKE 'audio/%' " +
+            " AND FMjoin." + FyleMessageJoinWithStatus.MEDIA_CATEGORY + " = " + FyleMessageJoinWithStatus.MEDIA_CATEGORY_VOICE +
             " LIMIT 1")
     @Nullable LiveData<FyleMessageJoinWithStatusDao.FyleAndStatus> getDiscussionDraftVoiceRecording(long discussionId);
 
@@ -42,9 +42,11 @@ import io.olvid.engine.Logger;
 import io.olvid.messenger.AppSingleton;
 import io.olvid.messenger.BuildConfig;
 import io.olvid.messenger.databases.entity.Discussion;
+import io.olvid.messenger.databases.entity.DiscussionStorageUsage;
 import io.olvid.messenger.databases.entity.Fyle;
 import io.olvid.messenger.databases.entity.FyleMessageJoinWithStatus;
 import io.olvid.messenger.databases.entity.Message;
+import io.olvid.messenger.databases.entity.StorageUsageFyle;
 import io.olvid.messenger.discussion.linkpreview.OpenGraph;
 
 @Dao
@@ -252,7 +254,7 @@ public interface FyleMessageJoinWithStatusDao {
             " INNER JOIN " + Message.TABLE_NAME + " AS mess " +
             " ON mess.id = FMjoin." + FyleMessageJoinWithStatus.MESSAGE_ID +
             " WHERE mess." + Message.DISCUSSION_ID + " = :discussionId " +
-            " AND FMjoin." + FyleMessageJoinWithStatus.MIME_TYPE + " = '" + OpenGraph.MIME_TYPE + "' " +
+            " AND FMjoin." + FyleMessageJoinWithStatus.MEDIA_CATEGORY + " = " + FyleMessageJoinWithStatus.MEDIA_CATEGORY_LINK +
             " AND mess." + Message.MESSAGE_TYPE + " != " + Message.TYPE_INBOUND_EPHEMERAL_MESSAGE +
             " AND mess." + Message.STATUS + " != " + Message.STATUS_DRAFT +
             " AND fyle." + Fyle.FILE_PATH + " IS NOT NULL" +
@@ -266,10 +268,7 @@ public interface FyleMessageJoinWithStatusDao {
             " INNER JOIN " + Message.TABLE_NAME + " AS mess " +
             " ON mess.id = FMjoin." + FyleMessageJoinWithStatus.MESSAGE_ID +
             " WHERE mess." + Message.DISCUSSION_ID + " = :discussionId " +
-            " AND FMjoin." + FyleMessageJoinWithStatus.MIME_TYPE + " != '" + OpenGraph.MIME_TYPE + "' " +
-            " AND FMjoin." + FyleMessageJoinWithStatus.MIME_TYPE + " NOT LIKE 'audio/%' " +
-            " AND FMjoin." + FyleMessageJoinWithStatus.MIME_TYPE + " NOT LIKE 'video/%' " +
-            " AND FMjoin." + FyleMessageJoinWithStatus.MIME_TYPE + " NOT LIKE 'image/%' " +
+            " AND FMjoin." + FyleMessageJoinWithStatus.MEDIA_CATEGORY + " = " + FyleMessageJoinWithStatus.MEDIA_CATEGORY_DOCUMENT +
             " AND mess." + Message.MESSAGE_TYPE + " != " + Message.TYPE_INBOUND_EPHEMERAL_MESSAGE +
             " AND mess." + Message.STATUS + " != " + Message.STATUS_DRAFT +
             " AND fyle." + Fyle.FILE_PATH + " IS NOT NULL" +
@@ -283,7 +282,7 @@ public interface FyleMessageJoinWithStatusDao {
             " INNER JOIN " + Message.TABLE_NAME + " AS mess " +
             " ON mess.id = FMjoin." + FyleMessageJoinWithStatus.MESSAGE_ID +
             " WHERE mess." + Message.DISCUSSION_ID + " = :discussionId " +
-            " AND FMjoin." + FyleMessageJoinWithStatus.MIME_TYPE + " LIKE 'audio/%' " +
+            " AND FMjoin." + FyleMessageJoinWithStatus.MEDIA_CATEGORY + " IN (" + FyleMessageJoinWithStatus.MEDIA_CATEGORY_AUDIO + "," + FyleMessageJoinWithStatus.MEDIA_CATEGORY_VOICE + ") " +
             " AND mess." + Message.MESSAGE_TYPE + " != " + Message.TYPE_INBOUND_EPHEMERAL_MESSAGE +
             " AND mess." + Message.STATUS + " != " + Message.STATUS_DRAFT +
             " AND fyle." + Fyle.FILE_PATH + " IS NOT NULL" +
@@ -318,7 +317,7 @@ public interface FyleMessageJoinWithStatusDao {
 
     @Query("UPDATE " + FyleMessageJoinWithStatus.TABLE_NAME +
             " SET " + FyleMessageJoinWithStatus.TEXT_EXTRACTED + " = 0 " +
-            " WHERE " + FyleMessageJoinWithStatus.MIME_TYPE + " LIKE 'image/%'")
+            " WHERE " + FyleMessageJoinWithStatus.MEDIA_CATEGORY + " = " + FyleMessageJoinWithStatus.MEDIA_CATEGORY_IMAGE)
     void clearTextExtractedFromImages();
 
     @Query("SELECT fyle.*, FMjoin.* FROM " + Fyle.TABLE_NAME + " AS fyle " +
@@ -364,14 +363,12 @@ public interface FyleMessageJoinWithStatusDao {
             " AND (FMjoin." + FyleMessageJoinWithStatus.IMAGE_RESOLUTION + " != ''" +
             " OR FMjoin." + FyleMessageJoinWithStatus.MIME_TYPE + " = 'image/svg+xml'" +
             " OR FMjoin." + FyleMessageJoinWithStatus.IMAGE_RESOLUTION + " IS NULL)" +
-            " AND FMjoin." + FyleMessageJoinWithStatus.MIME_TYPE + " NOT LIKE 'audio/%'";
+            // list the categories which are not audio (rather than a NOT IN) so the media_category indexes can be used
+            " AND FMjoin." + FyleMessageJoinWithStatus.MEDIA_CATEGORY + " IN (" + FyleMessageJoinWithStatus.MEDIA_CATEGORY_DOCUMENT + "," + FyleMessageJoinWithStatus.MEDIA_CATEGORY_IMAGE + "," + FyleMessageJoinWithStatus.MEDIA_CATEGORY_VIDEO + "," + FyleMessageJoinWithStatus.MEDIA_CATEGORY_LINK + ")";
     String AUDIO_TYPE_CONDITION =
-            " AND FMjoin." + FyleMessageJoinWithStatus.MIME_TYPE + " LIKE 'audio/%'";
+            " AND FMjoin." + FyleMessageJoinWithStatus.MEDIA_CATEGORY + " IN (" + FyleMessageJoinWithStatus.MEDIA_CATEGORY_AUDIO + "," + FyleMessageJoinWithStatus.MEDIA_CATEGORY_VOICE + ");
     String FILE_TYPE_CONDITION =
-            " AND FMjoin." + FyleMessageJoinWithStatus.MIME_TYPE + " NOT LIKE 'audio/%'" +
-            " AND FMjoin." + FyleMessageJoinWithStatus.MIME_TYPE + " NOT LIKE 'video/%'" +
-            " AND FMjoin." + FyleMessageJoinWithStatus.MIME_TYPE + " NOT LIKE 'image/%'" +
-            " AND FMjoin." + FyleMessageJoinWithStatus.MIME_TYPE + " != '" + OpenGraph.MIME_TYPE + "'";
+            " AND FMjoin." + FyleMessageJoinWithStatus.MEDIA_CATEGORY + " = " + FyleMessageJoinWithStatus.MEDIA_CATEGORY_DOCUMENT;
 
     // ---- Sort column expressions (used with @RawQuery) ----
     String SORT_COLUMN_SIZE = " FMjoin." + FyleMessageJoinWithStatus.SIZE;
@@ -412,19 +409,13 @@ public interface FyleMessageJoinWithStatusDao {
     LiveData<List<FyleAndOrigin>> getFyleAndOriginRaw(SupportSQLiteQuery query);
 
     // ---- Discussions with storage usage ----
+    // usage is maintained incrementally by the DiscussionStorageUsage.TRIGGERS, deduplicated by fyle (fyle sha256 is unique)
     String DISCUSSIONS_WITH_USAGE_QUERY = "SELECT " + DiscussionDao.PREFIX_DISCUSSION_COLUMNS + ", " +
-            " SUM(deduped.maxSize) AS totalSize " +
-            " FROM " + Discussion.TABLE_NAME + " AS disc " +
-            " INNER JOIN (" +
-            "  SELECT mess2." + Message.DISCUSSION_ID + " AS dedupDiscId, MAX(FMjoin2." + FyleMessageJoinWithStatus.SIZE + ") AS maxSize " +
-            "  FROM " + FyleMessageJoinWithStatus.TABLE_NAME + " AS FMjoin2 " +
-            "  INNER JOIN " + Fyle.TABLE_NAME + " AS fyle2 ON fyle2.id = FMjoin2." + FyleMessageJoinWithStatus.FYLE_ID +
-            "  INNER JOIN " + Message.TABLE_NAME + " AS mess2 ON mess2.id = FMjoin2." + FyleMessageJoinWithStatus.MESSAGE_ID +
-            "  WHERE fyle2." + Fyle.FILE_PATH + " IS NOT NULL " + // only consider complete fyles
-            "  GROUP BY mess2." + Message.DISCUSSION_ID + ", fyle2." + Fyle.SHA256 +
-            " ) AS deduped ON deduped.dedupDiscId = disc.id " +
-            " WHERE disc." + Discussion.BYTES_OWNED_IDENTITY + " = :bytesOwnedIdentity " +
-            " GROUP BY disc.id ";
+            " usage." + DiscussionStorageUsage.TOTAL_SIZE + " AS totalSize " +
+            " FROM " + DiscussionStorageUsage.TABLE_NAME + " AS usage " +
+            " INNER JOIN " + Discussion.TABLE_NAME + " AS disc ON disc.id = usage." + DiscussionStorageUsage.DISCUSSION_ID +
+            " WHERE usage." + DiscussionStorageUsage.BYTES_OWNED_IDENTITY + " = :bytesOwnedIdentity " +
+            " AND usage." + DiscussionStorageUsage.TOTAL_SIZE + " > 0 ";
 
     @Query(DISCUSSIONS_WITH_USAGE_QUERY + " ORDER BY totalSize DESC")
     LiveData<List<DiscussionAndUsage>> getDiscussionsWithUsageSizeDesc(@NonNull byte[] bytesOwnedIdentity);
@@ -434,14 +425,11 @@ public interface FyleMessageJoinWithStatusDao {
 
     // ---- Total storage size for a single identity ----
     @Query("SELECT COALESCE(SUM(deduped.maxSize), 0) FROM (" +
-            "  SELECT MAX(FMjoin." + FyleMessageJoinWithStatus.SIZE + ") AS maxSize" +
-            "  FROM " + FyleMessageJoinWithStatus.TABLE_NAME + " AS FMjoin" +
-            "  INNER JOIN " + Fyle.TABLE_NAME + " AS fyle ON fyle.id = FMjoin." + FyleMessageJoinWithStatus.FYLE_ID +
-            "  INNER JOIN " + Message.TABLE_NAME + " AS mess ON mess.id = FMjoin." + FyleMessageJoinWithStatus.MESSAGE_ID +
-            "  INNER JOIN " + Discussion.TABLE_NAME + " AS disc ON disc.id = mess." + Message.DISCUSSION_ID +
-            "  WHERE disc." + Discussion.BYTES_OWNED_IDENTITY + " = :bytesOwnedIdentity" +
-            "  AND fyle." + Fyle.FILE_PATH + " IS NOT NULL " + // only consider complete fyles
-            "  GROUP BY fyle." + Fyle.SHA256 +
+            "  SELECT MAX(" + StorageUsageFyle.SIZE + ") AS maxSize" +
+            "  FROM " + StorageUsageFyle.TABLE_NAME +
+            "  WHERE " + StorageUsageFyle.BYTES_OWNED_IDENTITY + " = :bytesOwnedIdentity" +
+            "  AND " + StorageUsageFyle.COMPLETE + " = 1 " + // only consider complete fyles
+            "  GROUP BY " + StorageUsageFyle.FYLE_ID +
             ") AS deduped")
     LiveData<Long> getTotalStorageSizeForIdentity(@NonNull byte[] bytesOwnedIdentity);
 
@@ -482,7 +470,7 @@ public interface FyleMessageJoinWithStatusDao {
             " INNER JOIN " + Discussion.TABLE_NAME + " AS disc " +
             " ON disc.id = mess." + Message.DISCUSSION_ID +
             " WHERE mess." + Message.DISCUSSION_ID + " = :discussionId " +
-            " AND FMjoin." + FyleMessageJoinWithStatus.MIME_TYPE + " LIKE 'audio/%' " +
+            " AND FMjoin." + FyleMessageJoinWithStatus.MEDIA_CATEGORY + " IN (" + FyleMessageJoinWithStatus.MEDIA_CATEGORY_AUDIO + "," + FyleMessageJoinWithStatus.MEDIA_CATEGORY_VOICE + ") " +
             " AND mess." + Message.MESSAGE_TYPE + " != " + Message.TYPE_INBOUND_EPHEMERAL_MESSAGE +
             " AND fyle." + Fyle.FILE_PATH + " IS NOT NULL " +
             " ORDER BY mess." + Message.SORT_INDEX + " ASC")
@@ -21,6 +21,7 @@ package io.olvid.messenger.databases.dao
 
 import androidx.room.Dao
 import androidx.room.Query
+import io.olvid.messenger.databases.FullTextSearchRanking
 import io.olvid.messenger.databases.dao.FyleMessageJoinWithStatusDao.FyleAndOrigin
 import io.olvid.messenger.databases.dao.MessageDao.DiscussionAndMessage
 import io.olvid.messenger.databases.entity.Discussion
@@ -98,19 +99,27 @@ interface GlobalSearchDao {
 //    ): List<Long>
 
 
+    // region global search, in reverse chronological order
+    // pages are selected with a keyset on (timestamp, message id[, fyle id]) instead of an OFFSET, so that loading a page
+    // does not sort and skip all the results of the previous pages. The FTS MATCH itself is still evaluated in full for
+    // every page: SQLite computes the whole match set before joining it with the message table.
     @Query(
         "SELECT " + DiscussionDao.PREFIX_DISCUSSION_COLUMNS + ",m.* FROM " + Message.TABLE_NAME + " AS m " +
                 " INNER JOIN " + Discussion.TABLE_NAME + " AS disc ON disc.id = m." + Message.DISCUSSION_ID +
                 " AND disc." + Discussion.BYTES_OWNED_IDENTITY + " = :bytesOwnedIdentity " +
                 " JOIN " + Message.FTS_TABLE_NAME + " ON m.id = " + Message.FTS_TABLE_NAME + ".rowid" +
                 " WHERE m." + Message.MESSAGE_TYPE + " <= " + Message.TYPE_OUTBOUND_MESSAGE +
-                " AND " + Message.FTS_TABLE_NAME + " MATCH :query ORDER BY m." + Message.TIMESTAMP + " DESC LIMIT :limit OFFSET :offset"
+                " AND " + Message.FTS_TABLE_NAME + " MATCH :query " +
+                " AND (m." + Message.TIMESTAMP + " < :beforeTimestamp " +
+                " OR (m." + Message.TIMESTAMP + " = :beforeTimestamp AND m.id < :beforeMessageId)) " +
+                " ORDER BY m." + Message.TIMESTAMP + " DESC, m.id DESC LIMIT :limit"
     )
     suspend fun messageGlobalSearch(
         bytesOwnedIdentity: ByteArray,
         query: String,
-        limit: Int,
-        offset: Int
+        beforeTimestamp: Long,
+        beforeMessageId: Long,
+        limit: Int
     ): List<DiscussionAndMessage>
 
     @Query(
@@ -126,13 +135,19 @@ interface GlobalSearchDao {
                 " ON disc.id = mess." + Message.DISCUSSION_ID +
                 " AND disc." + Discussion.BYTES_OWNED_IDENTITY + " = :bytesOwnedIdentity " +
                 " JOIN " + FyleMessageJoinWithStatus.FTS_TABLE_NAME + " ON FMJoin.rowid = " + FyleMessageJoinWithStatus.FTS_TABLE_NAME + ".rowid " +
-                " WHERE " + FyleMessageJoinWithStatus.FTS_TABLE_NAME + " MATCH :filter ORDER BY mess.timestamp DESC LIMIT :limit OFFSET :offset"
+                " WHERE " + FyleMessageJoinWithStatus.FTS_TABLE_NAME + " MATCH :filter " +
+                " AND (mess." + Message.TIMESTAMP + " < :beforeTimestamp " +
+                " OR (mess." + Message.TIMESTAMP + " = :beforeTimestamp AND mess.id < :beforeMessageId) " +
+                " OR (mess." + Message.TIMESTAMP + " = :beforeTimestamp AND mess.id = :beforeMessageId AND FMjoin." + FyleMessageJoinWithStatus.FYLE_ID + " < :beforeFyleId)) " +
+                " ORDER BY mess." + Message.TIMESTAMP + " DESC, mess.id DESC, FMjoin." + FyleMessageJoinWithStatus.FYLE_ID + " DESC LIMIT :limit"
     )
     suspend fun attachmentsGlobalSearch(
         bytesOwnedIdentity: ByteArray,
         filter: String,
-        limit: Int,
-        offset: Int
+        beforeTimestamp: Long,
+        beforeMessageId: Long,
+        beforeFyleId: Long,
+        limit: Int
     ): List<FyleAndOrigin>
 
     @Query(
@@ -148,12 +163,171 @@ interface GlobalSearchDao {
                 " ON disc.id = mess." + Message.DISCUSSION_ID +
                 " AND disc." + Discussion.BYTES_OWNED_IDENTITY + " = :bytesOwnedIdentity " +
                 " JOIN " + FyleMessageJoinWithStatus.FTS_TABLE_NAME + " ON FMJoin.rowid = " + FyleMessageJoinWithStatus.FTS_TABLE_NAME + ".rowid " +
-                " WHERE " + FyleMessageJoinWithStatus.FTS_TABLE_NAME + " MATCH :filter ORDER BY mess.timestamp DESC LIMIT :limit OFFSET :offset"
+                " WHERE " + FyleMessageJoinWithStatus.FTS_TABLE_NAME + " MATCH :filter " +
+                " AND (mess." + Message.TIMESTAMP + " < :beforeTimestamp " +
+                " OR (mess." + Message.TIMESTAMP + " = :beforeTimestamp AND mess.id < :beforeMessageId) " +
+                " OR (mess." + Message.TIMESTAMP + " = :beforeTimestamp AND mess.id = :beforeMessageId AND FMjoin." + FyleMessageJoinWithStatus.FYLE_ID + " < :beforeFyleId)) " +
+                " ORDER BY mess." + Message.TIMESTAMP + " DESC, mess.id DESC, FMjoin." + FyleMessageJoinWithStatus.FYLE_ID + " DESC LIMIT :limit"
     )
     suspend fun linksGlobalSearch(
         bytesOwnedIdentity: ByteArray,
         filter: String,
-        limit: Int,
-        offset: Int
+        beforeTimestamp: Long,
+        beforeMessageId: Long,
+        beforeFyleId: Long,
+        limit: Int
+    ): List<FyleAndOrigin>
+
+    // LIKE fallback for rows the background FtsIndexer has not indexed yet, see FtsIndexer.getUnindexedRange()
+    @Query(
+        "SELECT " + DiscussionDao.PREFIX_DISCUSSION_COLUMNS + ",m.* FROM " + Message.TABLE_NAME + " AS m " +
+                " INNER JOIN " + Discussion.TABLE_NAME + " AS disc ON disc.id = m." + Message.DISCUSSION_ID +
+                " AND disc." + Discussion.BYTES_OWNED_IDENTITY + " = :bytesOwnedIdentity " +
+                " WHERE m.id > :fromRowid AND m.id <= :toRowid " +
+                " AND m." + Message.MESSAGE_TYPE + " <= " + Message.TYPE_OUTBOUND_MESSAGE +
+                " AND m." + Message.CONTENT_BODY + " LIKE :likePattern ESCAPE '\\' " +
+                " AND (m." + Message.TIMESTAMP + " < :beforeTimestamp " +
+                " OR (m." + Message.TIMESTAMP + " = :beforeTimestamp AND m.id < :beforeMessageId)) " +
+                " ORDER BY m." + Message.TIMESTAMP + " DESC, m.id DESC LIMIT :limit"
+    )
+    suspend fun messageGlobalSearchUnindexed(
+        bytesOwnedIdentity: ByteArray,
+        likePattern: String,
+        fromRowid: Long,
+        toRowid: Long,
+        beforeTimestamp: Long,
+        beforeMessageId: Long,
+        limit: Int
+    ): List<DiscussionAndMessage>
+
+    @Query(
+        "SELECT " + DiscussionDao.PREFIX_DISCUSSION_COLUMNS + ", " + MessageDao.PREFIX_MESSAGE_COLUMNS + ", fyle.*, FMjoin.* " +
+                " FROM " + FyleMessageJoinWithStatus.TABLE_NAME + " AS FMjoin " +
+                " INNER JOIN " + Fyle.TABLE_NAME + " AS fyle " +
+                " ON fyle.id = FMjoin." + FyleMessageJoinWithStatus.FYLE_ID +
+                " INNER JOIN " + Message.TABLE_NAME + " AS mess " +
+                " ON mess.id = FMjoin." + FyleMessageJoinWithStatus.MESSAGE_ID +
+                " AND mess." + Message.MESSAGE_TYPE + " != " + Message.TYPE_INBOUND_EPHEMERAL_MESSAGE +
+                " INNER JOIN " + Discussion.TABLE_NAME + " AS disc " +
+                " ON disc.id = mess." + Message.DISCUSSION_ID +
+                " AND disc." + Discussion.BYTES_OWNED_IDENTITY + " = :bytesOwnedIdentity " +
+                " WHERE FMjoin.rowid > :fromRowid AND FMjoin.rowid <= :toRowid " +
+                " AND (FMjoin." + FyleMessageJoinWithStatus.MIME_TYPE + " = '" + OpenGraph.MIME_TYPE + "') = :links " +
+                " AND (FMjoin." + FyleMessageJoinWithStatus.FILE_NAME + " LIKE :likePattern ESCAPE '\\' " +
+                " OR FMjoin." + FyleMessageJoinWithStatus.TEXT_CONTENT + " LIKE :likePattern ESCAPE '\\') " +
+                " AND (mess." + Message.TIMESTAMP + " < :beforeTimestamp " +
+                " OR (mess." + Message.TIMESTAMP + " = :beforeTimestamp AND mess.id < :beforeMessageId) " +
+                " OR (mess." + Message.TIMESTAMP + " = :beforeTimestamp AND mess.id = :beforeMessageId AND FMjoin." + FyleMessageJoinWithStatus.FYLE_ID + " < :beforeFyleId)) " +
+                " ORDER BY mess." + Message.TIMESTAMP + " DESC, mess.id DESC, FMjoin." + FyleMessageJoinWithStatus.FYLE_ID + " DESC LIMIT :limit"
+    )
+    suspend fun attachmentsGlobalSearchUnindexed(
+        bytesOwnedIdentity: ByteArray,
+        likePattern: String,
+        links: Boolean,
+        fromRowid: Long,
+        toRowid: Long,
+        beforeTimestamp: Long,
+        beforeMessageId: Long,
+        beforeFyleId: Long,
+        limit: Int
     ): List<FyleAndOrigin>
+    // endregion
+
+    // region global search, by relevance
+    // the full set of hits is only computed once per search, with their FTS matchinfo, and ranked in memory (FTS4 has
+    // no built-in ranking function). Pages are then loaded by id.
+    @Query(
+        "SELECT m.id, 0 AS fyleId, m." + Message.TIMESTAMP + ", matchinfo(" + Message.FTS_TABLE_NAME + ", '" + FullTextSearchRanking.MATCHINFO_FORMAT + "') AS matchInfo " +
+                " FROM " + Message.TABLE_NAME + " AS m " +
+                " INNER JOIN " + Discussion.TABLE_NAME + " AS disc ON disc.id = m." + Message.DISCUSSION_ID +
+                " AND disc." + Discussion.BYTES_OWNED_IDENTITY + " = :bytesOwnedIdentity " +
+                " JOIN " + Message.FTS_TABLE_NAME + " ON m.id = " + Message.FTS_TABLE_NAME + ".rowid" +
+                " WHERE m." + Message.MESSAGE_TYPE + " <= " + Message.TYPE_OUTBOUND_MESSAGE +
+                " AND " + Message.FTS_TABLE_NAME + " MATCH :query"
+    )
+    suspend fun messageGlobalSearchHits(
+        bytesOwnedIdentity: ByteArray,
+        query: String,
+    ): List<SearchHit>
+
+    @Query(
+        "SELECT mess.id, FMjoin." + FyleMessageJoinWithStatus.FYLE_ID + " AS fyleId, mess." + Message.TIMESTAMP + ", matchinfo(" + FyleMessageJoinWithStatus.FTS_TABLE_NAME + ", '" + FullTextSearchRanking.MATCHINFO_FORMAT + "') AS matchInfo " +
+                " FROM " + FyleMessageJoinWithStatus.TABLE_NAME + " AS FMjoin " +
+                " INNER JOIN " + Message.TABLE_NAME + " AS mess " +
+                " ON mess.id = FMjoin." + FyleMessageJoinWithStatus.MESSAGE_ID +
+                " AND mess." + Message.MESSAGE_TYPE + " != " + Message.TYPE_INBOUND_EPHEMERAL_MESSAGE +
+                " INNER JOIN " + Discussion.TABLE_NAME + " AS disc " +
+                " ON disc.id = mess." + Message.DISCUSSION_ID +
+                " AND disc." + Discussion.BYTES_OWNED_IDENTITY + " = :bytesOwnedIdentity " +
+                " JOIN " + FyleMessageJoinWithStatus.FTS_TABLE_NAME + " ON FMJoin.rowid = " + FyleMessageJoinWithStatus.FTS_TABLE_NAME + ".rowid " +
+                " WHERE " + FyleMessageJoinWithStatus.FTS_TABLE_NAME + " MATCH :filter " +
+                " AND (FMjoin." + FyleMessageJoinWithStatus.MIME_TYPE + " = '" + OpenGraph.MIME_TYPE + "') = :links "
+    )
+    suspend fun attachmentsGlobalSearchHits(
+        bytesOwnedIdentity: ByteArray,
+        filter: String,
+        links: Boolean,
+    ): List<SearchHit>
+
+    // hits from rows not indexed yet have no matchinfo, they are ranked last
+    @Query(
+        "SELECT m.id, 0 AS fyleId, m." + Message.TIMESTAMP + ", X'' AS matchInfo FROM " + Message.TABLE_NAME + " AS m " +
+                " INNER JOIN " + Discussion.TABLE_NAME + " AS disc ON disc.id = m." + Message.DISCUSSION_ID +
+                " AND disc." + Discussion.BYTES_OWNED_IDENTITY + " = :bytesOwnedIdentity " +
+                " WHERE m.id > :fromRowid AND m.id <= :toRowid " +
+                " AND m." + Message.MESSAGE_TYPE + " <= " + Message.TYPE_OUTBOUND_MESSAGE +
+                " AND m." + Message.CONTENT_BODY + " LIKE :likePattern ESCAPE '\\' "
+    )
+    suspend fun messageGlobalSearchUnindexedHits(
+        bytesOwnedIdentity: ByteArray,
+        likePattern: String,
+        fromRowid: Long,
+        toRowid: Long,
+    ): List<SearchHit>
+
+    @Query(
+        "SELECT mess.id, FMjoin." + FyleMessageJoinWithStatus.FYLE_ID + " AS fyleId, mess." + Message.TIMESTAMP + ", X'' AS matchInfo " +
+                " FROM " + FyleMessageJoinWithStatus.TABLE_NAME + " AS FMjoin " +
+                " INNER JOIN " + Message.TABLE_NAME + " AS mess " +
+                " ON mess.id = FMjoin." + FyleMessageJoinWithStatus.MESSAGE_ID +
+                " AND mess." + Message.MESSAGE_TYPE + " != " + Message.TYPE_INBOUND_EPHEMERAL_MESSAGE +
+                " INNER JOIN " + Discussion.TABLE_NAME + " AS disc " +
+                " ON disc.id = mess." + Message.DISCUSSION_ID +
+                " AND disc." + Discussion.BYTES_OWNED_IDENTITY + " = :bytesOwnedIdentity " +
+                " WHERE FMjoin.rowid > :fromRowid AND FMjoin.rowid <= :toRowid " +
+                " AND (FMjoin." + FyleMessageJoinWithStatus.MIME_TYPE + " = '" + OpenGraph.MIME_TYPE + "') = :links " +
+                " AND (FMjoin." + FyleMessageJoinWithStatus.FILE_NAME + " LIKE :likePattern ESCAPE '\\' " +
+                " OR FMjoin." + FyleMessageJoinWithStatus.TEXT_CONTENT + " LIKE :likePattern ESCAPE '\\') "
+    )
+    suspend fun attachmentsGlobalSearchUnindexedHits(
+        bytesOwnedIdentity: ByteArray,
+        likePattern: String,
+        links: Boolean,
+        fromRowid: Long,
+        toRowid: Long,
+    ): List<SearchHit>
+
+    @Query(
+        "SELECT " + DiscussionDao.PREFIX_DISCUSSION_COLUMNS + ",m.* FROM " + Message.TABLE_NAME + " AS m " +
+                " INNER JOIN " + Discussion.TABLE_NAME + " AS disc ON disc.id = m." + Message.DISCUSSION_ID +
+                " WHERE m.id IN (:messageIds)"
+    )
+    suspend fun messagesForGlobalSearch(messageIds: List<Long>): List<DiscussionAndMessage>
+
+    // may return more attachments than requested when a message has several attachments, results must be filtered on fyleId
+    @Query(
+        "SELECT " + DiscussionDao.PREFIX_DISCUSSION_COLUMNS + ", " + MessageDao.PREFIX_MESSAGE_COLUMNS + ", fyle.*, FMjoin.* " +
+                " FROM " + FyleMessageJoinWithStatus.TABLE_NAME + " AS FMjoin " +
+                " INNER JOIN " + Fyle.TABLE_NAME + " AS fyle " +
+                " ON fyle.id = FMjoin." + FyleMessageJoinWithStatus.FYLE_ID +
+                " INNER JOIN " + Message.TABLE_NAME + " AS mess " +
+                " ON mess.id = FMjoin." + FyleMessageJoinWithStatus.MESSAGE_ID +
+                " INNER JOIN " + Discussion.TABLE_NAME + " AS disc " +
+                " ON disc.id = mess." + Message.DISCUSSION_ID +
+                " WHERE FMjoin." + FyleMessageJoinWithStatus.MESSAGE_ID + " IN (:messageIds)"
+    )
+    suspend fun attachmentsForGlobalSearch(messageIds: List<Long>): List<FyleAndOrigin>
+
+    class SearchHit(val id: Long, val fyleId: Long, val timestamp: Long, val matchInfo: ByteArray)
+    // endregion
 }
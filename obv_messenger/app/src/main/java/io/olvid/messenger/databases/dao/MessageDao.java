@@ -24,7 +24,6 @@ import static io.olvid.messenger.databases.dao.DiscussionDao.PREFIX_DISCUSSION_C
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.lifecycle.LiveData;
-import androidx.paging.PagingSource;
 import androidx.room.ColumnInfo;
 import androidx.room.Dao;
 import androidx.room.Delete;
@@ -224,16 +223,37 @@ public interface MessageDao {
 //    @Query("SELECT * FROM " + Message.TABLE_NAME + " WHERE " + Message.DISCUSSION_ID + " = :discussionId AND " + Message.STATUS + " != " + Message.STATUS_DRAFT + " ORDER BY " + Message.SORT_INDEX + " ASC")
 //    LiveData<List<Message>> getDiscussionMessages(long discussionId);
 
-    @Query("SELECT * FROM " + Message.TABLE_NAME + " WHERE " + Message.DISCUSSION_ID + " = :discussionId AND " + Message.STATUS + " != " + Message.STATUS_DRAFT + " ORDER BY " + Message.SORT_INDEX + " DESC")
-    PagingSource<Integer,Message> getDiscussionMessagesPaged(long discussionId);
+    // region keyset paging of discussion messages (see DiscussionMessagesPagingSource)
+    // messages are ordered by (sort_index, id): sort_index alone is not unique
 
-    @Query("SELECT * FROM " + Message.TABLE_NAME +
-            " WHERE " + Message.DISCUSSION_ID + " = :discussionId " +
+    String DISCUSSION_MESSAGES_PAGING_FILTER = " WHERE " + Message.DISCUSSION_ID + " = :discussionId " +
             " AND " + Message.STATUS + " != " + Message.STATUS_DRAFT +
-            " AND " + Message.MESSAGE_TYPE + " != " + Message.TYPE_GROUP_MEMBER_JOINED +
-            " AND " + Message.MESSAGE_TYPE + " != " + Message.TYPE_GROUP_MEMBER_LEFT +
-            " ORDER BY " + Message.SORT_INDEX + " DESC")
-    PagingSource<Integer,Message> getDiscussionMessagesWithoutGroupMemberChangesPaged(long discussionId);
+            " AND (:hideGroupMemberChanges = 0 OR (" + Message.MESSAGE_TYPE + " != " + Message.TYPE_GROUP_MEMBER_JOINED +
+            " AND " + Message.MESSAGE_TYPE + " != " + Message.TYPE_GROUP_MEMBER_LEFT + ")) ";
+
+    // row values ((sort_index, id) < (:sortIndex, :messageId)) are not supported by the SQLite of older Android versions.
+    // The redundant bound on sort_index alone lets SQLite use a range of the (discussion_id, sort_index) index instead of
+    // scanning the whole discussion.
+    String OLDER_THAN_KEY = " AND " + Message.SORT_INDEX + " <= :sortIndex " +
+            " AND (" + Message.SORT_INDEX + " < :sortIndex OR id < :messageId) ";
+    String NEWER_THAN_KEY = " AND " + Message.SORT_INDEX + " >= :sortIndex " +
+            " AND (" + Message.SORT_INDEX + " > :sortIndex OR id > :messageId) ";
+
+    @Query("SELECT * FROM " + Message.TABLE_NAME +
+            DISCUSSION_MESSAGES_PAGING_FILTER +
+            OLDER_THAN_KEY +
+            " ORDER BY " + Message.SORT_INDEX + " DESC, id DESC " +
+            " LIMIT :count")
+    List<Message> getDiscussionMessagesOlderThan(long discussionId, boolean hideGroupMemberChanges, double sortIndex, long messageId, int count);
+
+    @Query("SELECT * FROM " + Message.TABLE_NAME +
+            DISCUSSION_MESSAGES_PAGING_FILTER +
+            NEWER_THAN_KEY +
+            " ORDER BY " + Message.SORT_INDEX + " ASC, id ASC " +
+            " LIMIT :count")
+    List<Message> getDiscussionMessagesNewerThan(long discussionId, boolean hideGroupMemberChanges, double sortIndex, long messageId, int count);
+
+    // endregion
 
     @Query("SELECT * FROM " + Message.TABLE_NAME + " WHERE " + Message.DISCUSSION_ID + " = :discussionId AND " + Message.STATUS + " != " + Message.STATUS_DRAFT + " ORDER BY " + Message.SORT_INDEX + " DESC LIMIT :count")
     LiveData<List<Message>> getLastDiscussionMessages(long discussionId, int count);
@@ -0,0 +1,112 @@
+/*
+ *  Olvid for Android
+ *  Copyright © 2019-2026 Olvid SAS
+ *
+ *  This file is part of Olvid for Android.
+ *
+ *  Olvid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License, version 3,
+ *  as published by the Free Software Foundation.
+ *
+ *  Olvid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with Olvid.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.olvid.messenger.databases.entity
+
+import androidx.room.ColumnInfo
+import androidx.room.Entity
+import androidx.room.ForeignKey
+import androidx.room.ForeignKey.Companion.CASCADE
+import androidx.room.Index
+import androidx.room.PrimaryKey
+
+// deduplicated size of the complete fyles attached to a discussion, maintained by the TRIGGERS below so the storage
+// manager does not have to aggregate the whole fyle_message_join_with_status table each time it changes
+@Entity(
+    tableName = DiscussionStorageUsage.TABLE_NAME,
+    foreignKeys = [
+        ForeignKey(
+            entity = Discussion::class,
+            parentColumns = ["id"],
+            childColumns = [DiscussionStorageUsage.DISCUSSION_ID],
+            onDelete = CASCADE
+        )],
+    indices = [Index(DiscussionStorageUsage.BYTES_OWNED_IDENTITY)]
+)
+data class DiscussionStorageUsage(
+    @PrimaryKey @ColumnInfo(name = DISCUSSION_ID) val discussionId: Long,
+    @ColumnInfo(name = BYTES_OWNED_IDENTITY) val bytesOwnedIdentity: ByteArray,
+    @ColumnInfo(name = TOTAL_SIZE) val totalSize: Long,
+) {
+    companion object {
+        const val TABLE_NAME: String = "discussion_storage_usage_table"
+        const val DISCUSSION_ID: String = "discussion_id"
+        const val BYTES_OWNED_IDENTITY: String = "bytes_owned_identity"
+        const val TOTAL_SIZE: String = "total_size"
+
+        // Room does not manage these triggers: they are created in the 86 to 87 migration and in AppDatabase onCreate.
+        // Do not modify them, drop and recreate them in a new migration instead.
+        // Foreign key actions run after the parent row is deleted, so when a message is deleted, the deletion of its
+        // fyle_message_join_with_status rows can no longer find its discussion: the message_table trigger handles them.
+        val TRIGGERS: Array<String> = arrayOf(
+            // fyle_message_join_with_status --> storage_usage_fyle_table
+            "CREATE TRIGGER IF NOT EXISTS storage_usage_fyle_message_join_AFTER_INSERT AFTER INSERT ON `fyle_message_join_with_status` BEGIN " +
+                    " INSERT OR IGNORE INTO `storage_usage_fyle_table` (`discussion_id`, `fyle_id`, `bytes_owned_identity`, `size`, `complete`, `ref_count`) " +
+                    " SELECT mess.`discussion_id`, NEW.`fyle_id`, NEW.`bytes_owned_identity`, NEW.`size`, fyle.`permanent_file_path` IS NOT NULL, 0 " +
+                    " FROM `message_table` AS mess, `fyle_table` AS fyle WHERE mess.`id` = NEW.`message_id` AND fyle.`id` = NEW.`fyle_id`; " +
+                    " UPDATE `storage_usage_fyle_table` SET `ref_count` = `ref_count` + 1, `size` = MAX(`size`, NEW.`size`) " +
+                    " WHERE `discussion_id` = (SELECT `discussion_id` FROM `message_table` WHERE `id` = NEW.`message_id`) AND `fyle_id` = NEW.`fyle_id`; " +
+                    " END",
+            "CREATE TRIGGER IF NOT EXISTS storage_usage_fyle_message_join_AFTER_DELETE AFTER DELETE ON `fyle_message_join_with_status` BEGIN " +
+                    " UPDATE `storage_usage_fyle_table` SET `ref_count` = `ref_count` - 1, " +
+                    " `size` = IFNULL((SELECT MAX(FMjoin.`size`) FROM `fyle_message_join_with_status` AS FMjoin " +
+                    " INNER JOIN `message_table` AS mess ON mess.`id` = FMjoin.`message_id` " +
+                    " WHERE mess.`discussion_id` = `storage_usage_fyle_table`.`discussion_id` AND FMjoin.`fyle_id` = OLD.`fyle_id`), `size`) " +
+                    " WHERE `discussion_id` = (SELECT `discussion_id` FROM `message_table` WHERE `id` = OLD.`message_id`) AND `fyle_id` = OLD.`fyle_id`; " +
+                    " DELETE FROM `storage_usage_fyle_table` " +
+                    " WHERE `discussion_id` = (SELECT `discussion_id` FROM `message_table` WHERE `id` = OLD.`message_id`) AND `fyle_id` = OLD.`fyle_id` AND `ref_count` <= 0; " +
+                    " END",
+            // the size may also decrease (it is corrected once the download completes): recompute the max over all the messages
+            "CREATE TRIGGER IF NOT EXISTS storage_usage_fyle_message_join_AFTER_UPDATE_SIZE AFTER UPDATE OF `size` ON `fyle_message_join_with_status` WHEN NEW.`size` != OLD.`size` BEGIN " +
+                    " UPDATE `storage_usage_fyle_table` SET " +
+                    " `size` = (SELECT MAX(FMjoin.`size`) FROM `fyle_message_join_with_status` AS FMjoin " +
+                    " INNER JOIN `message_table` AS mess ON mess.`id` = FMjoin.`message_id` " +
+                    " WHERE mess.`discussion_id` = `storage_usage_fyle_table`.`discussion_id` AND FMjoin.`fyle_id` = NEW.`fyle_id`) " +
+                    " WHERE `discussion_id` = (SELECT `discussion_id` FROM `message_table` WHERE `id` = NEW.`message_id`) AND `fyle_id` = NEW.`fyle_id`; " +
+                    " END",
+            "CREATE TRIGGER IF NOT EXISTS storage_usage_message_BEFORE_DELETE BEFORE DELETE ON `message_table` BEGIN " +
+                    " UPDATE `storage_usage_fyle_table` SET `ref_count` = `ref_count` - 1, " +
+                    " `size` = IFNULL((SELECT MAX(FMjoin.`size`) FROM `fyle_message_join_with_status` AS FMjoin " +
+                    " INNER JOIN `message_table` AS mess ON mess.`id` = FMjoin.`message_id` " +
+                    " WHERE mess.`discussion_id` = OLD.`discussion_id` AND mess.`id` != OLD.`id` AND FMjoin.`fyle_id` = `storage_usage_fyle_table`.`fyle_id`), `size`) " +
+                    " WHERE `discussion_id` = OLD.`discussion_id` AND `fyle_id` IN (SELECT `fyle_id` FROM `fyle_message_join_with_status` WHERE `message_id` = OLD.`id`); " +
+                    " DELETE FROM `storage_usage_fyle_table` " +
+                    " WHERE `discussion_id` = OLD.`discussion_id` AND `ref_count` <= 0 AND `fyle_id` IN (SELECT `fyle_id` FROM `fyle_message_join_with_status` WHERE `message_id` = OLD.`id`); " +
+                    " END",
+            "CREATE TRIGGER IF NOT EXISTS storage_usage_fyle_AFTER_UPDATE_FILE_PATH AFTER UPDATE OF `permanent_file_path` ON `fyle_table` " +
+                    " WHEN (OLD.`permanent_file_path` IS NULL) != (NEW.`permanent_file_path` IS NULL) BEGIN " +
+                    " UPDATE `storage_usage_fyle_table` SET `complete` = NEW.`permanent_file_path` IS NOT NULL WHERE `fyle_id` = NEW.`id`; " +
+                    " END",
+
+            // storage_usage_fyle_table --> discussion_storage_usage_table
+            "CREATE TRIGGER IF NOT EXISTS discussion_storage_usage_AFTER_INSERT AFTER INSERT ON `storage_usage_fyle_table` WHEN NEW.`complete` BEGIN " +
+                    " INSERT OR IGNORE INTO `discussion_storage_usage_table` (`discussion_id`, `bytes_owned_identity`, `total_size`) VALUES (NEW.`discussion_id`, NEW.`bytes_owned_identity`, 0); " +
+                    " UPDATE `discussion_storage_usage_table` SET `total_size` = `total_size` + NEW.`size` WHERE `discussion_id` = NEW.`discussion_id`; " +
+                    " END",
+            "CREATE TRIGGER IF NOT EXISTS discussion_storage_usage_AFTER_UPDATE AFTER UPDATE ON `storage_usage_fyle_table` " +
+                    " WHEN OLD.`complete` != NEW.`complete` OR OLD.`size` != NEW.`size` BEGIN " +
+                    " INSERT OR IGNORE INTO `discussion_storage_usage_table` (`discussion_id`, `bytes_owned_identity`, `total_size`) VALUES (NEW.`discussion_id`, NEW.`bytes_owned_identity`, 0); " +
+                    " UPDATE `discussion_storage_usage_table` SET `total_size` = `total_size` - OLD.`size` * OLD.`complete` + NEW.`size` * NEW.`complete` WHERE `discussion_id` = NEW.`discussion_id`; " +
+                    " END",
+            "CREATE TRIGGER IF NOT EXISTS discussion_storage_usage_AFTER_DELETE AFTER DELETE ON `storage_usage_fyle_table` WHEN OLD.`complete` BEGIN " +
+                    " UPDATE `discussion_storage_usage_table` SET `total_size` = `total_size` - OLD.`size` WHERE `discussion_id` = OLD.`discussion_id`; " +
+                    " END",
+        )
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ *  Olvid for Android
+ *  Copyright © 2019-2026 Olvid SAS
+ *
+ *  This file is part of Olvid for Android.
+ *
+ *  Olvid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License, version 3,
+ *  as published by the Free Software Foundation.
+ *
+ *  Olvid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with Olvid.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.olvid.messenger.databases.entity
+
+import androidx.room.ColumnInfo
+import androidx.room.Entity
+import androidx.room.PrimaryKey
+
+// progress of the incremental (re-)indexing of an FTS table, see FtsIndexer
+// rows with a rowid above maxRowid were inserted after indexing was scheduled and are indexed by the FTS triggers
+@Entity(tableName = FtsIndexingProgress.TABLE_NAME)
+data class FtsIndexingProgress(
+    @PrimaryKey @ColumnInfo(name = FTS_TABLE_NAME) val ftsTableName: String,
+    @ColumnInfo(name = LAST_INDEXED_ROWID) var lastIndexedRowid: Long,
+    @ColumnInfo(name = MAX_ROWID) val maxRowid: Long,
+    @ColumnInfo(name = INDEXED_COUNT) var indexedCount: Long,
+    @ColumnInfo(name = INDEXING_DURATION) var indexingDuration: Long,
+) {
+    companion object {
+        const val TABLE_NAME: String = "fts_indexing_progress_table"
+        const val FTS_TABLE_NAME: String = "fts_table_name"
+        const val LAST_INDEXED_ROWID: String = "last_indexed_rowid"
+        const val MAX_ROWID: String = "max_rowid"
+        const val INDEXED_COUNT: String = "indexed_count"
+        const val INDEXING_DURATION: String = "indexing_duration"
+    }
+
+    // approximate, some rowids in the range may have been deleted
+    fun backlog(): Long = (maxRowid - lastIndexedRowid).coerceAtLeast(0)
+
+    // in rows per second
+    fun throughput(): Double = if (indexingDuration == 0L) 0.0 else indexedCount * 1000.0 / indexingDuration
+}
@@ -35,6 +35,7 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
 import java.util.Objects;
 
 import io.olvid.engine.encoder.Encoded;
@@ -43,6 +44,7 @@ import io.olvid.messenger.customClasses.PreviewUtils;
 import io.olvid.messenger.customClasses.TextBlockKt;
 import io.olvid.messenger.databases.AppDatabase;
 import io.olvid.messenger.databases.dao.FyleMessageJoinWithStatusDao;
+import io.olvid.messenger.discussion.compose.VoiceMessageRecorder;
 import io.olvid.messenger.discussion.compose.WaveformExtractor;
 import io.olvid.messenger.discussion.linkpreview.OpenGraph;
 import io.olvid.messenger.google_services.GoogleTextRecognizer;
@@ -76,6 +78,8 @@ import kotlinx.coroutines.Dispatchers;
                 @Index({FyleMessageJoinWithStatus.BYTES_OWNED_IDENTITY}),
                 @Index(FyleMessageJoinWithStatus.SIZE),
                 @Index(FyleMessageJoinWithStatus.MIME_TYPE),
+                @Index({FyleMessageJoinWithStatus.MESSAGE_ID, FyleMessageJoinWithStatus.MEDIA_CATEGORY}),
+                @Index({FyleMessageJoinWithStatus.BYTES_OWNED_IDENTITY, FyleMessageJoinWithStatus.MEDIA_CATEGORY}),
         }
 )
 public class FyleMessageJoinWithStatus {
@@ -97,6 +101,7 @@ public class FyleMessageJoinWithStatus {
     public static final String MINI_PREVIEW = "mini_preview";
     public static final String WAS_OPENED = "audio_played"; // this name is legacy, but actually corresponds to the attachment having been opened (used for return receipts)
     public static final String RECEPTION_STATUS = "reception_status";
+    public static final String MEDIA_CATEGORY = "media_category"; // computed from the MIME type and file name at creation, so galleries can filter on an index instead of MIME type LIKE scans
 
     public static final int STATUS_DOWNLOADABLE = 0;
     public static final int STATUS_DOWNLOADING = 1;
@@ -115,6 +120,13 @@ public class FyleMessageJoinWithStatus {
     public static final int RECEPTION_STATUS_DELIVERED_ALL_READ_ALL = 5;
     public static final int RECEPTION_STATUS_CANCELLED = 6;
 
+    public static final int MEDIA_CATEGORY_DOCUMENT = 0;
+    public static final int MEDIA_CATEGORY_IMAGE = 1;
+    public static final int MEDIA_CATEGORY_VIDEO = 2;
+    public static final int MEDIA_CATEGORY_AUDIO = 3;
+    public static final int MEDIA_CATEGORY_VOICE = 4;
+    public static final int MEDIA_CATEGORY_LINK = 5;
+
     @ColumnInfo(name = FYLE_ID)
     public final long fyleId;
 
@@ -172,6 +184,9 @@ public class FyleMessageJoinWithStatus {
     @ColumnInfo(name = RECEPTION_STATUS)
     public int receptionStatus;
 
+    @ColumnInfo(name = MEDIA_CATEGORY)
+    public int mediaCategory;
+
     // default constructor required by Room (do not use internally)
     public FyleMessageJoinWithStatus(long fyleId, long messageId, @NonNull byte[] bytesOwnedIdentity, @NonNull String filePath, @NonNull String fileName, boolean textExtracted, @Nullable String textContent, @Nullable String mimeType, int status, long size, @Nullable byte[] engineMessageIdentifier, @Nullable Integer engineNumber, @Nullable String imageResolution, @Nullable byte[] miniPreview, boolean wasOpened, int receptionStatus) {
         this.fyleId = fyleId;
@@ -190,6 +205,7 @@ public class FyleMessageJoinWithStatus {
         this.miniPreview = miniPreview;
         this.wasOpened = wasOpened;
         this.receptionStatus = receptionStatus;
+        this.mediaCategory = computeMediaCategory(mimeType, fileName);
     }
 
     @Ignore
@@ -207,6 +223,29 @@ public class FyleMessageJoinWithStatus {
         this.imageResolution = imageResolution;
         this.miniPreview = null;
         this.wasOpened = false;
+        this.mediaCategory = computeMediaCategory(mimeType, fileName);
+    }
+
+    // keep in sync with the backfill in the 85 to 86 migration
+    public static int computeMediaCategory(@Nullable String mimeType, @Nullable String fileName) {
+        if (mimeType == null) {
+            return MEDIA_CATEGORY_DOCUMENT;
+        }
+        if (OpenGraph.MIME_TYPE.equals(mimeType)) {
+            return MEDIA_CATEGORY_LINK;
+        }
+        String lowerCaseMimeType = mimeType.toLowerCase(Locale.ENGLISH);
+        if (lowerCaseMimeType.startsWith("audio/")) {
+            if (fileName != null && fileName.toLowerCase(Locale.ENGLISH).contains(VoiceMessageRecorder.AUDIO_FILE_NAME_SUFFIX)) {
+                return MEDIA_CATEGORY_VOICE;
+            }
+            return MEDIA_CATEGORY_AUDIO;
+        } else if (lowerCaseMimeType.startsWith("video/")) {
+            return MEDIA_CATEGORY_VIDEO;
+        } else if (lowerCaseMimeType.startsWith("image/")) {
+            return MEDIA_CATEGORY_IMAGE;
+        }
+        return MEDIA_CATEGORY_DOCUMENT;
     }
 
 
@@ -0,0 +1,68 @@
+/*
+ *  Olvid for Android
+ *  Copyright © 2019-2026 Olvid SAS
+ *
+ *  This file is part of Olvid for Android.
+ *
+ *  Olvid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License, version 3,
+ *  as published by the Free Software Foundation.
+ *
+ *  Olvid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with Olvid.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.olvid.messenger.databases.entity
+
+import androidx.room.ColumnInfo
+import androidx.room.Entity
+import androidx.room.ForeignKey
+import androidx.room.ForeignKey.Companion.CASCADE
+import androidx.room.Index
+
+// one row per distinct fyle attached to a discussion, maintained by the DiscussionStorageUsage.TRIGGERS
+// refCount is the number of messages of the discussion having this fyle as attachment
+@Entity(
+    tableName = StorageUsageFyle.TABLE_NAME,
+    primaryKeys = [StorageUsageFyle.DISCUSSION_ID, StorageUsageFyle.FYLE_ID],
+    foreignKeys = [
+        ForeignKey(
+            entity = Discussion::class,
+            parentColumns = ["id"],
+            childColumns = [StorageUsageFyle.DISCUSSION_ID],
+            onDelete = CASCADE
+        ),
+        ForeignKey(
+            entity = Fyle::class,
+            parentColumns = ["id"],
+            childColumns = [StorageUsageFyle.FYLE_ID],
+            onDelete = CASCADE
+        )],
+    indices = [
+        Index(StorageUsageFyle.FYLE_ID),
+        Index(StorageUsageFyle.BYTES_OWNED_IDENTITY, StorageUsageFyle.FYLE_ID),
+    ]
+)
+data class StorageUsageFyle(
+    @ColumnInfo(name = DISCUSSION_ID) val discussionId: Long,
+    @ColumnInfo(name = FYLE_ID) val fyleId: Long,
+    @ColumnInfo(name = BYTES_OWNED_IDENTITY) val bytesOwnedIdentity: ByteArray,
+    @ColumnInfo(name = SIZE) val size: Long,
+    @ColumnInfo(name = COMPLETE) val complete: Boolean,
+    @ColumnInfo(name = REF_COUNT) val refCount: Int,
+) {
+    companion object {
+        const val TABLE_NAME: String = "storage_usage_fyle_table"
+        const val DISCUSSION_ID: String = "discussion_id"
+        const val FYLE_ID: String = "fyle_id"
+        const val BYTES_OWNED_IDENTITY: String = "bytes_owned_identity"
+        const val SIZE: String = "size"
+        const val COMPLETE: String = "complete"
+        const val REF_COUNT: String = "ref_count"
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ *  Olvid for Android
+ *  Copyright © 2019-2026 Olvid SAS
+ *
+ *  This file is part of Olvid for Android.
+ *
+ *  Olvid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License, version 3,
+ *  as published by the Free Software Foundation.
+ *
+ *  Olvid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with Olvid.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.olvid.messenger.discussion
+
+import androidx.paging.PagingSource
+import androidx.paging.PagingState
+import androidx.room.InvalidationTracker
+import io.olvid.messenger.databases.AppDatabase
+import io.olvid.messenger.databases.entity.Message
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
+
+
+data class MessagePagingKey(val sortIndex: Double, val messageId: Long) {
+    companion object {
+        // key of a fictitious message newer than all messages
+        val NEWEST = MessagePagingKey(Double.MAX_VALUE, Long.MAX_VALUE)
+
+        fun of(message: Message) = MessagePagingKey(message.sortIndex, message.id)
+    }
+}
+
+// Keyset PagingSource for the messages of a discussion, newest first.
+// Unlike Room's LIMIT/OFFSET PagingSource, each page is fetched by seeking the (sort_index, id) index from the message
+// at the edge of the previous page, so loading a page deep in a long discussion (or reloading after an insert) costs the
+// same as loading the first one.
+// - keys of Append loads are the last (oldest) loaded message, keys of Prepend loads the first (newest) one
+// - a Refresh is centered on its key. The consumeAnchor lambda can override the refresh key to jump to a given message
+// - no placeholders: counting the messages on each side of a page is O(N) and a Refresh happens on every insert
+class DiscussionMessagesPagingSource(
+    private val discussionId: Long,
+    private val hideGroupMemberChanges: Boolean,
+    private val consumeAnchor: () -> MessagePagingKey?,
+) : PagingSource<MessagePagingKey, Message>() {
+    private val db = AppDatabase.getInstance()
+
+    private val invalidationObserver = object : InvalidationTracker.Observer(Message.TABLE_NAME) {
+        override fun onInvalidated(tables: Set<String>) {
+            invalidate()
+        }
+    }
+
+    init {
+        db.invalidationTracker.addObserver(invalidationObserver)
+        registerInvalidatedCallback {
+            db.invalidationTracker.removeObserver(invalidationObserver)
+        }
+    }
+
+    override fun getRefreshKey(state: PagingState<MessagePagingKey, Message>): MessagePagingKey? {
+        return state.anchorPosition?.let { anchorPosition ->
+            state.closestItemToPosition(anchorPosition)?.let { MessagePagingKey.of(it) }
+        }
+    }
+
+    override suspend fun load(params: LoadParams<MessagePagingKey>): LoadResult<MessagePagingKey, Message> {
+        return withContext(Dispatchers.IO) {
+            try {
+                val dao = db.messageDao()
+                when (params) {
+                    is LoadParams.Refresh -> {
+                        val key = (consumeAnchor() ?: params.key)?.takeIf { it != MessagePagingKey.NEWEST }
+                        val newer = if (key == null) {
+                            emptyList()
+                        } else {
+                            dao.getDiscussionMessagesNewerThan(discussionId, hideGroupMemberChanges, key.sortIndex, key.messageId, params.loadSize / 2).asReversed()
+                        }
+                        // the older messages include the message of the key itself
+                        val olderKey = key?.let { MessagePagingKey(it.sortIndex, it.messageId + 1) } ?: MessagePagingKey.NEWEST
+                        val older = dao.getDiscussionMessagesOlderThan(discussionId, hideGroupMemberChanges, olderKey.sortIndex, olderKey.messageId, params.loadSize - newer.size)
+                        val data = newer + older
+                        // a page shorter than requested on either side means that end of the discussion is reached (at worst,
+                        // a full page exactly at the end costs one extra empty load)
+                        LoadResult.Page(
+                            data = data,
+                            prevKey = if (key == null || newer.size < params.loadSize / 2) null else data.firstOrNull()?.let { MessagePagingKey.of(it) },
+                            nextKey = if (older.size < params.loadSize - newer.size) null else data.lastOrNull()?.let { MessagePagingKey.of(it) },
+                        )
+                    }
+
+                    is LoadParams.Append -> {
+                        val key = params.key
+                        val data = dao.getDiscussionMessagesOlderThan(discussionId, hideGroupMemberChanges, key.sortIndex, key.messageId, params.loadSize)
+                        LoadResult.Page(
+                            data = data,
+                            prevKey = data.firstOrNull()?.let { MessagePagingKey.of(it) },
+                            nextKey = if (data.size < params.loadSize) null else MessagePagingKey.of(data.last()),
+                        )
+                    }
+
+                    is LoadParams.Prepend -> {
+                        val key = params.key
+                        val data = dao.getDiscussionMessagesNewerThan(discussionId, hideGroupMemberChanges, key.sortIndex, key.messageId, params.loadSize).asReversed()
+                        LoadResult.Page(
+                            data = data,
+                            prevKey = if (data.size < params.loadSize) null else MessagePagingKey.of(data.first()),
+                            nextKey = data.lastOrNull()?.let { MessagePagingKey.of(it) },
+                        )
+                    }
+                }
+            } catch (e: Exception) {
+                LoadResult.Error(e)
+            }
+        }
+    }
+}
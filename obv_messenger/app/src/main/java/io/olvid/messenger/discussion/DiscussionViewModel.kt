@@ -74,6 +74,7 @@ import kotlinx.coroutines.DelicateCoroutinesApi
 import kotlinx.coroutines.GlobalScope
 import kotlinx.coroutines.flow.Flow
 import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicReference
 import kotlin.math.min
 
 
@@ -153,14 +154,40 @@ class DiscussionViewModel : ViewModel(), DiscussionDelegate {
 
     private fun getPagedMessagesWithoutGroupMemberChanges(discussionId: Long) =
         Pager(PagingConfig(pageSize = 100, prefetchDistance = 300)) {
-            db.messageDao().getDiscussionMessagesWithoutGroupMemberChangesPaged(discussionId)
+            DiscussionMessagesPagingSource(discussionId, true) { pagingAnchor.getAndSet(null) }.also { currentPagingSource = it }
         }.liveData
 
     private fun getPagedMessages(discussionId: Long) =
         Pager(PagingConfig(pageSize = 100, prefetchDistance = 300)) {
-            db.messageDao().getDiscussionMessagesPaged(discussionId)
+            DiscussionMessagesPagingSource(discussionId, false) { pagingAnchor.getAndSet(null) }.also { currentPagingSource = it }
         }.liveData
 
+    private val pagingAnchor = AtomicReference<MessagePagingKey?>(null)
+    @Volatile
+    private var currentPagingSource: DiscussionMessagesPagingSource? = null
+
+    // reload the paged messages centered on a given message, instead of paging through all messages in between
+    fun anchorPagedMessagesAt(messageId: Long) {
+        App.runThread {
+            val message = db.messageDao().get(messageId)
+            if (message == null || message.discussionId != discussionId) {
+                // the message no longer exists, cancel the scroll request
+                Handler(Looper.getMainLooper()).post {
+                    if (scrollToMessageRequest.messageId == messageId) {
+                        scrollToMessageRequest = ScrollRequest.None
+                    }
+                }
+                return@runThread
+            }
+            anchorPagedMessages(MessagePagingKey.of(message))
+        }
+    }
+
+    fun anchorPagedMessages(key: MessagePagingKey) {
+        pagingAnchor.set(key)
+        currentPagingSource?.invalidate()
+    }
+
     // endregion
     val invitations: LiveData<List<Invitation>> =
         discussion.switchMap { discussion: Discussion? ->
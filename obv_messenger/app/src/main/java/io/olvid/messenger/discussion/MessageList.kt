@@ -163,6 +163,10 @@ fun MessageList(
         mutableLongStateOf(-1L)
     }
 
+    var anchoredScrollRequest by remember {
+        mutableStateOf<DiscussionActivity.ScrollRequest?>(null)
+    }
+
     // this method returns true if the messageId was found and a scroll was indeed initiated
     // if it returns false, it attempts to load more messages
     suspend fun scrollTo(scrollRequest: DiscussionActivity.ScrollRequest): Boolean {
@@ -190,6 +194,11 @@ fun MessageList(
                 }
                 highlightMessageId =
                     if (scrollRequest.highlight) scrollRequest.messageId else -1L
+            } else if (anchoredScrollRequest != scrollRequest) {
+                // the message is not loaded: reload the messages around it instead of paging through all messages in between
+                anchoredScrollRequest = scrollRequest
+                discussionViewModel.anchorPagedMessagesAt(scrollRequest.messageId)
+                return false
             } else {
                 val firstNull = snapshot.indexOfFirst { it == null }
                 if (firstNull != -1) {
@@ -220,6 +229,10 @@ fun MessageList(
         when (discussionViewModel.scrollToMessageRequest) {
             DiscussionActivity.ScrollRequest.None -> Unit
             DiscussionActivity.ScrollRequest.ToBottom -> {
+                if (!messages.loadState.prepend.endOfPaginationReached) {
+                    // the newest messages are not loaded (after jumping to an old message), reload them directly
+                    discussionViewModel.anchorPagedMessages(MessagePagingKey.NEWEST)
+                }
                 lazyListState.animateScrollToItem(0)
                 discussionViewModel.scrollToMessageRequest = DiscussionActivity.ScrollRequest.None
             }
@@ -228,6 +241,7 @@ fun MessageList(
                 if (messages.itemCount > 0 && scrollTo(discussionViewModel.scrollToMessageRequest)) {
                     // if the scroll was successful, reset the scroll request
                     discussionViewModel.scrollToMessageRequest = DiscussionActivity.ScrollRequest.None
+                    anchoredScrollRequest = null
                 }
             }
         }
@@ -41,12 +41,19 @@ import io.olvid.messenger.R
 import io.olvid.messenger.customClasses.StringUtils
 import io.olvid.messenger.customClasses.StringUtils2
 import io.olvid.messenger.customClasses.fullTextSearchEscape
+import io.olvid.messenger.customClasses.likePatternEscape
 import io.olvid.messenger.databases.AppDatabase
+import io.olvid.messenger.databases.FtsIndexer
+import io.olvid.messenger.databases.FullTextSearchRanking
 import io.olvid.messenger.databases.GlobalSearchTokenizer
 import io.olvid.messenger.databases.dao.FyleMessageJoinWithStatusDao.FyleAndOrigin
+import io.olvid.messenger.databases.dao.GlobalSearchDao.SearchHit
 import io.olvid.messenger.databases.dao.MessageDao.DiscussionAndMessage
 import io.olvid.messenger.databases.entity.Contact
 import io.olvid.messenger.databases.entity.Discussion
+import io.olvid.messenger.databases.entity.FyleMessageJoinWithStatus
+import io.olvid.messenger.databases.entity.Message
+import io.olvid.messenger.settings.SettingsActivity
 import io.olvid.messenger.viewModels.FilteredDiscussionListViewModel.SearchableDiscussion
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.Job
@@ -55,6 +62,7 @@ import kotlinx.coroutines.awaitAll
 import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.supervisorScope
+import kotlinx.coroutines.withContext
 import java.util.concurrent.CancellationException
 
 class GlobalSearchViewModel : ViewModel() {
@@ -86,12 +94,14 @@ class GlobalSearchViewModel : ViewModel() {
             ?.split("\\s+".toRegex())
             ?.filter { it.isNotEmpty() }
             ?.map { Regex.fromLiteral(StringUtils.unAccent(it)) }
-        val tokenizedQuery = GlobalSearchTokenizer.tokenize(text).fullTextSearchEscape()
+        val tokens = GlobalSearchTokenizer.tokenize(text)
+        val tokenizedQuery = tokens.fullTextSearchEscape()
+        val likePattern = tokens.takeIf { it.isNotEmpty() }?.likePatternEscape()
         searchJob = viewModelScope.launch {
             supervisorScope {
-                searchMessages(bytesOwnedIdentity, tokenizedQuery)
-                searchFyles(bytesOwnedIdentity, tokenizedQuery)
-                searchLinks(bytesOwnedIdentity, tokenizedQuery)
+                searchMessages(bytesOwnedIdentity, tokenizedQuery, likePattern)
+                searchFyles(bytesOwnedIdentity, tokenizedQuery, likePattern)
+                searchLinks(bytesOwnedIdentity, tokenizedQuery, likePattern)
                 val deferredSearches = listOf(
                     async(Dispatchers.IO) {
                         searchContacts(bytesOwnedIdentity)
@@ -195,57 +205,189 @@ class GlobalSearchViewModel : ViewModel() {
         otherDiscussionsFound = otherDiscussions
     }
 
-    private fun searchMessages(bytesOwnedIdentity: ByteArray, tokenizedQuery: String) {
-        messagesFound = pager(MESSAGE_SEARCH_LIMIT) { offset ->
-            AppDatabase.getInstance().globalSearchDao().messageGlobalSearch(
-                bytesOwnedIdentity,
-                tokenizedQuery,
-                MESSAGE_SEARCH_LIMIT,
-                offset)
+    private fun searchMessages(bytesOwnedIdentity: ByteArray, tokenizedQuery: String, likePattern: String?) {
+        val globalSearchDao = AppDatabase.getInstance().globalSearchDao()
+        messagesFound = if (SettingsActivity.globalSearchSortByRelevance()) {
+            rankedPager(
+                searchLimit = MESSAGE_SEARCH_LIMIT,
+                loadHits = {
+                    val hits = globalSearchDao.messageGlobalSearchHits(bytesOwnedIdentity, tokenizedQuery)
+                    val unindexedRange = likePattern?.let { unindexedRange(Message.FTS_TABLE_NAME) }
+                    if (unindexedRange == null || likePattern == null) {
+                        hits
+                    } else {
+                        val hitIds = hits.mapTo(HashSet()) { it.id }
+                        hits + globalSearchDao.messageGlobalSearchUnindexedHits(bytesOwnedIdentity, likePattern, unindexedRange.first, unindexedRange.second)
+                            .filter { !hitIds.contains(it.id) }
+                    }
+                }
+            ) { hits ->
+                val messages = globalSearchDao.messagesForGlobalSearch(hits.map { it.id }).associateBy { it.message.id }
+                hits.mapNotNull { messages[it.id] }
+            }
+        } else {
+            keysetPager(
+                searchLimit = MESSAGE_SEARCH_LIMIT,
+                keyOf = { SearchKey(it.message.timestamp, it.message.id, 0) }
+            ) { key ->
+                val messages = globalSearchDao.messageGlobalSearch(bytesOwnedIdentity, tokenizedQuery, key.timestamp, key.messageId, MESSAGE_SEARCH_LIMIT)
+                val unindexedRange = likePattern?.let { unindexedRange(Message.FTS_TABLE_NAME) }
+                if (unindexedRange == null || likePattern == null) {
+                    messages
+                } else {
+                    mergeByKey(
+                        indexed = messages,
+                        unindexed = globalSearchDao.messageGlobalSearchUnindexed(bytesOwnedIdentity, likePattern, unindexedRange.first, unindexedRange.second, key.timestamp, key.messageId, MESSAGE_SEARCH_LIMIT),
+                        keyOf = { SearchKey(it.message.timestamp, it.message.id, 0) },
+                        limit = MESSAGE_SEARCH_LIMIT
+                    )
+                }
+            }
         }.flow.cachedIn(viewModelScope)
     }
 
-    private fun searchFyles(bytesOwnedIdentity: ByteArray, tokenizedQuery: String) {
-        fylesFound = pager(ATTACHMENT_SEARCH_LIMIT) { offset ->
-            AppDatabase.getInstance().globalSearchDao().attachmentsGlobalSearch(bytesOwnedIdentity, tokenizedQuery, ATTACHMENT_SEARCH_LIMIT, offset)
-        }.flow.cachedIn(viewModelScope)
+    private fun searchFyles(bytesOwnedIdentity: ByteArray, tokenizedQuery: String, likePattern: String?) {
+        fylesFound = attachmentPager(bytesOwnedIdentity, tokenizedQuery, likePattern, false).flow.cachedIn(viewModelScope)
     }
 
-    private fun searchLinks(bytesOwnedIdentity: ByteArray, tokenizedQuery: String) {
-        linksFound = pager(ATTACHMENT_SEARCH_LIMIT) { offset ->
-            AppDatabase.getInstance().globalSearchDao().linksGlobalSearch(bytesOwnedIdentity, tokenizedQuery, ATTACHMENT_SEARCH_LIMIT, offset)
-        }.flow.cachedIn(viewModelScope)
+    private fun searchLinks(bytesOwnedIdentity: ByteArray, tokenizedQuery: String, likePattern: String?) {
+        linksFound = attachmentPager(bytesOwnedIdentity, tokenizedQuery, likePattern, true).flow.cachedIn(viewModelScope)
+    }
+
+    private fun attachmentPager(bytesOwnedIdentity: ByteArray, tokenizedQuery: String, likePattern: String?, links: Boolean): Pager<*, FyleAndOrigin> {
+        val globalSearchDao = AppDatabase.getInstance().globalSearchDao()
+        val keyOf = { fyleAndOrigin: FyleAndOrigin -> SearchKey(fyleAndOrigin.message.timestamp, fyleAndOrigin.message.id, fyleAndOrigin.fyleAndStatus.fyleMessageJoinWithStatus.fyleId) }
+        return if (SettingsActivity.globalSearchSortByRelevance()) {
+            rankedPager(
+                searchLimit = ATTACHMENT_SEARCH_LIMIT,
+                loadHits = {
+                    val hits = globalSearchDao.attachmentsGlobalSearchHits(bytesOwnedIdentity, tokenizedQuery, links)
+                    val unindexedRange = likePattern?.let { unindexedRange(FyleMessageJoinWithStatus.FTS_TABLE_NAME) }
+                    if (unindexedRange == null || likePattern == null) {
+                        hits
+                    } else {
+                        val hitIds = hits.mapTo(HashSet()) { it.id to it.fyleId }
+                        hits + globalSearchDao.attachmentsGlobalSearchUnindexedHits(bytesOwnedIdentity, likePattern, links, unindexedRange.first, unindexedRange.second)
+                            .filter { !hitIds.contains(it.id to it.fyleId) }
+                    }
+                }
+            ) { hits ->
+                val attachments = globalSearchDao.attachmentsForGlobalSearch(hits.map { it.id }.distinct())
+                    .associateBy { it.message.id to it.fyleAndStatus.fyleMessageJoinWithStatus.fyleId }
+                hits.mapNotNull { attachments[it.id to it.fyleId] }
+            }
+        } else {
+            keysetPager(
+                searchLimit = ATTACHMENT_SEARCH_LIMIT,
+                keyOf = keyOf
+            ) { key ->
+                val attachments = if (links) {
+                    globalSearchDao.linksGlobalSearch(bytesOwnedIdentity, tokenizedQuery, key.timestamp, key.messageId, key.fyleId, ATTACHMENT_SEARCH_LIMIT)
+                } else {
+                    globalSearchDao.attachmentsGlobalSearch(bytesOwnedIdentity, tokenizedQuery, key.timestamp, key.messageId, key.fyleId, ATTACHMENT_SEARCH_LIMIT)
+                }
+                val unindexedRange = likePattern?.let { unindexedRange(FyleMessageJoinWithStatus.FTS_TABLE_NAME) }
+                if (unindexedRange == null || likePattern == null) {
+                    attachments
+                } else {
+                    mergeByKey(
+                        indexed = attachments,
+                        unindexed = globalSearchDao.attachmentsGlobalSearchUnindexed(bytesOwnedIdentity, likePattern, links, unindexedRange.first, unindexedRange.second, key.timestamp, key.messageId, key.fyleId, ATTACHMENT_SEARCH_LIMIT),
+                        keyOf = keyOf,
+                        limit = ATTACHMENT_SEARCH_LIMIT
+                    )
+                }
+            }
+        }
+    }
+
+    // position of the last result of a page, in (timestamp DESC, messageId DESC, fyleId DESC) order
+    data class SearchKey(val timestamp: Long, val messageId: Long, val fyleId: Long) : Comparable<SearchKey> {
+        companion object {
+            val FIRST = SearchKey(Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE)
+        }
+
+        override fun compareTo(other: SearchKey): Int {
+            return compareValuesBy(this, other, { it.timestamp }, { it.messageId }, { it.fyleId })
+        }
     }
 
-    private fun <T : Any>pager(
+    // rows not yet indexed by the FtsIndexer are searched with a LIKE scan of their rowid range
+    private suspend fun unindexedRange(ftsTableName: String): Pair<Long, Long>? {
+        return withContext(Dispatchers.IO) {
+            FtsIndexer.getUnindexedRange(ftsTableName)
+        }
+    }
+
+    // rows indexed by the FTS triggers may be found by both searches
+    private fun <T : Any> mergeByKey(indexed: List<T>, unindexed: List<T>, keyOf: (T) -> SearchKey, limit: Int): List<T> {
+        if (unindexed.isEmpty()) {
+            return indexed
+        }
+        return (indexed + unindexed)
+            .distinctBy(keyOf)
+            .sortedByDescending(keyOf)
+            .take(limit)
+    }
+
+    private fun <T : Any> keysetPager(
         searchLimit: Int,
-        loadData: suspend (offset: Int) -> List<T>
+        keyOf: (T) -> SearchKey,
+        loadData: suspend (key: SearchKey) -> List<T>
     ) = Pager(
         config = PagingConfig(
             pageSize = searchLimit,
             prefetchDistance = 3 * searchLimit
         )
     ) {
-        object : PagingSource<Int, T>() {
-            override fun getRefreshKey(state: PagingState<Int, T>): Int? {
-                return state.anchorPosition?.let { anchorPosition ->
-                    val anchorPage = state.closestPageToPosition(anchorPosition)
-                    anchorPage?.prevKey?.plus(searchLimit)
-                        ?: anchorPage?.nextKey?.minus(
-                            searchLimit
-                        )
-                }
+        object : PagingSource<SearchKey, T>() {
+            // results are only ever appended, a refresh restarts from the most recent result
+            override fun getRefreshKey(state: PagingState<SearchKey, T>): SearchKey? = null
+
+            override suspend fun load(params: LoadParams<SearchKey>): LoadResult<SearchKey, T> {
+                val data = loadData(params.key ?: SearchKey.FIRST)
+                return Page(
+                    data = data,
+                    prevKey = null,
+                    nextKey = if (data.size < searchLimit) null else keyOf(data.last())
+                )
             }
+        }
+    }
+
+    private fun <T : Any> rankedPager(
+        searchLimit: Int,
+        loadHits: suspend () -> List<SearchHit>,
+        loadData: suspend (hits: List<SearchHit>) -> List<T>
+    ) = Pager(
+        config = PagingConfig(
+            pageSize = searchLimit,
+            prefetchDistance = 3 * searchLimit
+        )
+    ) {
+        object : PagingSource<Int, T>() {
+            // the MATCH is only run once, then pages are loaded from the ranked hits
+            private var rankedHits: List<SearchHit>? = null
+
+            override fun getRefreshKey(state: PagingState<Int, T>): Int? = null
 
             override suspend fun load(params: LoadParams<Int>): LoadResult<Int, T> {
+                val hits = rankedHits ?: withContext(Dispatchers.Default) {
+                    loadHits()
+                        .map { it to FullTextSearchRanking.bm25(it.matchInfo) }
+                        .sortedWith(compareByDescending<Pair<SearchHit, Double>> { it.second }.thenByDescending { it.first.timestamp })
+                        .map { it.first }
+                }.also { rankedHits = it }
+
                 val offset = params.key ?: 0
-                val data = loadData(offset)
+                val end = (offset + searchLimit).coerceAtMost(hits.size)
+                val data = if (offset < end) loadData(hits.subList(offset, end)) else emptyList()
                 return Page(
                     data = data,
-                    prevKey = if (offset == 0) null else offset - searchLimit,
-                    nextKey = if (data.size < searchLimit) null else offset + searchLimit
+                    prevKey = null,
+                    nextKey = if (end >= hits.size) null else end
                 )
             }
         }
     }
-}
\ No newline at end of file
+}
@@ -60,6 +60,7 @@ import java.util.zip.ZipOutputStream;
 import io.olvid.engine.Logger;
 import io.olvid.engine.datatypes.Constants;
 import io.olvid.engine.datatypes.Session;
+import io.olvid.engine.engine.types.EngineCacheStatisticsEntry;
 import io.olvid.engine.engine.types.EngineDbQueryStatisticsEntry;
 import io.olvid.messenger.App;
 import io.olvid.messenger.AppSingleton;
@@ -188,12 +189,20 @@ public class OtherPreferenceFragment extends PreferenceFragmentCompat {
                 engineDbTimings.setVisible(true);
                 engineDbTimings.setOnPreferenceClickListener((Preference preference) -> {
                     StringBuilder sb = new StringBuilder();
-                    sb.append("query,count,time_µs\n");
+                    sb.append("query,count,time_µs,stmt_cache_hits,stmt_cache_misses\n");
                     ArrayList<Map.Entry<String, EngineDbQueryStatisticsEntry>> entries = new ArrayList<>(AppSingleton.getEngine().getEngineDbQueryStatistics().entrySet());
                     entries.sort(Comparator.comparingLong(e -> -e.getValue().totalTimeMicro));
                     for (Map.Entry<String, EngineDbQueryStatisticsEntry> entry : entries) {
+                        sb.append(String.format(Locale.ENGLISH, "%s,%d,%d,%d,%d\n", entry.getKey(), entry.getValue().count, entry.getValue().totalTimeMicro, entry.getValue().preparedStatementCacheHits, entry.getValue().preparedStatementCacheMisses));
+                    }
+                    sb.append("\nwait,count,time_µs\n");
+                    for (Map.Entry<String, EngineDbQueryStatisticsEntry> entry : AppSingleton.getEngine().getEngineDbLockWaitStatistics().entrySet()) {
                         sb.append(String.format(Locale.ENGLISH, "%s,%d,%d\n", entry.getKey(), entry.getValue().count, entry.getValue().totalTimeMicro));
                     }
+                    sb.append("\ncache,hits,misses,size\n");
+                    for (Map.Entry<String, EngineCacheStatisticsEntry> entry : AppSingleton.getEngine().getEngineCacheStatistics().entrySet()) {
+                        sb.append(String.format(Locale.ENGLISH, "%s,%d,%d,%d\n", entry.getKey(), entry.getValue().hits, entry.getValue().misses, entry.getValue().size));
+                    }
                     String stats = sb.toString();
                     AlertDialog dialog = new SecureAlertDialogBuilder(activity, R.style.CustomAlertDialog)
                             .setTitle(R.string.dialog_title_engine_db_statistics)
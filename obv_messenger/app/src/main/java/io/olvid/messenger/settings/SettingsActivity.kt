@@ -786,6 +786,9 @@ class SettingsActivity : LockableActivity(), OnPreferenceStartFragmentCallback {
         const val PREF_KEY_USE_INTERNAL_PDF_VIEWER: String = "pref_key_use_internal_pdf_viewer"
         const val PREF_KEY_USE_INTERNAL_PDF_VIEWER_DEFAULT: Boolean = true
 
+        const val PREF_KEY_GLOBAL_SEARCH_SORT_BY_RELEVANCE: String = "pref_key_global_search_sort_by_relevance"
+        const val PREF_KEY_GLOBAL_SEARCH_SORT_BY_RELEVANCE_DEFAULT: Boolean = false
+
         const val PREF_KEY_PREFERRED_KEYCLOAK_BROWSER: String =
             "pref_key_preferred_keycloak_browser"
 
@@ -1979,6 +1982,13 @@ class SettingsActivity : LockableActivity(), OnPreferenceStartFragmentCallback {
             )
         }
 
+        @JvmStatic
+        fun globalSearchSortByRelevance(): Boolean {
+            return PreferenceManager.getDefaultSharedPreferences(App.getContext()).getBoolean(
+                PREF_KEY_GLOBAL_SEARCH_SORT_BY_RELEVANCE, PREF_KEY_GLOBAL_SEARCH_SORT_BY_RELEVANCE_DEFAULT
+            )
+        }
+
         @JvmStatic
         fun usePermanentWebSocket(): Boolean {
             return PreferenceManager.getDefaultSharedPreferences(App.getContext()).getBoolean(
@@ -0,0 +1,165 @@
+/*
+ *  Olvid for Android
+ *  Copyright © 2019-2026 Olvid SAS
+ *
+ *  This file is part of Olvid for Android.
+ *
+ *  Olvid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License, version 3,
+ *  as published by the Free Software Foundation.
+ *
+ *  Olvid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with Olvid.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package io.olvid.messenger.customClasses
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Test
+import java.nio.ByteBuffer
+import kotlin.random.Random
+
+class ByteArrayMapTest {
+
+    private fun key(i: Int): ByteArray = ByteBuffer.allocate(4).putInt(i).array()
+
+    // same spreading as ByteArrayMap, to choose keys falling in a given slot
+    private fun slot(key: ByteArray, mask: Int): Int {
+        val hash = key.contentHashCode()
+        return (hash xor (hash ushr 16)) and mask
+    }
+
+    @Test
+    fun `with and get - values are found by content, not identity`() {
+        val map = ByteArrayMap.empty<String>()
+            .with(byteArrayOf(1, 2, 3), "a")
+            .with(byteArrayOf(4, 5), "b")
+
+        assertEquals(2, map.size)
+        assertEquals("a", map[byteArrayOf(1, 2, 3)])
+        assertEquals("b", map[byteArrayOf(4, 5)])
+        assertNull(map[byteArrayOf(1, 2)])
+        assertNull(map[null])
+    }
+
+    @Test
+    fun `with and without - the original map is not modified`() {
+        val original = ByteArrayMap.empty<String>().with(key(1), "a")
+        val replaced = original.with(key(1), "b")
+        val added = original.with(key(2), "c")
+        val removed = original.without(key(1))
+
+        assertEquals("a", original[key(1)])
+        assertNull(original[key(2)])
+        assertEquals(1, original.size)
+        assertEquals("b", replaced[key(1)])
+        assertEquals(1, replaced.size)
+        assertEquals(2, added.size)
+        assertEquals(0, removed.size)
+        assertNull(removed[key(1)])
+        assertSame(original, original.without(key(3)))
+    }
+
+    @Test
+    fun `colliding hash codes - all keys are kept apart`() {
+        // 31 * (31 + a) + b is the same for all these keys
+        val keys = listOf(byteArrayOf(0, 31), byteArrayOf(1, 0), byteArrayOf(2, -31))
+        assertEquals(1, keys.map { it.contentHashCode() }.distinct().size)
+
+        var map = ByteArrayMap.empty<Int>()
+        keys.forEachIndexed { index, key -> map = map.with(key, index) }
+        keys.forEachIndexed { index, key -> assertEquals(index, map[key]) }
+
+        map = map.without(keys[1])
+        assertEquals(2, map.size)
+        assertEquals(0, map[keys[0]])
+        assertNull(map[keys[1]])
+        assertEquals(2, map[keys[2]])
+
+        map = map.with(keys[1], 10)
+        assertEquals(10, map[keys[1]])
+    }
+
+    @Test
+    fun `without - entries wrapping around the end of the table are shifted back`() {
+        // 3 keys give a table of 8 slots: choose keys which all want the last slot, so that they occupy slots 7, 0 and 1
+        val mask = 7
+        val lastSlotKeys = (0 until 100_000).asSequence().map { key(it) }.filter { slot(it, mask) == mask }.take(3).toList()
+        // and a key wanting slot 0, pushed to slot 2
+        val firstSlotKey = (0 until 100_000).asSequence().map { key(it) }.first { slot(it, mask) == 0 }
+
+        var map = ByteArrayMap.empty<String>()
+        lastSlotKeys.forEachIndexed { index, key -> map = map.with(key, "last$index") }
+        map = map.with(firstSlotKey, "first")
+        assertEquals(4, map.size)
+
+        for (removedIndex in lastSlotKeys.indices) {
+            val removed = map.without(lastSlotKeys[removedIndex])
+            assertEquals(3, removed.size)
+            assertNull(removed[lastSlotKeys[removedIndex]])
+            lastSlotKeys.forEachIndexed { index, key ->
+                if (index != removedIndex) {
+                    assertEquals("last$index", removed[key])
+                }
+            }
+            assertEquals("first", removed[firstSlotKey])
+        }
+    }
+
+    @Test
+    fun `with - the table grows as entries are added`() {
+        var map = ByteArrayMap.empty<Int>()
+        for (i in 0 until 1_000) {
+            map = map.with(key(i), i)
+            assertEquals(i + 1, map.size)
+        }
+        for (i in 0 until 1_000) {
+            assertEquals(i, map[key(i)])
+        }
+        assertNull(map[key(1_000)])
+
+        // a map created by a Builder grows the same way
+        val builder = ByteArrayMap.Builder<Int>(2)
+        builder.put(key(0), 0).put(key(1), 1)
+        var built = builder.build()
+        for (i in 2 until 100) {
+            built = built.with(key(i), i)
+        }
+        for (i in 0 until 100) {
+            assertEquals(i, built[key(i)])
+        }
+    }
+
+    @Test
+    fun `random operations - agree with a HashMap`() {
+        val random = Random(42)
+        // a small key space, so that keys are often replaced and removed, plus 5 keys with the same hash code
+        val keySpace = (0 until 64).map { key(it) } + (0 until 5).map { byteArrayOf(it.toByte(), (31 - 31 * it).toByte()) }
+        val reference = HashMap<BytesKey, Int>()
+        var map = ByteArrayMap.empty<Int>()
+
+        repeat(20_000) { step ->
+            val key = keySpace[random.nextInt(keySpace.size)]
+            if (random.nextInt(3) == 0) {
+                map = map.without(key)
+                reference.remove(BytesKey(key))
+            } else {
+                map = map.with(key, step)
+                reference[BytesKey(key)] = step
+            }
+            assertEquals(reference.size, map.size)
+            assertEquals(reference[BytesKey(key)], map[key])
+            if (step % 100 == 0) {
+                for (k in keySpace) {
+                    assertEquals(reference[BytesKey(k)], map[k])
+                }
+            }
+        }
+    }
+}
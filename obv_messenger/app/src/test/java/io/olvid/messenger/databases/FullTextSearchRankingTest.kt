@@ -0,0 +1,66 @@
+/*
+ *  Olvid for Android
+ *  Copyright © 2019-2026 Olvid SAS
+ *
+ *  This file is part of Olvid for Android.
+ *
+ *  Olvid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License, version 3,
+ *  as published by the Free Software Foundation.
+ *
+ *  Olvid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with Olvid.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.olvid.messenger.databases
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+class FullTextSearchRankingTest {
+
+    // builds a 'pcnalx' matchinfo for a single phrase and a single column
+    private fun matchInfo(rowCount: Int, averageLength: Int, length: Int, hitsInRow: Int, rowsWithHits: Int): ByteArray {
+        val values = intArrayOf(1, 1, rowCount, averageLength, length, hitsInRow, hitsInRow * rowsWithHits, rowsWithHits)
+        val buffer = ByteBuffer.allocate(4 * values.size).order(ByteOrder.nativeOrder())
+        values.forEach { buffer.putInt(it) }
+        return buffer.array()
+    }
+
+    @Test
+    fun `bm25 - more occurrences rank higher`() {
+        val once = FullTextSearchRanking.bm25(matchInfo(1000, 10, 10, 1, 50))
+        val twice = FullTextSearchRanking.bm25(matchInfo(1000, 10, 10, 2, 50))
+        assertTrue(once > 0)
+        assertTrue(twice > once)
+    }
+
+    @Test
+    fun `bm25 - rarer terms rank higher`() {
+        val rare = FullTextSearchRanking.bm25(matchInfo(1000, 10, 10, 1, 2))
+        val common = FullTextSearchRanking.bm25(matchInfo(1000, 10, 10, 1, 900))
+        assertTrue(rare > common)
+        assertTrue(common > 0)
+    }
+
+    @Test
+    fun `bm25 - shorter rows rank higher`() {
+        val short = FullTextSearchRanking.bm25(matchInfo(1000, 10, 5, 1, 50))
+        val long = FullTextSearchRanking.bm25(matchInfo(1000, 10, 100, 1, 50))
+        assertTrue(short > long)
+    }
+
+    @Test
+    fun `bm25 - malformed matchinfo scores zero`() {
+        assertEquals(0.0, FullTextSearchRanking.bm25(ByteArray(0)), 0.0)
+        assertEquals(0.0, FullTextSearchRanking.bm25(matchInfo(1000, 10, 10, 1, 50).copyOf(20)), 0.0)
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ *  Olvid for Android
+ *  Copyright © 2019-2026 Olvid SAS
+ *
+ *  This file is part of Olvid for Android.
+ *
+ *  Olvid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License, version 3,
+ *  as published by the Free Software Foundation.
+ *
+ *  Olvid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with Olvid.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.olvid.messenger.databases.dao
+
+import io.olvid.messenger.databases.entity.Message
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Assume.assumeTrue
+import org.junit.Before
+import org.junit.Test
+import java.sql.Connection
+import java.sql.DriverManager
+import kotlin.random.Random
+
+// pages through a discussion with the MessageDao keyset queries the way DiscussionMessagesPagingSource does, and checks
+// every message is visited exactly once, in order, even when several messages share the same sort_index
+class DiscussionMessagesKeysetTest {
+    companion object {
+        private const val DISCUSSION_ID = 1L
+        private const val OTHER_DISCUSSION_ID = 2L
+
+        // the SQL of MessageDao.getDiscussionMessagesOlderThan/NewerThan. Room named parameters are also understood by
+        // sqlite-jdbc, bound in order of first appearance: discussionId, hideGroupMemberChanges, sortIndex, messageId, count
+        private const val OLDER_THAN_QUERY = "SELECT id, " + Message.SORT_INDEX + " FROM " + Message.TABLE_NAME +
+                MessageDao.DISCUSSION_MESSAGES_PAGING_FILTER +
+                MessageDao.OLDER_THAN_KEY +
+                " ORDER BY " + Message.SORT_INDEX + " DESC, id DESC " +
+                " LIMIT :count"
+        private const val NEWER_THAN_QUERY = "SELECT id, " + Message.SORT_INDEX + " FROM " + Message.TABLE_NAME +
+                MessageDao.DISCUSSION_MESSAGES_PAGING_FILTER +
+                MessageDao.NEWER_THAN_KEY +
+                " ORDER BY " + Message.SORT_INDEX + " ASC, id ASC " +
+                " LIMIT :count"
+
+        private const val LOAD_SIZE = 30
+    }
+
+    private data class Key(val sortIndex: Double, val messageId: Long)
+
+    private lateinit var connection: Connection
+
+    @Before
+    fun setUp() {
+        connection = DriverManager.getConnection("jdbc:sqlite::memory:")
+        connection.createStatement().use { statement ->
+            // only the columns used by the paging queries, with the index they rely on
+            statement.execute("CREATE TABLE `message_table` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, `discussion_id` INTEGER NOT NULL, `sort_index` REAL NOT NULL, `status` INTEGER NOT NULL, `message_type` INTEGER NOT NULL)")
+            statement.execute("CREATE INDEX `index_message_table_discussion_id_sort_index` ON `message_table` (`discussion_id`, `sort_index`)")
+        }
+    }
+
+    @After
+    fun tearDown() {
+        connection.close()
+    }
+
+    private fun insertMessages(count: Int, random: Random) {
+        connection.autoCommit = false
+        connection.prepareStatement("INSERT INTO `message_table` (`discussion_id`, `sort_index`, `status`, `message_type`) VALUES (?, ?, ?, ?)").use { statement ->
+            repeat(count) {
+                // few distinct sort_index values so that many messages share the same one, inserted in random order
+                statement.setLong(1, if (random.nextInt(5) == 0) OTHER_DISCUSSION_ID else DISCUSSION_ID)
+                statement.setDouble(2, random.nextInt(count / 4 + 1).toDouble())
+                statement.setInt(3, if (random.nextInt(10) == 0) Message.STATUS_DRAFT else Message.STATUS_SENT)
+                statement.setInt(4, when (random.nextInt(10)) {
+                    0 -> Message.TYPE_GROUP_MEMBER_JOINED
+                    1 -> Message.TYPE_GROUP_MEMBER_LEFT
+                    else -> Message.TYPE_OUTBOUND_MESSAGE
+                })
+                statement.executeUpdate()
+            }
+        }
+        connection.commit()
+        connection.autoCommit = true
+    }
+
+    private fun query(sql: String, hideGroupMemberChanges: Boolean, key: Key, count: Int): List<Key> {
+        connection.prepareStatement(sql).use { statement ->
+            statement.setLong(1, DISCUSSION_ID)
+            statement.setBoolean(2, hideGroupMemberChanges)
+            statement.setDouble(3, key.sortIndex)
+            statement.setLong(4, key.messageId)
+            statement.setInt(5, count)
+            statement.executeQuery().use { resultSet ->
+                val keys = mutableListOf<Key>()
+                while (resultSet.next()) {
+                    keys.add(Key(resultSet.getDouble(2), resultSet.getLong(1)))
+                }
+                return keys
+            }
+        }
+    }
+
+    private fun older(hideGroupMemberChanges: Boolean, key: Key, count: Int) = query(OLDER_THAN_QUERY, hideGroupMemberChanges, key, count)
+
+    private fun newer(hideGroupMemberChanges: Boolean, key: Key, count: Int) = query(NEWER_THAN_QUERY, hideGroupMemberChanges, key, count).asReversed()
+
+    private fun allMessages(hideGroupMemberChanges: Boolean): List<Key> {
+        val keys = mutableListOf<Key>()
+        connection.createStatement().use { statement ->
+            statement.executeQuery("SELECT id, sort_index FROM `message_table` WHERE `discussion_id` = $DISCUSSION_ID AND `status` != ${Message.STATUS_DRAFT} " +
+                    (if (hideGroupMemberChanges) " AND `message_type` NOT IN (${Message.TYPE_GROUP_MEMBER_JOINED}, ${Message.TYPE_GROUP_MEMBER_LEFT}) " else "") +
+                    " ORDER BY `sort_index` DESC, `id` DESC").use { resultSet ->
+                while (resultSet.next()) {
+                    keys.add(Key(resultSet.getDouble(2), resultSet.getLong(1)))
+                }
+            }
+        }
+        return keys
+    }
+
+    // same Refresh/Prepend/Append logic as DiscussionMessagesPagingSource, returns all messages from newest to oldest
+    private fun pageAround(hideGroupMemberChanges: Boolean, key: Key?): List<Key> {
+        val refreshNewer = if (key == null) emptyList() else newer(hideGroupMemberChanges, key, LOAD_SIZE / 2)
+        val olderKey = key?.let { Key(it.sortIndex, it.messageId + 1) } ?: Key(Double.MAX_VALUE, Long.MAX_VALUE)
+        val refreshOlder = older(hideGroupMemberChanges, olderKey, LOAD_SIZE - refreshNewer.size)
+        val pages = ArrayDeque<Key>(refreshNewer + refreshOlder)
+
+        var prevKey = if (key == null || refreshNewer.size < LOAD_SIZE / 2) null else pages.firstOrNull()
+        var nextKey = if (refreshOlder.size < LOAD_SIZE - refreshNewer.size) null else pages.lastOrNull()
+        while (prevKey != null) {
+            val data = newer(hideGroupMemberChanges, prevKey, LOAD_SIZE)
+            pages.addAll(0, data)
+            prevKey = if (data.size < LOAD_SIZE) null else data.first()
+        }
+        while (nextKey != null) {
+            val data = older(hideGroupMemberChanges, nextKey, LOAD_SIZE)
+            pages.addAll(data)
+            nextKey = if (data.size < LOAD_SIZE) null else data.last()
+        }
+        return pages
+    }
+
+    @Test
+    fun `paging visits every message once and in order`() {
+        val random = Random(42)
+        insertMessages(2000, random)
+
+        for (hideGroupMemberChanges in listOf(false, true)) {
+            val expected = allMessages(hideGroupMemberChanges)
+            assertTrue(expected.size > 10 * LOAD_SIZE)
+
+            assertEquals("from the bottom", expected, pageAround(hideGroupMemberChanges, null))
+            // anchored on the first and last message, exactly one page from an end, and on random messages
+            val anchors = listOf(0, expected.size - 1, LOAD_SIZE / 2, expected.size - LOAD_SIZE / 2 - 1) + List(20) { random.nextInt(expected.size) }
+            for (anchor in anchors) {
+                assertEquals("anchored at $anchor", expected, pageAround(hideGroupMemberChanges, expected[anchor]))
+            }
+        }
+    }
+
+    @Test
+    fun `paging an empty discussion`() {
+        assertEquals(emptyList<Key>(), pageAround(false, null))
+        assertEquals(emptyList<Key>(), pageAround(true, Key(12.0, 3)))
+    }
+
+    // opt-in: run with -Polvid.benchmark=true
+    @Test
+    fun `benchmark deep pages, keyset vs offset`() {
+        assumeTrue(java.lang.Boolean.getBoolean("olvid.benchmark"))
+        insertMessages(200_000, Random(0))
+        val messages = allMessages(false)
+        val depth = messages.size - LOAD_SIZE - 1
+        val offsetQuery = "SELECT id, sort_index FROM `message_table` WHERE `discussion_id` = $DISCUSSION_ID AND `status` != ${Message.STATUS_DRAFT} " +
+                " ORDER BY `sort_index` DESC, `id` DESC LIMIT $LOAD_SIZE OFFSET $depth"
+
+        repeat(3) {
+            var start = System.nanoTime()
+            repeat(100) {
+                assertEquals(LOAD_SIZE, older(false, messages[depth], LOAD_SIZE).size)
+            }
+            val keysetMicros = (System.nanoTime() - start) / 100_000
+            start = System.nanoTime()
+            repeat(100) {
+                connection.createStatement().use { statement -> statement.executeQuery(offsetQuery).use { it.next() } }
+            }
+            val offsetMicros = (System.nanoTime() - start) / 100_000
+            println("page at depth $depth: keyset ${keysetMicros}µs, offset ${offsetMicros}µs")
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ *  Olvid for Android
+ *  Copyright © 2019-2026 Olvid SAS
+ *
+ *  This file is part of Olvid for Android.
+ *
+ *  Olvid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU Affero General Public License, version 3,
+ *  as published by the Free Software Foundation.
+ *
+ *  Olvid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License
+ *  along with Olvid.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.olvid.messenger.databases.entity
+
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+import java.sql.Connection
+import java.sql.DriverManager
+
+// the aggregates maintained by the DiscussionStorageUsage.TRIGGERS must always match the GROUP BY queries they replace
+class DiscussionStorageUsageTest {
+    companion object {
+        private val OWNED_IDENTITY_A = byteArrayOf(0x0a)
+        private val OWNED_IDENTITY_B = byteArrayOf(0x0b)
+
+        private const val OLD_DISCUSSION_USAGE_QUERY = "SELECT deduped.dedupDiscId, SUM(deduped.maxSize) FROM (" +
+                " SELECT mess.`discussion_id` AS dedupDiscId, MAX(FMjoin.`size`) AS maxSize " +
+                " FROM `fyle_message_join_with_status` AS FMjoin " +
+                " INNER JOIN `fyle_table` AS fyle ON fyle.`id` = FMjoin.`fyle_id` " +
+                " INNER JOIN `message_table` AS mess ON mess.`id` = FMjoin.`message_id` " +
+                " WHERE fyle.`permanent_file_path` IS NOT NULL " +
+                " GROUP BY mess.`discussion_id`, fyle.`sha256` " +
+                ") AS deduped GROUP BY deduped.dedupDiscId ORDER BY deduped.dedupDiscId"
+        private const val DISCUSSION_USAGE_QUERY = "SELECT `discussion_id`, `total_size` FROM `discussion_storage_usage_table` " +
+                " WHERE `total_size` > 0 ORDER BY `discussion_id`"
+
+        private const val OLD_IDENTITY_USAGE_QUERY = "SELECT COALESCE(SUM(deduped.maxSize), 0) FROM (" +
+                " SELECT MAX(FMjoin.`size`) AS maxSize " +
+                " FROM `fyle_message_join_with_status` AS FMjoin " +
+                " INNER JOIN `fyle_table` AS fyle ON fyle.`id` = FMjoin.`fyle_id` " +
+                " INNER JOIN `message_table` AS mess ON mess.`id` = FMjoin.`message_id` " +
+                " INNER JOIN `discussion_table` AS disc ON disc.`id` = mess.`discussion_id` " +
+                " WHERE disc.`bytes_owned_identity` = ? AND fyle.`permanent_file_path` IS NOT NULL " +
+                " GROUP BY fyle.`sha256`) AS deduped"
+        private const val IDENTITY_USAGE_QUERY = "SELECT COALESCE(SUM(deduped.maxSize), 0) FROM (" +
+                " SELECT MAX(`size`) AS maxSize FROM `storage_usage_fyle_table` " +
+                " WHERE `bytes_owned_identity` = ? AND `complete` = 1 GROUP BY `fyle_id`) AS deduped"
+
+        private const val OLD_FYLE_USAGE_QUERY = "SELECT mess.`discussion_id`, FMjoin.`fyle_id`, MAX(FMjoin.`size`), fyle.`permanent_file_path` IS NOT NULL, COUNT(*) " +
+                " FROM `fyle_message_join_with_status` AS FMjoin " +
+                " INNER JOIN `message_table` AS mess ON mess.`id` = FMjoin.`message_id` " +
+                " INNER JOIN `fyle_table` AS fyle ON fyle.`id` = FMjoin.`fyle_id` " +
+                " GROUP BY mess.`discussion_id`, FMjoin.`fyle_id` ORDER BY mess.`discussion_id`, FMjoin.`fyle_id`"
+        private const val FYLE_USAGE_QUERY = "SELECT `discussion_id`, `fyle_id`, `size`, `complete`, `ref_count` FROM `storage_usage_fyle_table` " +
+                " ORDER BY `discussion_id`, `fyle_id`"
+    }
+
+    private lateinit var connection: Connection
+
+    @Before
+    fun setUp() {
+        connection = DriverManager.getConnection("jdbc:sqlite::memory:")
+        connection.createStatement().use { statement ->
+            statement.execute("PRAGMA foreign_keys = ON")
+            // only the columns used by the triggers and the storage queries
+            statement.execute("CREATE TABLE `discussion_table` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, `bytes_owned_identity` BLOB NOT NULL)")
+            statement.execute("CREATE TABLE `message_table` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, `discussion_id` INTEGER NOT NULL, FOREIGN KEY(`discussion_id`) REFERENCES `discussion_table`(`id`) ON UPDATE NO ACTION ON DELETE CASCADE )")
+            statement.execute("CREATE TABLE `fyle_table` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, `permanent_file_path` TEXT, `sha256` BLOB)")
+            statement.execute("CREATE UNIQUE INDEX `index_fyle_table_sha256` ON `fyle_table` (`sha256`)")
+            statement.execute("CREATE TABLE `fyle_message_join_with_status` (`fyle_id` INTEGER NOT NULL, `message_id` INTEGER NOT NULL, `bytes_owned_identity` BLOB NOT NULL, `size` INTEGER NOT NULL, PRIMARY KEY(`fyle_id`, `message_id`), FOREIGN KEY(`fyle_id`) REFERENCES `fyle_table`(`id`) ON UPDATE NO ACTION ON DELETE CASCADE , FOREIGN KEY(`message_id`) REFERENCES `message_table`(`id`) ON UPDATE NO ACTION ON DELETE CASCADE )")
+            statement.execute("CREATE TABLE `storage_usage_fyle_table` (`discussion_id` INTEGER NOT NULL, `fyle_id` INTEGER NOT NULL, `bytes_owned_identity` BLOB NOT NULL, `size` INTEGER NOT NULL, `complete` INTEGER NOT NULL, `ref_count` INTEGER NOT NULL, PRIMARY KEY(`discussion_id`, `fyle_id`), FOREIGN KEY(`discussion_id`) REFERENCES `discussion_table`(`id`) ON UPDATE NO ACTION ON DELETE CASCADE , FOREIGN KEY(`fyle_id`) REFERENCES `fyle_table`(`id`) ON UPDATE NO ACTION ON DELETE CASCADE )")
+            statement.execute("CREATE TABLE `discussion_storage_usage_table` (`discussion_id` INTEGER NOT NULL, `bytes_owned_identity` BLOB NOT NULL, `total_size` INTEGER NOT NULL, PRIMARY KEY(`discussion_id`), FOREIGN KEY(`discussion_id`) REFERENCES `discussion_table`(`id`) ON UPDATE NO ACTION ON DELETE CASCADE )")
+            DiscussionStorageUsage.TRIGGERS.forEach { statement.execute(it) }
+        }
+    }
+
+    @After
+    fun tearDown() {
+        connection.close()
+    }
+
+    private fun execute(sql: String, vararg args: Any?) {
+        connection.prepareStatement(sql).use { statement ->
+            args.forEachIndexed { index, arg -> statement.setObject(index + 1, arg) }
+            statement.executeUpdate()
+        }
+    }
+
+    private fun query(sql: String, vararg args: Any?): List<List<Long>> {
+        connection.prepareStatement(sql).use { statement ->
+            args.forEachIndexed { index, arg -> statement.setObject(index + 1, arg) }
+            statement.executeQuery().use { resultSet ->
+                val rows = mutableListOf<List<Long>>()
+                while (resultSet.next()) {
+                    rows.add((1..resultSet.metaData.columnCount).map { resultSet.getLong(it) })
+                }
+                return rows
+            }
+        }
+    }
+
+    private fun insert(sql: String, vararg args: Any?): Long {
+        execute(sql, *args)
+        return query("SELECT last_insert_rowid()")[0][0]
+    }
+
+    private fun discussion(bytesOwnedIdentity: ByteArray): Long =
+        insert("INSERT INTO `discussion_table` (`bytes_owned_identity`) VALUES (?)", bytesOwnedIdentity)
+
+    private fun message(discussionId: Long): Long =
+        insert("INSERT INTO `message_table` (`discussion_id`) VALUES (?)", discussionId)
+
+    private fun fyle(sha256: Byte): Long =
+        insert("INSERT INTO `fyle_table` (`sha256`) VALUES (?)", byteArrayOf(sha256))
+
+    private fun attach(fyleId: Long, messageId: Long, size: Long) {
+        execute("INSERT INTO `fyle_message_join_with_status` (`fyle_id`, `message_id`, `bytes_owned_identity`, `size`) " +
+                " SELECT ?, ?, disc.`bytes_owned_identity`, ? FROM `message_table` AS mess " +
+                " INNER JOIN `discussion_table` AS disc ON disc.`id` = mess.`discussion_id` WHERE mess.`id` = ?", fyleId, messageId, size, messageId)
+    }
+
+    private fun setComplete(fyleId: Long, complete: Boolean) {
+        execute("UPDATE `fyle_table` SET `permanent_file_path` = ? WHERE `id` = ?", if (complete) "fyles/$fyleId" else null, fyleId)
+    }
+
+    private fun resize(fyleId: Long, messageId: Long, size: Long) {
+        execute("UPDATE `fyle_message_join_with_status` SET `size` = ? WHERE `fyle_id` = ? AND `message_id` = ?", size, fyleId, messageId)
+    }
+
+    private fun assertAggregatesMatch(step: String) {
+        assertEquals(step, query(OLD_FYLE_USAGE_QUERY), query(FYLE_USAGE_QUERY))
+        assertEquals(step, query(OLD_DISCUSSION_USAGE_QUERY), query(DISCUSSION_USAGE_QUERY))
+        for (bytesOwnedIdentity in listOf(OWNED_IDENTITY_A, OWNED_IDENTITY_B)) {
+            assertEquals(step, query(OLD_IDENTITY_USAGE_QUERY, bytesOwnedIdentity), query(IDENTITY_USAGE_QUERY, bytesOwnedIdentity))
+        }
+    }
+
+    @Test
+    fun `aggregates match the group by queries`() {
+        val discussion1 = discussion(OWNED_IDENTITY_A)
+        val discussion2 = discussion(OWNED_IDENTITY_A)
+        val discussion3 = discussion(OWNED_IDENTITY_B)
+        val message1 = message(discussion1)
+        val message2 = message(discussion1)
+        val message3 = message(discussion2)
+        val message4 = message(discussion3)
+        val fyle1 = fyle(1)
+        val fyle2 = fyle(2)
+        val fyle3 = fyle(3)
+
+        // the same fyle in several messages and discussions
+        attach(fyle1, message1, 100)
+        attach(fyle1, message2, 150)
+        attach(fyle1, message3, 100)
+        attach(fyle1, message4, 100)
+        attach(fyle2, message1, 500)
+        attach(fyle3, message3, 70)
+        assertAggregatesMatch("insert")
+
+        setComplete(fyle1, true)
+        setComplete(fyle3, true)
+        assertAggregatesMatch("complete")
+        setComplete(fyle2, true)
+        assertAggregatesMatch("complete all")
+        assertEquals(listOf(listOf(discussion1, 650L), listOf(discussion2, 170L), listOf(discussion3, 100L)), query(DISCUSSION_USAGE_QUERY))
+
+        // sizes go up, and down when corrected after a download
+        resize(fyle1, message2, 400)
+        assertAggregatesMatch("size increase")
+        resize(fyle1, message2, 50)
+        assertAggregatesMatch("size decrease")
+        resize(fyle2, message1, 450)
+        assertAggregatesMatch("size decrease of the only reference")
+        assertEquals(listOf(listOf(discussion1, 550L), listOf(discussion2, 170L), listOf(discussion3, 100L)), query(DISCUSSION_USAGE_QUERY))
+
+        setComplete(fyle3, false)
+        assertAggregatesMatch("incomplete")
+
+        execute("DELETE FROM `fyle_message_join_with_status` WHERE `fyle_id` = ? AND `message_id` = ?", fyle1, message1)
+        assertAggregatesMatch("attachment delete")
+
+        resize(fyle1, message2, 300)
+        attach(fyle1, message1, 100)
+        execute("DELETE FROM `message_table` WHERE `id` = ?", message2)
+        assertAggregatesMatch("message delete")
+        assertEquals(listOf(listOf(discussion1, 550L), listOf(discussion2, 100L), listOf(discussion3, 100L)), query(DISCUSSION_USAGE_QUERY))
+
+        execute("DELETE FROM `discussion_table` WHERE `id` = ?", discussion2)
+        assertAggregatesMatch("discussion delete")
+        execute("DELETE FROM `message_table` WHERE `id` = ?", message1)
+        assertAggregatesMatch("last message delete")
+        assertEquals(listOf(listOf(discussion3, 100L)), query(DISCUSSION_USAGE_QUERY))
+    }
+}